@@ -0,0 +1,57 @@
+/**
+ * Copyright (C) 2013 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.galley;
+
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+
+import org.commonjava.maven.galley.event.EventMetadata;
+import org.commonjava.maven.galley.model.ConcreteResource;
+import org.commonjava.maven.galley.model.ListingResult;
+import org.commonjava.maven.galley.model.Transfer;
+import org.commonjava.maven.galley.model.VirtualResource;
+
+/**
+ * Non-blocking companion to {@link TransferManager}. Each method returns as soon as the underlying transport job has
+ * been started (or joined), and completes the returned future when that job does. Failures complete the future
+ * exceptionally, normally with a {@link TransferException} as the cause.
+ */
+public interface AsyncTransferManager
+{
+
+    CompletableFuture<Transfer> retrieveAsync( ConcreteResource resource );
+
+    CompletableFuture<Transfer> retrieveAsync( ConcreteResource resource, boolean suppressFailures );
+
+    CompletableFuture<Transfer> retrieveAsync( ConcreteResource resource, boolean suppressFailures,
+                                               EventMetadata eventMetadata );
+
+    CompletableFuture<Transfer> retrieveFirstAsync( VirtualResource resource );
+
+    CompletableFuture<Transfer> retrieveFirstAsync( VirtualResource resource, EventMetadata eventMetadata );
+
+    CompletableFuture<Boolean> existsAsync( ConcreteResource resource );
+
+    CompletableFuture<ListingResult> listAsync( ConcreteResource resource );
+
+    CompletableFuture<ListingResult> listAsync( ConcreteResource resource, EventMetadata metadata );
+
+    CompletableFuture<Boolean> publishAsync( ConcreteResource resource, InputStream stream, long length );
+
+    CompletableFuture<Boolean> publishAsync( ConcreteResource resource, InputStream stream, long length,
+                                             String contentType, EventMetadata eventMetadata );
+
+}
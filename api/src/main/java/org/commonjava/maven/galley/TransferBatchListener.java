@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) 2013 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.galley;
+
+import org.commonjava.maven.galley.model.ConcreteResource;
+import org.commonjava.maven.galley.model.Resource;
+import org.commonjava.maven.galley.model.Transfer;
+
+/**
+ * Receives the outcome of each resource in a batch retrieval as soon as it is known, rather than waiting for the
+ * whole {@link org.commonjava.maven.galley.model.TransferBatch} to finish. Callbacks are made one at a time from the
+ * thread that called batchRetrieve / batchRetrieveAll, so implementations don't need to be thread-safe, but they
+ * should return quickly since the next completion waits on them.
+ */
+public interface TransferBatchListener
+{
+
+    /**
+     * The given resource (the location that satisfied the batch entry) was retrieved.
+     */
+    void retrieved( ConcreteResource resource, Transfer transfer );
+
+    /**
+     * Retrieval of the given resource failed, and no further locations will be tried for its batch entry.
+     */
+    void failed( ConcreteResource resource, TransferException error );
+
+    /**
+     * None of the locations behind the given batch entry had the content.
+     */
+    void notFound( Resource resource );
+
+}
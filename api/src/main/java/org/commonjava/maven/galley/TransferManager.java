@@ -16,7 +16,9 @@
 package org.commonjava.maven.galley;
 
 import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
 import java.util.List;
+import java.util.stream.Stream;
 
 import org.commonjava.maven.galley.event.EventMetadata;
 import org.commonjava.maven.galley.model.ConcreteResource;
@@ -35,12 +37,27 @@ public interface TransferManager
     <T extends TransferBatch> T batchRetrieve( T batch , EventMetadata eventMetadata  )
         throws TransferException;
 
+    /**
+     * Same as {@link #batchRetrieve(TransferBatch, EventMetadata)}, but also reports each result to the listener as
+     * soon as it completes.
+     */
+    <T extends TransferBatch> T batchRetrieve( T batch, EventMetadata eventMetadata, TransferBatchListener listener )
+        throws TransferException;
+
     <T extends TransferBatch> T batchRetrieveAll( T batch )
     throws TransferException;
 
     <T extends TransferBatch> T batchRetrieveAll( T batch , EventMetadata eventMetadata  )
         throws TransferException;
 
+    /**
+     * Same as {@link #batchRetrieveAll(TransferBatch, EventMetadata)}, but also reports each result to the listener
+     * as soon as it completes.
+     */
+    <T extends TransferBatch> T batchRetrieveAll( T batch, EventMetadata eventMetadata,
+                                                  TransferBatchListener listener )
+        throws TransferException;
+
     Transfer retrieveFirst( VirtualResource resource )
         throws TransferException;
 
@@ -59,6 +76,14 @@ public interface TransferManager
     Transfer store( ConcreteResource resource, InputStream stream, EventMetadata eventMetadata )
         throws TransferException;
 
+    /**
+     * Store from a (blocking) channel, e.g. an upload socket. See {@link Transfer#storeFrom(ReadableByteChannel,
+     * org.commonjava.maven.galley.model.TransferOperation, EventMetadata)}; with a file-based cache the content is
+     * moved with transferFrom() rather than through heap buffers.
+     */
+    Transfer store( ConcreteResource resource, ReadableByteChannel channel, EventMetadata eventMetadata )
+        throws TransferException;
+
     Transfer getStoreRootDirectory( Location key );
 
     Transfer getCacheReference( ConcreteResource resource );
@@ -99,6 +124,20 @@ public interface TransferManager
     List<ListingResult> listAll( VirtualResource resource, EventMetadata metadata )
         throws TransferException;
 
+    /**
+     * Same content as {@link #list(ConcreteResource, EventMetadata)}, but as a sorted stream that reads cached
+     * listings lazily instead of building the whole listing in memory. The stream must be closed.
+     */
+    Stream<String> listStream( ConcreteResource resource, EventMetadata metadata )
+        throws TransferException;
+
+    /**
+     * Merged, sorted listing of all locations in the virtual resource, with each name appearing once. The per-location
+     * listings are merged lazily (k-way), so only the head of each is held in memory. The stream must be closed.
+     */
+    Stream<String> listStream( VirtualResource resource, EventMetadata metadata )
+        throws TransferException;
+
     boolean exists( ConcreteResource resource )
         throws TransferException;
 
@@ -0,0 +1,43 @@
+/**
+ * Copyright (C) 2013 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.galley.cache;
+
+import org.commonjava.maven.galley.model.ConcreteResource;
+
+/**
+ * Thrown by {@link SimpleLockingSupport} when a thread is interrupted while waiting for a lock. The lock is not
+ * granted, and the thread's interrupt flag stays set.
+ */
+public class LockInterruptedException
+    extends RuntimeException
+{
+
+    private static final long serialVersionUID = 1L;
+
+    private final ConcreteResource resource;
+
+    public LockInterruptedException( final ConcreteResource resource, final InterruptedException cause )
+    {
+        super( "Interrupted while waiting to lock: " + resource, cause );
+        this.resource = resource;
+    }
+
+    public ConcreteResource getResource()
+    {
+        return resource;
+    }
+
+}
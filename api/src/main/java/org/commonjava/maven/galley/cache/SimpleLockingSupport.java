@@ -15,12 +15,17 @@
  */
 package org.commonjava.maven.galley.cache;
 
-import java.lang.ref.WeakReference;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.enterprise.context.ApplicationScoped;
 
@@ -28,176 +33,355 @@ import org.commonjava.maven.galley.model.ConcreteResource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Per-resource read/write locks owned by threads. Any number of threads may hold the read lock of a resource while no
+ * other thread holds its write lock; the write lock excludes all other threads. Locks are not counted: taking a lock
+ * the thread already holds is a no-op, and one unlock releases it. A thread's own locks never block it, so a reader
+ * may take the write lock if it's the only holder.
+ * <p>
+ * Resources are spread over lock stripes, each guarding the state of its resources; waiters wait on a condition of
+ * the resource they want, so releasing one resource only wakes its own waiters. Each thread tracks what it holds, so
+ * {@link #cleanupCurrentThread()} touches only those locks. Locks of threads that died without releasing them are
+ * ignored.
+ */
 @ApplicationScoped
 public class SimpleLockingSupport
 {
 
+    private static final int STRIPES = 64;
+
+    private static final long WAIT_MILLIS = 500;
+
     private final Logger logger = LoggerFactory.getLogger( getClass() );
 
-    private final Map<ConcreteResource, WeakReference<Thread>> lock =
-        new HashMap<ConcreteResource, WeakReference<Thread>>();
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    private final ThreadLocal<Set<ConcreteResource>> held = new ThreadLocal<Set<ConcreteResource>>()
+    {
+        @Override
+        protected Set<ConcreteResource> initialValue()
+        {
+            return new HashSet<ConcreteResource>();
+        }
+    };
 
     private ReportingTask reporter;
 
     private final Timer timer = new Timer( true );
 
+    public SimpleLockingSupport()
+    {
+        for ( int i = 0; i < STRIPES; i++ )
+        {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * @throws LockInterruptedException if the thread is interrupted while waiting; the lock is not taken then
+     */
+    public void lockRead( final ConcreteResource resource )
+    {
+        acquire( resource, false );
+    }
+
+    /**
+     * @throws LockInterruptedException if the thread is interrupted while waiting; the lock is not taken then
+     */
+    public void lockWrite( final ConcreteResource resource )
+    {
+        acquire( resource, true );
+    }
+
+    /**
+     * Same as {@link #lockWrite(ConcreteResource)}.
+     */
+    public void lock( final ConcreteResource resource )
+    {
+        lockWrite( resource );
+    }
+
+    public void unlockRead( final ConcreteResource resource )
+    {
+        release( resource, true, false );
+    }
+
+    public void unlockWrite( final ConcreteResource resource )
+    {
+        release( resource, false, true );
+    }
+
+    /**
+     * Release whatever the current thread holds on the resource.
+     */
+    public void unlock( final ConcreteResource resource )
+    {
+        release( resource, true, true );
+    }
+
+    /**
+     * Wait until no other thread holds the write lock, i.e. until the resource may be read.
+     */
+    public void waitForReadUnlock( final ConcreteResource resource )
+    {
+        await( resource, false );
+    }
+
+    /**
+     * Wait until no other thread holds any lock, i.e. until the resource may be written.
+     */
+    public void waitForWriteUnlock( final ConcreteResource resource )
+    {
+        await( resource, true );
+    }
+
+    /**
+     * Same as {@link #waitForWriteUnlock(ConcreteResource)}.
+     */
     public void waitForUnlock( final ConcreteResource resource )
     {
-        synchronized ( lock )
+        waitForWriteUnlock( resource );
+    }
+
+    /**
+     * Whether any other thread holds a read lock on the resource.
+     */
+    public boolean isReadLocked( final ConcreteResource resource )
+    {
+        final Stripe stripe = stripeFor( resource );
+        stripe.lock.lock();
+        try
+        {
+            final LockState state = stripe.states.get( resource );
+            return state != null && state.hasOtherReaders();
+        }
+        finally
+        {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Whether another thread holds the write lock on the resource.
+     */
+    public boolean isWriteLocked( final ConcreteResource resource )
+    {
+        final Stripe stripe = stripeFor( resource );
+        stripe.lock.lock();
+        try
+        {
+            final LockState state = stripe.states.get( resource );
+            return state != null && state.hasOtherWriter();
+        }
+        finally
         {
-            while ( isLocked( resource ) )
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Whether another thread holds any lock on the resource.
+     */
+    public boolean isLocked( final ConcreteResource resource )
+    {
+        final Stripe stripe = stripeFor( resource );
+        stripe.lock.lock();
+        try
+        {
+            final LockState state = stripe.states.get( resource );
+            if ( state != null && !state.isFree( true ) )
             {
-                logger.debug( "{} waiting for unlock of {}", Thread.currentThread()
-                                                                   .getName(), resource );
-                try
-                {
-                    lock.wait( 500 );
-                }
-                catch ( final InterruptedException e )
-                {
-                    logger.debug( "{} interrupted while waiting for unlock of: {}", Thread.currentThread()
-                                                                                          .getName(), resource );
-                    break;
-                }
+                logger.debug( "{} locked by: {}", resource, state.describe() );
+                return true;
             }
+
+            return false;
+        }
+        finally
+        {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Release every lock held by the current thread.
+     */
+    public void cleanupCurrentThread()
+    {
+        final Set<ConcreteResource> mine = held.get();
+        for ( final ConcreteResource res : new HashSet<ConcreteResource>( mine ) )
+        {
+            logger.debug( "Cleaning up lock: {} for thread: {}", res, Thread.currentThread().getName() );
+            release( res, true, true );
         }
+
+        held.remove();
     }
 
-    public synchronized boolean isLocked( final ConcreteResource resource )
+    private void acquire( final ConcreteResource resource, final boolean write )
     {
-        final WeakReference<Thread> ref = lock.get( resource );
-        if ( ref != null )
+        final Thread me = Thread.currentThread();
+        final Stripe stripe = stripeFor( resource );
+        stripe.lock.lock();
+        try
         {
-            final Thread t = ref.get();
-            if ( t != null )
+            final LockState state = stripe.stateOf( resource );
+            try
             {
-                if ( t == Thread.currentThread() )
-                {
-                    return false;
-                }
+                waitUntilFree( resource, state, write );
+            }
+            catch ( final InterruptedException e )
+            {
+                stripe.removeIfIdle( resource, state );
+                Thread.currentThread().interrupt();
+                throw new LockInterruptedException( resource, e );
+            }
 
-                logger.debug( "{} locked by: {}", resource, t.getName() );
-                return true;
+            if ( write )
+            {
+                logger.debug( "Write-locking: {} in: {}.", resource, me.getName() );
+                state.writer = me;
             }
             else
             {
-                lock.remove( resource );
+                logger.debug( "Read-locking: {} in: {}.", resource, me.getName() );
+                state.readers.add( me );
             }
         }
+        finally
+        {
+            stripe.lock.unlock();
+        }
 
-        return false;
+        held.get().add( resource );
     }
 
-    public void unlock( final ConcreteResource resource )
+    private void release( final ConcreteResource resource, final boolean read, final boolean write )
     {
-        synchronized ( lock )
+        final Thread me = Thread.currentThread();
+        final Stripe stripe = stripeFor( resource );
+        stripe.lock.lock();
+        try
         {
-            final Thread me = Thread.currentThread();
-            final WeakReference<Thread> reference = lock.get( resource );
-            if ( reference == null || reference.get() == me )
+            final LockState state = stripe.states.get( resource );
+            if ( state == null )
             {
-                logger.debug( "Removing locked: {} by: {}. Returning.", resource, me.getName() );
-                lock.remove( resource );
-                lock.notifyAll();
+                return;
             }
-            else
+
+            if ( write && state.writer == me )
+            {
+                state.writer = null;
+            }
+            else if ( write && state.writer != null )
+            {
+                logger.debug( "{} write-locked by: {}. Returning.", resource, state.writer.getName() );
+            }
+
+            if ( read )
             {
-                logger.debug( "{} locked by: {}. Returning.", resource, reference.get()
-                                                                                 .getName() );
+                state.readers.remove( me );
             }
+
+            if ( state.writer != me && !state.readers.contains( me ) )
+            {
+                held.get().remove( resource );
+            }
+
+            state.changed.signalAll();
+            stripe.removeIfIdle( resource, state );
+        }
+        finally
+        {
+            stripe.lock.unlock();
         }
     }
 
-    public void lock( final ConcreteResource resource )
+    private void await( final ConcreteResource resource, final boolean write )
     {
-        synchronized ( lock )
+        final Stripe stripe = stripeFor( resource );
+        stripe.lock.lock();
+        try
         {
-            final Thread me = Thread.currentThread();
-            final WeakReference<Thread> reference = lock.get( resource );
-            if ( reference != null )
+            final LockState state = stripe.stateOf( resource );
+            try
             {
-                if ( reference.get() == me )
-                {
-                    logger.debug( "{} already locked by: {}. Returning.", resource, me.getName() );
-                    return;
-                }
-                else
-                {
-                    logger.debug( "{} already locked by: {}. Waiting.", resource, reference.get()
-                                                                                           .getName() );
-                    waitForUnlock( resource );
-                }
+                waitUntilFree( resource, state, write );
             }
-
-            logger.debug( "Locking: {} in: {}.", resource, me.getName() );
-            lock.put( resource, new WeakReference<Thread>( Thread.currentThread() ) );
-            lock.notifyAll();
+            catch ( final InterruptedException e )
+            {
+                // nothing is granted here, so an interrupt just ends the wait early, as it always has.
+                Thread.currentThread().interrupt();
+            }
+            stripe.removeIfIdle( resource, state );
+        }
+        finally
+        {
+            stripe.lock.unlock();
         }
     }
 
-    public synchronized void cleanupCurrentThread()
+    /**
+     * Called holding the stripe lock. Polls every {@link #WAIT_MILLIS} so dead holders are noticed even without a
+     * wakeup.
+     *
+     * @throws InterruptedException if interrupted (or already interrupted) before the resource was free; the caller
+     * must not take the lock then
+     */
+    private void waitUntilFree( final ConcreteResource resource, final LockState state, final boolean write )
+        throws InterruptedException
     {
-        final long id = Thread.currentThread()
-                              .getId();
-        for ( final ConcreteResource res : new HashSet<ConcreteResource>( lock.keySet() ) )
+        state.waiters++;
+        try
         {
-            final WeakReference<Thread> ref = lock.get( res );
-            if ( ref != null )
+            while ( !state.isFree( write ) )
             {
-                boolean rm = false;
-                if ( ref.get() == null )
-                {
-                    logger.debug( "Cleaning up lock: {} for thread: {}", res, Thread.currentThread()
-                                                                                    .getName() );
-                    rm = true;
-                }
-                else if ( ref.get()
-                             .getId() == id )
+                logger.debug( "{} waiting for unlock of {} (held by: {})", Thread.currentThread().getName(), resource,
+                              state.describe() );
+                try
                 {
-                    logger.debug( "Cleaning up lock: {} for thread: {}", res, Thread.currentThread()
-                                                                                    .getName() );
-                    rm = true;
+                    state.changed.await( WAIT_MILLIS, TimeUnit.MILLISECONDS );
                 }
-
-                if ( rm )
+                catch ( final InterruptedException e )
                 {
-                    synchronized ( lock )
-                    {
-                        lock.remove( res );
-                        lock.notifyAll();
-                    }
+                    logger.debug( "{} interrupted while waiting for unlock of: {}", Thread.currentThread().getName(),
+                                  resource );
+                    throw e;
                 }
             }
         }
+        finally
+        {
+            state.waiters--;
+        }
+    }
+
+    private Stripe stripeFor( final ConcreteResource resource )
+    {
+        final int h = resource.hashCode();
+        return stripes[( h ^ ( h >>> 16 ) ) & ( STRIPES - 1 )];
     }
 
     public Map<ConcreteResource, CharSequence> getActiveLocks()
     {
         final Map<ConcreteResource, CharSequence> active = new HashMap<ConcreteResource, CharSequence>();
-        for ( final ConcreteResource f : lock.keySet() )
+        for ( final Stripe stripe : stripes )
         {
-            final StringBuilder owner = new StringBuilder();
-            final WeakReference<Thread> ref = lock.get( f );
-            if ( ref == null )
+            stripe.lock.lock();
+            try
             {
-                owner.append( "UNKNOWN OWNER; REF IS NULL." );
-            }
-
-            final Thread t = ref.get();
-            if ( t == null )
-            {
-                owner.append( "UNKNOWN OWNER; REF IS EMPTY." );
-            }
-            else
-            {
-                owner.append( t.getName() );
-                if ( !t.isAlive() )
+                for ( final Map.Entry<ConcreteResource, LockState> entry : stripe.states.entrySet() )
                 {
-                    owner.append( " (DEAD)" );
+                    if ( entry.getValue().isHeld() )
+                    {
+                        active.put( entry.getKey(), entry.getValue().describe() );
+                    }
                 }
             }
-
-            active.put( f, owner );
+            finally
+            {
+                stripe.lock.unlock();
+            }
         }
 
         return active;
@@ -257,4 +441,115 @@ public class SimpleLockingSupport
         }
     }
 
+    private static final class Stripe
+    {
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private final Map<ConcreteResource, LockState> states = new HashMap<ConcreteResource, LockState>();
+
+        private LockState stateOf( final ConcreteResource resource )
+        {
+            LockState state = states.get( resource );
+            if ( state == null )
+            {
+                state = new LockState( lock.newCondition() );
+                states.put( resource, state );
+            }
+
+            return state;
+        }
+
+        private void removeIfIdle( final ConcreteResource resource, final LockState state )
+        {
+            if ( state.waiters == 0 && !state.isHeld() )
+            {
+                states.remove( resource );
+            }
+        }
+    }
+
+    private static final class LockState
+    {
+        private final Condition changed;
+
+        private final Set<Thread> readers = new LinkedHashSet<Thread>();
+
+        private Thread writer;
+
+        private int waiters;
+
+        private LockState( final Condition changed )
+        {
+            this.changed = changed;
+        }
+
+        private boolean isHeld()
+        {
+            return hasWriter( null ) || hasReaders( null );
+        }
+
+        private boolean isFree( final boolean forWrite )
+        {
+            final Thread me = Thread.currentThread();
+            return !hasWriter( me ) && ( !forWrite || !hasReaders( me ) );
+        }
+
+        private boolean hasOtherWriter()
+        {
+            return hasWriter( Thread.currentThread() );
+        }
+
+        private boolean hasOtherReaders()
+        {
+            return hasReaders( Thread.currentThread() );
+        }
+
+        private boolean hasWriter( final Thread except )
+        {
+            if ( writer != null && !writer.isAlive() )
+            {
+                writer = null;
+            }
+
+            return writer != null && writer != except;
+        }
+
+        private boolean hasReaders( final Thread except )
+        {
+            for ( final Iterator<Thread> it = readers.iterator(); it.hasNext(); )
+            {
+                final Thread reader = it.next();
+                if ( !reader.isAlive() )
+                {
+                    it.remove();
+                }
+                else if ( reader != except )
+                {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        private CharSequence describe()
+        {
+            final StringBuilder sb = new StringBuilder();
+            if ( writer != null )
+            {
+                sb.append( writer.getName() ).append( writer.isAlive() ? "" : " (DEAD)" ).append( " (write)" );
+            }
+
+            for ( final Thread reader : readers )
+            {
+                sb.append( sb.length() > 0 ? ", " : "" )
+                  .append( reader.getName() )
+                  .append( reader.isAlive() ? "" : " (DEAD)" )
+                  .append( " (read)" );
+            }
+
+            return sb;
+        }
+    }
+
 }
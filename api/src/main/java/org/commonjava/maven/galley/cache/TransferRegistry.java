@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2013 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.galley.cache;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.commonjava.maven.galley.model.ConcreteResource;
+import org.commonjava.maven.galley.model.Transfer;
+
+/**
+ * Canonical {@link Transfer} instances for a cache provider: as long as anyone holds the Transfer for a resource,
+ * {@link #get(ConcreteResource)} returns that same instance (callers synchronize on it). Transfers are only weakly
+ * held, so the registry is bounded by the resources actually in use rather than every path ever touched; collected
+ * entries are swept on later calls and counted as evictions.
+ * <p>
+ * Lookups of a live entry take no locks; creating one races with a compare-and-set, and the loser adopts the winner.
+ */
+public final class TransferRegistry
+{
+
+    private final ConcurrentMap<ConcreteResource, TransferRef> refs = new ConcurrentHashMap<ConcreteResource, TransferRef>();
+
+    private final ReferenceQueue<Transfer> collected = new ReferenceQueue<Transfer>();
+
+    private final Function<ConcreteResource, Transfer> factory;
+
+    private final AtomicLong created = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    public TransferRegistry( final Function<ConcreteResource, Transfer> factory )
+    {
+        this.factory = factory;
+    }
+
+    public Transfer get( final ConcreteResource resource )
+    {
+        expungeCollected();
+
+        TransferRef ref = refs.get( resource );
+        Transfer transfer = ref == null ? null : ref.get();
+        if ( transfer != null )
+        {
+            return transfer;
+        }
+
+        final Transfer newTransfer = factory.apply( resource );
+        final TransferRef newRef = new TransferRef( resource, newTransfer, collected );
+        while ( true )
+        {
+            if ( ref == null )
+            {
+                ref = refs.putIfAbsent( resource, newRef );
+                if ( ref == null )
+                {
+                    created.incrementAndGet();
+                    return newTransfer;
+                }
+            }
+            else if ( refs.replace( resource, ref, newRef ) )
+            {
+                created.incrementAndGet();
+                return newTransfer;
+            }
+            else
+            {
+                ref = refs.get( resource );
+            }
+
+            transfer = ref == null ? null : ref.get();
+            if ( transfer != null )
+            {
+                return transfer;
+            }
+        }
+    }
+
+    public void clear()
+    {
+        refs.clear();
+    }
+
+    /**
+     * Entries currently registered, including any whose Transfer was collected but not yet swept.
+     */
+    public int getSize()
+    {
+        return refs.size();
+    }
+
+    public long getCreatedCount()
+    {
+        return created.get();
+    }
+
+    /**
+     * Entries dropped because nothing referenced their Transfer any more.
+     */
+    public long getEvictionCount()
+    {
+        return evictions.get();
+    }
+
+    private void expungeCollected()
+    {
+        Reference<? extends Transfer> ref;
+        while ( ( ref = collected.poll() ) != null )
+        {
+            final TransferRef stale = (TransferRef) ref;
+            if ( refs.remove( stale.resource, stale ) )
+            {
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private static final class TransferRef
+        extends WeakReference<Transfer>
+    {
+        private final ConcreteResource resource;
+
+        private TransferRef( final ConcreteResource resource, final Transfer transfer,
+                             final ReferenceQueue<Transfer> queue )
+        {
+            super( transfer, queue );
+            this.resource = resource;
+        }
+    }
+
+}
@@ -15,6 +15,8 @@
  */
 package org.commonjava.maven.galley.config;
 
+import org.commonjava.maven.galley.model.TransferPriority;
+
 import javax.enterprise.inject.Alternative;
 import javax.inject.Named;
 
@@ -32,12 +34,40 @@ public class TransportManagerConfig
 
     float DEFAULT_TIMEOUT_OVEREXTENSION_FACTOR = 1.25f;
 
+    int DEFAULT_PARALLEL_RETRIEVE_FANOUT = 1; // probe one location at a time, in order.
+
+    long DEFAULT_HEDGE_DELAY_MILLIS = 2000;
+
+    int DEFAULT_MAX_CONCURRENT_TRANSFERS = 0; // take it from the transfer executor.
+
+    long DEFAULT_PRIORITY_AGING_MILLIS = 10000; // lower classes jump the line after waiting this long.
+
+    int DEFAULT_DELETE_PARALLELISM = 1; // walk and delete directory trees on the calling thread.
+
+    boolean DEFAULT_LISTING_AWARE_EXISTENCE = false; // always ask the remote; see withListingAwareExistence().
+
     private long thresholdWaitRetrySize;
 
     private long waitRetryScalingIncrement;
 
     private float timeoutOverextensionFactor;
 
+    private int parallelRetrieveFanout = DEFAULT_PARALLEL_RETRIEVE_FANOUT;
+
+    private long hedgeDelayMillis = DEFAULT_HEDGE_DELAY_MILLIS;
+
+    private TransferPriority defaultPriority = TransferPriority.BULK;
+
+    private long priorityAgingMillis = DEFAULT_PRIORITY_AGING_MILLIS;
+
+    private int maxConcurrentTransfers = DEFAULT_MAX_CONCURRENT_TRANSFERS;
+
+    private boolean virtualThreads;
+
+    private int deleteParallelism = DEFAULT_DELETE_PARALLELISM;
+
+    private boolean listingAwareExistence = DEFAULT_LISTING_AWARE_EXISTENCE;
+
     public TransportManagerConfig()
     {
         thresholdWaitRetrySize = DEFAULT_THRESHOLD_WAIT_RETRY_SIZE;
@@ -65,4 +95,130 @@ public class TransportManagerConfig
     {
         return timeoutOverextensionFactor;
     }
+
+    /**
+     * How many locations of a VirtualResource retrieveFirst() / findFirstExisting() will probe concurrently. A value
+     * of 1 (the default) keeps the sequential, one-location-at-a-time behavior.
+     */
+    public int getParallelRetrieveFanout()
+    {
+        return parallelRetrieveFanout;
+    }
+
+    public TransportManagerConfig withParallelRetrieveFanout( final int parallelRetrieveFanout )
+    {
+        this.parallelRetrieveFanout = parallelRetrieveFanout;
+        return this;
+    }
+
+    /**
+     * Latency budget for a single location probe in parallel mode. Once a probe has been outstanding this long, the
+     * next location is probed alongside it (a hedged request) even if the fan-out is used up. Zero disables hedging.
+     */
+    public long getHedgeDelayMillis()
+    {
+        return hedgeDelayMillis;
+    }
+
+    public TransportManagerConfig withHedgeDelayMillis( final long hedgeDelayMillis )
+    {
+        this.hedgeDelayMillis = hedgeDelayMillis;
+        return this;
+    }
+
+    /**
+     * Priority class for transfers that neither their {@link org.commonjava.maven.galley.event.EventMetadata} nor
+     * their special-path classification put in a class.
+     */
+    public TransferPriority getDefaultPriority()
+    {
+        return defaultPriority;
+    }
+
+    public TransportManagerConfig withDefaultPriority( final TransferPriority defaultPriority )
+    {
+        this.defaultPriority = defaultPriority;
+        return this;
+    }
+
+    /**
+     * Starvation protection for priority scheduling: once the oldest waiting transfer of a lower class has waited
+     * this long, it is served before newer, higher-class work. Zero or less turns this off (strict priority).
+     */
+    public long getPriorityAgingMillis()
+    {
+        return priorityAgingMillis;
+    }
+
+    public TransportManagerConfig withPriorityAgingMillis( final long priorityAgingMillis )
+    {
+        this.priorityAgingMillis = priorityAgingMillis;
+        return this;
+    }
+
+    /**
+     * How many transfer jobs the scheduler hands to the transfer executor at once; the rest wait in their location's
+     * queue, in priority order. Zero or less (the default) means the executor's pool size, or the thread count it was
+     * configured with when it's wrapped and can't be asked. Set it when the executor is sized elsewhere.
+     */
+    public int getMaxConcurrentTransfers()
+    {
+        return maxConcurrentTransfers;
+    }
+
+    public TransportManagerConfig withMaxConcurrentTransfers( final int maxConcurrentTransfers )
+    {
+        this.maxConcurrentTransfers = maxConcurrentTransfers;
+        return this;
+    }
+
+    /**
+     * Run transfer jobs and batch retrievals on virtual threads when the JVM supports them, instead of the fixed
+     * platform thread pools. Per-location connection limits still apply. Ignored (with the pools used as before) on
+     * JVMs without virtual threads.
+     */
+    public boolean isVirtualThreads()
+    {
+        return virtualThreads;
+    }
+
+    public TransportManagerConfig withVirtualThreads( final boolean virtualThreads )
+    {
+        this.virtualThreads = virtualThreads;
+        return this;
+    }
+
+    /**
+     * How many threads delete() uses to walk and remove a directory tree. Above 1, subtrees are deleted in parallel
+     * on a dedicated fork-join pool and deletions are reported as one {@link
+     * org.commonjava.maven.galley.event.FileDeletionBatchEvent} per tree rather than one event per file.
+     */
+    public int getDeleteParallelism()
+    {
+        return deleteParallelism;
+    }
+
+    public TransportManagerConfig withDeleteParallelism( final int deleteParallelism )
+    {
+        this.deleteParallelism = deleteParallelism;
+        return this;
+    }
+
+    /**
+     * Let existence checks and downloads answer from the parent directory's cached listing when it's younger than
+     * the location's {@link org.commonjava.maven.galley.model.Location#NFC_TIMEOUT_SECONDS}: a listed child exists,
+     * and an unlisted one is missing (and goes into the NFC) without a remote call. Off by default. Every location
+     * has an NFC timeout unless it sets the attribute to 0 or less, so once this is on it applies to all locations that
+     * don't.
+     */
+    public boolean isListingAwareExistence()
+    {
+        return listingAwareExistence;
+    }
+
+    public TransportManagerConfig withListingAwareExistence( final boolean listingAwareExistence )
+    {
+        this.listingAwareExistence = listingAwareExistence;
+        return this;
+    }
 }
@@ -0,0 +1,52 @@
+/**
+ * Copyright (C) 2013 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.galley.event;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.commonjava.maven.galley.model.Transfer;
+
+/**
+ * Single event for a whole subtree removed by a tree delete, in place of one {@link FileDeletionEvent} per file.
+ * {@link #getTransfer()} is the root of the subtree; {@link #getDeletedTransfers()} lists the files actually removed.
+ */
+public class FileDeletionBatchEvent
+    extends FileEvent
+{
+    private final List<Transfer> deletedTransfers;
+
+    public FileDeletionBatchEvent( final Transfer root, final Collection<Transfer> deletedTransfers,
+                                   final EventMetadata eventMetadata )
+    {
+        super( root, eventMetadata );
+        this.deletedTransfers = Collections.unmodifiableList( new ArrayList<Transfer>( deletedTransfers ) );
+    }
+
+    public List<Transfer> getDeletedTransfers()
+    {
+        return deletedTransfers;
+    }
+
+    @Override
+    public String getExtraInfo()
+    {
+        return "deleted=" + deletedTransfers.size();
+    }
+
+}
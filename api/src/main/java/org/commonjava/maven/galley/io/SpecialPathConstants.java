@@ -18,6 +18,7 @@ package org.commonjava.maven.galley.io;
 import org.commonjava.maven.galley.model.FilePatternMatcher;
 import org.commonjava.maven.galley.model.PathPatternMatcher;
 import org.commonjava.maven.galley.model.SpecialPathInfo;
+import org.commonjava.maven.galley.model.TransferPriority;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -128,6 +129,11 @@ class MavenSpecialPathSet
                                     .setMetadata( true )
                                     .build() );
 
+        // POMs are small and on the critical path of dependency resolution; fetch them ahead of bulk binaries.
+        mvnSpecialPaths.add( SpecialPathInfo.from( new FilePatternMatcher( ".+\\.pom$" ) )
+                                    .setPriority( TransferPriority.DESCRIPTOR )
+                                    .build() );
+
         String notMergablePrefix = ".+(?<!(maven-metadata|archetype-catalog)\\.xml)\\.";
         for ( String extPattern : Arrays.asList( "asc$", "md5$", "sha[\\d]+$" ) )
         {
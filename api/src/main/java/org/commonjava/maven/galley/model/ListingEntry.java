@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2013 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.galley.model;
+
+/**
+ * One child of a cached directory, with the attributes a listing needs, read in the same pass as its name.
+ */
+public final class ListingEntry
+{
+
+    private final String name;
+
+    private final boolean directory;
+
+    private final long length;
+
+    private final long lastModified;
+
+    public ListingEntry( final String name, final boolean directory, final long length, final long lastModified )
+    {
+        this.name = name;
+        this.directory = directory;
+        this.length = length;
+        this.lastModified = lastModified;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public boolean isDirectory()
+    {
+        return directory;
+    }
+
+    public boolean isFile()
+    {
+        return !directory;
+    }
+
+    public long getLength()
+    {
+        return length;
+    }
+
+    public long getLastModified()
+    {
+        return lastModified;
+    }
+
+    /**
+     * The name as it appears in listings: directories get a trailing '/'.
+     */
+    public String getListingName()
+    {
+        return directory ? name + "/" : name;
+    }
+
+    @Override
+    public String toString()
+    {
+        return getListingName();
+    }
+
+}
@@ -26,10 +26,30 @@ public interface Location
 
     String METADATA_TIMEOUT_SECONDS = "metadata-timeout";
 
+    /**
+     * How long (seconds) past its metadata timeout cached metadata may still be served while it's refreshed in the
+     * background. Beyond this, retrieval waits for the refresh. Zero disables stale serving.
+     */
+    String METADATA_MAX_STALE_SECONDS = "metadata-max-stale";
+
     String ATTR_ALT_STORAGE_LOCATION = "alt-storage-location";
 
     String MAX_CONNECTIONS = "max-connections";
 
+    /**
+     * Content length (bytes) above which downloads from this location are split into ranges fetched in parallel. Zero
+     * or negative disables segmented downloads.
+     */
+    String SEGMENTED_DOWNLOAD_THRESHOLD = "segmented-download-threshold";
+
+    String DOWNLOAD_SEGMENTS = "download-segments";
+
+    /**
+     * How long (seconds) a path found missing from this location is remembered as missing. Zero or negative means
+     * until it's cleared.
+     */
+    String NFC_TIMEOUT_SECONDS = "nfc-timeout";
+
     int DEFAULT_CONNECTION_TIMEOUT_SECONDS = 30;
 
     int DEFAULT_CACHE_TIMEOUT_SECONDS = 86400;
@@ -38,6 +58,14 @@ public interface Location
 
     int DEFAULT_MAX_CONNECTIONS = 10;
 
+    int DEFAULT_METADATA_MAX_STALE_SECONDS = 0;
+
+    long DEFAULT_SEGMENTED_DOWNLOAD_THRESHOLD = -1;
+
+    int DEFAULT_DOWNLOAD_SEGMENTS = 4;
+
+    int DEFAULT_NFC_TIMEOUT_SECONDS = 300;
+
     boolean allowsDownloading();
 
     boolean allowsPublishing();
@@ -44,6 +44,12 @@ public class SpecialPathInfo
 
     private boolean cachable = true; // We need to be able to avoid caching for certain path patterns.
 
+    /**
+     * Scheduling class for transfers of matching paths. Null means no opinion; metadata paths are then treated as
+     * {@link TransferPriority#METADATA}.
+     */
+    private TransferPriority priority;
+
     public static Builder from( final SpecialPathMatcher matcher )
     {
         return new Builder( matcher );
@@ -172,6 +178,16 @@ public class SpecialPathInfo
         this.cachable = cachable;
     }
 
+    public TransferPriority getPriority()
+    {
+        return priority;
+    }
+
+    public void setPriority( final TransferPriority priority )
+    {
+        this.priority = priority;
+    }
+
     @Override
     public boolean equals( Object o )
     {
@@ -290,6 +306,17 @@ public class SpecialPathInfo
             return this;
         }
 
+        public Builder setPriority( final TransferPriority priority )
+        {
+            info.setPriority( priority );
+            return this;
+        }
+
+        public TransferPriority getPriority()
+        {
+            return info.getPriority();
+        }
+
         public boolean isMetadata()
         {
             return info.isMetadata();
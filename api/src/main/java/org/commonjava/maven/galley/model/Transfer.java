@@ -24,15 +24,27 @@ import org.commonjava.maven.galley.io.OverriddenBooleanValue;
 import org.commonjava.maven.galley.spi.cache.CacheProvider;
 import org.commonjava.maven.galley.spi.event.FileEventManager;
 import org.commonjava.maven.galley.spi.io.TransferDecorator;
+import org.commonjava.maven.galley.util.ClosingFileChannel;
 import org.commonjava.maven.galley.util.TransferInputStream;
 import org.commonjava.maven.galley.util.TransferOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import static org.apache.commons.lang.StringUtils.join;
 
@@ -41,6 +53,10 @@ public class Transfer
 
     public static final String DELETE_CONTENT_LOG = "org.commonjava.topic.content.delete";
 
+    private static final int CHANNEL_COPY_BUFFER_SIZE = 64 * 1024;
+
+    private static final long CHANNEL_TRANSFER_CHUNK = 8 * 1024 * 1024;
+
     private final Logger logger = LoggerFactory.getLogger( getClass() );
 
     private ConcreteResource resource;
@@ -242,6 +258,202 @@ public class Transfer
         }
     }
 
+    /**
+     * Call before closing a stream from {@link #openOutputStream(TransferOperation)} whose content is incomplete, so
+     * the close doesn't replace this transfer with it. When keepPartialAs is non-null, the incomplete content is kept
+     * there (e.g. to resume the download later).
+     */
+    public void abortWrite( final Transfer keepPartialAs )
+    {
+        provider.abortWrite( resource, keepPartialAs == null ? null : keepPartialAs.getResource() );
+    }
+
+    /**
+     * Channel over the cached content. Unless a decorator needs to see the bytes as they are read (checksumming, for
+     * instance), this is the cache provider's own channel, which for file-based caches is a {@link FileChannel}, so
+     * the content can be handed to a socket without copying it through the heap.
+     */
+    public ReadableByteChannel openReadableChannel( final boolean fireEvents, final EventMetadata eventMetadata )
+        throws IOException
+    {
+        provider.waitForReadUnlock( resource );
+        try
+        {
+            final ReadableByteChannel channel = provider.openReadableChannel( resource );
+            if ( channel == null )
+            {
+                return null;
+            }
+
+            final FileAccessEvent event = fireEvents ? new FileAccessEvent( this, eventMetadata ) : null;
+            if ( decorator != null )
+            {
+                final InputStream raw = Channels.newInputStream( channel );
+                final InputStream stream = fireEvents ? new TransferInputStream( raw, event, fileEventManager ) : raw;
+                final InputStream decorated = decorator.decorateRead( stream, this, eventMetadata );
+                if ( decorated != stream )
+                {
+                    return Channels.newChannel( decorated );
+                }
+            }
+
+            if ( !fireEvents )
+            {
+                return channel;
+            }
+            else if ( channel instanceof FileChannel )
+            {
+                return new ClosingFileChannel( (FileChannel) channel, () -> fileEventManager.fire( event ) );
+            }
+
+            return Channels.newChannel(
+                    new TransferInputStream( Channels.newInputStream( channel ), event, fileEventManager ) );
+        }
+        catch ( final IOException e )
+        {
+            if ( fireEvents )
+            {
+                fileEventManager.fire( new FileErrorEvent( this, e, eventMetadata ) );
+            }
+            throw e;
+        }
+    }
+
+    public long transferTo( final WritableByteChannel target )
+        throws IOException
+    {
+        return transferTo( target, new EventMetadata() );
+    }
+
+    /**
+     * Write the whole content to the given (blocking) channel. From a file-based cache this uses
+     * {@link FileChannel#transferTo(long, long, WritableByteChannel)}, which the OS can serve without user-space copies.
+     *
+     * @return the number of bytes written
+     */
+    public long transferTo( final WritableByteChannel target, final EventMetadata eventMetadata )
+        throws IOException
+    {
+        try (ReadableByteChannel source = openReadableChannel( true, eventMetadata ))
+        {
+            if ( source == null )
+            {
+                throw new FileNotFoundException( "No content stored for: " + this );
+            }
+
+            if ( source instanceof FileChannel )
+            {
+                final FileChannel file = (FileChannel) source;
+                final long size = file.size();
+                long position = 0;
+                while ( position < size )
+                {
+                    position += file.transferTo( position, size - position, target );
+                }
+
+                return position;
+            }
+
+            return copy( source, target );
+        }
+    }
+
+    public long storeFrom( final ReadableByteChannel source, final TransferOperation accessType )
+        throws IOException
+    {
+        return storeFrom( source, accessType, new EventMetadata() );
+    }
+
+    /**
+     * Store everything the given (blocking) channel yields, replacing the current content once the channel is
+     * exhausted. Into a file-based cache this uses {@link FileChannel#transferFrom(ReadableByteChannel, long, long)}
+     * unless a decorator needs to see the bytes. If reading the channel fails, the write is abandoned rather than
+     * committing partial content.
+     *
+     * @return the number of bytes stored
+     */
+    public long storeFrom( final ReadableByteChannel source, final TransferOperation accessType,
+                           final EventMetadata eventMetadata )
+        throws IOException
+    {
+        provider.waitForWriteUnlock( resource );
+        provider.lockWrite( resource );
+        try
+        {
+            final WritableByteChannel channel = provider.openWritableChannel( resource );
+            if ( channel == null )
+            {
+                throw new IOException( "Cannot store content for: " + this );
+            }
+
+            Closeable target = channel;
+            boolean complete = false;
+            long written;
+            try
+            {
+                final OutputStream raw = Channels.newOutputStream( channel );
+                final OutputStream decorated =
+                        decorator == null ? raw : decorator.decorateWrite( raw, this, accessType, eventMetadata );
+                if ( decorated != raw )
+                {
+                    target = decorated;
+                    written = copy( source, Channels.newChannel( decorated ) );
+                }
+                else if ( channel instanceof FileChannel )
+                {
+                    final FileChannel file = (FileChannel) channel;
+                    written = 0;
+                    long count;
+                    while ( ( count = file.transferFrom( source, written, CHANNEL_TRANSFER_CHUNK ) ) > 0 )
+                    {
+                        written += count;
+                    }
+                }
+                else
+                {
+                    written = copy( source, channel );
+                }
+
+                complete = true;
+            }
+            finally
+            {
+                if ( !complete )
+                {
+                    provider.abortWrite( resource, null );
+                }
+                target.close();
+            }
+
+            fileEventManager.fire( new FileStorageEvent( accessType, this, eventMetadata ) );
+            return written;
+        }
+        catch ( final IOException e )
+        {
+            fileEventManager.fire( new FileErrorEvent( this, e, eventMetadata ) );
+            throw e;
+        }
+        finally
+        {
+            provider.unlockWrite( resource );
+        }
+    }
+
+    private static long copy( final ReadableByteChannel source, final WritableByteChannel target )
+        throws IOException
+    {
+        final ByteBuffer buffer = ByteBuffer.allocate( CHANNEL_COPY_BUFFER_SIZE );
+        long total = 0;
+        while ( source.read( buffer ) >= 0 || buffer.position() > 0 )
+        {
+            buffer.flip();
+            total += target.write( buffer );
+            buffer.compact();
+        }
+
+        return total;
+    }
+
     /**
      * Goes up through the path to the root of the resource location until it finds an existing element and removes it
      * in case if it is a file. Starts from the resource path, so also the target file is removed if it pre-exists.
@@ -286,6 +498,23 @@ public class Transfer
         return exists( new EventMetadata() );
     }
 
+    /**
+     * True if this transfer is still cached but outlived its cache timeout, and should be revalidated with the
+     * remote location before it's used again.
+     */
+    public boolean isStale()
+    {
+        return provider.isStale( resource );
+    }
+
+    /**
+     * Record that the remote location confirmed this cached content is unchanged, restarting its cache timeout.
+     */
+    public void markFresh()
+    {
+        provider.markFresh( resource );
+    }
+
     public void copyFrom( final Transfer f )
         throws IOException
     {
@@ -394,6 +623,50 @@ public class Transfer
         return listing;
     }
 
+    /**
+     * Like {@link #list()}, but with each child's type, size and timestamp, read in one pass where the cache provider
+     * supports it. Names the decorator adds to the listing are looked up individually.
+     */
+    public List<ListingEntry> listEntries()
+        throws IOException
+    {
+        final List<ListingEntry> entries = provider.listEntries( resource );
+        if ( decorator == null || entries == null )
+        {
+            return entries;
+        }
+
+        final Map<String, ListingEntry> byName = new LinkedHashMap<String, ListingEntry>();
+        for ( final ListingEntry entry : entries )
+        {
+            byName.put( entry.getName(), entry );
+        }
+
+        final String[] decorated =
+                decorator.decorateListing( this, byName.keySet().toArray( new String[byName.size()] ),
+                                           new EventMetadata() );
+        if ( decorated == null )
+        {
+            return null;
+        }
+
+        final List<ListingEntry> result = new ArrayList<ListingEntry>( decorated.length );
+        for ( final String name : decorated )
+        {
+            ListingEntry entry = byName.get( name );
+            if ( entry == null )
+            {
+                final ConcreteResource child = resource.getChild( name );
+                entry = new ListingEntry( name, !provider.isFile( child ), provider.length( child ),
+                                          provider.lastModified( child ) );
+            }
+
+            result.add( entry );
+        }
+
+        return result;
+    }
+
    public File getDetachedFile()
    {
        provider.waitForWriteUnlock( resource );
@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2013 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.galley.model;
+
+import org.commonjava.maven.galley.event.EventMetadata;
+
+/**
+ * Scheduling class of a transfer. Classes are served in declaration order: small, latency-sensitive metadata first,
+ * then descriptors (POMs and the like), then everything else. A request can be classified explicitly by setting
+ * {@link #EVENT_METADATA_KEY} in its {@link EventMetadata}, or by path via {@link SpecialPathInfo#getPriority()}.
+ */
+public enum TransferPriority
+{
+    METADATA,
+    DESCRIPTOR,
+    BULK;
+
+    public static final String EVENT_METADATA_KEY = "transfer-priority";
+
+    /**
+     * Pick the priority for a request: an explicit {@link EventMetadata} setting wins, then the special-path
+     * classification (with metadata paths implying {@link #METADATA}), then the given default.
+     */
+    public static TransferPriority resolve( final EventMetadata eventMetadata, final SpecialPathInfo specialPathInfo,
+                                            final TransferPriority defaultPriority )
+    {
+        if ( eventMetadata != null )
+        {
+            final Object explicit = eventMetadata.get( EVENT_METADATA_KEY );
+            if ( explicit instanceof TransferPriority )
+            {
+                return (TransferPriority) explicit;
+            }
+            else if ( explicit != null )
+            {
+                try
+                {
+                    return valueOf( explicit.toString().toUpperCase() );
+                }
+                catch ( final IllegalArgumentException e )
+                {
+                    // not one of ours; fall through to the path-based classification.
+                }
+            }
+        }
+
+        if ( specialPathInfo != null )
+        {
+            if ( specialPathInfo.getPriority() != null )
+            {
+                return specialPathInfo.getPriority();
+            }
+            else if ( specialPathInfo.isMetadata() )
+            {
+                return METADATA;
+            }
+        }
+
+        return defaultPriority;
+    }
+}
@@ -19,11 +19,17 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.commonjava.maven.galley.model.ConcreteResource;
+import org.commonjava.maven.galley.model.ListingEntry;
 import org.commonjava.maven.galley.model.Transfer;
 
 public interface CacheProvider
@@ -32,6 +38,8 @@ public interface CacheProvider
 
     String SUFFIX_TO_WRITE = ".to-write";
 
+    String SUFFIX_PARTIAL = ".partial";
+
     String STORAGE_PATH = "storage-path";
 
     Set<String> HIDDEN_SUFFIXES = Collections.unmodifiableSet( new HashSet<String>()
@@ -39,6 +47,7 @@ public interface CacheProvider
         {
             add( SUFFIX_TO_DELETE );
             add( SUFFIX_TO_WRITE );
+            add( SUFFIX_PARTIAL );
         }
 
         private static final long serialVersionUID = 1L;
@@ -73,6 +82,30 @@ public interface CacheProvider
 
     String[] list( ConcreteResource resource );
 
+    /**
+     * List a directory along with each child's type, size and timestamp. Providers that can read these in the same
+     * pass as the names should override this; the default looks each child up separately.
+     *
+     * @return the entries, or null if the resource isn't a listable directory
+     */
+    default List<ListingEntry> listEntries( ConcreteResource resource )
+    {
+        final String[] names = list( resource );
+        if ( names == null )
+        {
+            return null;
+        }
+
+        final List<ListingEntry> entries = new ArrayList<ListingEntry>( names.length );
+        for ( final String name : names )
+        {
+            final ConcreteResource child = resource.getChild( name );
+            entries.add( new ListingEntry( name, !isFile( child ), length( child ), lastModified( child ) ) );
+        }
+
+        return entries;
+    }
+
     void mkdirs( ConcreteResource resource )
         throws IOException;
 
@@ -108,6 +141,55 @@ public interface CacheProvider
 
     void waitForReadUnlock( ConcreteResource resource );
 
+    /**
+     * Whether the resource is cached but expired, and kept only so it can be revalidated (e.g. with a conditional
+     * request) instead of downloaded again. Providers that delete expired content never report stale entries.
+     */
+    default boolean isStale( ConcreteResource resource )
+    {
+        return false;
+    }
+
+    /**
+     * Restart the cache timeout of a stale resource whose content was confirmed unchanged upstream.
+     */
+    default void markFresh( ConcreteResource resource )
+    {
+    }
+
+    /**
+     * Mark the write currently open on this resource as failed, so closing its stream does not replace the resource
+     * with the incomplete content. If keepPartialAs is given, the incomplete content is moved there instead of being
+     * discarded. Providers that can't abandon a write ignore this and commit on close as before.
+     */
+    default void abortWrite( ConcreteResource resource, ConcreteResource keepPartialAs )
+    {
+    }
+
+    /**
+     * Channel equivalent of {@link #openInputStream(ConcreteResource)}; closing it releases the same locks. File-based
+     * providers should return a {@link java.nio.channels.FileChannel}, so callers can serve the content with
+     * transferTo() instead of copying it through the heap.
+     */
+    default ReadableByteChannel openReadableChannel( ConcreteResource resource )
+        throws IOException
+    {
+        final InputStream stream = openInputStream( resource );
+        return stream == null ? null : Channels.newChannel( stream );
+    }
+
+    /**
+     * Channel equivalent of {@link #openOutputStream(ConcreteResource)}; closing it commits the write (or abandons it,
+     * see {@link #abortWrite(ConcreteResource, ConcreteResource)}). File-based providers should return a
+     * {@link java.nio.channels.FileChannel}, so callers can store content with transferFrom().
+     */
+    default WritableByteChannel openWritableChannel( ConcreteResource resource )
+        throws IOException
+    {
+        final OutputStream stream = openOutputStream( resource );
+        return stream == null ? null : Channels.newChannel( stream );
+    }
+
     AdminView asAdminView ();
 
     interface AdminView extends CacheProvider
@@ -16,10 +16,12 @@
 package org.commonjava.maven.galley.spi.event;
 
 import org.commonjava.maven.galley.event.FileAccessEvent;
+import org.commonjava.maven.galley.event.FileDeletionBatchEvent;
 import org.commonjava.maven.galley.event.FileDeletionEvent;
 import org.commonjava.maven.galley.event.FileErrorEvent;
 import org.commonjava.maven.galley.event.FileNotFoundEvent;
 import org.commonjava.maven.galley.event.FileStorageEvent;
+import org.commonjava.maven.galley.model.Transfer;
 
 
 public interface FileEventManager
@@ -33,5 +35,17 @@ public interface FileEventManager
 
     void fire( final FileDeletionEvent evt );
 
+    /**
+     * Managers that don't handle batches natively get one {@link FileDeletionEvent} per deleted file, as if the tree
+     * had been deleted file by file.
+     */
+    default void fire( final FileDeletionBatchEvent evt )
+    {
+        for ( final Transfer transfer : evt.getDeletedTransfers() )
+        {
+            fire( new FileDeletionEvent( transfer, evt.getEventMetadata() ) );
+        }
+    }
+
     void fire( final FileErrorEvent evt );
 }
@@ -34,8 +34,14 @@ public interface NotFoundCache
 
     void clearAllMissing();
 
+    /**
+     * Snapshot of the missing paths by location; later changes to the cache aren't reflected in it.
+     */
     Map<Location, Set<String>> getAllMissing();
 
+    /**
+     * Snapshot of the paths missing from the location (empty if none).
+     */
     Set<String> getMissing( Location location );
 
 }
@@ -37,6 +37,20 @@ public class AtomicFileOutputStreamWrapper
         public void afterClose()
         {
         }
+
+        /**
+         * Return false to leave the target untouched on close; {@link #abandoned(File)} then decides what happens to
+         * the written file.
+         */
+        public boolean shouldCommit()
+        {
+            return true;
+        }
+
+        public void abandoned( final File downloadFile )
+        {
+            downloadFile.delete();
+        }
     }
 
     private final Logger logger = LoggerFactory.getLogger( getClass() );
@@ -83,7 +97,14 @@ public class AtomicFileOutputStreamWrapper
         {
             try
             {
-                downloadFile.renameTo( targetFile );
+                if ( callbacks == null || callbacks.shouldCommit() )
+                {
+                    downloadFile.renameTo( targetFile );
+                }
+                else
+                {
+                    callbacks.abandoned( downloadFile );
+                }
             }
             catch ( final Exception e )
             {
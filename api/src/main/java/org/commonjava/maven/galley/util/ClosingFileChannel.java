@@ -0,0 +1,174 @@
+/**
+ * Copyright (C) 2013 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.galley.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * {@link FileChannel} that runs a callback after the underlying channel is closed (releasing a lock, committing a
+ * write, firing an event...). Everything else is delegated unchanged, so transferTo() / transferFrom() still reach the
+ * platform's zero-copy implementation.
+ */
+public class ClosingFileChannel
+    extends FileChannel
+{
+
+    private final FileChannel delegate;
+
+    private final Closeable onClose;
+
+    public ClosingFileChannel( final FileChannel delegate, final Closeable onClose )
+    {
+        this.delegate = delegate;
+        this.onClose = onClose;
+    }
+
+    @Override
+    public int read( final ByteBuffer dst )
+        throws IOException
+    {
+        return delegate.read( dst );
+    }
+
+    @Override
+    public long read( final ByteBuffer[] dsts, final int offset, final int length )
+        throws IOException
+    {
+        return delegate.read( dsts, offset, length );
+    }
+
+    @Override
+    public int write( final ByteBuffer src )
+        throws IOException
+    {
+        return delegate.write( src );
+    }
+
+    @Override
+    public long write( final ByteBuffer[] srcs, final int offset, final int length )
+        throws IOException
+    {
+        return delegate.write( srcs, offset, length );
+    }
+
+    @Override
+    public long position()
+        throws IOException
+    {
+        return delegate.position();
+    }
+
+    @Override
+    public FileChannel position( final long newPosition )
+        throws IOException
+    {
+        delegate.position( newPosition );
+        return this;
+    }
+
+    @Override
+    public long size()
+        throws IOException
+    {
+        return delegate.size();
+    }
+
+    @Override
+    public FileChannel truncate( final long size )
+        throws IOException
+    {
+        delegate.truncate( size );
+        return this;
+    }
+
+    @Override
+    public void force( final boolean metaData )
+        throws IOException
+    {
+        delegate.force( metaData );
+    }
+
+    @Override
+    public long transferTo( final long position, final long count, final WritableByteChannel target )
+        throws IOException
+    {
+        return delegate.transferTo( position, count, target );
+    }
+
+    @Override
+    public long transferFrom( final ReadableByteChannel src, final long position, final long count )
+        throws IOException
+    {
+        return delegate.transferFrom( src, position, count );
+    }
+
+    @Override
+    public int read( final ByteBuffer dst, final long position )
+        throws IOException
+    {
+        return delegate.read( dst, position );
+    }
+
+    @Override
+    public int write( final ByteBuffer src, final long position )
+        throws IOException
+    {
+        return delegate.write( src, position );
+    }
+
+    @Override
+    public MappedByteBuffer map( final MapMode mode, final long position, final long size )
+        throws IOException
+    {
+        return delegate.map( mode, position, size );
+    }
+
+    @Override
+    public FileLock lock( final long position, final long size, final boolean shared )
+        throws IOException
+    {
+        return delegate.lock( position, size, shared );
+    }
+
+    @Override
+    public FileLock tryLock( final long position, final long size, final boolean shared )
+        throws IOException
+    {
+        return delegate.tryLock( position, size, shared );
+    }
+
+    @Override
+    protected void implCloseChannel()
+        throws IOException
+    {
+        try
+        {
+            delegate.close();
+        }
+        finally
+        {
+            onClose.close();
+        }
+    }
+
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2013 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.galley.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+public final class FutureUtils
+{
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor( r -> {
+        final Thread t = new Thread( r, "galley-future-timer" );
+        t.setDaemon( true );
+        return t;
+    } );
+
+    private FutureUtils()
+    {
+    }
+
+    /**
+     * Run the given job on the executor, completing the returned future with its result or error. Unlike
+     * {@link CompletableFuture#supplyAsync(java.util.function.Supplier, Executor)}, this accepts a {@link Callable}, so
+     * checked exceptions from transport jobs reach the future unchanged.
+     */
+    public static <T> CompletableFuture<T> submit( final Callable<T> job, final Executor executor )
+    {
+        return submit( job, executor, new CompletableFuture<T>() );
+    }
+
+    /**
+     * Run the given job on the executor, completing the supplied future. If the executor rejects the job, the future
+     * is completed exceptionally right away; so is it if an executor that queues the job first rejects it later (see
+     * {@link RejectableTask}).
+     */
+    public static <T> CompletableFuture<T> submit( final Callable<T> job, final Executor executor,
+                                                   final CompletableFuture<T> future )
+    {
+        try
+        {
+            executor.execute( new RejectableTask()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        future.complete( job.call() );
+                    }
+                    catch ( final Throwable e )
+                    {
+                        future.completeExceptionally( e );
+                    }
+                }
+
+                @Override
+                public void reject( final RejectedExecutionException e )
+                {
+                    future.completeExceptionally( e );
+                }
+            } );
+        }
+        catch ( final RejectedExecutionException e )
+        {
+            future.completeExceptionally( e );
+        }
+
+        return future;
+    }
+
+    /**
+     * Task that can be told it will never run. Executors that queue work and only hand it to a pool later, when the
+     * submitter has moved on, use this to report a rejection instead of dropping the task or running it in place.
+     */
+    public interface RejectableTask
+        extends Runnable
+    {
+        void reject( RejectedExecutionException e );
+    }
+
+    public static <T> CompletableFuture<T> failed( final Throwable error )
+    {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        future.completeExceptionally( error );
+        return future;
+    }
+
+    /**
+     * Wait for the future, rethrowing the job's own exception rather than the {@link ExecutionException} wrapper.
+     */
+    public static <T> T get( final Future<T> future, final long timeout, final TimeUnit unit )
+            throws Exception
+    {
+        try
+        {
+            return future.get( timeout, unit );
+        }
+        catch ( final ExecutionException e )
+        {
+            final Throwable cause = e.getCause();
+            if ( cause instanceof Exception )
+            {
+                throw (Exception) cause;
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * Strip the {@link CompletionException} / {@link ExecutionException} wrappers added by the future machinery.
+     */
+    public static Throwable unwrap( final Throwable error )
+    {
+        Throwable cause = error;
+        while ( ( cause instanceof CompletionException || cause instanceof ExecutionException )
+                && cause.getCause() != null )
+        {
+            cause = cause.getCause();
+        }
+
+        return cause;
+    }
+
+    /**
+     * Run a (short) task after the delay on a shared timer thread, e.g. to time out a future.
+     */
+    public static ScheduledFuture<?> schedule( final Runnable task, final long delay, final TimeUnit unit )
+    {
+        return TIMER.schedule( task, delay, unit );
+    }
+
+}
@@ -51,9 +51,54 @@ public final class LocationUtils
         return location.getAttribute( Location.MAX_CONNECTIONS, Integer.class, Location.DEFAULT_MAX_CONNECTIONS );
     }
 
+    public static long getSegmentedDownloadThreshold( final Location location )
+    {
+        final Number threshold = location.getAttribute( Location.SEGMENTED_DOWNLOAD_THRESHOLD, Number.class,
+                                                        Location.DEFAULT_SEGMENTED_DOWNLOAD_THRESHOLD );
+        return threshold.longValue();
+    }
+
+    /**
+     * Number of parallel ranges for a segmented download, never more than the location's max connections.
+     */
+    public static int getDownloadSegments( final Location location )
+    {
+        final int segments = location.getAttribute( Location.DOWNLOAD_SEGMENTS, Integer.class,
+                                                    Location.DEFAULT_DOWNLOAD_SEGMENTS );
+        return Math.max( 1, Math.min( segments, getMaxConnections( location ) ) );
+    }
+
     public static int getMetadataTimeoutSeconds( final Location location )
     {
         return location.getAttribute( Location.METADATA_TIMEOUT_SECONDS, Integer.class,
                                       Location.DEFAULT_CACHE_TIMEOUT_SECONDS );
     }
+
+    public static int getMetadataMaxStaleSeconds( final Location location )
+    {
+        return location.getAttribute( Location.METADATA_MAX_STALE_SECONDS, Integer.class,
+                                      Location.DEFAULT_METADATA_MAX_STALE_SECONDS );
+    }
+
+    public static int getNfcTimeoutSeconds( final Location location )
+    {
+        return location.getAttribute( Location.NFC_TIMEOUT_SECONDS, Integer.class,
+                                      Location.DEFAULT_NFC_TIMEOUT_SECONDS );
+    }
+
+    /**
+     * The location's cache timeout (never less than {@link Location#MIN_CACHE_TIMEOUT_SECONDS}), or 0 if cached content
+     * never expires.
+     */
+    public static int getCacheTimeoutSeconds( final Location location )
+    {
+        final int timeoutSeconds = location.getAttribute( Location.CACHE_TIMEOUT_SECONDS, Integer.class,
+                                                          Location.DEFAULT_CACHE_TIMEOUT_SECONDS );
+        if ( timeoutSeconds <= 0 )
+        {
+            return 0;
+        }
+
+        return timeoutSeconds < Location.MIN_CACHE_TIMEOUT_SECONDS ? Location.MIN_CACHE_TIMEOUT_SECONDS : timeoutSeconds;
+    }
 }
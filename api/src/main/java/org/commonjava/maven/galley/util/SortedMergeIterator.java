@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2013 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.galley.util;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * K-way merge of iterators that are each sorted in natural order, yielding every distinct value once. Only the head
+ * of each input is held in memory, so the inputs can be lazily-read listings of any size.
+ */
+public final class SortedMergeIterator<T extends Comparable<? super T>>
+    implements Iterator<T>
+{
+
+    private final PriorityQueue<Head<T>> heads = new PriorityQueue<Head<T>>();
+
+    private T last;
+
+    private T next;
+
+    public SortedMergeIterator( final Collection<? extends Iterator<T>> sources )
+    {
+        for ( final Iterator<T> source : sources )
+        {
+            advance( source );
+        }
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        while ( next == null && !heads.isEmpty() )
+        {
+            final Head<T> head = heads.poll();
+            advance( head.source );
+
+            if ( last == null || last.compareTo( head.value ) != 0 )
+            {
+                next = head.value;
+            }
+        }
+
+        return next != null;
+    }
+
+    @Override
+    public T next()
+    {
+        if ( !hasNext() )
+        {
+            throw new NoSuchElementException();
+        }
+
+        last = next;
+        next = null;
+        return last;
+    }
+
+    private void advance( final Iterator<T> source )
+    {
+        if ( source.hasNext() )
+        {
+            heads.add( new Head<T>( source.next(), source ) );
+        }
+    }
+
+    private static final class Head<T extends Comparable<? super T>>
+        implements Comparable<Head<T>>
+    {
+        private final T value;
+
+        private final Iterator<T> source;
+
+        Head( final T value, final Iterator<T> source )
+        {
+            this.value = value;
+            this.source = source;
+        }
+
+        @Override
+        public int compareTo( final Head<T> other )
+        {
+            return value.compareTo( other.value );
+        }
+    }
+
+}
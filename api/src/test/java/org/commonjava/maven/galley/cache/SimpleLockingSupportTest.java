@@ -0,0 +1,165 @@
+/**
+ * Copyright (C) 2013 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.galley.cache;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.commonjava.maven.galley.model.ConcreteResource;
+import org.commonjava.maven.galley.model.SimpleLocation;
+import org.junit.Test;
+
+public class SimpleLockingSupportTest
+{
+
+    private final SimpleLockingSupport locks = new SimpleLockingSupport();
+
+    private final ConcreteResource resource =
+            new ConcreteResource( new SimpleLocation( "http://foo.com" ), "/path/to/file.pom" );
+
+    @Test( timeout = 10000 )
+    public void readersShareWhileWriterWaitsForThem()
+        throws Exception
+    {
+        final ExecutorService executor = Executors.newFixedThreadPool( 2 );
+        try
+        {
+            final CountDownLatch otherRead = new CountDownLatch( 1 );
+            final CountDownLatch release = new CountDownLatch( 1 );
+            executor.submit( () -> {
+                locks.lockRead( resource );
+                otherRead.countDown();
+                release.await();
+                locks.unlockRead( resource );
+                return null;
+            } );
+
+            otherRead.await();
+            locks.lockRead( resource );
+            assertThat( locks.isReadLocked( resource ), equalTo( true ) );
+            assertThat( locks.isWriteLocked( resource ), equalTo( false ) );
+            locks.unlockRead( resource );
+
+            final Future<?> writer = executor.submit( () -> {
+                locks.lockWrite( resource );
+                locks.unlockWrite( resource );
+                return null;
+            } );
+
+            Thread.sleep( 200 );
+            assertThat( writer.isDone(), equalTo( false ) );
+
+            release.countDown();
+            writer.get( 5, TimeUnit.SECONDS );
+            assertThat( locks.isLocked( resource ), equalTo( false ) );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test( timeout = 10000 )
+    public void interruptedWaiterDoesNotGetTheWriteLock()
+        throws Exception
+    {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            locks.lockWrite( resource );
+
+            final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+            final AtomicBoolean retried = new AtomicBoolean();
+            final Thread waiter = new Thread( () -> {
+                try
+                {
+                    locks.lockWrite( resource );
+                }
+                catch ( final LockInterruptedException e )
+                {
+                    failure.set( e );
+                }
+
+                // still interrupted, so waiting again fails the same way instead of taking the lock.
+                try
+                {
+                    locks.lockWrite( resource );
+                }
+                catch ( final LockInterruptedException e )
+                {
+                    retried.set( true );
+                }
+            } );
+            waiter.start();
+
+            while ( waiter.getState() != Thread.State.TIMED_WAITING )
+            {
+                Thread.sleep( 10 );
+            }
+
+            waiter.interrupt();
+            waiter.join();
+
+            assertThat( failure.get() instanceof LockInterruptedException, equalTo( true ) );
+            assertThat( retried.get(), equalTo( true ) );
+            assertThat( executor.submit( () -> locks.isWriteLocked( resource ) ).get(), equalTo( true ) );
+            assertThat( locks.getActiveLocks().size(), equalTo( 1 ) );
+
+            locks.unlockWrite( resource );
+            assertThat( executor.submit( () -> locks.isLocked( resource ) ).get(), equalTo( false ) );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test( timeout = 10000 )
+    public void cleanupReleasesLocksHeldByCurrentThread()
+        throws Exception
+    {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            executor.submit( () -> {
+                locks.lockWrite( resource );
+                locks.lockRead( resource );
+                return null;
+            } ).get();
+
+            assertThat( locks.isWriteLocked( resource ), equalTo( true ) );
+            assertThat( locks.getActiveLocks().size(), equalTo( 1 ) );
+
+            executor.submit( locks::cleanupCurrentThread ).get();
+
+            assertThat( locks.isLocked( resource ), equalTo( false ) );
+            assertThat( locks.getActiveLocks().isEmpty(), equalTo( true ) );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2013 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.galley.cache;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.commonjava.maven.galley.model.ConcreteResource;
+import org.commonjava.maven.galley.model.SimpleLocation;
+import org.commonjava.maven.galley.model.Transfer;
+import org.junit.Test;
+
+public class TransferRegistryTest
+{
+
+    private final TransferRegistry registry =
+            new TransferRegistry( ( r ) -> new Transfer( r, null, null, null ) );
+
+    @Test
+    public void concurrentLookupsShareOneTransfer()
+        throws Exception
+    {
+        final ConcreteResource resource = new ConcreteResource( new SimpleLocation( "http://foo.com" ), "/path/to/file.pom" );
+
+        final ExecutorService executor = Executors.newFixedThreadPool( 8 );
+        try
+        {
+            final List<Callable<Transfer>> lookups = new ArrayList<Callable<Transfer>>();
+            for ( int i = 0; i < 64; i++ )
+            {
+                lookups.add( () -> registry.get( new ConcreteResource( resource.getLocation(), resource.getPath() ) ) );
+            }
+
+            final Transfer expected = registry.get( resource );
+            for ( final Future<Transfer> result : executor.invokeAll( lookups ) )
+            {
+                assertThat( result.get(), sameInstance( expected ) );
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        assertThat( registry.getCreatedCount(), equalTo( 1L ) );
+        assertThat( registry.getSize(), equalTo( 1 ) );
+    }
+
+    @Test
+    public void unreferencedTransfersAreEvicted()
+        throws Exception
+    {
+        final SimpleLocation loc = new SimpleLocation( "http://foo.com" );
+        for ( int i = 0; i < 100; i++ )
+        {
+            registry.get( new ConcreteResource( loc, "/path/" + i ) );
+        }
+
+        for ( int i = 0; i < 50 && registry.getEvictionCount() < 100; i++ )
+        {
+            System.gc();
+            Thread.sleep( 20 );
+            registry.get( new ConcreteResource( loc, "/path/kept" ) );
+        }
+
+        assertThat( registry.getEvictionCount(), equalTo( 100L ) );
+        assertThat( registry.getSize(), equalTo( 1 ) );
+    }
+
+}
@@ -18,6 +18,7 @@ package org.commonjava.maven.galley.cache.infinispan;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.commonjava.cdi.util.weft.ThreadContext;
+import org.commonjava.maven.galley.cache.TransferRegistry;
 import org.commonjava.maven.galley.cache.partyline.PartyLineCacheProvider;
 import org.commonjava.maven.galley.model.ConcreteResource;
 import org.commonjava.maven.galley.model.Location;
@@ -29,7 +30,6 @@ import org.commonjava.maven.galley.spi.io.TransferDecorator;
 import org.commonjava.maven.galley.util.PathUtils;
 import org.commonjava.util.partyline.JoinableFileManager;
 import org.commonjava.util.partyline.LockLevel;
-import org.infinispan.commons.util.concurrent.ConcurrentWeakKeyHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -55,7 +55,6 @@ import java.net.SocketException;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -83,7 +82,8 @@ public class FastLocalCacheProvider
     private String nfsBaseDir;
 
     // use weak key map to avoid the memory occupy for long time of the transfer
-    private final Map<ConcreteResource, Transfer> transferCache = new ConcurrentWeakKeyHashMap<>( 10000 );
+    private final TransferRegistry transfers =
+            new TransferRegistry( ( r ) -> new Transfer( r, this, this.fileEventManager, this.transferDecorator ) );
 
     private PartyLineCacheProvider plCacheProvider;
 
@@ -787,16 +787,15 @@ public class FastLocalCacheProvider
     }
 
     @Override
-    public synchronized Transfer getTransfer( ConcreteResource resource )
+    public Transfer getTransfer( ConcreteResource resource )
     {
-        return transferCache.computeIfAbsent( resource,
-                                                    r -> new Transfer( r, this, fileEventManager, transferDecorator ) );
+        return transfers.get( resource );
     }
 
     @Override
     public void clearTransferCache()
     {
-        transferCache.clear();
+        transfers.clear();
     }
 
     @Override
@@ -16,6 +16,7 @@
 package org.commonjava.maven.galley.cache.infinispan;
 
 import org.apache.commons.io.IOUtils;
+import org.commonjava.maven.galley.cache.TransferRegistry;
 import org.commonjava.maven.galley.model.ConcreteResource;
 import org.commonjava.maven.galley.model.Location;
 import org.commonjava.maven.galley.model.Transfer;
@@ -53,6 +54,9 @@ public class GridFileSystemCacheProvider
 
     private TransferDecorator transferDecorator;
 
+    private final TransferRegistry transfers =
+            new TransferRegistry( ( r ) -> new Transfer( r, this, this.fileEventManager, this.transferDecorator ) );
+
     public GridFileSystemCacheProvider( final PathGenerator pathGenerator, final FileEventManager fileEventManager,
                                         final TransferDecorator transferDecorator, GridFilesystem filesystem )
     {
@@ -223,14 +227,15 @@ public class GridFileSystemCacheProvider
     }
 
     @Override
-    public synchronized Transfer getTransfer( final ConcreteResource resource )
+    public Transfer getTransfer( final ConcreteResource resource )
     {
-        return new Transfer( resource, this, fileEventManager, transferDecorator );
+        return transfers.get( resource );
     }
 
     @Override
     public void clearTransferCache()
     {
+        transfers.clear();
     }
 
     @Override
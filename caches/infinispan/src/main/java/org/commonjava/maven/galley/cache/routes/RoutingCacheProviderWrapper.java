@@ -16,6 +16,7 @@
 package org.commonjava.maven.galley.cache.routes;
 
 import org.commonjava.maven.galley.model.ConcreteResource;
+import org.commonjava.maven.galley.model.ListingEntry;
 import org.commonjava.maven.galley.model.Location;
 import org.commonjava.maven.galley.model.Transfer;
 import org.commonjava.maven.galley.spi.cache.CacheProvider;
@@ -26,6 +27,9 @@ import javax.enterprise.inject.Alternative;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
 import java.util.Map;
 
 @Alternative
@@ -259,6 +263,44 @@ public class RoutingCacheProviderWrapper
         getRoutedProvider( resource ).waitForReadUnlock( resource );
     }
 
+    @Override
+    public List<ListingEntry> listEntries( ConcreteResource resource )
+    {
+        return getRoutedProvider( resource ).listEntries( resource );
+    }
+
+    @Override
+    public boolean isStale( ConcreteResource resource )
+    {
+        return getRoutedProvider( resource ).isStale( resource );
+    }
+
+    @Override
+    public void markFresh( ConcreteResource resource )
+    {
+        getRoutedProvider( resource ).markFresh( resource );
+    }
+
+    @Override
+    public void abortWrite( ConcreteResource resource, ConcreteResource keepPartialAs )
+    {
+        getRoutedProvider( resource ).abortWrite( resource, keepPartialAs );
+    }
+
+    @Override
+    public ReadableByteChannel openReadableChannel( ConcreteResource resource )
+            throws IOException
+    {
+        return getRoutedProvider( resource ).openReadableChannel( resource );
+    }
+
+    @Override
+    public WritableByteChannel openWritableChannel( ConcreteResource resource )
+            throws IOException
+    {
+        return getRoutedProvider( resource ).openWritableChannel( resource );
+    }
+
     @Override
     public AdminView asAdminView()
     {
@@ -17,6 +17,7 @@ package org.commonjava.maven.galley.cache.partyline;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.commonjava.maven.galley.cache.TransferRegistry;
 import org.commonjava.maven.galley.model.ConcreteResource;
 import org.commonjava.maven.galley.model.Location;
 import org.commonjava.maven.galley.model.Transfer;
@@ -40,8 +41,6 @@ import java.util.Arrays;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.WeakHashMap;
 import java.util.concurrent.TimeUnit;
 
 public class PartyLineCacheProvider
@@ -50,10 +49,8 @@ public class PartyLineCacheProvider
 
     private final Logger logger = LoggerFactory.getLogger( getClass() );
 
-    //FIX: use WeakHashMap to avoid potential OOM problem of un-releasing entry in map in long-run case.
-    //     As all map operations in this class are in synchronized block, the ConcurrentHashMap is not needed.
-    private final Map<ConcreteResource, Transfer> transferCache =
-        new WeakHashMap<>( 10000 );
+    private final TransferRegistry transfers =
+            new TransferRegistry( ( r ) -> new Transfer( r, this, this.fileEventManager, this.transferDecorator ) );
 
     private final JoinableFileManager fileManager = new JoinableFileManager();
 
@@ -396,22 +393,23 @@ public class PartyLineCacheProvider
     }
 
     @Override
-    public synchronized Transfer getTransfer( final ConcreteResource resource )
+    public Transfer getTransfer( final ConcreteResource resource )
     {
-        Transfer t = transferCache.get( resource );
-        if ( t == null )
-        {
-            t = new Transfer( resource, this, fileEventManager, transferDecorator );
-            transferCache.put( new ConcreteResource( resource.getLocation(), resource.getPath() ), t );
-        }
-
-        return t;
+        return transfers.get( resource );
     }
 
     @Override
-    public synchronized void clearTransferCache()
+    public void clearTransferCache()
+    {
+        transfers.clear();
+    }
+
+    /**
+     * The Transfer instances this provider hands out, for size and eviction metrics.
+     */
+    public TransferRegistry getTransferRegistry()
     {
-        transferCache.clear();
+        return transfers;
     }
 
     @Override
@@ -51,6 +51,11 @@ import javax.inject.Inject;
 public class EmbeddableCDIProducer
 {
 
+    /**
+     * System property that switches transfer jobs and batch retrievals over to virtual threads, on JVMs that have them.
+     */
+    public static final String VIRTUAL_THREADS_PROPERTY = "galley.virtual-threads";
+
     @Inject
     private TransportManager transportManager;
 
@@ -92,7 +97,8 @@ public class EmbeddableCDIProducer
         nfc = new MemoryNotFoundCache();
 //        locationExpander = new NoOpLocationExpander();
 //        locationResolver = new SimpleUrlLocationResolver( locationExpander, transportManager );
-        transportManagerConfig = new TransportManagerConfig();
+        transportManagerConfig =
+                new TransportManagerConfig().withVirtualThreads( Boolean.getBoolean( VIRTUAL_THREADS_PROPERTY ) );
 
         passwordManager = new MemoryPasswordManager();
         http = new HttpImpl( passwordManager );
@@ -24,6 +24,7 @@ import org.commonjava.maven.galley.internal.TransferManagerImpl;
 import org.commonjava.maven.galley.internal.xfer.DownloadHandler;
 import org.commonjava.maven.galley.internal.xfer.ExistenceHandler;
 import org.commonjava.maven.galley.internal.xfer.ListingHandler;
+import org.commonjava.maven.galley.internal.xfer.LocationScheduler;
 import org.commonjava.maven.galley.internal.xfer.UploadHandler;
 import org.commonjava.maven.galley.io.HashedLocationPathGenerator;
 import org.commonjava.maven.galley.io.NoOpTransferDecorator;
@@ -83,6 +84,10 @@ public class GalleyCoreBuilder
 
     private ExecutorService batchExecutor;
 
+    private LocationScheduler locationScheduler;
+
+    private boolean virtualThreads;
+
     private PasswordManager passwordManager;
 
     private PathGenerator pathGenerator;
@@ -119,8 +124,15 @@ public class GalleyCoreBuilder
             transportManager = new TransportManagerImpl( transports );
         }
 
-        handlerExecutor = Executors.newFixedThreadPool( 2, new NamedThreadFactory( "transfer-handlers", true, 4 ) );
-        batchExecutor = Executors.newFixedThreadPool( 2, new NamedThreadFactory( "transfer-batches", true, 4 ) );
+        if ( handlerExecutor == null )
+        {
+            handlerExecutor = Executors.newFixedThreadPool( 2, new NamedThreadFactory( "transfer-handlers", true, 4 ) );
+        }
+
+        if ( batchExecutor == null )
+        {
+            batchExecutor = Executors.newFixedThreadPool( 2, new NamedThreadFactory( "transfer-batches", true, 4 ) );
+        }
 
         if ( decorator == null )
         {
@@ -142,9 +154,17 @@ public class GalleyCoreBuilder
             transportManagerConfig = new TransportManagerConfig();
         }
 
-        final DownloadHandler dh = new DownloadHandler( getNfc(), transportManagerConfig, handlerExecutor );
-        final UploadHandler uh = new UploadHandler( getNfc(), transportManagerConfig, handlerExecutor );
-        final ListingHandler lh = new ListingHandler( getNfc() );
+        if ( virtualThreads )
+        {
+            transportManagerConfig.withVirtualThreads( true );
+        }
+
+        // one scheduler for all handlers, so per-location limits cover downloads, uploads and listings together.
+        locationScheduler = new LocationScheduler( handlerExecutor, transportManagerConfig );
+
+        final DownloadHandler dh = new DownloadHandler( getNfc(), transportManagerConfig, locationScheduler );
+        final UploadHandler uh = new UploadHandler( getNfc(), transportManagerConfig, locationScheduler );
+        final ListingHandler lh = new ListingHandler( getNfc(), locationScheduler );
         final ExistenceHandler eh = new ExistenceHandler( getNfc() );
 
         if ( specialPathManager == null )
@@ -173,7 +193,7 @@ public class GalleyCoreBuilder
         {
             transferManager =
                     new TransferManagerImpl( transportManager, getCache(), getNfc(), getFileEvents(), dh, uh, lh, eh,
-                                             specialPathManager, batchExecutor );
+                                             specialPathManager, transportManagerConfig, batchExecutor );
         }
 
         if ( locationExpander == null )
@@ -337,12 +357,36 @@ public class GalleyCoreBuilder
         return batchExecutor;
     }
 
+    /**
+     * The per-location scheduler shared by the transfer handlers; use it to read queue depth and wait times. Only
+     * available after {@link #initMissingComponents()}.
+     */
+    public LocationScheduler getLocationScheduler()
+    {
+        return locationScheduler;
+    }
+
     public GalleyCoreBuilder withBatchExecutor( final ExecutorService batchExecutor )
     {
         this.batchExecutor = batchExecutor;
         return this;
     }
 
+    /**
+     * Run transfer jobs and batch retrievals on virtual threads where the JVM supports them. The handler and batch
+     * executors are still created (or used, if supplied) as the fallback for older JVMs.
+     */
+    public GalleyCoreBuilder withVirtualThreads( final boolean virtualThreads )
+    {
+        this.virtualThreads = virtualThreads;
+        return this;
+    }
+
+    public boolean isVirtualThreads()
+    {
+        return virtualThreads;
+    }
+
     public LocationResolver getLocationResolver()
     {
         return locationResolver;
@@ -0,0 +1,200 @@
+/**
+ * Copyright (C) 2013 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.galley.cache;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.commonjava.maven.galley.model.ConcreteResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Expiry deadlines of cached resources, so the read path can check a resource's freshness with a map lookup instead
+ * of stat'ing its file on every access. Deadlines are kept in a map for lookups and in a priority queue for the
+ * periodic sweep, which hands expired resources to an {@link Sweeper}. Rescheduling a resource leaves its old queue
+ * entry behind; it's skipped when it comes up because it no longer matches the map. Resources leave the map when
+ * they're removed, when they're handed to the sweeper, or when they're rescheduled to {@link #NEVER}, so the index only
+ * holds resources that are due to expire.
+ */
+final class ExpiryIndex
+{
+
+    /**
+     * Deadline for resources that never expire (directories, or locations without a cache timeout). These aren't
+     * indexed.
+     */
+    static final long NEVER = Long.MAX_VALUE;
+
+    interface Sweeper
+    {
+        void expired( ConcreteResource resource, long deadline );
+    }
+
+    private static final ScheduledExecutorService SWEEP_TIMER = Executors.newSingleThreadScheduledExecutor( r -> {
+        final Thread t = new Thread( r, "galley-cache-expiry" );
+        t.setDaemon( true );
+        return t;
+    } );
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final Map<ConcreteResource, Long> deadlines = new ConcurrentHashMap<ConcreteResource, Long>();
+
+    private final PriorityBlockingQueue<Entry> queue = new PriorityBlockingQueue<Entry>();
+
+    private final long sweepIntervalMillis;
+
+    private ScheduledFuture<?> sweep;
+
+    ExpiryIndex( final long sweepIntervalMillis )
+    {
+        this.sweepIntervalMillis = sweepIntervalMillis;
+    }
+
+    /**
+     * @return the resource's deadline, or null if it hasn't been indexed yet
+     */
+    Long getDeadline( final ConcreteResource resource )
+    {
+        return deadlines.get( resource );
+    }
+
+    void schedule( final ConcreteResource resource, final long deadline )
+    {
+        if ( deadline == NEVER )
+        {
+            deadlines.remove( resource );
+            return;
+        }
+
+        deadlines.put( resource, deadline );
+        queue.add( new Entry( resource, deadline ) );
+    }
+
+    void remove( final ConcreteResource resource )
+    {
+        deadlines.remove( resource );
+    }
+
+    int size()
+    {
+        return deadlines.size();
+    }
+
+    /**
+     * Start sweeping periodically. The sweep only holds this index weakly, and stops itself once the index (and so
+     * its cache provider) is gone.
+     */
+    synchronized void startSweeping( final Sweeper sweeper )
+    {
+        if ( sweep != null )
+        {
+            return;
+        }
+
+        final WeakReference<ExpiryIndex> ref = new WeakReference<ExpiryIndex>( this );
+        final WeakReference<Sweeper> sweeperRef = new WeakReference<Sweeper>( sweeper );
+        sweep = SWEEP_TIMER.scheduleWithFixedDelay( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                final ExpiryIndex index = ref.get();
+                final Sweeper s = sweeperRef.get();
+                if ( index == null || s == null )
+                {
+                    throw new IllegalStateException( "Cache provider is gone; stopping its expiry sweep." );
+                }
+
+                index.sweep( s );
+            }
+        }, sweepIntervalMillis, sweepIntervalMillis, TimeUnit.MILLISECONDS );
+    }
+
+    synchronized void stopSweeping()
+    {
+        if ( sweep != null )
+        {
+            sweep.cancel( false );
+            sweep = null;
+        }
+    }
+
+    void sweep( final Sweeper sweeper )
+    {
+        for ( final Entry entry : drainExpired( System.currentTimeMillis() ) )
+        {
+            try
+            {
+                sweeper.expired( entry.resource, entry.deadline );
+            }
+            catch ( final RuntimeException e )
+            {
+                logger.error( "Failed to expire: " + entry.resource, e );
+            }
+        }
+    }
+
+    /**
+     * Take the expired resources out of the index. Entries whose resource was rescheduled or removed in the meantime
+     * are dropped.
+     */
+    List<Entry> drainExpired( final long now )
+    {
+        final List<Entry> expired = new ArrayList<Entry>();
+        Entry head;
+        while ( ( head = queue.peek() ) != null && head.deadline <= now )
+        {
+            queue.poll();
+            if ( deadlines.remove( head.resource, head.deadline ) )
+            {
+                expired.add( head );
+            }
+        }
+
+        return expired;
+    }
+
+    static final class Entry
+        implements Comparable<Entry>
+    {
+        private final ConcreteResource resource;
+
+        private final long deadline;
+
+        Entry( final ConcreteResource resource, final long deadline )
+        {
+            this.resource = resource;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public int compareTo( final Entry other )
+        {
+            return Long.compare( deadline, other.deadline );
+        }
+    }
+
+}
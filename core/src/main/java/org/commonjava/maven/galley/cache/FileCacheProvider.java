@@ -17,6 +17,7 @@ package org.commonjava.maven.galley.cache;
 
 import org.apache.commons.io.FileUtils;
 import org.commonjava.maven.galley.model.ConcreteResource;
+import org.commonjava.maven.galley.model.ListingEntry;
 import org.commonjava.maven.galley.model.Location;
 import org.commonjava.maven.galley.model.Transfer;
 import org.commonjava.maven.galley.spi.cache.CacheProvider;
@@ -24,6 +25,8 @@ import org.commonjava.maven.galley.spi.event.FileEventManager;
 import org.commonjava.maven.galley.spi.io.PathGenerator;
 import org.commonjava.maven.galley.spi.io.TransferDecorator;
 import org.commonjava.maven.galley.util.AtomicFileOutputStreamWrapper;
+import org.commonjava.maven.galley.util.ClosingFileChannel;
+import org.commonjava.maven.galley.util.LocationUtils;
 import org.commonjava.maven.galley.util.PathUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,9 +41,16 @@ import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -52,7 +62,8 @@ public class FileCacheProvider
 
     private final Logger logger = LoggerFactory.getLogger( getClass() );
 
-    private final Map<ConcreteResource, Transfer> transferCache = new ConcurrentHashMap<ConcreteResource, Transfer>( 10000 );
+    private final TransferRegistry transfers =
+            new TransferRegistry( ( r ) -> new Transfer( r, this, this.fileEventManager, this.transferDecorator ) );
 
     private FileCacheProviderConfig config;
 
@@ -64,13 +75,28 @@ public class FileCacheProvider
 
     private final SimpleLockingSupport lockingSupport = new SimpleLockingSupport();
 
+    private final Map<ConcreteResource, InProgressWrite> writesInProgress =
+            new ConcurrentHashMap<ConcreteResource, InProgressWrite>();
+
+    /**
+     * Writes abandoned via {@link #abortWrite(ConcreteResource, ConcreteResource)}, mapped to where their partial
+     * content should be kept (the resource itself means discard it).
+     */
+    private final Map<ConcreteResource, ConcreteResource> abortedWrites =
+            new ConcurrentHashMap<ConcreteResource, ConcreteResource>();
+
+    /**
+     * Expiry deadlines of cached files, so reads don't have to stat them to enforce the cache timeout.
+     */
+    private final ExpiryIndex expiryIndex;
+
+    private final ExpiryIndex.Sweeper sweeper = this::sweepExpired;
+
     public FileCacheProvider( final File cacheBasedir, final PathGenerator pathGenerator, final FileEventManager fileEventManager,
                               final TransferDecorator transferDecorator, final boolean aliasLinking )
     {
-        this.pathGenerator = pathGenerator;
-        this.fileEventManager = fileEventManager;
-        this.transferDecorator = transferDecorator;
-        this.config = new FileCacheProviderConfig( cacheBasedir ).withAliasLinking( aliasLinking );
+        this( new FileCacheProviderConfig( cacheBasedir ).withAliasLinking( aliasLinking ), pathGenerator,
+              fileEventManager, transferDecorator );
     }
 
     public FileCacheProvider( final FileCacheProviderConfig config, final PathGenerator pathGenerator, final FileEventManager fileEventManager,
@@ -80,6 +106,7 @@ public class FileCacheProvider
         this.pathGenerator = pathGenerator;
         this.fileEventManager = fileEventManager;
         this.transferDecorator = transferDecorator;
+        this.expiryIndex = new ExpiryIndex( TimeUnit.SECONDS.toMillis( config.getExpirySweepSeconds() ) );
     }
 
     public FileCacheProvider( final File cacheBasedir, final PathGenerator pathGenerator, final FileEventManager fileEventManager,
@@ -96,56 +123,185 @@ public class FileCacheProvider
     @Override
     public File getDetachedFile( final ConcreteResource resource )
     {
-        // TODO: this might be a bit heavy-handed, but we need to be sure. 
-        // Maybe I can improve it later.
-        final Transfer txfr = getTransfer( resource );
-        synchronized ( txfr )
+        final File f = getRawFile( resource );
+        if ( resource.isRoot() )
         {
-            File f = getRawFile( resource );
-            if ( resource.isRoot() && !f.isDirectory() )
+            if ( !f.isDirectory() )
             {
                 f.mkdirs();
             }
 
-            // TODO: configurable default timeout
-            final int timeoutSeconds = resource.getLocation()
-                        .getAttribute( Location.CACHE_TIMEOUT_SECONDS, Integer.class,
-                                       Location.DEFAULT_CACHE_TIMEOUT_SECONDS );
+            return f;
+        }
 
-            if ( !resource.isRoot() && f.exists() && !f.isDirectory() && timeoutSeconds > 0 )
+        if ( !config.isRevalidateExpired() )
+        {
+            final Long deadline = getExpiryDeadline( resource, f );
+            if ( deadline != null && deadline <= System.currentTimeMillis() )
             {
-                final long current = System.currentTimeMillis();
-                final long lastModified = f.lastModified();
-                final int tos =
-                    timeoutSeconds < Location.MIN_CACHE_TIMEOUT_SECONDS ? Location.MIN_CACHE_TIMEOUT_SECONDS
-                                    : timeoutSeconds;
+                // the sweep hasn't caught up with this one yet.
+                expire( resource, deadline );
+            }
+        }
+
+        return f;
+    }
 
-                final long timeout = TimeUnit.MILLISECONDS.convert( tos, TimeUnit.SECONDS );
+    /**
+     * The resource's expiry deadline from the index. Resources the index hasn't seen yet (e.g. cached before this
+     * provider started) are indexed here, costing one stat on their first access. Directories and locations without a
+     * cache timeout never expire, so they're not indexed.
+     *
+     * @return the deadline, or null if there's no cached file for the resource
+     */
+    private Long getExpiryDeadline( final ConcreteResource resource, final File f )
+    {
+        final Long deadline = expiryIndex.getDeadline( resource );
+        if ( deadline != null )
+        {
+            return deadline;
+        }
 
-                if ( current - lastModified > timeout )
-                {
-                    final File mved = new File( f.getPath() + SUFFIX_TO_DELETE );
-                    f.renameTo( mved );
-
-                    try
-                    {
-                        logger.info( "Deleting cached file: {} (moved to: {})\n  due to timeout after: {}\n  elapsed: {}\n  original timeout in seconds: {}",
-                                     f, mved, timeout, ( current - lastModified ), tos );
-
-                        if ( mved.exists() )
-                        {
-                            FileUtils.forceDelete( mved );
-                        }
-                    }
-                    catch ( final IOException e )
-                    {
-                        logger.error( String.format( "Failed to delete: %s.", f ), e );
-                    }
-                }
+        final long timeout = getCacheTimeoutMillis( resource );
+        if ( timeout <= 0 )
+        {
+            return ExpiryIndex.NEVER;
+        }
+
+        final BasicFileAttributes attrs;
+        try
+        {
+            attrs = Files.readAttributes( f.toPath(), BasicFileAttributes.class );
+        }
+        catch ( final IOException e )
+        {
+            // not cached (yet).
+            return null;
+        }
+
+        if ( !attrs.isRegularFile() )
+        {
+            return ExpiryIndex.NEVER;
+        }
+
+        final long indexed = attrs.lastModifiedTime().toMillis() + timeout;
+        scheduleExpiry( resource, indexed );
+        return indexed;
+    }
+
+    private void scheduleExpiry( final ConcreteResource resource, final long deadline )
+    {
+        expiryIndex.schedule( resource, deadline );
+        if ( deadline != ExpiryIndex.NEVER )
+        {
+            expiryIndex.startSweeping( sweeper );
+        }
+    }
+
+    /**
+     * Index a freshly stored (or revalidated) file's deadline.
+     */
+    private void scheduleExpiry( final ConcreteResource resource )
+    {
+        final long timeout = getCacheTimeoutMillis( resource );
+        scheduleExpiry( resource, timeout > 0 ? System.currentTimeMillis() + timeout : ExpiryIndex.NEVER );
+    }
+
+    /**
+     * Called by the expiry sweep, which has already taken the resource out of the index. Stale files are kept in
+     * revalidation mode ({@link #isStale(ConcreteResource)} re-indexes them from the file's timestamp on next access);
+     * otherwise expired files are deleted, unless they're in use, in which case we try again on a later sweep.
+     */
+    private void sweepExpired( final ConcreteResource resource, final long deadline )
+    {
+        if ( config.isRevalidateExpired() )
+        {
+            logger.debug( "Cached file: {} is now stale; keeping it for revalidation.", resource );
+            return;
+        }
+
+        if ( lockingSupport.isLocked( resource ) )
+        {
+            logger.debug( "Expired file: {} is in use; deferring its deletion.", resource );
+            scheduleExpiry( resource,
+                            System.currentTimeMillis() + TimeUnit.SECONDS.toMillis( config.getExpirySweepSeconds() ) );
+            return;
+        }
+
+        expire( resource, deadline );
+    }
+
+    private void expire( final ConcreteResource resource, final long deadline )
+    {
+        synchronized ( getTransfer( resource ) )
+        {
+            final Long current = expiryIndex.getDeadline( resource );
+            if ( current != null && current != deadline )
+            {
+                // raced with a new write.
+                return;
             }
 
-            return f;
+            expiryIndex.remove( resource );
+
+            final File f = getRawFile( resource );
+            final File mved = new File( f.getPath() + SUFFIX_TO_DELETE );
+            if ( !f.renameTo( mved ) )
+            {
+                return;
+            }
+
+            try
+            {
+                logger.info( "Deleting cached file: {} (moved to: {})\n  due to timeout after: {}", f, mved,
+                             getCacheTimeoutMillis( resource ) );
+
+                FileUtils.forceDelete( mved );
+            }
+            catch ( final IOException e )
+            {
+                logger.error( String.format( "Failed to delete: %s.", f ), e );
+            }
+        }
+    }
+
+    /**
+     * The location's cache timeout (never less than {@link Location#MIN_CACHE_TIMEOUT_SECONDS}), or 0 if cached files
+     * never expire.
+     */
+    private long getCacheTimeoutMillis( final ConcreteResource resource )
+    {
+        // TODO: configurable default timeout
+        return TimeUnit.SECONDS.toMillis( LocationUtils.getCacheTimeoutSeconds( resource.getLocation() ) );
+    }
+
+    @Override
+    public boolean isStale( final ConcreteResource resource )
+    {
+        if ( !config.isRevalidateExpired() || resource.isRoot() )
+        {
+            return false;
         }
+
+        final Long deadline = getExpiryDeadline( resource, getRawFile( resource ) );
+        return deadline != null && deadline <= System.currentTimeMillis();
+    }
+
+    int getExpiryIndexSize()
+    {
+        return expiryIndex.size();
+    }
+
+    @Override
+    public void markFresh( final ConcreteResource resource )
+    {
+        final File f = getRawFile( resource );
+        if ( f.isFile() && !f.setLastModified( System.currentTimeMillis() ) )
+        {
+            logger.warn( "Failed to refresh cache timeout of: {}", f );
+        }
+
+        scheduleExpiry( resource );
     }
 
     private File getRawFile( ConcreteResource resource )
@@ -177,19 +333,106 @@ public class FileCacheProvider
             throws IOException
 
     {
+        final InputStream following = openFollowingStream( resource );
+        if ( following != null )
+        {
+            return following;
+        }
+
         waitForReadUnlock( resource );
         lockRead( resource );
         final File targetFile = getDetachedFile( resource );
         if ( !targetFile.exists() )
         {
+            unlockRead( resource );
             return null;
         }
         return new UnlockInputStream( resource, this, new FileInputStream( targetFile ) );
     }
 
+    @Override
+    public ReadableByteChannel openReadableChannel( final ConcreteResource resource )
+            throws IOException
+    {
+        final InputStream following = openFollowingStream( resource );
+        if ( following != null )
+        {
+            return Channels.newChannel( following );
+        }
+
+        waitForReadUnlock( resource );
+        lockRead( resource );
+        final File targetFile = getDetachedFile( resource );
+        if ( !targetFile.exists() )
+        {
+            unlockRead( resource );
+            return null;
+        }
+
+        try
+        {
+            return new ClosingFileChannel( FileChannel.open( targetFile.toPath(), StandardOpenOption.READ ),
+                                           () -> unlockRead( resource ) );
+        }
+        catch ( final IOException e )
+        {
+            unlockRead( resource );
+            throw e;
+        }
+    }
+
     @Override
     public OutputStream openOutputStream( final ConcreteResource resource )
             throws IOException
+    {
+        final File targetFile = startWrite( resource );
+        final File downloadFile = new File( targetFile.getPath() + CacheProvider.SUFFIX_TO_WRITE );
+        final FileOutputStream stream = new FileOutputStream( downloadFile );
+
+        if ( !config.isTailFollowReads() )
+        {
+            return new AtomicFileOutputStreamWrapper( targetFile, downloadFile, stream,
+                                                      new AbortableWriteCallbacks( resource ) );
+        }
+
+        final InProgressWrite write = new InProgressWrite( targetFile, downloadFile, TimeUnit.SECONDS.toMillis(
+                LocationUtils.getTimeoutSeconds( resource.getLocation() ) ) );
+        writesInProgress.put( resource, write );
+
+        return new AtomicFileOutputStreamWrapper( targetFile, downloadFile, write.track( stream ),
+                                                  new AbortableWriteCallbacks( resource )
+                                                  {
+                                                      @Override
+                                                      public void afterClose()
+                                                      {
+                                                          super.afterClose();
+                                                          writesInProgress.remove( resource, write );
+                                                          write.closed( isCommitted() );
+                                                      }
+                                                  } );
+    }
+
+    @Override
+    public WritableByteChannel openWritableChannel( final ConcreteResource resource )
+            throws IOException
+    {
+        if ( config.isTailFollowReads() )
+        {
+            // readers following the write are woken from the stream's write() calls, which a channel would bypass
+            return Channels.newChannel( openOutputStream( resource ) );
+        }
+
+        final File targetFile = startWrite( resource );
+        final File downloadFile = new File( targetFile.getPath() + CacheProvider.SUFFIX_TO_WRITE );
+        final FileOutputStream stream = new FileOutputStream( downloadFile );
+
+        return new ClosingFileChannel( stream.getChannel(),
+                                       new AtomicFileOutputStreamWrapper( targetFile, downloadFile, stream,
+                                                                          new AbortableWriteCallbacks( resource ) ) );
+    }
+
+    private File startWrite( final ConcreteResource resource )
+            throws IOException
     {
         waitForWriteUnlock( resource );
         lockWrite( resource );
@@ -201,10 +444,106 @@ public class FileCacheProvider
             throw new IOException( "Cannot create directory: " + dir );
         }
 
-        final File downloadFile = new File( targetFile.getPath() + CacheProvider.SUFFIX_TO_WRITE );
-        final FileOutputStream stream = new FileOutputStream( downloadFile );
+        abortedWrites.remove( resource );
+        return targetFile;
+    }
+
+    @Override
+    public void abortWrite( final ConcreteResource resource, final ConcreteResource keepPartialAs )
+    {
+        abortedWrites.put( resource, keepPartialAs == null ? resource : keepPartialAs );
+    }
+
+    /**
+     * Skips the commit of a write that was aborted, moving its content to the requested partial location (if any).
+     */
+    private class AbortableWriteCallbacks
+            extends AtomicFileOutputStreamWrapper.AtomicStreamCallbacks
+    {
+        private final ConcreteResource resource;
+
+        private boolean committed;
+
+        AbortableWriteCallbacks( final ConcreteResource resource )
+        {
+            this.resource = resource;
+        }
+
+        @Override
+        public boolean shouldCommit()
+        {
+            committed = !abortedWrites.containsKey( resource );
+            return committed;
+        }
+
+        @Override
+        public void afterClose()
+        {
+            if ( committed )
+            {
+                scheduleExpiry( resource );
+            }
+        }
+
+        boolean isCommitted()
+        {
+            return committed;
+        }
+
+        @Override
+        public void abandoned( final File downloadFile )
+        {
+            final ConcreteResource keepAs = abortedWrites.remove( resource );
+            if ( keepAs == null || keepAs.equals( resource ) )
+            {
+                logger.debug( "Discarding aborted write of: {}", resource );
+                downloadFile.delete();
+                return;
+            }
 
-        return new AtomicFileOutputStreamWrapper( targetFile, downloadFile, stream );
+            final File partial = getDetachedFile( keepAs );
+            partial.getParentFile().mkdirs();
+            partial.delete();
+            if ( !downloadFile.renameTo( partial ) )
+            {
+                logger.warn( "Failed to keep partial content of: {} as: {}", resource, partial );
+                downloadFile.delete();
+            }
+            else
+            {
+                logger.debug( "Kept partial content of aborted write: {} as: {}", resource, partial );
+            }
+        }
+    }
+
+    /**
+     * In tail-follow mode, return a stream that follows the in-progress write of this resource, or null if it isn't
+     * being written (or the write committed before the in-progress file could be opened).
+     */
+    private InputStream openFollowingStream( final ConcreteResource resource )
+    {
+        if ( !config.isTailFollowReads() )
+        {
+            return null;
+        }
+
+        final InProgressWrite write = writesInProgress.get( resource );
+        if ( write == null )
+        {
+            return null;
+        }
+
+        try
+        {
+            logger.debug( "Following in-progress write of: {}", resource );
+            return write.openReader();
+        }
+        catch ( final IOException e )
+        {
+            logger.debug( "In-progress write of: {} finished before it could be followed: {}", resource,
+                          e.getMessage() );
+            return null;
+        }
     }
 
     @Override
@@ -212,7 +551,7 @@ public class FileCacheProvider
     {
         final File f = getRawFile( resource );
         //        logger.info( "Checking for existence of cache file: {}", f );
-        return f.exists();
+        return f.exists() || ( config.isTailFollowReads() && writesInProgress.containsKey( resource ) );
     }
 
     @Override
@@ -220,13 +559,19 @@ public class FileCacheProvider
         throws IOException
     {
         FileUtils.copyFile( getDetachedFile( from ), getDetachedFile( to ) );
+
+        // the copy keeps the source's timestamp; re-index from it on next access.
+        expiryIndex.remove( to );
     }
 
     @Override
     public boolean delete( final ConcreteResource resource )
         throws IOException
     {
-        return getDetachedFile( resource ).delete();
+        // getDetachedFile() may index the resource, so drop it from the index afterward.
+        final boolean deleted = getDetachedFile( resource ).delete();
+        expiryIndex.remove( resource );
+        return deleted;
     }
 
     @Override
@@ -238,26 +583,73 @@ public class FileCacheProvider
             return null;
         }
 
-        final List<String> list = new ArrayList<String>( Arrays.asList( listing ) );
-        for ( final Iterator<String> it = list.iterator(); it.hasNext(); )
+        final List<String> list = new ArrayList<String>( listing.length );
+        for ( final String fname : listing )
         {
-            final String fname = it.next();
-            if ( fname.charAt( 0 ) == '.' )
+            if ( !isHidden( fname ) )
             {
-                it.remove();
-                continue;
+                list.add( fname );
             }
+        }
 
-            for ( final String suffix : HIDDEN_SUFFIXES )
+        return list.toArray( new String[list.size()] );
+    }
+
+    /**
+     * Reads each child's attributes in the same directory pass that yields its name, instead of resolving a
+     * {@link Transfer} and stat'ing it separately per child.
+     */
+    @Override
+    public List<ListingEntry> listEntries( final ConcreteResource resource )
+    {
+        final Path dir = getDetachedFile( resource ).toPath();
+        final List<ListingEntry> entries = new ArrayList<ListingEntry>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream( dir ))
+        {
+            for ( final Path child : stream )
             {
-                if ( fname.endsWith( suffix ) )
+                final String fname = child.getFileName().toString();
+                if ( isHidden( fname ) )
+                {
+                    continue;
+                }
+
+                final BasicFileAttributes attrs;
+                try
+                {
+                    attrs = Files.readAttributes( child, BasicFileAttributes.class );
+                }
+                catch ( final IOException e )
                 {
-                    it.remove();
+                    // removed since the directory was read.
+                    continue;
                 }
+
+                entries.add( new ListingEntry( fname, attrs.isDirectory(), attrs.size(),
+                                               attrs.lastModifiedTime().toMillis() ) );
             }
         }
+        catch ( final IOException e )
+        {
+            logger.debug( "Cannot list: {}. Reason: {}", dir, e.getMessage() );
+            return null;
+        }
 
-        return list.toArray( new String[list.size()] );
+        return entries;
+    }
+
+    /**
+     * Dot-files and in-progress/partial files (see {@link CacheProvider#HIDDEN_SUFFIXES}) never show up in listings.
+     */
+    private static boolean isHidden( final String fname )
+    {
+        if ( fname.isEmpty() || fname.charAt( 0 ) == '.' )
+        {
+            return true;
+        }
+
+        final int idx = fname.lastIndexOf( '.' );
+        return idx > 0 && HIDDEN_SUFFIXES.contains( fname.substring( idx ) );
     }
 
     @Override
@@ -272,6 +664,7 @@ public class FileCacheProvider
         throws IOException
     {
         getDetachedFile( resource ).createNewFile();
+        expiryIndex.remove( resource );
     }
 
     @Override
@@ -293,6 +686,7 @@ public class FileCacheProvider
                 final File toFile = getDetachedFile( to );
 
                 FileUtils.copyFile( fromFile, toFile );
+                expiryIndex.remove( to );
                 //                Files.createLink( Paths.get( fromFile.toURI() ), Paths.get( toFile.toURI() ) );
             }
             else
@@ -317,22 +711,23 @@ public class FileCacheProvider
     }
 
     @Override
-    public synchronized Transfer getTransfer( final ConcreteResource resource )
+    public Transfer getTransfer( final ConcreteResource resource )
     {
-        Transfer t = transferCache.get( resource );
-        if ( t == null )
-        {
-            t = new Transfer( resource, this, fileEventManager, transferDecorator );
-            transferCache.put( resource, t );
-        }
-
-        return t;
+        return transfers.get( resource );
     }
 
     @Override
     public void clearTransferCache()
     {
-        transferCache.clear();
+        transfers.clear();
+    }
+
+    /**
+     * The Transfer instances this provider hands out, for size and eviction metrics.
+     */
+    public TransferRegistry getTransferRegistry()
+    {
+        return transfers;
     }
 
     @Override
@@ -350,49 +745,55 @@ public class FileCacheProvider
     @Override
     public boolean isReadLocked( final ConcreteResource resource )
     {
-        return lockingSupport.isLocked( resource );
+        return lockingSupport.isReadLocked( resource );
     }
 
     @Override
     public boolean isWriteLocked( final ConcreteResource resource )
     {
-        return lockingSupport.isLocked( resource );
+        return lockingSupport.isWriteLocked( resource );
     }
 
     @Override
     public void unlockRead( final ConcreteResource resource )
     {
-        lockingSupport.unlock( resource );
+        lockingSupport.unlockRead( resource );
     }
 
     @Override
     public void unlockWrite( final ConcreteResource resource )
     {
-        lockingSupport.unlock( resource );
+        lockingSupport.unlockWrite( resource );
     }
 
     @Override
     public void lockRead( final ConcreteResource resource )
     {
-        lockingSupport.lock( resource );
+        lockingSupport.lockRead( resource );
     }
 
     @Override
     public void lockWrite( final ConcreteResource resource )
     {
-        lockingSupport.lock( resource );
+        lockingSupport.lockWrite( resource );
     }
 
     @Override
     public void waitForWriteUnlock( final ConcreteResource resource )
     {
-        lockingSupport.waitForUnlock( resource );
+        lockingSupport.waitForWriteUnlock( resource );
     }
 
     @Override
     public void waitForReadUnlock( final ConcreteResource resource )
     {
-        lockingSupport.waitForUnlock( resource );
+        if ( config.isTailFollowReads() && writesInProgress.containsKey( resource ) )
+        {
+            // readers follow the in-progress file instead of waiting for the writer.
+            return;
+        }
+
+        lockingSupport.waitForReadUnlock( resource );
     }
 
     @Override
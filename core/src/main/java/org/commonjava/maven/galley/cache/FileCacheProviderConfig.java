@@ -22,8 +22,16 @@ import javax.inject.Named;
 
 public class FileCacheProviderConfig
 {
+    public static final int DEFAULT_EXPIRY_SWEEP_SECONDS = 60;
+
     private Boolean aliasLinking;
 
+    private Boolean tailFollowReads;
+
+    private Boolean revalidateExpired;
+
+    private Integer expirySweepSeconds;
+
     private final File cacheBasedir;
 
     public FileCacheProviderConfig( final File cacheBasedir )
@@ -42,6 +50,52 @@ public class FileCacheProviderConfig
         return aliasLinking == null ? true : aliasLinking;
     }
 
+    /**
+     * When enabled, a file that is still being written counts as existing, and readers stream it from the
+     * in-progress {@code .to-write} file as bytes land (seeing EOF only once the write commits), instead of waiting
+     * for the whole file.
+     */
+    public FileCacheProviderConfig withTailFollowReads( final boolean tailFollowReads )
+    {
+        this.tailFollowReads = tailFollowReads;
+        return this;
+    }
+
+    public boolean isTailFollowReads()
+    {
+        return tailFollowReads == null ? false : tailFollowReads;
+    }
+
+    /**
+     * When enabled, files older than their location's cache timeout are kept and reported stale instead of being
+     * deleted, so the next retrieval can revalidate them with a conditional request.
+     */
+    public FileCacheProviderConfig withRevalidateExpired( final boolean revalidateExpired )
+    {
+        this.revalidateExpired = revalidateExpired;
+        return this;
+    }
+
+    public boolean isRevalidateExpired()
+    {
+        return revalidateExpired == null ? false : revalidateExpired;
+    }
+
+    /**
+     * How often cached files past their location's cache timeout are swept (deleted, or left stale when revalidating).
+     * Files found expired on access before the sweep gets to them are handled right away.
+     */
+    public FileCacheProviderConfig withExpirySweepSeconds( final int expirySweepSeconds )
+    {
+        this.expirySweepSeconds = expirySweepSeconds;
+        return this;
+    }
+
+    public int getExpirySweepSeconds()
+    {
+        return expirySweepSeconds == null ? DEFAULT_EXPIRY_SWEEP_SECONDS : expirySweepSeconds;
+    }
+
     public File getCacheBasedir()
     {
         return cacheBasedir;
@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2013 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.galley.cache;
+
+/**
+ * Sizing for {@link HotContentCacheProvider}. Unset values fall back to the defaults.
+ */
+public class HotContentCacheConfig
+{
+    public static final long DEFAULT_CAPACITY_BYTES = 64 * 1024 * 1024;
+
+    public static final int DEFAULT_MAX_ENTRY_BYTES = 64 * 1024;
+
+    private Long capacityBytes;
+
+    private Integer maxEntryBytes;
+
+    private Boolean offHeap;
+
+    /**
+     * Total size of the content held in memory; least recently read entries are evicted beyond this.
+     */
+    public HotContentCacheConfig withCapacityBytes( final long capacityBytes )
+    {
+        this.capacityBytes = capacityBytes;
+        return this;
+    }
+
+    public long getCapacityBytes()
+    {
+        return capacityBytes == null ? DEFAULT_CAPACITY_BYTES : capacityBytes;
+    }
+
+    /**
+     * Files larger than this are never held in memory.
+     */
+    public HotContentCacheConfig withMaxEntryBytes( final int maxEntryBytes )
+    {
+        this.maxEntryBytes = maxEntryBytes;
+        return this;
+    }
+
+    public int getMaxEntryBytes()
+    {
+        return maxEntryBytes == null ? DEFAULT_MAX_ENTRY_BYTES : maxEntryBytes;
+    }
+
+    /**
+     * Keep content in direct buffers, outside the Java heap.
+     */
+    public HotContentCacheConfig withOffHeap( final boolean offHeap )
+    {
+        this.offHeap = offHeap;
+        return this;
+    }
+
+    public boolean isOffHeap()
+    {
+        return offHeap == null ? false : offHeap;
+    }
+
+}
@@ -0,0 +1,774 @@
+/**
+ * Copyright (C) 2013 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.galley.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.commonjava.maven.galley.model.ConcreteResource;
+import org.commonjava.maven.galley.model.ListingEntry;
+import org.commonjava.maven.galley.model.SpecialPathInfo;
+import org.commonjava.maven.galley.model.Transfer;
+import org.commonjava.maven.galley.spi.cache.CacheProvider;
+import org.commonjava.maven.galley.spi.event.FileEventManager;
+import org.commonjava.maven.galley.spi.io.SpecialPathManager;
+import org.commonjava.maven.galley.spi.io.TransferDecorator;
+import org.commonjava.maven.galley.util.ClosingFileChannel;
+import org.commonjava.maven.galley.util.LocationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Wraps another {@link CacheProvider} with an in-memory tier for small, frequently read files (POMs,
+ * maven-metadata.xml, checksum and .http-metadata.json sidecars...), so repeated reads skip the wrapped provider's file
+ * open, locking and stream setup.
+ * <p>
+ * A file is picked up the first time it is read all the way through from the wrapped provider, if it is no larger than
+ * {@link HotContentCacheConfig#getMaxEntryBytes()} and its special path (if any) is cachable. Entries are dropped when
+ * the resource is written, deleted, copied over or marked fresh, and when the location's cache timeout runs out, and
+ * the least recently read ones are evicted to stay within {@link HotContentCacheConfig#getCapacityBytes()}.
+ * <p>
+ * Transfers handed out by this provider read and write through it; content changed behind its back (e.g. through the
+ * wrapped provider's admin view) stays visible only until the entry expires.
+ */
+public class HotContentCacheProvider
+    implements CacheProvider
+{
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final CacheProvider delegate;
+
+    private final HotContentCacheConfig config;
+
+    private final SpecialPathManager specialPathManager;
+
+    private final FileEventManager fileEventManager;
+
+    private final TransferDecorator transferDecorator;
+
+    private final TransferRegistry transfers;
+
+    private final LinkedHashMap<ConcreteResource, Entry> entries = new LinkedHashMap<ConcreteResource, Entry>( 16, 0.75f,
+                                                                                                             true );
+
+    private long sizeBytes;
+
+    // reads being captured, by resource; invalidating a resource marks its captures stale so they aren't installed.
+    private final Map<ConcreteResource, List<CapturingInputStream>> capturing =
+            new HashMap<ConcreteResource, List<CapturingInputStream>>();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    public HotContentCacheProvider( final CacheProvider delegate, final HotContentCacheConfig config,
+                                    final SpecialPathManager specialPathManager,
+                                    final FileEventManager fileEventManager,
+                                    final TransferDecorator transferDecorator )
+    {
+        this.delegate = delegate;
+        this.config = config;
+        this.specialPathManager = specialPathManager;
+        this.fileEventManager = fileEventManager;
+        this.transferDecorator = transferDecorator;
+        this.transfers = new TransferRegistry( ( r ) -> new Transfer( r, this, fileEventManager, transferDecorator ) );
+    }
+
+    /**
+     * Reads of eligible files served from memory.
+     */
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    /**
+     * Reads of eligible files that went to the wrapped provider.
+     */
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    public long getEvictionCount()
+    {
+        return evictions.get();
+    }
+
+    public long getSizeBytes()
+    {
+        synchronized ( entries )
+        {
+            return sizeBytes;
+        }
+    }
+
+    public int getEntryCount()
+    {
+        synchronized ( entries )
+        {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public InputStream openInputStream( final ConcreteResource resource )
+        throws IOException
+    {
+        if ( !isEligible( resource ) )
+        {
+            return delegate.openInputStream( resource );
+        }
+
+        final Entry entry = lookup( resource );
+        if ( entry != null )
+        {
+            hits.incrementAndGet();
+            return new ByteBufferInputStream( entry.content.duplicate() );
+        }
+
+        misses.incrementAndGet();
+
+        // register the capture before opening, so an invalidation that lands while the wrapped provider opens the
+        // (old) content still marks it stale.
+        final CapturingInputStream capture = new CapturingInputStream( resource );
+        synchronized ( entries )
+        {
+            List<CapturingInputStream> captures = capturing.get( resource );
+            if ( captures == null )
+            {
+                captures = new ArrayList<CapturingInputStream>( 1 );
+                capturing.put( resource, captures );
+            }
+            captures.add( capture );
+        }
+
+        try
+        {
+            final InputStream stream = delegate.openInputStream( resource );
+            if ( stream == null || delegate.length( resource ) > config.getMaxEntryBytes() )
+            {
+                // too big to keep; don't bother copying it.
+                return stream;
+            }
+
+            capture.open( stream );
+            return capture;
+        }
+        finally
+        {
+            if ( !capture.isOpen() )
+            {
+                release( capture );
+            }
+        }
+    }
+
+    @Override
+    public ReadableByteChannel openReadableChannel( final ConcreteResource resource )
+        throws IOException
+    {
+        if ( isEligible( resource ) )
+        {
+            final Entry entry = lookup( resource );
+            if ( entry != null )
+            {
+                hits.incrementAndGet();
+                return Channels.newChannel( new ByteBufferInputStream( entry.content.duplicate() ) );
+            }
+        }
+
+        return delegate.openReadableChannel( resource );
+    }
+
+    @Override
+    public OutputStream openOutputStream( final ConcreteResource resource )
+        throws IOException
+    {
+        invalidate( resource );
+        final OutputStream stream = delegate.openOutputStream( resource );
+        return stream == null ? null : new InvalidatingOutputStream( stream, resource );
+    }
+
+    @Override
+    public WritableByteChannel openWritableChannel( final ConcreteResource resource )
+        throws IOException
+    {
+        invalidate( resource );
+        final WritableByteChannel channel = delegate.openWritableChannel( resource );
+        if ( channel == null )
+        {
+            return null;
+        }
+        else if ( channel instanceof FileChannel )
+        {
+            return new ClosingFileChannel( (FileChannel) channel, () -> invalidate( resource ) );
+        }
+
+        return Channels.newChannel( new InvalidatingOutputStream( Channels.newOutputStream( channel ), resource ) );
+    }
+
+    @Override
+    public boolean delete( final ConcreteResource resource )
+        throws IOException
+    {
+        try
+        {
+            return delegate.delete( resource );
+        }
+        finally
+        {
+            invalidate( resource );
+        }
+    }
+
+    @Override
+    public void copy( final ConcreteResource from, final ConcreteResource to )
+        throws IOException
+    {
+        try
+        {
+            delegate.copy( from, to );
+        }
+        finally
+        {
+            invalidate( to );
+        }
+    }
+
+    @Override
+    @Deprecated
+    public void createFile( final ConcreteResource resource )
+        throws IOException
+    {
+        try
+        {
+            delegate.createFile( resource );
+        }
+        finally
+        {
+            invalidate( resource );
+        }
+    }
+
+    @Override
+    @Deprecated
+    public void createAlias( final ConcreteResource from, final ConcreteResource to )
+        throws IOException
+    {
+        try
+        {
+            delegate.createAlias( from, to );
+        }
+        finally
+        {
+            invalidate( to );
+        }
+    }
+
+    @Override
+    public void markFresh( final ConcreteResource resource )
+    {
+        // the entry's deadline was derived from the old timestamp
+        invalidate( resource );
+        delegate.markFresh( resource );
+    }
+
+    @Override
+    public Transfer getTransfer( final ConcreteResource resource )
+    {
+        return transfers.get( resource );
+    }
+
+    @Override
+    public void clearTransferCache()
+    {
+        transfers.clear();
+        delegate.clearTransferCache();
+    }
+
+    private boolean isEligible( final ConcreteResource resource )
+    {
+        if ( resource.isRoot() )
+        {
+            return false;
+        }
+
+        final SpecialPathInfo info = specialPathManager == null ? null : specialPathManager.getSpecialPathInfo( resource );
+        return info == null || info.isCachable();
+    }
+
+    private Entry lookup( final ConcreteResource resource )
+    {
+        synchronized ( entries )
+        {
+            final Entry entry = entries.get( resource );
+            if ( entry != null && entry.deadline <= System.currentTimeMillis() )
+            {
+                // let the wrapped provider expire (or revalidate) the file itself
+                remove( resource );
+                return null;
+            }
+
+            return entry;
+        }
+    }
+
+    private void invalidate( final ConcreteResource resource )
+    {
+        synchronized ( entries )
+        {
+            remove( resource );
+
+            final List<CapturingInputStream> captures = capturing.get( resource );
+            if ( captures != null )
+            {
+                for ( final CapturingInputStream capture : captures )
+                {
+                    capture.stale = true;
+                }
+            }
+        }
+    }
+
+    private void remove( final ConcreteResource resource )
+    {
+        final Entry removed = entries.remove( resource );
+        if ( removed != null )
+        {
+            sizeBytes -= removed.content.capacity();
+        }
+    }
+
+    private void release( final CapturingInputStream capture )
+    {
+        synchronized ( entries )
+        {
+            final List<CapturingInputStream> captures = capturing.get( capture.resource );
+            if ( captures != null && captures.remove( capture ) && captures.isEmpty() )
+            {
+                capturing.remove( capture.resource );
+            }
+        }
+    }
+
+    private void install( final CapturingInputStream capture, final byte[] content )
+    {
+        final ConcreteResource resource = capture.resource;
+        final long timeout = TimeUnit.SECONDS.toMillis( LocationUtils.getCacheTimeoutSeconds( resource.getLocation() ) );
+        final long deadline = timeout > 0 ? delegate.lastModified( resource ) + timeout : Long.MAX_VALUE;
+        if ( deadline <= System.currentTimeMillis() )
+        {
+            return;
+        }
+
+        final ByteBuffer buffer;
+        if ( config.isOffHeap() )
+        {
+            buffer = ByteBuffer.allocateDirect( content.length );
+            buffer.put( content ).flip();
+        }
+        else
+        {
+            buffer = ByteBuffer.wrap( content );
+        }
+
+        synchronized ( entries )
+        {
+            if ( capture.stale )
+            {
+                logger.trace( "Not caching: {} in memory; the cache was invalidated while it was read.", resource );
+                return;
+            }
+
+            remove( resource );
+            entries.put( resource, new Entry( buffer, deadline ) );
+            sizeBytes += content.length;
+
+            final Iterator<Map.Entry<ConcreteResource, Entry>> eldest = entries.entrySet().iterator();
+            while ( sizeBytes > config.getCapacityBytes() && eldest.hasNext() )
+            {
+                sizeBytes -= eldest.next().getValue().content.capacity();
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    @Override
+    public void startReporting()
+    {
+        delegate.startReporting();
+    }
+
+    @Override
+    public void stopReporting()
+    {
+        delegate.stopReporting();
+    }
+
+    @Override
+    public void cleanupCurrentThread()
+    {
+        delegate.cleanupCurrentThread();
+    }
+
+    @Override
+    public boolean isDirectory( final ConcreteResource resource )
+    {
+        return delegate.isDirectory( resource );
+    }
+
+    @Override
+    public boolean isFile( final ConcreteResource resource )
+    {
+        return delegate.isFile( resource );
+    }
+
+    @Override
+    public boolean exists( final ConcreteResource resource )
+    {
+        return delegate.exists( resource );
+    }
+
+    @Override
+    public String getFilePath( final ConcreteResource resource )
+    {
+        return delegate.getFilePath( resource );
+    }
+
+    @Override
+    public String[] list( final ConcreteResource resource )
+    {
+        return delegate.list( resource );
+    }
+
+    @Override
+    public List<ListingEntry> listEntries( final ConcreteResource resource )
+    {
+        return delegate.listEntries( resource );
+    }
+
+    @Override
+    public void mkdirs( final ConcreteResource resource )
+        throws IOException
+    {
+        delegate.mkdirs( resource );
+    }
+
+    @Override
+    public long length( final ConcreteResource resource )
+    {
+        return delegate.length( resource );
+    }
+
+    @Override
+    public long lastModified( final ConcreteResource resource )
+    {
+        return delegate.lastModified( resource );
+    }
+
+    @Override
+    public boolean isReadLocked( final ConcreteResource resource )
+    {
+        return delegate.isReadLocked( resource );
+    }
+
+    @Override
+    public boolean isWriteLocked( final ConcreteResource resource )
+    {
+        return delegate.isWriteLocked( resource );
+    }
+
+    @Override
+    public void unlockRead( final ConcreteResource resource )
+    {
+        delegate.unlockRead( resource );
+    }
+
+    @Override
+    public void unlockWrite( final ConcreteResource resource )
+    {
+        delegate.unlockWrite( resource );
+    }
+
+    @Override
+    public void lockRead( final ConcreteResource resource )
+    {
+        delegate.lockRead( resource );
+    }
+
+    @Override
+    public void lockWrite( final ConcreteResource resource )
+    {
+        delegate.lockWrite( resource );
+    }
+
+    @Override
+    public void waitForWriteUnlock( final ConcreteResource resource )
+    {
+        delegate.waitForWriteUnlock( resource );
+    }
+
+    @Override
+    public void waitForReadUnlock( final ConcreteResource resource )
+    {
+        delegate.waitForReadUnlock( resource );
+    }
+
+    @Override
+    public boolean isStale( final ConcreteResource resource )
+    {
+        return delegate.isStale( resource );
+    }
+
+    @Override
+    public void abortWrite( final ConcreteResource resource, final ConcreteResource keepPartialAs )
+    {
+        delegate.abortWrite( resource, keepPartialAs );
+    }
+
+    @Override
+    public AdminView asAdminView()
+    {
+        return delegate.asAdminView();
+    }
+
+    private static final class Entry
+    {
+        private final ByteBuffer content;
+
+        private final long deadline;
+
+        private Entry( final ByteBuffer content, final long deadline )
+        {
+            this.content = content;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * Tees what is read from the wrapped provider into memory, and installs it as an entry on close if the whole file
+     * was read and it fit within the entry size limit.
+     */
+    private final class CapturingInputStream
+        extends FilterInputStream
+    {
+        private final ConcreteResource resource;
+
+        // set (under the entries lock) when the resource is invalidated during the read.
+        private boolean stale;
+
+        private ByteArrayOutputStream captured = new ByteArrayOutputStream();
+
+        private boolean eof;
+
+        private CapturingInputStream( final ConcreteResource resource )
+        {
+            super( null );
+            this.resource = resource;
+        }
+
+        private void open( final InputStream stream )
+        {
+            in = stream;
+        }
+
+        private boolean isOpen()
+        {
+            return in != null;
+        }
+
+        @Override
+        public int read()
+            throws IOException
+        {
+            final int b = super.read();
+            if ( b < 0 )
+            {
+                eof = true;
+            }
+            else if ( captured != null )
+            {
+                captured.write( b );
+                checkLimit();
+            }
+
+            return b;
+        }
+
+        @Override
+        public int read( final byte[] b, final int off, final int len )
+            throws IOException
+        {
+            final int n = super.read( b, off, len );
+            if ( n < 0 )
+            {
+                eof = true;
+            }
+            else if ( captured != null )
+            {
+                captured.write( b, off, n );
+                checkLimit();
+            }
+
+            return n;
+        }
+
+        @Override
+        public long skip( final long n )
+            throws IOException
+        {
+            captured = null;
+            return super.skip( n );
+        }
+
+        @Override
+        public boolean markSupported()
+        {
+            return false;
+        }
+
+        private void checkLimit()
+        {
+            if ( captured.size() > config.getMaxEntryBytes() )
+            {
+                captured = null;
+            }
+        }
+
+        @Override
+        public void close()
+            throws IOException
+        {
+            try
+            {
+                super.close();
+                if ( eof && captured != null )
+                {
+                    install( this, captured.toByteArray() );
+                }
+            }
+            finally
+            {
+                captured = null;
+                release( this );
+            }
+        }
+    }
+
+    private final class InvalidatingOutputStream
+        extends FilterOutputStream
+    {
+        private final ConcreteResource resource;
+
+        private InvalidatingOutputStream( final OutputStream out, final ConcreteResource resource )
+        {
+            super( out );
+            this.resource = resource;
+        }
+
+        @Override
+        public void write( final byte[] b, final int off, final int len )
+            throws IOException
+        {
+            out.write( b, off, len );
+        }
+
+        @Override
+        public void close()
+            throws IOException
+        {
+            try
+            {
+                super.close();
+            }
+            finally
+            {
+                invalidate( resource );
+            }
+        }
+    }
+
+    private static final class ByteBufferInputStream
+        extends InputStream
+    {
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream( final ByteBuffer buffer )
+        {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read()
+        {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read( final byte[] b, final int off, final int len )
+        {
+            if ( len == 0 )
+            {
+                return 0;
+            }
+            else if ( !buffer.hasRemaining() )
+            {
+                return -1;
+            }
+
+            final int n = Math.min( len, buffer.remaining() );
+            buffer.get( b, off, n );
+            return n;
+        }
+
+        @Override
+        public long skip( final long n )
+        {
+            final int skipped = (int) Math.max( 0, Math.min( n, buffer.remaining() ) );
+            buffer.position( buffer.position() + skipped );
+            return skipped;
+        }
+
+        @Override
+        public int available()
+        {
+            return buffer.remaining();
+        }
+    }
+
+}
@@ -0,0 +1,212 @@
+/**
+ * Copyright (C) 2013 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.galley.cache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks one cache write that is still going to its {@code .to-write} file, so readers can follow it instead of
+ * waiting for the rename. The writer's stream is wrapped to count bytes as they land; readers block until more bytes
+ * are there, and see EOF only once the writer has closed and committed the file; if the write was aborted instead,
+ * they get an error rather than the partial content (the target may still hold the previous, replaced content).
+ */
+final class InProgressWrite
+{
+
+    private final File targetFile;
+
+    private final File downloadFile;
+
+    private final long stallTimeoutMillis;
+
+    private long written;
+
+    private boolean closed;
+
+    private boolean committed;
+
+    InProgressWrite( final File targetFile, final File downloadFile, final long stallTimeoutMillis )
+    {
+        this.targetFile = targetFile;
+        this.downloadFile = downloadFile;
+        this.stallTimeoutMillis = stallTimeoutMillis;
+    }
+
+    OutputStream track( final OutputStream stream )
+    {
+        return new FilterOutputStream( stream )
+        {
+            @Override
+            public void write( final int b )
+                throws IOException
+            {
+                out.write( b );
+                wrote( 1 );
+            }
+
+            @Override
+            public void write( final byte[] b, final int off, final int len )
+                throws IOException
+            {
+                out.write( b, off, len );
+                wrote( len );
+            }
+        };
+    }
+
+    InputStream openReader()
+        throws IOException
+    {
+        return new TailFollowInputStream( new FileInputStream( downloadFile ) );
+    }
+
+    synchronized void closed( final boolean committed )
+    {
+        this.committed = committed;
+        closed = true;
+        notifyAll();
+    }
+
+    private synchronized void wrote( final long count )
+    {
+        written += count;
+        notifyAll();
+    }
+
+    /**
+     * Wait until more than {@code position} bytes are written or the writer is done, and return the bytes written.
+     */
+    private synchronized long awaitPast( final long position )
+        throws IOException
+    {
+        long lastProgress = System.nanoTime();
+        long seen = written;
+        while ( !closed && written <= position )
+        {
+            try
+            {
+                wait( 1000 );
+            }
+            catch ( final InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException( "Interrupted while following: " + downloadFile );
+            }
+
+            if ( written != seen )
+            {
+                seen = written;
+                lastProgress = System.nanoTime();
+            }
+            else if ( TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - lastProgress ) > stallTimeoutMillis )
+            {
+                throw new IOException( "Write of: " + targetFile + " stalled for more than " + stallTimeoutMillis
+                                               + "ms." );
+            }
+        }
+
+        return written;
+    }
+
+    private synchronized boolean isClosed()
+    {
+        return closed;
+    }
+
+    private synchronized boolean isCommitted()
+    {
+        return committed;
+    }
+
+    private final class TailFollowInputStream
+        extends InputStream
+    {
+        private final InputStream in;
+
+        private long position;
+
+        TailFollowInputStream( final InputStream in )
+        {
+            this.in = in;
+        }
+
+        @Override
+        public int read()
+            throws IOException
+        {
+            final byte[] b = new byte[1];
+            final int read = read( b, 0, 1 );
+            return read < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read( final byte[] b, final int off, final int len )
+            throws IOException
+        {
+            if ( len == 0 )
+            {
+                return 0;
+            }
+
+            while ( true )
+            {
+                final long available = awaitPast( position ) - position;
+                if ( available > 0 )
+                {
+                    final int read = in.read( b, off, (int) Math.min( len, available ) );
+                    if ( read < 0 )
+                    {
+                        throw new IOException( "In-progress file: " + downloadFile + " was truncated or replaced." );
+                    }
+
+                    position += read;
+                    return read;
+                }
+                else if ( isClosed() )
+                {
+                    if ( !isCommitted() )
+                    {
+                        throw new IOException( "Write of: " + targetFile + " was abandoned before completion." );
+                    }
+
+                    return -1;
+                }
+            }
+        }
+
+        @Override
+        public int available()
+            throws IOException
+        {
+            return in.available();
+        }
+
+        @Override
+        public void close()
+            throws IOException
+        {
+            in.close();
+        }
+    }
+
+}
@@ -0,0 +1,483 @@
+/**
+ * Copyright (C) 2013 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.galley.event;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.PreDestroy;
+
+import org.commonjava.maven.galley.event.AsyncFileEventManagerConfig.OverflowPolicy;
+import org.commonjava.maven.galley.model.Resource;
+import org.commonjava.maven.galley.model.Transfer;
+import org.commonjava.maven.galley.spi.event.FileEventManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+/**
+ * {@link FileEventManager} that takes events off the I/O threads. Fired events go into a bounded buffer (an
+ * array-backed ring) and are handed to the delegate manager in batches by dedicated dispatch threads, with the MDC
+ * context each event was created under. Events are spread over the threads by resource, so each resource's events
+ * still arrive in the order they were fired. What happens when a buffer is full is up to the
+ * {@link OverflowPolicy}; repeated {@link FileAccessEvent}s for the same transfer can be coalesced.
+ * <p>
+ * Lag (the time from firing to delivery) is tracked along with counts of delivered, dropped and coalesced events.
+ * After {@link #shutdown()}, buffered events are delivered and later ones are delivered on the firing thread.
+ */
+public class AsyncFileEventManager
+    implements FileEventManager
+{
+
+    private static final long POLL_MILLIS = 100;
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final FileEventManager delegate;
+
+    private final OverflowPolicy overflowPolicy;
+
+    private final int batchSize;
+
+    private final long coalesceNanos;
+
+    private final Dispatcher[] dispatchers;
+
+    private final Map<Resource, Long> lastAccess = new ConcurrentHashMap<Resource, Long>();
+
+    private final AtomicLong lastPurge = new AtomicLong( System.nanoTime() );
+
+    private final AtomicLong dispatched = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final AtomicLong coalesced = new AtomicLong();
+
+    private final AtomicLong callerRuns = new AtomicLong();
+
+    private final AtomicLong totalLagNanos = new AtomicLong();
+
+    private final AtomicLong maxLagNanos = new AtomicLong();
+
+    private volatile long lastLagNanos;
+
+    private volatile boolean running = true;
+
+    public AsyncFileEventManager( final FileEventManager delegate )
+    {
+        this( delegate, new AsyncFileEventManagerConfig() );
+    }
+
+    public AsyncFileEventManager( final FileEventManager delegate, final AsyncFileEventManagerConfig config )
+    {
+        this.delegate = delegate;
+        this.overflowPolicy = config.getOverflowPolicy();
+        this.batchSize = Math.max( 1, config.getBatchSize() );
+        this.coalesceNanos = TimeUnit.MILLISECONDS.toNanos( config.getAccessCoalesceMillis() );
+
+        this.dispatchers = new Dispatcher[Math.max( 1, config.getDispatchThreads() )];
+        for ( int i = 0; i < dispatchers.length; i++ )
+        {
+            dispatchers[i] = new Dispatcher( config.getCapacity() );
+            final Thread t = new Thread( dispatchers[i], "galley-events-" + i );
+            t.setDaemon( true );
+            dispatchers[i].thread = t;
+            t.start();
+        }
+    }
+
+    @Override
+    public void fire( final FileNotFoundEvent evt )
+    {
+        enqueue( evt, evt.getResource(), evt.getMDCMap() );
+    }
+
+    @Override
+    public void fire( final FileStorageEvent evt )
+    {
+        enqueue( evt );
+    }
+
+    @Override
+    public void fire( final FileAccessEvent evt )
+    {
+        if ( coalesceNanos > 0 && evt.getTransfer() != null )
+        {
+            final Resource resource = evt.getTransfer().getResource();
+            final long now = System.nanoTime();
+            final Long previous = lastAccess.get( resource );
+            if ( previous != null && now - previous < coalesceNanos )
+            {
+                coalesced.incrementAndGet();
+                return;
+            }
+
+            lastAccess.put( resource, now );
+        }
+
+        enqueue( evt );
+    }
+
+    @Override
+    public void fire( final FileDeletionEvent evt )
+    {
+        enqueue( evt );
+    }
+
+    @Override
+    public void fire( final FileDeletionBatchEvent evt )
+    {
+        enqueue( evt );
+    }
+
+    @Override
+    public void fire( final FileErrorEvent evt )
+    {
+        enqueue( evt );
+    }
+
+    /**
+     * Stop the dispatch threads once they've delivered what's buffered. Events fired from now on are delivered on the
+     * firing thread.
+     */
+    @PreDestroy
+    public void shutdown()
+    {
+        running = false;
+        for ( final Dispatcher dispatcher : dispatchers )
+        {
+            try
+            {
+                dispatcher.thread.join( TimeUnit.SECONDS.toMillis( 10 ) );
+            }
+            catch ( final InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        // anything that slipped in while the threads were finishing.
+        for ( final Dispatcher dispatcher : dispatchers )
+        {
+            final List<Queued> rest = new ArrayList<Queued>();
+            dispatcher.queue.drainTo( rest );
+            for ( final Queued queued : rest )
+            {
+                deliver( queued );
+            }
+        }
+    }
+
+    /**
+     * Events buffered but not yet delivered.
+     */
+    public int getPendingCount()
+    {
+        int pending = 0;
+        for ( final Dispatcher dispatcher : dispatchers )
+        {
+            pending += dispatcher.queue.size();
+        }
+
+        return pending;
+    }
+
+    public long getDispatchedCount()
+    {
+        return dispatched.get();
+    }
+
+    public long getDroppedCount()
+    {
+        return dropped.get();
+    }
+
+    public long getCoalescedCount()
+    {
+        return coalesced.get();
+    }
+
+    /**
+     * Events delivered on the firing thread because the buffer was full ({@link OverflowPolicy#CALLER_RUNS}).
+     */
+    public long getCallerRunsCount()
+    {
+        return callerRuns.get();
+    }
+
+    public long getLastLagMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis( lastLagNanos );
+    }
+
+    public long getMaxLagMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis( maxLagNanos.get() );
+    }
+
+    public double getAverageLagMillis()
+    {
+        final long count = dispatched.get();
+        return count == 0 ? 0 : totalLagNanos.get() / (double) count / TimeUnit.MILLISECONDS.toNanos( 1 );
+    }
+
+    private void enqueue( final FileEvent evt )
+    {
+        final Transfer transfer = evt.getTransfer();
+        enqueue( evt, transfer == null ? null : transfer.getResource(), evt.getMDCMap() );
+    }
+
+    private void enqueue( final Object evt, final Resource resource, final Map<String, String> mdc )
+    {
+        if ( !running )
+        {
+            dispatch( evt );
+            return;
+        }
+
+        final int h = resource == null ? 0 : resource.hashCode();
+        final Dispatcher dispatcher = dispatchers[( ( h ^ ( h >>> 16 ) ) & Integer.MAX_VALUE ) % dispatchers.length];
+        final Queued queued = new Queued( evt, mdc, System.nanoTime() );
+        if ( dispatcher.queue.offer( queued ) )
+        {
+            return;
+        }
+
+        switch ( overflowPolicy )
+        {
+            case DROP:
+            {
+                dropped.incrementAndGet();
+                logger.debug( "Event buffer full; dropping: {}", evt );
+                break;
+            }
+            case CALLER_RUNS:
+            {
+                callerRuns( dispatcher, queued );
+                break;
+            }
+            default:
+            {
+                try
+                {
+                    dispatcher.queue.put( queued );
+                }
+                catch ( final InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                    dropped.incrementAndGet();
+                    logger.debug( "Interrupted waiting for room in the event buffer; dropping: {}", evt );
+                }
+            }
+        }
+    }
+
+    /**
+     * Deliver the dispatcher's buffered events and then this one on the firing thread, holding the dispatcher's
+     * delivery lock so none of the buffered ones can be delivered after it.
+     */
+    private void callerRuns( final Dispatcher dispatcher, final Queued queued )
+    {
+        dispatcher.delivering.lock();
+        try
+        {
+            if ( dispatcher.queue.offer( queued ) )
+            {
+                // the dispatcher made room while we waited.
+                return;
+            }
+
+            callerRuns.incrementAndGet();
+            final List<Queued> buffered = new ArrayList<Queued>( dispatcher.queue.size() + 1 );
+            dispatcher.queue.drainTo( buffered );
+            buffered.add( queued );
+
+            final Map<String, String> callerMdc = MDC.getCopyOfContextMap();
+            try
+            {
+                for ( final Queued q : buffered )
+                {
+                    deliver( q );
+                }
+            }
+            finally
+            {
+                if ( callerMdc != null )
+                {
+                    MDC.setContextMap( callerMdc );
+                }
+            }
+        }
+        finally
+        {
+            dispatcher.delivering.unlock();
+        }
+    }
+
+    private void deliver( final Queued queued )
+    {
+        final long lag = System.nanoTime() - queued.firedNanos;
+        lastLagNanos = lag;
+        totalLagNanos.addAndGet( lag );
+        long max;
+        while ( lag > ( max = maxLagNanos.get() ) && !maxLagNanos.compareAndSet( max, lag ) )
+        {
+            // retry
+        }
+
+        if ( queued.mdc != null )
+        {
+            MDC.setContextMap( queued.mdc );
+        }
+
+        try
+        {
+            dispatch( queued.event );
+        }
+        finally
+        {
+            MDC.clear();
+            dispatched.incrementAndGet();
+        }
+    }
+
+    private void dispatch( final Object evt )
+    {
+        try
+        {
+            if ( evt instanceof FileAccessEvent )
+            {
+                delegate.fire( (FileAccessEvent) evt );
+            }
+            else if ( evt instanceof FileStorageEvent )
+            {
+                delegate.fire( (FileStorageEvent) evt );
+            }
+            else if ( evt instanceof FileDeletionBatchEvent )
+            {
+                delegate.fire( (FileDeletionBatchEvent) evt );
+            }
+            else if ( evt instanceof FileDeletionEvent )
+            {
+                delegate.fire( (FileDeletionEvent) evt );
+            }
+            else if ( evt instanceof FileErrorEvent )
+            {
+                delegate.fire( (FileErrorEvent) evt );
+            }
+            else if ( evt instanceof FileNotFoundEvent )
+            {
+                delegate.fire( (FileNotFoundEvent) evt );
+            }
+        }
+        catch ( final RuntimeException e )
+        {
+            logger.warn( String.format( "Failed to deliver: %s. Reason: %s", evt, e.getMessage() ), e );
+        }
+    }
+
+    private void purgeAccesses()
+    {
+        final long now = System.nanoTime();
+        final long last = lastPurge.get();
+        if ( coalesceNanos > 0 && now - last >= coalesceNanos && lastPurge.compareAndSet( last, now ) )
+        {
+            lastAccess.values().removeIf( ( time ) -> now - time >= coalesceNanos );
+        }
+    }
+
+    private static final class Queued
+    {
+        private final Object event;
+
+        private final Map<String, String> mdc;
+
+        private final long firedNanos;
+
+        private Queued( final Object event, final Map<String, String> mdc, final long firedNanos )
+        {
+            this.event = event;
+            this.mdc = mdc;
+            this.firedNanos = firedNanos;
+        }
+    }
+
+    private final class Dispatcher
+        implements Runnable
+    {
+        private final BlockingQueue<Queued> queue;
+
+        // held while taking events off the queue and delivering them; fair, so a firing thread waiting to run its
+        // event (CALLER_RUNS) gets in between batches.
+        private final ReentrantLock delivering = new ReentrantLock( true );
+
+        private Thread thread;
+
+        private Dispatcher( final int capacity )
+        {
+            this.queue = new ArrayBlockingQueue<Queued>( Math.max( 1, capacity ) );
+        }
+
+        @Override
+        public void run()
+        {
+            final List<Queued> batch = new ArrayList<Queued>( batchSize );
+            while ( true )
+            {
+                delivering.lock();
+                try
+                {
+                    final Queued first = queue.poll( POLL_MILLIS, TimeUnit.MILLISECONDS );
+                    if ( first == null && !running )
+                    {
+                        return;
+                    }
+                    else if ( first != null )
+                    {
+                        batch.add( first );
+                        queue.drainTo( batch, batchSize - 1 );
+                        for ( final Queued queued : batch )
+                        {
+                            deliver( queued );
+                        }
+
+                        batch.clear();
+                    }
+                }
+                catch ( final InterruptedException e )
+                {
+                    logger.debug( "Event dispatcher interrupted; stopping." );
+                    return;
+                }
+                finally
+                {
+                    delivering.unlock();
+                }
+
+                purgeAccesses();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2013 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.galley.event;
+
+/**
+ * Sizing and policies for {@link AsyncFileEventManager}. Unset values fall back to the defaults.
+ */
+public class AsyncFileEventManagerConfig
+{
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    public static final int DEFAULT_DISPATCH_THREADS = 1;
+
+    /**
+     * What {@link AsyncFileEventManager} does with an event when its buffer is full.
+     */
+    public enum OverflowPolicy
+    {
+        /** Wait for room, slowing the I/O thread down to the listeners' pace. */
+        BLOCK,
+        /** Discard the event (counted in {@link AsyncFileEventManager#getDroppedCount()}). */
+        DROP,
+        /**
+         * Deliver the buffered events, then this one, on the firing thread. This keeps each resource's events in order.
+         * The firing thread first waits for the batch being delivered to finish.
+         */
+        CALLER_RUNS
+    }
+
+    private Integer capacity;
+
+    private Integer batchSize;
+
+    private Integer dispatchThreads;
+
+    private Long accessCoalesceMillis;
+
+    private OverflowPolicy overflowPolicy;
+
+    /**
+     * Events buffered per dispatch thread.
+     */
+    public AsyncFileEventManagerConfig withCapacity( final int capacity )
+    {
+        this.capacity = capacity;
+        return this;
+    }
+
+    public int getCapacity()
+    {
+        return capacity == null ? DEFAULT_CAPACITY : capacity;
+    }
+
+    /**
+     * Most events a dispatch thread takes from its buffer at once.
+     */
+    public AsyncFileEventManagerConfig withBatchSize( final int batchSize )
+    {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public int getBatchSize()
+    {
+        return batchSize == null ? DEFAULT_BATCH_SIZE : batchSize;
+    }
+
+    /**
+     * Events are spread over the threads by resource, so events for one resource are still delivered in order.
+     */
+    public AsyncFileEventManagerConfig withDispatchThreads( final int dispatchThreads )
+    {
+        this.dispatchThreads = dispatchThreads;
+        return this;
+    }
+
+    public int getDispatchThreads()
+    {
+        return dispatchThreads == null ? DEFAULT_DISPATCH_THREADS : dispatchThreads;
+    }
+
+    /**
+     * Drop a {@link FileAccessEvent} if one for the same transfer was accepted less than this long ago. Zero (the
+     * default) delivers every access.
+     */
+    public AsyncFileEventManagerConfig withAccessCoalesceMillis( final long accessCoalesceMillis )
+    {
+        this.accessCoalesceMillis = accessCoalesceMillis;
+        return this;
+    }
+
+    public long getAccessCoalesceMillis()
+    {
+        return accessCoalesceMillis == null ? 0 : accessCoalesceMillis;
+    }
+
+    public AsyncFileEventManagerConfig withOverflowPolicy( final OverflowPolicy overflowPolicy )
+    {
+        this.overflowPolicy = overflowPolicy;
+        return this;
+    }
+
+    public OverflowPolicy getOverflowPolicy()
+    {
+        return overflowPolicy == null ? OverflowPolicy.BLOCK : overflowPolicy;
+    }
+
+}
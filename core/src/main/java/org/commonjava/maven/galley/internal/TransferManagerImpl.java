@@ -16,27 +16,36 @@
 package org.commonjava.maven.galley.internal;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.LineIterator;
 import org.commonjava.cdi.util.weft.ExecutorConfig;
+import org.commonjava.cdi.util.weft.NamedThreadFactory;
 import org.commonjava.cdi.util.weft.WeftManaged;
 import org.commonjava.maven.atlas.ident.util.JoinString;
+import org.commonjava.maven.galley.AsyncTransferManager;
 import org.commonjava.maven.galley.TransferException;
 import org.commonjava.maven.galley.TransferLocationException;
+import org.commonjava.maven.galley.TransferBatchListener;
 import org.commonjava.maven.galley.TransferManager;
+import org.commonjava.maven.galley.config.TransportManagerConfig;
 import org.commonjava.maven.galley.event.EventMetadata;
 import org.commonjava.maven.galley.event.FileErrorEvent;
 import org.commonjava.maven.galley.event.FileNotFoundEvent;
 import org.commonjava.maven.galley.internal.xfer.BatchRetriever;
 import org.commonjava.maven.galley.internal.xfer.DownloadHandler;
 import org.commonjava.maven.galley.internal.xfer.ExistenceHandler;
+import org.commonjava.maven.galley.internal.xfer.HedgedExistenceProbe;
 import org.commonjava.maven.galley.internal.xfer.ListingHandler;
+import org.commonjava.maven.galley.internal.xfer.ParallelTreeDelete;
 import org.commonjava.maven.galley.internal.xfer.UploadHandler;
 import org.commonjava.maven.galley.model.ConcreteResource;
 import org.commonjava.maven.galley.model.ListingResult;
+import org.commonjava.maven.galley.model.ListingEntry;
 import org.commonjava.maven.galley.model.Location;
 import org.commonjava.maven.galley.model.Resource;
 import org.commonjava.maven.galley.model.SpecialPathInfo;
 import org.commonjava.maven.galley.model.Transfer;
 import org.commonjava.maven.galley.model.TransferBatch;
+import org.commonjava.maven.galley.model.TransferPriority;
 import org.commonjava.maven.galley.model.TransferOperation;
 import org.commonjava.maven.galley.model.VirtualResource;
 import org.commonjava.maven.galley.spi.cache.CacheProvider;
@@ -46,29 +55,45 @@ import org.commonjava.maven.galley.spi.io.TransferDecorator;
 import org.commonjava.maven.galley.spi.nfc.NotFoundCache;
 import org.commonjava.maven.galley.spi.transport.Transport;
 import org.commonjava.maven.galley.spi.transport.TransportManager;
+import org.commonjava.maven.galley.util.FutureUtils;
+import org.commonjava.maven.galley.util.LocationUtils;
 import org.commonjava.maven.galley.util.ResourceUtils;
+import org.commonjava.maven.galley.util.SortedMergeIterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static org.apache.commons.io.IOUtils.closeQuietly;
 import static org.apache.commons.io.IOUtils.copy;
@@ -79,9 +104,13 @@ import static org.commonjava.maven.galley.util.LocationUtils.getTimeoutSeconds;
 
 @ApplicationScoped
 public class TransferManagerImpl
-    implements TransferManager
+    implements TransferManager, AsyncTransferManager
 {
 
+    private static final int PROBE_THREADS_PER_FANOUT = 4;
+
+    private static final int MAX_SORTED_LISTINGS = 1024;
+
     private final Logger logger = LoggerFactory.getLogger( getClass() );
 
     @Inject
@@ -111,12 +140,31 @@ public class TransferManagerImpl
     @Inject
     private SpecialPathManager specialPathManager;
 
+    @Inject
+    private TransportManagerConfig config;
+
     @Inject
     @WeftManaged
     @ExecutorConfig( threads = 12, daemon = true, named = "galley-batching", priority = 8 )
     private ExecutorService executorService;
 
-    private ExecutorCompletionService<BatchRetriever> batchExecutor;
+    private ExecutorService virtualExecutor;
+
+    private ExecutorService probeExecutor;
+
+    private ParallelTreeDelete treeDelete;
+
+    // cached listings known to be sorted (written by this manager, or read through and found sorted), by the
+    // timestamp they had then. Listings from older versions may be unsorted, and can't be searched with an early stop.
+    private final Map<ConcreteResource, Long> sortedListings =
+            Collections.synchronizedMap( new LinkedHashMap<ConcreteResource, Long>( 16, 0.75f, true )
+            {
+                @Override
+                protected boolean removeEldestEntry( final Map.Entry<ConcreteResource, Long> eldest )
+                {
+                    return size() > MAX_SORTED_LISTINGS;
+                }
+            } );
 
     protected TransferManagerImpl()
     {
@@ -127,6 +175,17 @@ public class TransferManagerImpl
                                 final DownloadHandler downloader, final UploadHandler uploader,
                                 final ListingHandler lister, final ExistenceHandler exister,
                                 final SpecialPathManager specialPathManager, final ExecutorService executorService )
+    {
+        this( transportManager, cacheProvider, nfc, fileEventManager, downloader, uploader, lister, exister,
+              specialPathManager, new TransportManagerConfig(), executorService );
+    }
+
+    public TransferManagerImpl( final TransportManager transportManager, final CacheProvider cacheProvider,
+                                final NotFoundCache nfc, final FileEventManager fileEventManager,
+                                final DownloadHandler downloader, final UploadHandler uploader,
+                                final ListingHandler lister, final ExistenceHandler exister,
+                                final SpecialPathManager specialPathManager, final TransportManagerConfig config,
+                                final ExecutorService executorService )
     {
         this.transportManager = transportManager;
         this.cacheProvider = cacheProvider;
@@ -137,6 +196,7 @@ public class TransferManagerImpl
         this.lister = lister;
         this.exister = exister;
         this.specialPathManager = specialPathManager;
+        this.config = config;
         this.executorService = executorService;
         init();
     }
@@ -144,7 +204,48 @@ public class TransferManagerImpl
     @PostConstruct
     public void init()
     {
-        batchExecutor = new ExecutorCompletionService<BatchRetriever>( executorService );
+        if ( config != null && config.isVirtualThreads() )
+        {
+            final ExecutorService virtual = VirtualThreads.newExecutorOr( "galley-batching-", executorService );
+            if ( virtual != executorService )
+            {
+                // ours to shut down; the pool it replaces belongs to whoever injected it.
+                virtualExecutor = virtual;
+                executorService = virtual;
+            }
+        }
+
+        if ( config != null && config.getParallelRetrieveFanout() > 1 )
+        {
+            // probes get their own threads: callers of findFirstExisting() / retrieveFirst() are often batch jobs
+            // already running on executorService, and waiting there on probes queued behind them would deadlock once
+            // the pool is full. Probes never wait on each other, so a bounded pool only queues them.
+            final int threads = config.getParallelRetrieveFanout() * PROBE_THREADS_PER_FANOUT;
+            final ThreadPoolExecutor pool =
+                    new ThreadPoolExecutor( threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                                            new NamedThreadFactory( "galley-probe", true, 8 ) );
+            pool.allowCoreThreadTimeOut( true );
+            probeExecutor = config.isVirtualThreads() ? VirtualThreads.newExecutorOr( "galley-probe-", pool ) : pool;
+        }
+
+        if ( config != null && config.getDeleteParallelism() > 1 )
+        {
+            treeDelete = new ParallelTreeDelete( config.getDeleteParallelism(), specialPathManager, fileEventManager );
+        }
+    }
+
+    @PreDestroy
+    public void shutdown()
+    {
+        if ( virtualExecutor != null )
+        {
+            virtualExecutor.shutdownNow();
+        }
+
+        if ( probeExecutor != null )
+        {
+            probeExecutor.shutdownNow();
+        }
     }
 
     @Override
@@ -158,6 +259,19 @@ public class TransferManagerImpl
     public ConcreteResource findFirstExisting( final VirtualResource virt )
         throws TransferException
     {
+        if ( isParallelRetrieve( virt ) )
+        {
+            final HedgedExistenceProbe probe = newExistenceProbe( virt );
+            try
+            {
+                return probe.nextExisting();
+            }
+            finally
+            {
+                probe.cancel();
+            }
+        }
+
         for ( final ConcreteResource res : virt )
         {
             if ( exists( res, true ) )
@@ -185,6 +299,17 @@ public class TransferManagerImpl
         return results;
     }
 
+    private boolean isParallelRetrieve( final VirtualResource virt )
+    {
+        return config != null && config.getParallelRetrieveFanout() > 1 && virt.toConcreteResources().size() > 1;
+    }
+
+    private HedgedExistenceProbe newExistenceProbe( final VirtualResource virt )
+    {
+        return new HedgedExistenceProbe( virt.toConcreteResources(), ( res ) -> exists( res, true ), probeExecutor,
+                                         config.getParallelRetrieveFanout(), config.getHedgeDelayMillis() );
+    }
+
     private boolean exists( final ConcreteResource resource, final boolean suppressFailures )
         throws TransferException
     {
@@ -194,10 +319,115 @@ public class TransferManagerImpl
             return true;
         }
 
+        final Boolean listed = existsInCachedListing( resource );
+        if ( listed != null )
+        {
+            return listed;
+        }
+
         return exister.exists( resource, cached, getTimeoutSeconds( resource ), getTransport( resource ),
                                suppressFailures );
     }
 
+    /**
+     * Answer existence from the parent's cached listing, if it was fetched within the location's NFC timeout (the
+     * same staleness the NFC itself allows). A child missing from that listing is added to the NFC. The read stops at
+     * the first line past the child's name only if the listing is known to be sorted (see {@link #sortedListings});
+     * otherwise it's read to the end, which also finds out whether it's sorted.
+     *
+     * @return whether the listing has the resource, or null if there's no fresh listing to go by
+     */
+    private Boolean existsInCachedListing( final ConcreteResource resource )
+    {
+        if ( config == null || !config.isListingAwareExistence() || resource.isRoot() )
+        {
+            return null;
+        }
+
+        final int timeoutSeconds = LocationUtils.getNfcTimeoutSeconds( resource.getLocation() );
+        if ( timeoutSeconds <= 0 )
+        {
+            return null;
+        }
+
+        final Transfer cachedListing = getCacheReference( resource.getParent().getChild( ".listing.txt" ) );
+        if ( !cachedListing.exists() )
+        {
+            return null;
+        }
+
+        final long age = System.currentTimeMillis() - cachedListing.lastModified();
+        if ( age < 0 || age > TimeUnit.SECONDS.toMillis( timeoutSeconds ) )
+        {
+            return null;
+        }
+
+        String name = resource.getPath();
+        if ( name.endsWith( "/" ) )
+        {
+            name = name.substring( 0, name.length() - 1 );
+        }
+
+        name = name.substring( name.lastIndexOf( '/' ) + 1 );
+        if ( name.isEmpty() )
+        {
+            return null;
+        }
+
+        final String dirName = name + "/";
+        LineIterator lines = null;
+        try
+        {
+            final boolean knownSorted = isKnownSorted( cachedListing );
+            lines = IOUtils.lineIterator( cachedListing.openInputStream( false ), "UTF-8" );
+            boolean sorted = true;
+            String previous = null;
+            boolean stopped = false;
+            while ( lines.hasNext() )
+            {
+                final String line = lines.next();
+                if ( name.equals( line ) || dirName.equals( line ) )
+                {
+                    logger.debug( "{} is in cached listing: {}", resource, cachedListing );
+                    return true;
+                }
+
+                if ( line.isEmpty() )
+                {
+                    continue;
+                }
+
+                sorted = sorted && ( previous == null || previous.compareTo( line ) <= 0 );
+                if ( knownSorted && line.compareTo( dirName ) > 0 )
+                {
+                    // dirName sorts after name, so neither can come later.
+                    stopped = true;
+                    break;
+                }
+
+                previous = line;
+            }
+
+            if ( !stopped && sorted )
+            {
+                markSorted( cachedListing );
+            }
+        }
+        catch ( final IOException e )
+        {
+            logger.debug( "Failed to read cached listing: {}. Reason: {}", cachedListing, e.getMessage() );
+            return null;
+        }
+        finally
+        {
+            LineIterator.closeQuietly( lines );
+        }
+
+        logger.debug( "NFC: Not in cached listing: {}. Marking as missing: {}", cachedListing, resource );
+        nfc.addMissing( resource );
+        return false;
+    }
+
     @Override
     public List<ListingResult> listAll( final VirtualResource virt )
             throws TransferException
@@ -307,22 +537,13 @@ public class TransferManagerImpl
                     try
                     {
                         // This is fairly stupid, but we need to append '/' to the end of directories in the listing so content processors can figure
-                        // out what to do with them.
-                        String[] fnames = cached.list();
-                        if ( fnames != null && fnames.length > 0 )
+                        // out what to do with them. The entries carry their type from the listing pass, so no per-child lookups.
+                        final List<ListingEntry> entries = cached.listEntries();
+                        if ( entries != null )
                         {
-                            for ( String fname : fnames )
+                            for ( final ListingEntry entry : entries )
                             {
-                                final ConcreteResource child = resource.getChild( fname );
-                                final Transfer childRef = getCacheReference( child );
-                                if ( childRef.isFile() )
-                                {
-                                    filenames.add( fname );
-                                }
-                                else
-                                {
-                                    filenames.add( fname + "/" );
-                                }
+                                filenames.add( entry.getListingName() );
                             }
                         }
                     }
@@ -333,269 +554,909 @@ public class TransferManagerImpl
                 }
             }
 
-            if ( resource.getLocation()
-                         .allowsDownloading() )
+            final String[] remoteListing = fetchRemoteListing( resource, cachedListing, suppressFailures, metadata );
+            if ( remoteListing != null )
+            {
+                filenames.addAll( Arrays.asList( remoteListing ) );
+            }
+        }
+
+        Logger logger = LoggerFactory.getLogger( getClass() );
+        logger.debug( "Listing before non-listable file removal:\n\n{}\n\n", filenames );
+
+        List<String> resultingNames = new ArrayList<String>( filenames.size() );
+        for( String fname : filenames )
+        {
+            if ( isListable( resource, fname, metadata ) )
+            {
+                resultingNames.add( fname );
+            }
+        }
+
+        logger.debug( "Final listing result:\n\n{}\n\n", resultingNames );
+
+        return new ListingResult( resource, resultingNames.toArray( new String[resultingNames.size()] ) );
+    }
+
+    private boolean isListable( final ConcreteResource resource, final String fname, final EventMetadata metadata )
+    {
+        final ConcreteResource child = resource.getChild( fname );
+        final SpecialPathInfo specialPathInfo =
+                specialPathManager.getSpecialPathInfo( child, metadata.getPackageType() );
+        return specialPathInfo == null || specialPathInfo.isListable();
+    }
+
+    @Override
+    public Stream<String> listStream( final ConcreteResource resource, final EventMetadata metadata )
+        throws TransferException
+    {
+        return streamList( resource, false, metadata );
+    }
+
+    @Override
+    public Stream<String> listStream( final VirtualResource virt, final EventMetadata metadata )
+        throws TransferException
+    {
+        // fetch the missing remote listings in parallel, as listAll() does. Cached listings are opened here rather than
+        // on the pool, since the read locks they take belong to the opening thread and are released when the
+        // returned stream is closed.
+        final List<Transfer> cachedListings = new ArrayList<>();
+        final List<Future<String[]>> fetches = new ArrayList<>();
+        for ( final ConcreteResource res : virt )
+        {
+            final Transfer cachedListing = getCacheReference( res.getChild( ".listing.txt" ) );
+            cachedListings.add( cachedListing );
+            fetches.add( cachedListing.exists() ?
+                                 null :
+                                 executorService.submit(
+                                         () -> fetchRemoteListing( res, cachedListing, true, metadata ) ) );
+        }
+
+        final List<Stream<String>> listings = new ArrayList<>( fetches.size() );
+        int i = 0;
+        try
+        {
+            for ( final ConcreteResource res : virt )
             {
-                final int timeoutSeconds = getTimeoutSeconds( resource );
-                Transport transport = getTransport( resource );
-                final ListingResult remoteResult =
-                        lister.list( resource, cachedListing, timeoutSeconds, transport, suppressFailures );
+                final Future<String[]> fetch = fetches.get( i );
+                final String[] remoteListing = fetch == null ? null : fetch.get();
+                listings.add( openListing( res, cachedListings.get( i ), fetch != null, remoteListing, metadata ) );
+                i++;
+            }
+        }
+        catch ( final InterruptedException e )
+        {
+            closeAll( listings );
+            Thread.currentThread().interrupt();
+            throw new TransferException( "Listing of {} was interrupted", e, virt );
+        }
+        catch ( final ExecutionException e )
+        {
+            closeAll( listings );
+            throw new TransferException( "Listing of {} threw an error: {}", e.getCause(), virt,
+                                         e.getCause().getMessage() );
+        }
+        catch ( final TransferException | RuntimeException e )
+        {
+            closeAll( listings );
+            throw e;
+        }
+
+        final List<Iterator<String>> sources = new ArrayList<>( listings.size() );
+        for ( final Stream<String> listing : listings )
+        {
+            sources.add( listing.iterator() );
+        }
+
+        return toStream( new SortedMergeIterator<String>( sources ) ).onClose( () -> closeAll( listings ) );
+    }
+
+    /**
+     * Streaming equivalent of {@link #doList(ConcreteResource, boolean, EventMetadata)}: the same sources (cached
+     * listing file, or local directory plus remote listing), each sorted and merged lazily.
+     */
+    private Stream<String> streamList( final ConcreteResource resource, final boolean suppressFailures,
+                                       final EventMetadata metadata )
+        throws TransferException
+    {
+        final Transfer cachedListing = getCacheReference( resource.getChild( ".listing.txt" ) );
+        if ( cachedListing.exists() )
+        {
+            return openListing( resource, cachedListing, false, null, metadata );
+        }
+
+        final String[] remoteListing = fetchRemoteListing( resource, cachedListing, suppressFailures, metadata );
+        return openListing( resource, cachedListing, true, remoteListing, metadata );
+    }
 
-                if ( remoteResult != null )
+    /**
+     * Open the listing of the resource: the cached listing file if it was there before (not fetched), otherwise the
+     * local directory merged with the fetched remote listing. Must be called on the thread that will close the
+     * returned stream, since reading the cached listing holds its read lock until then.
+     */
+    private Stream<String> openListing( final ConcreteResource resource, final Transfer cachedListing,
+                                        final boolean fetched, final String[] remoteListing,
+                                        final EventMetadata metadata )
+        throws TransferException
+    {
+        final List<Iterator<String>> sources = new ArrayList<>();
+        final List<LineIterator> open = new ArrayList<>();
+        try
+        {
+            if ( !fetched )
+            {
+                sources.add( openCachedListing( cachedListing, open ) );
+            }
+            else
+            {
+                final Transfer cached = getCacheReference( resource );
+                if ( cached.exists() )
                 {
-                    String[] remoteListing = remoteResult.getListing();
-                    if ( remoteListing != null && remoteListing.length > 0 )
+                    if ( cached.isFile() )
                     {
-                        final TransferDecorator decorator = cachedListing.getDecorator();
-                        if ( decorator != null )
-                        {
-                            try
-                            {
-                                Logger logger = LoggerFactory.getLogger( getClass() );
-                                logger.debug( "Un-decorated listing:\n\n{}\n\n", remoteListing );
-
-                                remoteListing = decorator.decorateListing( cachedListing.getParent(), remoteListing, metadata );
-                            }
-                            catch ( final IOException e )
-                            {
-                                logger.error( "Failed to decorate directory listing for: {}. Reason: {}",
-                                              e, resource, e.getMessage() );
-                                remoteListing = null;
-                            }
-                        }
+                        throw new TransferException( "Cannot list: {}. It does not appear to be a directory.",
+                                                     resource );
                     }
 
-                    if ( remoteListing != null && remoteListing.length > 0  )
+                    final List<ListingEntry> entries = cached.listEntries();
+                    if ( entries != null )
                     {
-                        if ( transport.allowsCaching() )
+                        // a local directory has no order; sorting its names is the one in-memory step.
+                        final List<String> names = new ArrayList<>( entries.size() );
+                        for ( final ListingEntry entry : entries )
                         {
-                            OutputStream stream = null;
-                            try
-                            {
-                                Logger logger = LoggerFactory.getLogger( getClass() );
-                                logger.debug( "Writing listing:\n\n{}\n\nto: {}", remoteListing, cachedListing );
-
-                                stream = cachedListing.openOutputStream( TransferOperation.DOWNLOAD );
-                                stream.write( join( remoteListing, "\n" ).getBytes( "UTF-8" ) );
-                            }
-                            catch ( final IOException e )
-                            {
-                                logger.debug( "Failed to store directory listing for: {}. Reason: {}",
-                                        e, resource, e.getMessage() );
-                            }
-                            finally
-                            {
-                                closeQuietly( stream );
-                            }
+                            names.add( entry.getListingName() );
                         }
-
-                        filenames.addAll( Arrays.asList( remoteListing ) );
+                        Collections.sort( names );
+                        sources.add( names.iterator() );
                     }
                 }
+
+                if ( remoteListing != null && cachedListing.exists() )
+                {
+                    sources.add( openCachedListing( cachedListing, open ) );
+                }
+                else if ( remoteListing != null )
+                {
+                    final String[] sorted = remoteListing.clone();
+                    Arrays.sort( sorted );
+                    sources.add( Arrays.asList( sorted ).iterator() );
+                }
             }
         }
+        catch ( final IOException e )
+        {
+            open.forEach( LineIterator::closeQuietly );
+            throw new TransferException( "Listing failed: {}. Reason: {}", e, resource, e.getMessage() );
+        }
+        catch ( final TransferException | RuntimeException e )
+        {
+            open.forEach( LineIterator::closeQuietly );
+            throw e;
+        }
 
-        Logger logger = LoggerFactory.getLogger( getClass() );
-        logger.debug( "Listing before non-listable file removal:\n\n{}\n\n", filenames );
+        return toStream( new SortedMergeIterator<String>( sources ) ).filter(
+                fname -> isListable( resource, fname, metadata ) )
+                                                                      .onClose( () -> open.forEach(
+                                                                              LineIterator::closeQuietly ) );
+    }
 
-        List<String> resultingNames = new ArrayList<String>( filenames.size() );
-        for( String fname : filenames )
+    /**
+     * Read the cached listing file line by line. Listings are cached sorted; one written unsorted by an older version
+     * is detected with a first pass over the file (still constant memory), and sorted in memory.
+     */
+    private Iterator<String> openCachedListing( final Transfer cachedListing, final List<LineIterator> open )
+        throws IOException
+    {
+        LineIterator lines;
+        boolean sorted = isKnownSorted( cachedListing );
+        if ( !sorted )
         {
-            ConcreteResource child = resource.getChild( fname );
+            lines = IOUtils.lineIterator( cachedListing.openInputStream( false ), "UTF-8" );
+            sorted = true;
+            try
+            {
+                String previous = null;
+                while ( sorted && lines.hasNext() )
+                {
+                    final String line = lines.next();
+                    sorted = previous == null || line.isEmpty() || previous.compareTo( line ) <= 0;
+                    previous = line.isEmpty() ? previous : line;
+                }
+            }
+            finally
+            {
+                lines.close();
+            }
 
-            SpecialPathInfo specialPathInfo = specialPathManager.getSpecialPathInfo( child, metadata.getPackageType() );
-            if ( specialPathInfo != null && !specialPathInfo.isListable() )
+            if ( sorted )
             {
-                continue;
+                markSorted( cachedListing );
+            }
+        }
+
+        lines = IOUtils.lineIterator( cachedListing.openInputStream( false ), "UTF-8" );
+        if ( !sorted )
+        {
+            logger.debug( "Cached listing: {} is not sorted; sorting it in memory.", cachedListing );
+            final List<String> all = new ArrayList<>();
+            try
+            {
+                while ( lines.hasNext() )
+                {
+                    final String line = lines.next();
+                    if ( !line.isEmpty() )
+                    {
+                        all.add( line );
+                    }
+                }
+            }
+            finally
+            {
+                lines.close();
             }
 
-            resultingNames.add( fname );
+            Collections.sort( all );
+            return all.iterator();
+        }
+
+        open.add( lines );
+        final LineIterator source = lines;
+        return toStream( source ).filter( line -> !line.isEmpty() ).iterator();
+    }
+
+    private boolean isKnownSorted( final Transfer cachedListing )
+    {
+        final Long stamp = sortedListings.get( cachedListing.getResource() );
+        return stamp != null && stamp == cachedListing.lastModified();
+    }
+
+    private void markSorted( final Transfer cachedListing )
+    {
+        sortedListings.put( cachedListing.getResource(), cachedListing.lastModified() );
+    }
+
+    private static Stream<String> toStream( final Iterator<String> iterator )
+    {
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize( iterator, Spliterator.ORDERED | Spliterator.NONNULL ),
+                false );
+    }
+
+    private static void closeAll( final List<Stream<String>> streams )
+    {
+        for ( final Stream<String> stream : streams )
+        {
+            stream.close();
+        }
+    }
+
+    /**
+     * Fetch the remote listing of the resource, decorate it, and (if the transport allows caching) store it sorted in
+     * the cached listing file, so it can later be streamed in order.
+     *
+     * @return the decorated remote listing, or null if there is none
+     */
+    private String[] fetchRemoteListing( final ConcreteResource resource, final Transfer cachedListing,
+                                         final boolean suppressFailures, final EventMetadata metadata )
+        throws TransferException
+    {
+        if ( !resource.getLocation().allowsDownloading() )
+        {
+            return null;
+        }
+
+        final int timeoutSeconds = getTimeoutSeconds( resource );
+        Transport transport = getTransport( resource );
+        final ListingResult remoteResult =
+                lister.list( resource, cachedListing, timeoutSeconds, transport, suppressFailures );
+
+        if ( remoteResult == null )
+        {
+            return null;
+        }
+
+        String[] remoteListing = remoteResult.getListing();
+        if ( remoteListing != null && remoteListing.length > 0 )
+        {
+            final TransferDecorator decorator = cachedListing.getDecorator();
+            if ( decorator != null )
+            {
+                try
+                {
+                    logger.debug( "Un-decorated listing:\n\n{}\n\n", remoteListing );
+
+                    remoteListing = decorator.decorateListing( cachedListing.getParent(), remoteListing, metadata );
+                }
+                catch ( final IOException e )
+                {
+                    logger.error( "Failed to decorate directory listing for: {}. Reason: {}",
+                                  e, resource, e.getMessage() );
+                    remoteListing = null;
+                }
+            }
+        }
+
+        if ( remoteListing == null || remoteListing.length == 0 )
+        {
+            return null;
+        }
+
+        if ( transport.allowsCaching() )
+        {
+            final String[] sorted = remoteListing.clone();
+            Arrays.sort( sorted );
+
+            OutputStream stream = null;
+            boolean written = false;
+            try
+            {
+                logger.debug( "Writing listing:\n\n{}\n\nto: {}", remoteListing, cachedListing );
+
+                stream = cachedListing.openOutputStream( TransferOperation.DOWNLOAD );
+                stream.write( join( sorted, "\n" ).getBytes( "UTF-8" ) );
+                written = true;
+            }
+            catch ( final IOException e )
+            {
+                logger.debug( "Failed to store directory listing for: {}. Reason: {}",
+                        e, resource, e.getMessage() );
+            }
+            finally
+            {
+                closeQuietly( stream );
+            }
+
+            if ( written )
+            {
+                markSorted( cachedListing );
+            }
+        }
+
+        return remoteListing;
+    }
+
+    private Transport getTransport( final ConcreteResource resource )
+        throws TransferException
+    {
+        final Transport transport = transportManager.getTransport( resource );
+        if ( transport == null )
+        {
+            if ( resource.getLocationUri() == null )
+            {
+                logger.debug( "NFC: No remote URI. Marking as missing: {}", resource );
+                nfc.addMissing( resource );
+                return null;
+            }
+        }
+
+        return transport;
+    }
+
+    /* (non-Javadoc)
+     * @see org.commonjava.maven.galley.TransferManager#retrieveFirst(java.util.List, java.lang.String)
+     */
+    @Override
+    public Transfer retrieveFirst( final VirtualResource virt )
+        throws TransferException
+    {
+        return retrieveFirst( virt, new EventMetadata() );
+    }
+
+    @Override
+    public Transfer retrieveFirst( final VirtualResource virt, final EventMetadata eventMetadata )
+        throws TransferException
+    {
+        if ( isParallelRetrieve( virt ) )
+        {
+            return retrieveFirstParallel( virt, eventMetadata );
+        }
+
+        Transfer target = null;
+
+        TransferException lastError = null;
+        int tries = 0;
+        for ( final ConcreteResource res : virt )
+        {
+            tries++;
+
+            if ( res == null )
+            {
+                continue;
+            }
+
+            try
+            {
+                target = retrieve( res, true, eventMetadata );
+                lastError = null;
+                if ( target != null && target.exists() )
+                {
+                    return target;
+                }
+            }
+            catch ( final TransferException e )
+            {
+                logger.warn( "Failed to retrieve: {}. {} more tries. (Reason: {})", res, ( virt.toConcreteResources()
+                                                                                               .size() - tries ),
+                             e.getMessage() );
+                lastError = e;
+            }
+        }
+
+        if ( lastError != null )
+        {
+            throw lastError;
+        }
+
+        fileEventManager.fire( new FileNotFoundEvent( virt, eventMetadata ) );
+        return null;
+    }
+
+    /**
+     * Parallel variant of {@link #retrieveFirst(VirtualResource, EventMetadata)}: locations are probed for existence
+     * concurrently (see {@link HedgedExistenceProbe}), and content is only downloaded from the highest-priority
+     * location that has it. Losing locations never get a download started, so nothing partial from them can reach
+     * the cache. If the winner's download comes back empty, the search resumes with the locations behind it.
+     */
+    private Transfer retrieveFirstParallel( final VirtualResource virt, final EventMetadata eventMetadata )
+        throws TransferException
+    {
+        final HedgedExistenceProbe probe = newExistenceProbe( virt );
+        TransferException lastError = null;
+        try
+        {
+            ConcreteResource res;
+            while ( ( res = probe.nextExisting() ) != null )
+            {
+                try
+                {
+                    final Transfer target = retrieve( res, true, eventMetadata );
+                    if ( target != null && target.exists() )
+                    {
+                        return target;
+                    }
+                }
+                catch ( final TransferException e )
+                {
+                    logger.warn( "Failed to retrieve: {}. Trying remaining locations. (Reason: {})", res,
+                                 e.getMessage() );
+                    lastError = e;
+                }
+            }
+        }
+        finally
+        {
+            probe.cancel();
+        }
+
+        if ( lastError == null )
+        {
+            lastError = probe.getLastError();
+        }
+
+        if ( lastError != null )
+        {
+            throw lastError;
+        }
+
+        fileEventManager.fire( new FileNotFoundEvent( virt, eventMetadata ) );
+        return null;
+    }
+
+    /* (non-Javadoc)
+     * @see org.commonjava.maven.galley.TransferManager#retrieveAll(java.util.List, java.lang.String)
+     */
+    @Override
+    public List<Transfer> retrieveAll( final VirtualResource virt )
+        throws TransferException
+    {
+        return retrieveAll( virt, new EventMetadata() );
+    }
+
+    /* (non-Javadoc)
+     * @see org.commonjava.maven.galley.TransferManager#retrieveAll(java.util.List, java.lang.String)
+     */
+    @Override
+    public List<Transfer> retrieveAll( final VirtualResource virt , final EventMetadata eventMetadata  )
+        throws TransferException
+    {
+        TransferBatch batch = new TransferBatch( Collections.singleton( virt ) );
+        batch = batchRetrieveAll( batch, eventMetadata );
+
+        return new ArrayList<Transfer>( batch.getTransfers()
+                                             .values() );
+    }
+
+    /* (non-Javadoc)
+     * @see org.commonjava.maven.galley.TransferManager#retrieve(org.commonjava.maven.galley.model.Location, java.lang.String)
+     */
+    @Override
+    public Transfer retrieve( final ConcreteResource resource )
+        throws TransferException
+    {
+        return retrieve( resource, false, new EventMetadata() );
+    }
+
+    @Override
+    public Transfer retrieve( final ConcreteResource resource, final boolean suppressFailures )
+        throws TransferException
+    {
+        return retrieve( resource, suppressFailures, new EventMetadata() );
+    }
+
+    @Override
+    public Transfer retrieve( final ConcreteResource resource, final boolean suppressFailures,
+                              final EventMetadata eventMetadata )
+        throws TransferException
+    {
+        //        logger.info( "Attempting to resolve: {}", resource );
+
+        // TODO: Handle the case where storage isn't allowed?
+        // NOTE: This would expand the notion out from simply:
+        //    "don't allow storing new stuff"
+        // to:
+        //    "don't ever cache this stuff"
+        Transfer target = null;
+        try
+        {
+            // TODO: (see above re:storing) Handle things like local archives that really don't need to be cached...
+            target = getCacheReference( resource );
+
+            SpecialPathInfo specialPathInfo = specialPathManager.getSpecialPathInfo( resource, eventMetadata.getPackageType() );
+            final boolean cached = target.exists() && !target.isStale();
+            if ( cached && !isMetadataRefreshRequired( resource, target, specialPathInfo, eventMetadata ) )
+            {
+                logger.debug( "Using cached copy of: {}", target );
+                return target;
+            }
+
+            if ( !resource.allowsDownloading() || ( specialPathInfo != null && !specialPathInfo.isRetrievable() ) )
+            {
+                logger.debug( "Download not allowed for: {}. Returning null transfer.", resource );
+                return null;
+            }
+
+            if ( !cached && Boolean.FALSE.equals( existsInCachedListing( resource ) ) )
+            {
+                return null;
+            }
+
+            final TransferPriority priority =
+                    TransferPriority.resolve( eventMetadata, specialPathInfo, config.getDefaultPriority() );
+            final Transfer retrieved;
+            if ( cached )
+            {
+                try
+                {
+                    retrieved = downloader.refresh( resource, target, getTimeoutSeconds( resource ),
+                                                    getTransport( resource ), false, eventMetadata, priority );
+                }
+                catch ( final TransferException e )
+                {
+                    if ( !suppressFailures )
+                    {
+                        throw e;
+                    }
+
+                    logger.debug( "Refresh of: {} failed; using cached copy. Reason: {}", target, e.getMessage() );
+                    return target;
+                }
+            }
+            else
+            {
+                retrieved = downloader.download( resource, target, getTimeoutSeconds( resource ),
+                                                 getTransport( resource ), suppressFailures, eventMetadata,
+                                                 priority );
+            }
+
+            return finishRetrieve( resource, target, retrieved, specialPathInfo );
+        }
+        catch ( final TransferException e )
+        {
+            fileEventManager.fire( new FileErrorEvent( target, e, eventMetadata ) );
+            throw e;
+        }
+        catch ( final IOException e )
+        {
+            final TransferException error =
+                new TransferException( "Failed to download: {}. Reason: {}", e, resource, e.getMessage() );
+
+            fileEventManager.fire( new FileErrorEvent( target, error, eventMetadata ) );
+            throw error;
+        }
+    }
+
+    /**
+     * Stale-while-revalidate for metadata paths, governed by {@link Location#METADATA_TIMEOUT_SECONDS}. Within the
+     * timeout, the cached copy is used as-is. Past it, but within {@link Location#METADATA_MAX_STALE_SECONDS}, the
+     * cached copy is still used while a single background refresh (coalesced per target) updates it. Beyond that, the
+     * caller has to wait for the refresh.
+     *
+     * @return true if the cached metadata is too stale to be used
+     */
+    private boolean isMetadataRefreshRequired( final ConcreteResource resource, final Transfer target,
+                                               final SpecialPathInfo specialPathInfo,
+                                               final EventMetadata eventMetadata )
+    {
+        if ( specialPathInfo == null || !specialPathInfo.isMetadata() || !specialPathInfo.isRetrievable()
+                        || !resource.allowsDownloading() )
+        {
+            return false;
+        }
+
+        final Location location = resource.getLocation();
+        final long timeout = TimeUnit.SECONDS.toMillis( LocationUtils.getMetadataTimeoutSeconds( location ) );
+        final long age = System.currentTimeMillis() - target.lastModified();
+        if ( timeout <= 0 || age <= timeout )
+        {
+            return false;
+        }
+
+        if ( age > timeout + TimeUnit.SECONDS.toMillis( LocationUtils.getMetadataMaxStaleSeconds( location ) ) )
+        {
+            logger.debug( "Cached metadata: {} is too stale to use ({}ms old). Refreshing.", target, age );
+            return true;
+        }
+
+        logger.debug( "Serving stale metadata: {} ({}ms old) while it refreshes.", target, age );
+        final Transport transport;
+        try
+        {
+            transport = getTransport( resource );
+        }
+        catch ( final TransferException e )
+        {
+            logger.warn( "Cannot refresh stale metadata: {}. Reason: {}", target, e.getMessage() );
+            return false;
+        }
+
+        downloader.refreshAsync( resource, target, getTimeoutSeconds( resource ), transport, eventMetadata,
+                                 TransferPriority.METADATA ).whenComplete( ( refreshed, error ) -> {
+            if ( error != null )
+            {
+                final Throwable cause = FutureUtils.unwrap( error );
+                logger.warn( "Background refresh of stale metadata: {} failed. Reason: {}", target,
+                             cause.getMessage() );
+            }
+        } );
+
+        return false;
+    }
+
+    private Transfer finishRetrieve( final ConcreteResource resource, final Transfer target, final Transfer retrieved,
+                                     final SpecialPathInfo specialPathInfo )
+        throws IOException
+    {
+        if ( retrieved != null && retrieved.exists() && !target.equals( retrieved ) )
+        {
+            if ( specialPathInfo == null || specialPathInfo.isCachable() )
+            {
+                cacheProvider.createAlias( retrieved.getResource(), target.getResource() );
+            }
+        }
+
+        if ( target.exists() )
+        {
+            logger.debug( "DOWNLOADED: {}", resource );
+            return target;
+        }
+        else
+        {
+            logger.debug( "NOT DOWNLOADED: {}", resource );
+            return null;
+        }
+    }
+
+    @Override
+    public CompletableFuture<Transfer> retrieveAsync( final ConcreteResource resource )
+    {
+        return retrieveAsync( resource, false, new EventMetadata() );
+    }
+
+    @Override
+    public CompletableFuture<Transfer> retrieveAsync( final ConcreteResource resource, final boolean suppressFailures )
+    {
+        return retrieveAsync( resource, suppressFailures, new EventMetadata() );
+    }
+
+    @Override
+    public CompletableFuture<Transfer> retrieveAsync( final ConcreteResource resource, final boolean suppressFailures,
+                                                      final EventMetadata eventMetadata )
+    {
+        final Transfer target = getCacheReference( resource );
+        final SpecialPathInfo specialPathInfo =
+                specialPathManager.getSpecialPathInfo( resource, eventMetadata.getPackageType() );
+        final boolean cached = target.exists() && !target.isStale();
+        if ( cached && !isMetadataRefreshRequired( resource, target, specialPathInfo, eventMetadata ) )
+        {
+            logger.debug( "Using cached copy of: {}", target );
+            return CompletableFuture.completedFuture( target );
+        }
+
+        if ( !resource.allowsDownloading() || ( specialPathInfo != null && !specialPathInfo.isRetrievable() ) )
+        {
+            logger.debug( "Download not allowed for: {}. Returning null transfer.", resource );
+            return CompletableFuture.completedFuture( null );
+        }
+
+        if ( !cached && Boolean.FALSE.equals( existsInCachedListing( resource ) ) )
+        {
+            return CompletableFuture.completedFuture( null );
+        }
+
+        final Transport transport;
+        try
+        {
+            transport = getTransport( resource );
+        }
+        catch ( final TransferException e )
+        {
+            fileEventManager.fire( new FileErrorEvent( target, e, eventMetadata ) );
+            return FutureUtils.failed( e );
         }
 
-        logger.debug( "Final listing result:\n\n{}\n\n", resultingNames );
+        final TransferPriority priority =
+                TransferPriority.resolve( eventMetadata, specialPathInfo, config.getDefaultPriority() );
 
-        return new ListingResult( resource, resultingNames.toArray( new String[resultingNames.size()] ) );
-    }
+        final CompletableFuture<Transfer> download = cached ?
+                downloader.refreshAsync( resource, target, getTimeoutSeconds( resource ), transport, eventMetadata,
+                                         priority ) :
+                downloader.downloadAsync( resource, target, getTimeoutSeconds( resource ), transport,
+                                          suppressFailures, eventMetadata, priority );
 
-    private Transport getTransport( final ConcreteResource resource )
-        throws TransferException
-    {
-        final Transport transport = transportManager.getTransport( resource );
-        if ( transport == null )
-        {
-            if ( resource.getLocationUri() == null )
+        return download.handle( ( retrieved, error ) -> {
+            TransferException failure = null;
+            if ( error != null && cached && suppressFailures )
             {
-                logger.debug( "NFC: No remote URI. Marking as missing: {}", resource );
-                nfc.addMissing( resource );
-                return null;
+                logger.debug( "Refresh of: {} failed; using cached copy. Reason: {}", target, error.getMessage() );
+                return target;
+            }
+            else if ( error != null )
+            {
+                failure = toTransferException( error, resource );
+            }
+            else
+            {
+                try
+                {
+                    return finishRetrieve( resource, target, retrieved, specialPathInfo );
+                }
+                catch ( final IOException e )
+                {
+                    failure = new TransferException( "Failed to download: {}. Reason: {}", e, resource,
+                                                     e.getMessage() );
+                }
             }
-        }
 
-        return transport;
+            fileEventManager.fire( new FileErrorEvent( target, failure, eventMetadata ) );
+            throw new CompletionException( failure );
+        } );
     }
 
-    /* (non-Javadoc)
-     * @see org.commonjava.maven.galley.TransferManager#retrieveFirst(java.util.List, java.lang.String)
-     */
     @Override
-    public Transfer retrieveFirst( final VirtualResource virt )
-        throws TransferException
+    public CompletableFuture<Transfer> retrieveFirstAsync( final VirtualResource virt )
     {
-        return retrieveFirst( virt, new EventMetadata() );
+        return retrieveFirstAsync( virt, new EventMetadata() );
     }
 
     @Override
-    public Transfer retrieveFirst( final VirtualResource virt, final EventMetadata eventMetadata )
-        throws TransferException
+    public CompletableFuture<Transfer> retrieveFirstAsync( final VirtualResource virt,
+                                                           final EventMetadata eventMetadata )
     {
-        Transfer target = null;
+        return retrieveNextAsync( virt, virt.toConcreteResources(), 0, null, eventMetadata );
+    }
 
-        TransferException lastError = null;
-        int tries = 0;
-        for ( final ConcreteResource res : virt )
+    /**
+     * Asynchronous equivalent of the loop in {@link #retrieveFirst(VirtualResource, EventMetadata)}: each location
+     * is only tried once the attempt on the previous one has completed without producing content.
+     */
+    private CompletableFuture<Transfer> retrieveNextAsync( final VirtualResource virt,
+                                                           final List<ConcreteResource> resources, final int index,
+                                                           final TransferException lastError,
+                                                           final EventMetadata eventMetadata )
+    {
+        int idx = index;
+        while ( idx < resources.size() && resources.get( idx ) == null )
         {
-            tries++;
+            idx++;
+        }
 
-            if ( res == null )
+        if ( idx >= resources.size() )
+        {
+            if ( lastError != null )
             {
-                continue;
+                return FutureUtils.failed( lastError );
             }
 
-            try
-            {
-                target = retrieve( res, true, eventMetadata );
-                lastError = null;
-                if ( target != null && target.exists() )
-                {
-                    return target;
-                }
-            }
-            catch ( final TransferException e )
+            fileEventManager.fire( new FileNotFoundEvent( virt, eventMetadata ) );
+            return CompletableFuture.completedFuture( null );
+        }
+
+        final ConcreteResource res = resources.get( idx );
+        final int next = idx + 1;
+
+        return retrieveAsync( res, true, eventMetadata ).handle( ( target, error ) -> {
+            if ( error != null )
             {
-                logger.warn( "Failed to retrieve: {}. {} more tries. (Reason: {})", res, ( virt.toConcreteResources()
-                                                                                               .size() - tries ),
+                final TransferException e = toTransferException( error, res );
+                logger.warn( "Failed to retrieve: {}. {} more tries. (Reason: {})", res, ( resources.size() - next ),
                              e.getMessage() );
-                lastError = e;
+
+                return retrieveNextAsync( virt, resources, next, e, eventMetadata );
             }
-        }
 
-        if ( lastError != null )
-        {
-            throw lastError;
-        }
+            if ( target != null && target.exists() )
+            {
+                return CompletableFuture.completedFuture( target );
+            }
 
-        fileEventManager.fire( new FileNotFoundEvent( virt, eventMetadata ) );
-        return null;
+            return retrieveNextAsync( virt, resources, next, null, eventMetadata );
+        } ).thenCompose( future -> future );
     }
 
-    /* (non-Javadoc)
-     * @see org.commonjava.maven.galley.TransferManager#retrieveAll(java.util.List, java.lang.String)
-     */
     @Override
-    public List<Transfer> retrieveAll( final VirtualResource virt )
-        throws TransferException
+    public CompletableFuture<Boolean> existsAsync( final ConcreteResource resource )
     {
-        return retrieveAll( virt, new EventMetadata() );
+        final Transfer cached = getCacheReference( resource );
+        if ( cached.exists() )
+        {
+            return CompletableFuture.completedFuture( true );
+        }
+
+        return FutureUtils.submit( () -> exists( resource, false ), executorService );
     }
 
-    /* (non-Javadoc)
-     * @see org.commonjava.maven.galley.TransferManager#retrieveAll(java.util.List, java.lang.String)
-     */
     @Override
-    public List<Transfer> retrieveAll( final VirtualResource virt , final EventMetadata eventMetadata  )
-        throws TransferException
+    public CompletableFuture<ListingResult> listAsync( final ConcreteResource resource )
     {
-        TransferBatch batch = new TransferBatch( Collections.singleton( virt ) );
-        batch = batchRetrieveAll( batch, eventMetadata );
-
-        return new ArrayList<Transfer>( batch.getTransfers()
-                                             .values() );
+        return listAsync( resource, new EventMetadata() );
     }
 
-    /* (non-Javadoc)
-     * @see org.commonjava.maven.galley.TransferManager#retrieve(org.commonjava.maven.galley.model.Location, java.lang.String)
-     */
     @Override
-    public Transfer retrieve( final ConcreteResource resource )
-        throws TransferException
+    public CompletableFuture<ListingResult> listAsync( final ConcreteResource resource, final EventMetadata metadata )
     {
-        return retrieve( resource, false, new EventMetadata() );
+        return FutureUtils.submit( () -> doList( resource, false, metadata ), executorService );
     }
 
     @Override
-    public Transfer retrieve( final ConcreteResource resource, final boolean suppressFailures )
-        throws TransferException
+    public CompletableFuture<Boolean> publishAsync( final ConcreteResource resource, final InputStream stream,
+                                                    final long length )
     {
-        return retrieve( resource, suppressFailures, new EventMetadata() );
+        return publishAsync( resource, stream, length, null, new EventMetadata() );
     }
 
     @Override
-    public Transfer retrieve( final ConcreteResource resource, final boolean suppressFailures,
-                              final EventMetadata eventMetadata )
-        throws TransferException
+    public CompletableFuture<Boolean> publishAsync( final ConcreteResource resource, final InputStream stream,
+                                                    final long length, final String contentType,
+                                                    final EventMetadata eventMetadata )
     {
-        //        logger.info( "Attempting to resolve: {}", resource );
+        SpecialPathInfo specialPathInfo =
+                specialPathManager.getSpecialPathInfo( resource, eventMetadata.getPackageType() );
+        if ( specialPathInfo != null && !specialPathInfo.isPublishable() )
+        {
+            return FutureUtils.failed( new TransferException( "Publishing not allowed for: %s", resource ) );
+        }
 
-        // TODO: Handle the case where storage isn't allowed?
-        // NOTE: This would expand the notion out from simply:
-        //    "don't allow storing new stuff"
-        // to:
-        //    "don't ever cache this stuff"
-        Transfer target = null;
         try
         {
-            // TODO: (see above re:storing) Handle things like local archives that really don't need to be cached...
-            target = getCacheReference( resource );
-
-            if ( target.exists() )
-            {
-                logger.debug( "Using cached copy of: {}", target );
-                return target;
-            }
-
-            SpecialPathInfo specialPathInfo = specialPathManager.getSpecialPathInfo( resource, eventMetadata.getPackageType() );
-            if ( !resource.allowsDownloading() || ( specialPathInfo != null && !specialPathInfo.isRetrievable() ) )
-            {
-                logger.debug( "Download not allowed for: {}. Returning null transfer.", resource );
-                return null;
-            }
-
-            final Transfer retrieved =
-                downloader.download( resource, target, getTimeoutSeconds( resource ), getTransport( resource ),
-                                     suppressFailures, eventMetadata );
-
-            if ( retrieved != null && retrieved.exists() && !target.equals( retrieved ) )
-            {
-                if ( specialPathInfo == null || specialPathInfo.isCachable() )
-                {
-                    cacheProvider.createAlias( retrieved.getResource(), target.getResource() );
-                }
-            }
-
-            if ( target.exists() )
-            {
-                logger.debug( "DOWNLOADED: {}", resource );
-                return target;
-            }
-            else
-            {
-                logger.debug( "NOT DOWNLOADED: {}", resource );
-                return null;
-            }
+            return uploader.uploadAsync( resource, stream, length, contentType, getTimeoutSeconds( resource ),
+                                         getTransport( resource ) );
         }
         catch ( final TransferException e )
         {
-            fileEventManager.fire( new FileErrorEvent( target, e, eventMetadata ) );
-            throw e;
+            return FutureUtils.failed( e );
         }
-        catch ( final IOException e )
-        {
-            final TransferException error =
-                new TransferException( "Failed to download: {}. Reason: {}", e, resource, e.getMessage() );
+    }
 
-            fileEventManager.fire( new FileErrorEvent( target, error, eventMetadata ) );
-            throw error;
+    private TransferException toTransferException( final Throwable error, final ConcreteResource resource )
+    {
+        final Throwable cause = FutureUtils.unwrap( error );
+        if ( cause instanceof TransferException )
+        {
+            return (TransferException) cause;
         }
+
+        return new TransferException( "Failed to download: {}. Reason: {}", cause, resource, cause.getMessage() );
     }
 
     @Override
@@ -606,22 +1467,10 @@ public class TransferManagerImpl
     }
 
     @Override
-    public Transfer store( ConcreteResource resource , final InputStream stream , final EventMetadata eventMetadata  )
+    public Transfer store( final ConcreteResource resource , final InputStream stream , final EventMetadata eventMetadata  )
         throws TransferException
     {
-        if ( eventMetadata.get( STORAGE_PATH ) != null )
-        {
-            resource = ResourceUtils.storageResource( resource, eventMetadata );
-        }
-        SpecialPathInfo specialPathInfo = specialPathManager.getSpecialPathInfo( resource, eventMetadata.getPackageType() );
-        if ( !resource.allowsStoring() || ( specialPathInfo != null && !specialPathInfo.isStorable() ) )
-        {
-            throw new TransferException( "Storing not allowed for: {}", resource );
-        }
-
-        final Transfer target = getCacheReference( resource );
-
-        logger.info( "STORE {}", target.getResource() );
+        final Transfer target = getStoreTarget( resource, eventMetadata );
 
         OutputStream out = null;
         try
@@ -631,7 +1480,8 @@ public class TransferManagerImpl
         }
         catch ( final IOException e )
         {
-            throw new TransferException( "Failed to store: {}. Reason: {}", e, resource, e.getMessage() );
+            throw new TransferException( "Failed to store: {}. Reason: {}", e, target.getResource(),
+                                         e.getMessage() );
         }
         finally
         {
@@ -641,6 +1491,44 @@ public class TransferManagerImpl
         return target;
     }
 
+    @Override
+    public Transfer store( final ConcreteResource resource, final ReadableByteChannel channel,
+                           final EventMetadata eventMetadata )
+        throws TransferException
+    {
+        final Transfer target = getStoreTarget( resource, eventMetadata );
+        try
+        {
+            target.storeFrom( channel, TransferOperation.UPLOAD, eventMetadata );
+        }
+        catch ( final IOException e )
+        {
+            throw new TransferException( "Failed to store: {}. Reason: {}", e, target.getResource(),
+                                         e.getMessage() );
+        }
+
+        return target;
+    }
+
+    private Transfer getStoreTarget( ConcreteResource resource, final EventMetadata eventMetadata )
+        throws TransferException
+    {
+        if ( eventMetadata.get( STORAGE_PATH ) != null )
+        {
+            resource = ResourceUtils.storageResource( resource, eventMetadata );
+        }
+        SpecialPathInfo specialPathInfo = specialPathManager.getSpecialPathInfo( resource, eventMetadata.getPackageType() );
+        if ( !resource.allowsStoring() || ( specialPathInfo != null && !specialPathInfo.isStorable() ) )
+        {
+            throw new TransferException( "Storing not allowed for: {}", resource );
+        }
+
+        final Transfer target = getCacheReference( resource );
+
+        logger.info( "STORE {}", target.getResource() );
+        return target;
+    }
+
     /* (non-Javadoc)
      * @see org.commonjava.maven.galley.TransferManager#getStoreRootDirectory(org.commonjava.maven.galley.model.Location)
      */
@@ -719,6 +1607,11 @@ public class TransferManagerImpl
             return false;
         }
 
+        if ( treeDelete != null && item.isDirectory() )
+        {
+            return treeDelete.delete( item, eventMetadata );
+        }
+
         Logger contentLogger = LoggerFactory.getLogger( DELETE_CONTENT_LOG );
         contentLogger.info( "BEGIN: Delete {} ({})", item.getResource(), eventMetadata );
 
@@ -831,7 +1724,15 @@ public class TransferManagerImpl
     public <T extends TransferBatch> T batchRetrieve( final T batch , final EventMetadata eventMetadata  )
         throws TransferException
     {
-        return doBatch( batch.getResources(), batch, true, eventMetadata );
+        return doBatch( batch.getResources(), batch, true, eventMetadata, null );
+    }
+
+    @Override
+    public <T extends TransferBatch> T batchRetrieve( final T batch, final EventMetadata eventMetadata,
+                                                      final TransferBatchListener listener )
+        throws TransferException
+    {
+        return doBatch( batch.getResources(), batch, true, eventMetadata, listener );
     }
 
     @Override
@@ -844,6 +1745,14 @@ public class TransferManagerImpl
     @Override
     public <T extends TransferBatch> T batchRetrieveAll( final T batch , final EventMetadata eventMetadata  )
         throws TransferException
+    {
+        return batchRetrieveAll( batch, eventMetadata, null );
+    }
+
+    @Override
+    public <T extends TransferBatch> T batchRetrieveAll( final T batch, final EventMetadata eventMetadata,
+                                                         final TransferBatchListener listener )
+        throws TransferException
     {
         final Set<Resource> resources = batch.getResources();
         for ( final Resource resource : new HashSet<Resource>( resources ) )
@@ -858,84 +1767,104 @@ public class TransferManagerImpl
             }
         }
 
-        return doBatch( resources, batch, false, eventMetadata );
+        return doBatch( resources, batch, false, eventMetadata, listener );
     }
 
+    /**
+     * Runs one {@link BatchRetriever} per resource. There are no rounds: as soon as a retriever misses, it is
+     * resubmitted for its next location, so a slow remote only holds up the resource waiting on it. Each outcome is
+     * passed to the listener (if any) as it comes in, and the batch maps are filled in at the end.
+     */
     private <T extends TransferBatch> T doBatch( final Set<Resource> resources, final T batch,
-                                                 final boolean suppressFailures, final EventMetadata eventMetadata )
+                                                 final boolean suppressFailures, final EventMetadata eventMetadata,
+                                                 final TransferBatchListener listener )
         throws TransferException
     {
         logger.info( "Attempting to batch-retrieve {} resources:\n  {}", resources.size(), new JoinString( "\n  ",
                                                                                                            resources ) );
 
-        final Set<BatchRetriever> retrievers = new HashSet<BatchRetriever>( resources.size() );
+        // one completion service per batch, so concurrent batches never take each other's results.
+        final ExecutorCompletionService<BatchRetriever> completions =
+                new ExecutorCompletionService<BatchRetriever>( executorService );
+
+        int outstanding = 0;
         for ( final Resource resource : resources )
         {
-            retrievers.add( new BatchRetriever( this, resource, suppressFailures, eventMetadata ) );
+            completions.submit( new BatchRetriever( this, resource, suppressFailures, eventMetadata ) );
+            outstanding++;
         }
 
         final Map<ConcreteResource, TransferException> errors = new HashMap<ConcreteResource, TransferException>();
         final Map<ConcreteResource, Transfer> transfers = new HashMap<ConcreteResource, Transfer>();
 
-        do
+        while ( outstanding > 0 )
         {
-            for ( final BatchRetriever retriever : retrievers )
+            final BatchRetriever retriever;
+            try
             {
-                batchExecutor.submit( retriever );
+                retriever = completions.take().get();
+                outstanding--;
             }
-
-            int count = retrievers.size();
-            for ( int i = 0; i < count; i++ )
+            catch ( final InterruptedException e )
             {
-                try
-                {
-                    Future<BatchRetriever> pending = batchExecutor.take();
-                    BatchRetriever retriever = pending.get();
+                logger.error( String.format( "Failed to wait for batch retrieval attempts to complete: %s",
+                                             e.getMessage() ), e );
+                Thread.currentThread().interrupt();
+                break;
+            }
+            catch ( ExecutionException e )
+            {
+                logger.error( String.format( "Failed to retrieve next completed retrieval: %s", e.getMessage() ), e );
+                outstanding--;
+                continue;
+            }
 
-                    final ConcreteResource resource = retriever.getLastTry();
-                    final TransferException error = retriever.getError();
-                    if ( error != null )
-                    {
-                        logger.warn( "ERROR: {}...{}", error, resource, error.getMessage() );
-                        retrievers.remove( retriever );
+            final ConcreteResource resource = retriever.getLastTry();
+            final TransferException error = retriever.getError();
+            if ( error != null )
+            {
+                logger.warn( "ERROR: {}...{}", error, resource, error.getMessage() );
 
-                        if ( !( error instanceof TransferLocationException ) )
-                        {
-                            errors.put( resource, error );
-                        }
+                if ( !( error instanceof TransferLocationException ) )
+                {
+                    errors.put( resource, error );
+                }
 
-                        continue;
-                    }
+                if ( listener != null )
+                {
+                    listener.failed( resource, error );
+                }
 
-                    final Transfer transfer = retriever.getTransfer();
-                    if ( transfer != null && transfer.exists() )
-                    {
-                        transfers.put( resource, transfer );
-                        retrievers.remove( retriever );
-                        logger.debug( "Completed: {}", resource );
-                        continue;
-                    }
+                continue;
+            }
 
-                    if ( !retriever.hasMoreTries() )
-                    {
-                        logger.debug( "Not completed, but out of tries: {}", resource );
-                        retrievers.remove( retriever );
-                    }
-                }
-                catch ( final InterruptedException e )
+            final Transfer transfer = retriever.getTransfer();
+            if ( transfer != null && transfer.exists() )
+            {
+                transfers.put( resource, transfer );
+                logger.debug( "Completed: {}", resource );
+                if ( listener != null )
                 {
-                    logger.error( String.format( "Failed to wait for batch retrieval attempts to complete: %s",
-                                                 e.getMessage() ), e );
-                    break;
+                    listener.retrieved( resource, transfer );
                 }
-                catch ( ExecutionException e )
+
+                continue;
+            }
+
+            if ( retriever.hasMoreTries() )
+            {
+                completions.submit( retriever );
+                outstanding++;
+            }
+            else
+            {
+                logger.debug( "Not completed, but out of tries: {}", resource );
+                if ( listener != null )
                 {
-                    logger.error( String.format( "Failed to retrieve next completed retrieval: %s", e.getMessage() ),
-                                  e );
+                    listener.notFound( retriever.getRootResource() );
                 }
             }
         }
-        while( !retrievers.isEmpty() );
 
         batch.setErrors( errors );
         batch.setTransfers( transfers );
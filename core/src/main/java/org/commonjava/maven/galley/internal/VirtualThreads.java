@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2013 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.galley.internal;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates virtual-thread executors on JVMs that have them (Java 21+), while galley itself still targets Java 8. The
+ * JDK API is reached reflectively; when it isn't there (or is only available as a preview), callers get their
+ * fallback executor back unchanged.
+ */
+public final class VirtualThreads
+{
+
+    private static final Logger logger = LoggerFactory.getLogger( VirtualThreads.class );
+
+    private VirtualThreads()
+    {
+    }
+
+    public static boolean isSupported()
+    {
+        return newFactory( "galley-probe-" ) != null;
+    }
+
+    /**
+     * Return an executor that starts a new virtual thread (named with the given prefix) per task, or the fallback if
+     * this JVM can't do that.
+     */
+    public static ExecutorService newExecutorOr( final String namePrefix, final ExecutorService fallback )
+    {
+        final ThreadFactory factory = newFactory( namePrefix );
+        if ( factory != null )
+        {
+            try
+            {
+                final Method method = Executors.class.getMethod( "newThreadPerTaskExecutor", ThreadFactory.class );
+                final ExecutorService executor = (ExecutorService) method.invoke( null, factory );
+                logger.info( "Running {} jobs on virtual threads.", namePrefix );
+                return executor;
+            }
+            catch ( final ReflectiveOperationException | RuntimeException e )
+            {
+                logger.debug( "Virtual-thread executor unavailable: {}", e.getMessage() );
+            }
+        }
+
+        logger.info( "Virtual threads are not available on this JVM; {} jobs stay on the platform thread pool.",
+                     namePrefix );
+        return fallback;
+    }
+
+    private static ThreadFactory newFactory( final String namePrefix )
+    {
+        try
+        {
+            final Object builder = Thread.class.getMethod( "ofVirtual" ).invoke( null );
+            final Class<?> builderType = Class.forName( "java.lang.Thread$Builder" );
+            builderType.getMethod( "name", String.class, long.class ).invoke( builder, namePrefix, 0L );
+            return (ThreadFactory) builderType.getMethod( "factory" ).invoke( builder );
+        }
+        catch ( final ReflectiveOperationException | RuntimeException | LinkageError e )
+        {
+            return null;
+        }
+    }
+
+}
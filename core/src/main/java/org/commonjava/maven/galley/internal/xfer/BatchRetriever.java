@@ -113,6 +113,11 @@ public final class BatchRetriever
         return lastTry;
     }
 
+    public Resource getRootResource()
+    {
+        return rootResource;
+    }
+
     public TransferException getError()
     {
         return error;
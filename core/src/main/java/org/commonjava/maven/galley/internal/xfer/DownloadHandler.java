@@ -15,28 +15,30 @@
  */
 package org.commonjava.maven.galley.internal.xfer;
 
-import org.commonjava.cdi.util.weft.ExecutorConfig;
-import org.commonjava.cdi.util.weft.WeftManaged;
 import org.commonjava.maven.galley.TransferException;
 import org.commonjava.maven.galley.TransferLocationException;
 import org.commonjava.maven.galley.TransferTimeoutException;
 import org.commonjava.maven.galley.event.EventMetadata;
 import org.commonjava.maven.galley.model.ConcreteResource;
 import org.commonjava.maven.galley.model.Transfer;
+import org.commonjava.maven.galley.model.TransferPriority;
 import org.commonjava.maven.galley.spi.nfc.NotFoundCache;
 import org.commonjava.maven.galley.spi.transport.DownloadJob;
 import org.commonjava.maven.galley.spi.transport.Transport;
 import org.commonjava.maven.galley.config.TransportManagerConfig;
+import org.commonjava.maven.galley.util.FutureUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -54,22 +56,25 @@ public class DownloadHandler
 
     private final Map<Transfer, Long> transferSizes = new ConcurrentHashMap<Transfer, Long>();
 
-    private final Map<Transfer, Future<DownloadJob>> pending = new ConcurrentHashMap<Transfer, Future<DownloadJob>>();
+    private final JobCoalescer<Transfer, DownloadJob> pending = new JobCoalescer<Transfer, DownloadJob>();
 
     @Inject
-    @WeftManaged
-    @ExecutorConfig( threads = 12, daemon = true, named = "galley-transfers", priority = 8 )
-    private ExecutorService executor;
+    private LocationScheduler scheduler;
 
     public DownloadHandler()
     {
     }
 
     public DownloadHandler( final NotFoundCache nfc, final TransportManagerConfig config, final ExecutorService executor )
+    {
+        this( nfc, config, new LocationScheduler( executor ) );
+    }
+
+    public DownloadHandler( final NotFoundCache nfc, final TransportManagerConfig config, final LocationScheduler scheduler )
     {
         this.nfc = nfc;
         this.config = config;
-        this.executor = executor;
+        this.scheduler = scheduler;
     }
 
     // FIXME: download batch
@@ -78,6 +83,19 @@ public class DownloadHandler
                               final Transport transport, final boolean suppressFailures,
                               final EventMetadata eventMetadata )
             throws TransferException
+    {
+        return download( resource, target, timeoutSeconds, transport, suppressFailures, eventMetadata,
+                         TransferPriority.resolve( eventMetadata, null, config.getDefaultPriority() ) );
+    }
+
+    /**
+     * Same as {@link #download(ConcreteResource, Transfer, int, Transport, boolean, EventMetadata)}, but queues the
+     * download in the given priority class. Only the caller that actually starts the download decides its class.
+     */
+    public Transfer download( final ConcreteResource resource, final Transfer target, final int timeoutSeconds,
+                              final Transport transport, final boolean suppressFailures,
+                              final EventMetadata eventMetadata, final TransferPriority priority )
+            throws TransferException
     {
         if ( !resource.allowsDownloading() )
         {
@@ -100,128 +118,318 @@ public class DownloadHandler
         logger.debug( "RETRIEVE {}", resource );
 
         final Transfer result =
-                joinOrStart( resource, target, timeoutSeconds, transport, suppressFailures, eventMetadata );
+                joinOrStart( resource, target, timeoutSeconds, transport, suppressFailures, eventMetadata, priority,
+                             false );
         return result;
     }
 
-    private Transfer joinOrStart( final ConcreteResource resource, final Transfer target, final int timeoutSeconds,
-                                  final Transport transport, final boolean suppressFailures,
-                                  final EventMetadata eventMetadata )
+    /**
+     * Download the resource even though a cached copy exists (e.g. expired metadata). Joins a refresh that's already
+     * running for the same target. A failed refresh doesn't mark the resource missing, since the cached copy is still
+     * there.
+     */
+    public Transfer refresh( final ConcreteResource resource, final Transfer target, final int timeoutSeconds,
+                             final Transport transport, final boolean suppressFailures,
+                             final EventMetadata eventMetadata, final TransferPriority priority )
             throws TransferException
     {
-        // if the target file already exists, skip joining.
-        if ( target.exists() )
+        logger.debug( "REFRESH {}", resource );
+        return joinOrStart( resource, target, timeoutSeconds, transport, suppressFailures, eventMetadata, priority,
+                            true );
+    }
+
+    /**
+     * Start (or join) a refresh of a cached resource without waiting for it. Failures complete the future
+     * exceptionally, but don't mark the resource missing: the cached copy is still there.
+     */
+    public CompletableFuture<Transfer> refreshAsync( final ConcreteResource resource, final Transfer target,
+                                                     final int timeoutSeconds, final Transport transport,
+                                                     final EventMetadata eventMetadata,
+                                                     final TransferPriority priority )
+    {
+        try
         {
-            return target;
+            return start( resource, target, timeoutSeconds, transport, eventMetadata, priority ).thenApply( job -> {
+                if ( job.getError() != null )
+                {
+                    throw new CompletionException( job.getError() );
+                }
+
+                return job.getTransfer();
+            } );
+        }
+        catch ( final TransferException e )
+        {
+            return FutureUtils.failed( e );
+        }
+    }
+
+    /**
+     * Same as {@link #download(ConcreteResource, Transfer, int, Transport, boolean, EventMetadata)}, but without
+     * parking the calling thread: the returned future is chained directly off the (possibly shared) download job.
+     */
+    public CompletableFuture<Transfer> downloadAsync( final ConcreteResource resource, final Transfer target,
+                                                      final int timeoutSeconds, final Transport transport,
+                                                      final boolean suppressFailures,
+                                                      final EventMetadata eventMetadata )
+    {
+        return downloadAsync( resource, target, timeoutSeconds, transport, suppressFailures, eventMetadata,
+                              TransferPriority.resolve( eventMetadata, null, config.getDefaultPriority() ) );
+    }
+
+    public CompletableFuture<Transfer> downloadAsync( final ConcreteResource resource, final Transfer target,
+                                                      final int timeoutSeconds, final Transport transport,
+                                                      final boolean suppressFailures,
+                                                      final EventMetadata eventMetadata,
+                                                      final TransferPriority priority )
+    {
+        if ( !resource.allowsDownloading() )
+        {
+            return CompletableFuture.completedFuture( null );
+        }
+
+        if ( transport == null )
+        {
+            return FutureUtils.failed( new TransferLocationException( resource.getLocation(),
+                                                                      "No transports available to handle: {} with location type: {}",
+                                                                      resource, resource.getLocation()
+                                                                                        .getClass()
+                                                                                        .getSimpleName() ) );
+        }
+
+        if ( nfc.isMissing( resource ) )
+        {
+            logger.debug( "NFC: Already marked as missing: {}", resource );
+            return CompletableFuture.completedFuture( null );
         }
 
-        Future<DownloadJob> future;
-        synchronized ( pending )
+        if ( target.exists() && !target.isStale() )
         {
-            future = pending.get( target );
-            if ( future == null )
+            return CompletableFuture.completedFuture( target );
+        }
+
+        logger.debug( "RETRIEVE (async) {}", resource );
+
+        final CompletableFuture<DownloadJob> future;
+        try
+        {
+            future = start( resource, target, timeoutSeconds, transport, eventMetadata, priority );
+        }
+        catch ( final TransferException e )
+        {
+            return FutureUtils.failed( e );
+        }
+
+        // the job may be shared with other callers, so time out this caller's view of it rather than the job.
+        final CompletableFuture<DownloadJob> timed = new CompletableFuture<DownloadJob>();
+        future.whenComplete( ( job, error ) -> {
+            if ( error != null )
+            {
+                timed.completeExceptionally( error );
+            }
+            else
+            {
+                timed.complete( job );
+            }
+        } );
+        scheduleTimeout( timed, target, (int) ( timeoutSeconds * config.getTimeoutOverextensionFactor() ), false );
+
+        return timed.handle( ( job, error ) -> {
+            try
+            {
+                if ( error != null )
+                {
+                    if ( suppressFailures )
+                    {
+                        return null;
+                    }
+
+                    final Throwable cause = FutureUtils.unwrap( error );
+                    if ( cause instanceof TransferTimeoutException )
+                    {
+                        throw (TransferTimeoutException) cause;
+                    }
+
+                    throw new TransferException( "Download failed: {}", cause, target );
+                }
+
+                return handleResult( resource, job, suppressFailures, true );
+            }
+            catch ( final TransferException e )
+            {
+                throw new CompletionException( e );
+            }
+            catch ( final RuntimeException e )
             {
-                if ( transport == null )
+                if ( suppressFailures )
                 {
                     return null;
                 }
 
-                final DownloadJob job = transport.createDownloadJob( resource, target, transferSizes, timeoutSeconds, eventMetadata );
+                throw new CompletionException(
+                        new TransferException( "Download failed: {}. Reason: {}", e, resource, e.getMessage() ) );
+            }
+        } );
+    }
 
-                future = executor.submit( job );
-                pending.put( target, future );
+    /**
+     * Fail the future with a {@link TransferTimeoutException} if it isn't done within the wait. Like the synchronous
+     * path, a large file that's still being written gets one extended wait, scaled by its size.
+     */
+    private void scheduleTimeout( final CompletableFuture<DownloadJob> future, final Transfer target,
+                                  final int waitSeconds, final boolean extended )
+    {
+        final ScheduledFuture<?> timer = FutureUtils.schedule( () -> {
+            if ( future.isDone() )
+            {
+                return;
             }
-        }
 
-        int waitSeconds = (int) ( timeoutSeconds * config.getTimeoutOverextensionFactor() );
-        int tries = 1;
-        try
-        {
-            while ( tries > 0 )
+            final Long size = transferSizes.get( target );
+            if ( !extended && size != null && size > config.getThresholdWaitRetrySize() )
             {
-                tries--;
+                final int tries = (int) ( size / config.getWaitRetryScalingIncrement() );
+                logger.debug( "Downloading a large file: {}. Waiting up to {} more times.", size, tries );
+                scheduleTimeout( future, target, waitSeconds * Math.max( 1, tries ), true );
+                return;
+            }
+
+            future.completeExceptionally(
+                    new TransferTimeoutException( target, "Timed out waiting for execution of: {}", target ) );
+        }, waitSeconds, TimeUnit.SECONDS );
 
+        future.whenComplete( ( job, error ) -> timer.cancel( false ) );
+    }
+
+    private CompletableFuture<DownloadJob> start( final ConcreteResource resource, final Transfer target,
+                                                  final int timeoutSeconds, final Transport transport,
+                                                  final EventMetadata eventMetadata, final TransferPriority priority )
+            throws TransferException
+    {
+        return pending.joinOrStart( target, () -> {
+            final DownloadJob job =
+                    transport.createDownloadJob( resource, target, transferSizes, timeoutSeconds, eventMetadata );
+
+            return () -> {
                 try
                 {
-                    final DownloadJob job = future.get( waitSeconds, TimeUnit.SECONDS );
+                    return job.call();
+                }
+                finally
+                {
+                    transferSizes.remove( target );
+                }
+            };
+        }, scheduler.executorFor( resource.getLocation(), priority ) );
+    }
 
-                    synchronized ( pending )
-                    {
-                        pending.remove( target );
-                    }
+    private Transfer handleResult( final ConcreteResource resource, final DownloadJob job,
+                                   final boolean suppressFailures, final boolean markMissing )
+            throws TransferException
+    {
+        final Transfer downloaded = job.getTransfer();
 
-                    final Transfer downloaded = job.getTransfer();
+        if ( job.getError() != null )
+        {
+            if ( markMissing )
+            {
+                logger.debug( "NFC: Download error. Marking as missing: {}\nError was: {}", resource,
+                              job.getError().getMessage() );
+                nfc.addMissing( resource );
+            }
 
-                    if ( job.getError() != null )
-                    {
-                        logger.debug( "NFC: Download error. Marking as missing: {}\nError was: {}", job.getError(),
-                                      resource, job.getError().getMessage() );
-                        nfc.addMissing( resource );
-
-                        if ( !suppressFailures )
-                        {
-                            throw job.getError();
-                        }
-                    }
-                    else if ( downloaded == null || !downloaded.exists() )
-                    {
-                        logger.debug( "NFC: Download did not complete. Marking as missing: {}", resource );
-                        nfc.addMissing( resource );
-                    }
+            if ( !suppressFailures )
+            {
+                throw job.getError();
+            }
+        }
+        else if ( markMissing && ( downloaded == null || !downloaded.exists() ) )
+        {
+            logger.debug( "NFC: Download did not complete. Marking as missing: {}", resource );
+            nfc.addMissing( resource );
+        }
+
+        return downloaded;
+    }
+
+    private Transfer joinOrStart( final ConcreteResource resource, final Transfer target, final int timeoutSeconds,
+                                  final Transport transport, final boolean suppressFailures,
+                                  final EventMetadata eventMetadata, final TransferPriority priority,
+                                  final boolean force )
+            throws TransferException
+    {
+        // if the target file already exists (and doesn't need revalidation), skip joining.
+        if ( !force && target.exists() && !target.isStale() )
+        {
+            return target;
+        }
+
+        if ( transport == null )
+        {
+            return null;
+        }
+
+        final CompletableFuture<DownloadJob> future =
+                start( resource, target, timeoutSeconds, transport, eventMetadata, priority );
+
+        int waitSeconds = (int) ( timeoutSeconds * config.getTimeoutOverextensionFactor() );
+        int tries = 1;
+        while ( tries > 0 )
+        {
+            tries--;
 
-                    return downloaded;
+            try
+            {
+                final DownloadJob job = future.get( waitSeconds, TimeUnit.SECONDS );
+
+                return handleResult( resource, job, suppressFailures, !force );
+            }
+            catch ( final InterruptedException e )
+            {
+                if ( !suppressFailures )
+                {
+                    throw new TransferException( "Download interrupted: {}", e, target );
                 }
-                catch ( final InterruptedException e )
+            }
+            catch ( final ExecutionException e )
+            {
+                if ( !suppressFailures )
                 {
-                    if ( !suppressFailures )
-                    {
-                        throw new TransferException( "Download interrupted: {}", e, target );
-                    }
+                    throw new TransferException( "Download failed: {}", e, target );
                 }
-                catch ( final ExecutionException e )
+            }
+            catch ( final TimeoutException e )
+            {
+                Long size = transferSizes.get( target );
+                if ( tries > 0 )
                 {
-                    if ( !suppressFailures )
-                    {
-                        throw new TransferException( "Download failed: {}", e, target );
-                    }
+                    continue;
                 }
-                catch ( final TimeoutException e )
+                else if ( size != null && size > config.getThresholdWaitRetrySize() )
                 {
-                    Long size = transferSizes.get( target );
-                    if ( tries > 0 )
-                    {
-                        continue;
-                    }
-                    else if ( size != null && size > config.getThresholdWaitRetrySize() )
-                    {
-                        logger.debug( "Downloading a large file: {}. Retrying Future.get() up to {} times.", size, tries );
-                        tries = (int) ( size / config.getWaitRetryScalingIncrement() );
-                        continue;
-                    }
-                    else if ( !suppressFailures )
-                    {
-                        throw new TransferTimeoutException( target, "Timed out waiting for execution of: {}", e, target );
-                    }
+                    logger.debug( "Downloading a large file: {}. Retrying Future.get() up to {} times.", size, tries );
+                    tries = (int) ( size / config.getWaitRetryScalingIncrement() );
+                    continue;
                 }
-                catch ( final TransferException e )
+                else if ( !suppressFailures )
                 {
-                    if ( !suppressFailures )
-                    {
-                        throw e;
-                    }
+                    throw new TransferTimeoutException( target, "Timed out waiting for execution of: {}", e, target );
                 }
-                catch ( final Exception e )
+            }
+            catch ( final TransferException e )
+            {
+                if ( !suppressFailures )
                 {
-                    if ( !suppressFailures )
-                    {
-                        throw new TransferException( "Download failed: {}. Reason: {}", e, resource, e.getMessage() );
-                    }
+                    throw e;
+                }
+            }
+            catch ( final Exception e )
+            {
+                if ( !suppressFailures )
+                {
+                    throw new TransferException( "Download failed: {}. Reason: {}", e, resource, e.getMessage() );
                 }
             }
-        }
-        finally
-        {
-            transferSizes.remove( target );
         }
 
         return null;
@@ -15,6 +15,12 @@
  */
 package org.commonjava.maven.galley.internal.xfer;
 
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import javax.enterprise.context.ApplicationScoped;
@@ -27,6 +33,7 @@ import org.commonjava.maven.galley.model.Transfer;
 import org.commonjava.maven.galley.spi.nfc.NotFoundCache;
 import org.commonjava.maven.galley.spi.transport.ExistenceJob;
 import org.commonjava.maven.galley.spi.transport.Transport;
+import org.commonjava.maven.galley.util.FutureUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -39,6 +46,9 @@ public class ExistenceHandler
     @Inject
     private NotFoundCache nfc;
 
+    private final JobCoalescer<ConcreteResource, JobOutcome<Boolean>> pending =
+            new JobCoalescer<ConcreteResource, JobOutcome<Boolean>>();
+
     public ExistenceHandler()
     {
     }
@@ -69,23 +79,40 @@ public class ExistenceHandler
 
         logger.debug( "EXISTS {}", resource );
 
-        final ExistenceJob job = transport.createExistenceJob( resource, transfer, timeoutSeconds );
+        // identical concurrent checks share one remote call; the first caller runs it inline.
+        final CompletableFuture<JobOutcome<Boolean>> future = pending.joinOrStart( resource, () -> {
+            final ExistenceJob job = transport.createExistenceJob( resource, transfer, timeoutSeconds );
+            return () -> new JobOutcome<Boolean>( job.call(), job.getError() );
+        }, JobCoalescer.CALLER_RUNS );
 
-        // TODO: execute this stuff in a thread just like downloads/publishes. Requires cache storage...
         try
         {
-            final Boolean result = job.call();
+            final JobOutcome<Boolean> outcome = FutureUtils.get( future, timeoutSeconds, TimeUnit.SECONDS );
+            final Boolean result = outcome.getResult();
 
-            if ( job.getError() != null )
+            if ( outcome.getError() != null && isInterruption( outcome.getError() ) )
+            {
+                // a cancelled (e.g. redundant hedged) check says nothing about the resource.
+                logger.debug( "Existence check of: {} was interrupted; not marking it as missing.", resource );
+                if ( !suppressFailures )
+                {
+                    throw outcome.getError();
+                }
+            }
+            else if ( outcome.getError() != null )
             {
                 logger.debug( "NFC: Download error. Marking as missing: {}", resource );
                 nfc.addMissing( resource );
 
                 if ( !suppressFailures )
                 {
-                    throw job.getError();
+                    throw outcome.getError();
                 }
             }
+            else if ( result == null && Thread.currentThread().isInterrupted() )
+            {
+                logger.debug( "Existence check of: {} was interrupted; not marking it as missing.", resource );
+            }
             else if ( result == null )
             {
                 logger.debug( "NFC: Download did not complete. Marking as missing: {}", resource );
@@ -124,4 +151,26 @@ public class ExistenceHandler
         return false;
     }
 
+    /**
+     * Whether the error comes from the check being interrupted or cancelled, rather than from the remote. Socket
+     * timeouts are {@link InterruptedIOException}s too, but those are real failures.
+     */
+    private static boolean isInterruption( final Throwable error )
+    {
+        Throwable t = error;
+        while ( t != null )
+        {
+            if ( t instanceof InterruptedException || t instanceof CancellationException
+                    || t instanceof ClosedByInterruptException
+                    || ( t instanceof InterruptedIOException && !( t instanceof SocketTimeoutException ) ) )
+            {
+                return true;
+            }
+
+            t = t.getCause() == t ? null : t.getCause();
+        }
+
+        return false;
+    }
+
 }
@@ -0,0 +1,269 @@
+/**
+ * Copyright (C) 2013 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.galley.internal.xfer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.commonjava.maven.galley.TransferException;
+import org.commonjava.maven.galley.model.ConcreteResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Probes an ordered list of candidate resources concurrently and answers with the first one, in preference order,
+ * that exists. At most {@code fanout} probes are outstanding at a time, except that a probe which has not answered
+ * within the hedge delay stops counting against the fan-out, so the next location gets probed alongside it.
+ * <p>
+ * A candidate is only reported once every higher-priority candidate has answered negatively, so the result matches
+ * what a sequential walk would have found. Probes that can no longer affect the answer are cancelled without being
+ * interrupted (an interrupted check would fail, and its failure reach everyone sharing it), so a running one finishes
+ * and its answer is ignored; candidates that were never started are simply never probed. Instances are meant to be used by a single calling thread;
+ * {@link #nextExisting()} can be called again to resume the search after the last answer turned out to be unusable.
+ */
+public final class HedgedExistenceProbe
+{
+
+    public interface Prober
+    {
+        boolean probe( ConcreteResource resource )
+            throws TransferException;
+    }
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final List<ConcreteResource> candidates;
+
+    private final Prober prober;
+
+    private final CompletionService<Boolean> completions;
+
+    private final int fanout;
+
+    private final long hedgeDelayMillis;
+
+    private final Boolean[] answers;
+
+    private final Map<Future<Boolean>, Integer> started = new HashMap<Future<Boolean>, Integer>();
+
+    private final Map<Integer, Long> counted = new HashMap<Integer, Long>();
+
+    private int nextToStart = 0;
+
+    private int resolvedUpTo = 0;
+
+    private TransferException lastError;
+
+    public HedgedExistenceProbe( final List<ConcreteResource> candidates, final Prober prober,
+                                 final ExecutorService executor, final int fanout, final long hedgeDelayMillis )
+    {
+        this.candidates = new ArrayList<ConcreteResource>( candidates );
+        this.prober = prober;
+        this.completions = new ExecutorCompletionService<Boolean>( executor );
+        this.fanout = Math.max( 1, fanout );
+        this.hedgeDelayMillis = hedgeDelayMillis;
+        this.answers = new Boolean[this.candidates.size()];
+    }
+
+    /**
+     * Block until the highest-priority remaining candidate that exists is known, and return it. Returns null once
+     * every candidate has been ruled out. The returned candidate is consumed, so a following call continues with the
+     * candidates behind it.
+     */
+    public ConcreteResource nextExisting()
+        throws TransferException
+    {
+        try
+        {
+            while ( true )
+            {
+                while ( resolvedUpTo < answers.length && Boolean.FALSE.equals( answers[resolvedUpTo] ) )
+                {
+                    resolvedUpTo++;
+                }
+
+                if ( resolvedUpTo >= answers.length )
+                {
+                    return null;
+                }
+
+                if ( Boolean.TRUE.equals( answers[resolvedUpTo] ) )
+                {
+                    final int winner = resolvedUpTo;
+                    answers[winner] = Boolean.FALSE;
+                    return candidates.get( winner );
+                }
+
+                startProbes();
+                awaitNext();
+            }
+        }
+        catch ( final InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            cancel();
+            throw new TransferException( "Interrupted while probing: %s", e, candidates );
+        }
+    }
+
+    /**
+     * Cancel any probe that is still outstanding. Candidates that were never started will not be probed.
+     */
+    public void cancel()
+    {
+        for ( final Future<Boolean> future : started.keySet() )
+        {
+            future.cancel( false );
+        }
+        started.clear();
+        counted.clear();
+        nextToStart = answers.length;
+    }
+
+    /**
+     * The last probe failure, if any. Failed probes count as misses, as they do for sequential lookups.
+     */
+    public TransferException getLastError()
+    {
+        return lastError;
+    }
+
+    private void startProbes()
+    {
+        while ( counted.size() < fanout && nextToStart < answers.length )
+        {
+            final int idx = nextToStart++;
+            final ConcreteResource resource = candidates.get( idx );
+            if ( answers[idx] != null )
+            {
+                continue;
+            }
+
+            if ( resource == null )
+            {
+                answers[idx] = Boolean.FALSE;
+                continue;
+            }
+
+            final Future<Boolean> future = completions.submit( () -> prober.probe( resource ) );
+
+            started.put( future, idx );
+            counted.put( idx, System.currentTimeMillis() );
+        }
+    }
+
+    private void awaitNext()
+        throws InterruptedException
+    {
+        Future<Boolean> done;
+        if ( nextToStart < answers.length && hedgeDelayMillis > 0 )
+        {
+            done = completions.poll( nextHedgeWait(), TimeUnit.MILLISECONDS );
+        }
+        else
+        {
+            done = completions.take();
+        }
+
+        if ( done == null )
+        {
+            hedge();
+            return;
+        }
+
+        final Integer idx = started.remove( done );
+        if ( idx == null )
+        {
+            return;
+        }
+
+        counted.remove( idx );
+        try
+        {
+            answers[idx] = Boolean.TRUE.equals( done.get() );
+        }
+        catch ( final ExecutionException e )
+        {
+            final Throwable cause = e.getCause();
+            logger.warn( "Existence probe failed for: {}. Reason: {}", candidates.get( idx ), cause.getMessage() );
+            lastError = cause instanceof TransferException ? (TransferException) cause : new TransferException(
+                    "Existence probe failed for: %s", cause, candidates.get( idx ) );
+            answers[idx] = Boolean.FALSE;
+        }
+
+        if ( Boolean.TRUE.equals( answers[idx] ) )
+        {
+            // nothing behind a hit can change the answer, so stop probing there.
+            for ( final Map.Entry<Future<Boolean>, Integer> entry : new ArrayList<Map.Entry<Future<Boolean>, Integer>>(
+                    started.entrySet() ) )
+            {
+                if ( entry.getValue() > idx )
+                {
+                    entry.getKey().cancel( false );
+                    started.remove( entry.getKey() );
+                    counted.remove( entry.getValue() );
+                }
+            }
+
+            if ( nextToStart > idx + 1 )
+            {
+                for ( int i = idx + 1; i < nextToStart; i++ )
+                {
+                    if ( answers[i] == null )
+                    {
+                        // cancelled before answering; it has to be probed again if the search resumes past idx.
+                        nextToStart = i;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private long nextHedgeWait()
+    {
+        final long now = System.currentTimeMillis();
+        long wait = hedgeDelayMillis;
+        for ( final Long start : counted.values() )
+        {
+            wait = Math.min( wait, start + hedgeDelayMillis - now );
+        }
+
+        return Math.max( 1, wait );
+    }
+
+    private void hedge()
+    {
+        final long now = System.currentTimeMillis();
+        for ( final Map.Entry<Integer, Long> entry : new ArrayList<Map.Entry<Integer, Long>>( counted.entrySet() ) )
+        {
+            if ( now - entry.getValue() >= hedgeDelayMillis )
+            {
+                logger.debug( "Probe of: {} is over its latency budget of {}ms; hedging with the next location.",
+                              candidates.get( entry.getKey() ), hedgeDelayMillis );
+                counted.remove( entry.getKey() );
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2013 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.galley.internal.xfer;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+import org.commonjava.maven.galley.TransferException;
+import org.commonjava.maven.galley.util.FutureUtils;
+
+/**
+ * Shares a single in-flight job per key between all concurrent callers. Every key gets its own completion handle,
+ * installed atomically via {@link ConcurrentHashMap#putIfAbsent(Object, Object)} and removed exactly once when that
+ * handle completes, so starting and joining jobs for different resources never contend on a common monitor.
+ */
+public final class JobCoalescer<K, T>
+{
+
+    /**
+     * Runs the winning caller's job on the calling thread, for handlers that don't hand their jobs to an executor.
+     */
+    public static final Executor CALLER_RUNS = Runnable::run;
+
+    private final Map<K, CompletableFuture<T>> pending = new ConcurrentHashMap<K, CompletableFuture<T>>();
+
+    /**
+     * Return the handle of the job already running for this key, or create and start a new one. Only the caller that
+     * wins the race to install the handle invokes the factory; if the factory fails, the handle is completed with that
+     * error (so any caller that joined in the meantime sees it too) and the error is rethrown.
+     */
+    public CompletableFuture<T> joinOrStart( final K key, final JobFactory<T> factory, final Executor executor )
+            throws TransferException
+    {
+        CompletableFuture<T> future = pending.get( key );
+        if ( future != null )
+        {
+            return future;
+        }
+
+        final CompletableFuture<T> handle = new CompletableFuture<T>();
+        future = pending.putIfAbsent( key, handle );
+        if ( future != null )
+        {
+            return future;
+        }
+
+        handle.whenComplete( ( result, error ) -> pending.remove( key, handle ) );
+
+        final Callable<T> job;
+        try
+        {
+            job = factory.create();
+        }
+        catch ( final TransferException | RuntimeException e )
+        {
+            handle.completeExceptionally( e );
+            throw e;
+        }
+
+        return FutureUtils.submit( job, executor, handle );
+    }
+
+    public CompletableFuture<T> getPending( final K key )
+    {
+        return pending.get( key );
+    }
+
+    public int getPendingCount()
+    {
+        return pending.size();
+    }
+
+    public interface JobFactory<T>
+    {
+        Callable<T> create()
+                throws TransferException;
+    }
+
+}
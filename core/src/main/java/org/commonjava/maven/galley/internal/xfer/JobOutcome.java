@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) 2013 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.galley.internal.xfer;
+
+import org.commonjava.maven.galley.TransferException;
+
+/**
+ * Result and error of a finished transport job, so callers joining a coalesced job can see both.
+ */
+final class JobOutcome<T>
+{
+
+    private final T result;
+
+    private final TransferException error;
+
+    JobOutcome( final T result, final TransferException error )
+    {
+        this.result = result;
+        this.error = error;
+    }
+
+    T getResult()
+    {
+        return result;
+    }
+
+    TransferException getError()
+    {
+        return error;
+    }
+
+}
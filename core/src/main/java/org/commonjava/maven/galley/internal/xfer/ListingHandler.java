@@ -15,6 +15,9 @@
  */
 package org.commonjava.maven.galley.internal.xfer;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import javax.enterprise.context.ApplicationScoped;
@@ -26,9 +29,11 @@ import org.commonjava.maven.galley.TransferTimeoutException;
 import org.commonjava.maven.galley.model.ConcreteResource;
 import org.commonjava.maven.galley.model.ListingResult;
 import org.commonjava.maven.galley.model.Transfer;
+import org.commonjava.maven.galley.model.TransferPriority;
 import org.commonjava.maven.galley.spi.nfc.NotFoundCache;
 import org.commonjava.maven.galley.spi.transport.ListingJob;
 import org.commonjava.maven.galley.spi.transport.Transport;
+import org.commonjava.maven.galley.util.FutureUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,6 +46,12 @@ public class ListingHandler
     @Inject
     private NotFoundCache nfc;
 
+    private final JobCoalescer<ConcreteResource, JobOutcome<ListingResult>> pending =
+            new JobCoalescer<ConcreteResource, JobOutcome<ListingResult>>();
+
+    @Inject
+    private LocationScheduler scheduler;
+
     public ListingHandler()
     {
     }
@@ -50,6 +61,12 @@ public class ListingHandler
         this.nfc = nfc;
     }
 
+    public ListingHandler( final NotFoundCache nfc, final LocationScheduler scheduler )
+    {
+        this.nfc = nfc;
+        this.scheduler = scheduler;
+    }
+
     public ListingResult list( final ConcreteResource resource, final Transfer target, final int timeoutSeconds,
                                final Transport transport, final boolean suppressFailures )
         throws TransferException
@@ -71,21 +88,28 @@ public class ListingHandler
 
         logger.debug( "LIST {}", resource );
 
-        final ListingJob job = transport.createListingJob( resource, target, timeoutSeconds );
+        // identical concurrent listings share one remote call. Without a scheduler, the first caller runs it inline.
+        final Executor executor = scheduler == null ?
+                JobCoalescer.CALLER_RUNS :
+                scheduler.executorFor( resource.getLocation(), TransferPriority.METADATA );
+        final CompletableFuture<JobOutcome<ListingResult>> future = pending.joinOrStart( resource, () -> {
+            final ListingJob job = transport.createListingJob( resource, target, timeoutSeconds );
+            return () -> new JobOutcome<ListingResult>( job.call(), job.getError() );
+        }, executor );
 
-        // TODO: execute this stuff in a thread just like downloads/publishes. Requires cache storage...
         try
         {
-            final ListingResult result = job.call();
+            final JobOutcome<ListingResult> outcome = FutureUtils.get( future, timeoutSeconds, TimeUnit.SECONDS );
+            final ListingResult result = outcome.getResult();
 
-            if ( job.getError() != null )
+            if ( outcome.getError() != null )
             {
                 logger.debug( "NFC: Download error. Marking as missing: {}", resource );
                 nfc.addMissing( resource );
 
                 if ( !suppressFailures )
                 {
-                    throw job.getError();
+                    throw outcome.getError();
                 }
             }
             else if ( result == null )
@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2013 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.galley.internal.xfer;
+
+import org.commonjava.maven.galley.model.Location;
+import org.commonjava.maven.galley.model.TransferPriority;
+
+/**
+ * Point-in-time view of one location's queue in the {@link LocationScheduler}.
+ */
+public final class LocationQueueStats
+{
+
+    private final Location location;
+
+    private final int[] queueDepths;
+
+    private final int active;
+
+    private final int limit;
+
+    private final long dispatched;
+
+    private final long totalWaitMillis;
+
+    private final long maxWaitMillis;
+
+    public LocationQueueStats( final Location location, final int[] queueDepths, final int active, final int limit,
+                               final long dispatched, final long totalWaitMillis, final long maxWaitMillis )
+    {
+        this.location = location;
+        this.queueDepths = queueDepths;
+        this.active = active;
+        this.limit = limit;
+        this.dispatched = dispatched;
+        this.totalWaitMillis = totalWaitMillis;
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    public Location getLocation()
+    {
+        return location;
+    }
+
+    /**
+     * Jobs waiting for a slot.
+     */
+    public int getQueueDepth()
+    {
+        int total = 0;
+        for ( final int depth : queueDepths )
+        {
+            total += depth;
+        }
+
+        return total;
+    }
+
+    /**
+     * Jobs of the given priority class waiting for a slot.
+     */
+    public int getQueueDepth( final TransferPriority priority )
+    {
+        return queueDepths[priority.ordinal()];
+    }
+
+    /**
+     * Jobs currently running.
+     */
+    public int getActive()
+    {
+        return active;
+    }
+
+    public int getLimit()
+    {
+        return limit;
+    }
+
+    /**
+     * Jobs started so far.
+     */
+    public long getDispatched()
+    {
+        return dispatched;
+    }
+
+    public long getTotalWaitMillis()
+    {
+        return totalWaitMillis;
+    }
+
+    public long getMaxWaitMillis()
+    {
+        return maxWaitMillis;
+    }
+
+    public long getAverageWaitMillis()
+    {
+        return dispatched == 0 ? 0 : totalWaitMillis / dispatched;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format( "LocationQueueStats [location=%s, queued=%s, active=%s/%s, dispatched=%s, avgWait=%sms, "
+                                      + "maxWait=%sms]", location, getQueueDepth(), active, limit, dispatched,
+                              getAverageWaitMillis(), maxWaitMillis );
+    }
+
+}
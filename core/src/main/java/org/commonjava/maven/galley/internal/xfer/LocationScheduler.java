@@ -0,0 +1,545 @@
+/**
+ * Copyright (C) 2013 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.galley.internal.xfer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.commonjava.cdi.util.weft.ExecutorConfig;
+import org.commonjava.cdi.util.weft.WeftManaged;
+import org.commonjava.maven.galley.config.TransportManagerConfig;
+import org.commonjava.maven.galley.internal.VirtualThreads;
+import org.commonjava.maven.galley.model.Location;
+import org.commonjava.maven.galley.model.TransferPriority;
+import org.commonjava.maven.galley.util.FutureUtils;
+import org.commonjava.maven.galley.util.LocationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bulkhead between the transfer handlers and the shared transfer executor. Work is queued per {@link Location}, and
+ * no location gets more jobs running at once than its {@link Location#MAX_CONNECTIONS} attribute allows, so one slow
+ * or hung upstream can only tie up its own share of the workers. Jobs are only handed to the executor while it has
+ * idle workers (see {@link TransportManagerConfig#getMaxConcurrentTransfers()} for how many it is assumed to have),
+ * and the next job is picked from the waiting locations in round-robin order, so a location with a deep backlog can't
+ * crowd out the others.
+ * <p>
+ * Each job also carries a {@link TransferPriority}. Higher classes are served first; within a class, locations take
+ * turns. To keep bulk work from starving, a lower-class job that has waited longer than
+ * {@link TransportManagerConfig#getPriorityAgingMillis()} is served ahead of higher classes.
+ * <p>
+ * With {@link TransportManagerConfig#isVirtualThreads()} set (and a JVM that has them), jobs run on virtual threads
+ * instead, and the per-location limits are what keeps the upstreams from being overloaded.
+ * <p>
+ * Queue depth, running jobs and time spent waiting are tracked per location; see {@link #getStats(Location)}. A
+ * location's queue (and with it, its stats) is dropped once it has been idle for {@link #IDLE_QUEUE_MILLIS}.
+ */
+@ApplicationScoped
+public class LocationScheduler
+{
+
+    public static final long IDLE_QUEUE_MILLIS = TimeUnit.MINUTES.toMillis( 1 );
+
+    private static final TransferPriority[] PRIORITIES = TransferPriority.values();
+
+    private static final int DEFAULT_EXECUTOR_THREADS = 12;
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    @Inject
+    @WeftManaged
+    @ExecutorConfig( threads = DEFAULT_EXECUTOR_THREADS, daemon = true, named = "galley-transfers", priority = 8 )
+    private ExecutorService executor;
+
+    @Inject
+    private TransportManagerConfig config;
+
+    private ExecutorService virtualExecutor;
+
+    private final Map<Location, LocationQueue> queues = new HashMap<Location, LocationQueue>();
+
+    private final List<Deque<LocationQueue>> ready = newDeques();
+
+    private int maxRunning;
+
+    private int running;
+
+    private long lastPrune = System.nanoTime();
+
+    public LocationScheduler()
+    {
+    }
+
+    public LocationScheduler( final ExecutorService executor )
+    {
+        this( executor, new TransportManagerConfig() );
+    }
+
+    public LocationScheduler( final ExecutorService executor, final TransportManagerConfig config )
+    {
+        this.executor = executor;
+        this.config = config;
+        init();
+    }
+
+    @PostConstruct
+    public void init()
+    {
+        final ExecutorService pool = executor;
+        if ( config != null && config.isVirtualThreads() )
+        {
+            executor = VirtualThreads.newExecutorOr( "galley-transfers-", executor );
+        }
+
+        if ( executor != pool )
+        {
+            // no pool to protect any more; the per-location limits become the only bound.
+            virtualExecutor = executor;
+            maxRunning = Integer.MAX_VALUE;
+        }
+        else if ( config != null && config.getMaxConcurrentTransfers() > 0 )
+        {
+            maxRunning = config.getMaxConcurrentTransfers();
+        }
+        else if ( executor instanceof ThreadPoolExecutor )
+        {
+            maxRunning = Math.max( 1, ( (ThreadPoolExecutor) executor ).getMaximumPoolSize() );
+        }
+        else
+        {
+            // Weft hands us its pool wrapped, so we can't ask it; assume it got the threads we asked it for.
+            maxRunning = DEFAULT_EXECUTOR_THREADS;
+        }
+    }
+
+    /**
+     * Shut down the virtual-thread executor, if this scheduler created one. An injected pool is left to its owner.
+     */
+    @PreDestroy
+    public void shutdown()
+    {
+        if ( virtualExecutor != null )
+        {
+            virtualExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Executor that queues its tasks behind the given location's limit, in the configured default priority class.
+     */
+    public Executor executorFor( final Location location )
+    {
+        return executorFor( location, config.getDefaultPriority() );
+    }
+
+    public Executor executorFor( final Location location, final TransferPriority priority )
+    {
+        return ( task ) -> execute( location, priority, task );
+    }
+
+    public void execute( final Location location, final Runnable task )
+    {
+        execute( location, config.getDefaultPriority(), task );
+    }
+
+    public void execute( final Location location, final TransferPriority priority, final Runnable task )
+    {
+        if ( executor.isShutdown() )
+        {
+            throw new RejectedExecutionException( "Transfer executor has been shut down." );
+        }
+
+        final List<Dispatch> dispatches;
+        synchronized ( queues )
+        {
+            LocationQueue queue = queues.get( location );
+            if ( queue == null )
+            {
+                queue = new LocationQueue( location );
+                queues.put( location, queue );
+            }
+
+            final TransferPriority p = priority == null ? config.getDefaultPriority() : priority;
+            queue.tasks.get( p.ordinal() ).addLast( new QueuedTask( task ) );
+            queue.idleSince = 0;
+            markReady( queue );
+            dispatches = nextDispatches();
+            pruneIdle();
+        }
+
+        launch( dispatches );
+    }
+
+    public LocationQueueStats getStats( final Location location )
+    {
+        synchronized ( queues )
+        {
+            final LocationQueue queue = queues.get( location );
+            return queue == null ? new LocationQueueStats( location, new int[PRIORITIES.length], 0,
+                                                           LocationUtils.getMaxConnections( location ), 0, 0,
+                                                           0 ) : queue.stats();
+        }
+    }
+
+    public Map<Location, LocationQueueStats> getAllStats()
+    {
+        final Map<Location, LocationQueueStats> stats = new HashMap<Location, LocationQueueStats>();
+        synchronized ( queues )
+        {
+            for ( final LocationQueue queue : queues.values() )
+            {
+                stats.put( queue.location, queue.stats() );
+            }
+        }
+
+        return stats;
+    }
+
+    private void markReady( final LocationQueue queue )
+    {
+        if ( queue.active >= limitOf( queue ) )
+        {
+            return;
+        }
+
+        for ( int i = 0; i < PRIORITIES.length; i++ )
+        {
+            if ( !queue.ready[i] && !queue.tasks.get( i ).isEmpty() )
+            {
+                queue.ready[i] = true;
+                ready.get( i ).addLast( queue );
+            }
+        }
+    }
+
+    private int limitOf( final LocationQueue queue )
+    {
+        final Integer limit = LocationUtils.getMaxConnections( queue.location );
+        return limit == null || limit < 1 ? Location.DEFAULT_MAX_CONNECTIONS : limit;
+    }
+
+    /**
+     * Drop entries at the head of a class's ready line that went stale (location filled up, or ran out of work in
+     * that class) and return the first live one, or null.
+     */
+    private LocationQueue peekReady( final int priority )
+    {
+        final Deque<LocationQueue> line = ready.get( priority );
+        LocationQueue head;
+        while ( ( head = line.peekFirst() ) != null )
+        {
+            if ( !head.tasks.get( priority ).isEmpty() && head.active < limitOf( head ) )
+            {
+                return head;
+            }
+
+            line.pollFirst();
+            head.ready[priority] = false;
+        }
+
+        return null;
+    }
+
+    /**
+     * The class to serve next: the one whose head has waited longest past the aging cutoff, if any has; otherwise
+     * the highest class with work ready. Returns -1 when nothing can be dispatched.
+     */
+    private int nextPriority()
+    {
+        final long aging = config.getPriorityAgingMillis();
+        final long cutoff = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos( aging );
+
+        int highest = -1;
+        int starved = -1;
+        long oldest = 0;
+        for ( int i = 0; i < PRIORITIES.length; i++ )
+        {
+            final LocationQueue head = peekReady( i );
+            if ( head == null )
+            {
+                continue;
+            }
+
+            if ( highest < 0 )
+            {
+                highest = i;
+                if ( aging <= 0 )
+                {
+                    break;
+                }
+            }
+
+            final long enqueued = head.tasks.get( i ).peekFirst().enqueued;
+            if ( i > highest && enqueued - cutoff < 0 && ( starved < 0 || enqueued - oldest < 0 ) )
+            {
+                starved = i;
+                oldest = enqueued;
+            }
+        }
+
+        return starved > -1 ? starved : highest;
+    }
+
+    private List<Dispatch> nextDispatches()
+    {
+        List<Dispatch> dispatches = null;
+        int priority;
+        while ( running < maxRunning && ( priority = nextPriority() ) > -1 )
+        {
+            final LocationQueue queue = ready.get( priority ).pollFirst();
+            queue.ready[priority] = false;
+
+            final QueuedTask next = queue.tasks.get( priority ).pollFirst();
+
+            final long waited = System.nanoTime() - next.enqueued;
+            queue.active++;
+            queue.dispatched++;
+            queue.totalWaitNanos += waited;
+            queue.maxWaitNanos = Math.max( queue.maxWaitNanos, waited );
+            running++;
+
+            // back of the line, so every waiting location gets a turn before this one goes again.
+            markReady( queue );
+
+            if ( dispatches == null )
+            {
+                dispatches = new ArrayList<Dispatch>();
+            }
+            dispatches.add( new Dispatch( queue, priority, next ) );
+        }
+
+        return dispatches;
+    }
+
+    private void launch( final List<Dispatch> dispatches )
+    {
+        if ( dispatches == null )
+        {
+            return;
+        }
+
+        for ( final Dispatch dispatch : dispatches )
+        {
+            try
+            {
+                executor.execute( dispatch );
+            }
+            catch ( final RejectedExecutionException e )
+            {
+                rejected( dispatch, e );
+            }
+        }
+    }
+
+    /**
+     * The executor refused a dispatched job. It isn't run in place, since the calling thread may be a worker that just
+     * finished another location's job, or a caller that queued something else. A {@link FutureUtils.RejectableTask}
+     * fails its own future; anything else goes back to the head of its queue, and is dispatched again when the next
+     * job is queued or finishes.
+     */
+    private void rejected( final Dispatch dispatch, final RejectedExecutionException e )
+    {
+        final LocationQueue queue = dispatch.queue;
+        final boolean rejectable = dispatch.next.task instanceof FutureUtils.RejectableTask;
+        synchronized ( queues )
+        {
+            queue.active--;
+            queue.dispatched--;
+            running--;
+            if ( !rejectable )
+            {
+                queue.tasks.get( dispatch.priority ).addFirst( dispatch.next );
+            }
+
+            markReady( queue );
+            if ( queue.isIdle() )
+            {
+                queue.idleSince = System.nanoTime();
+            }
+        }
+
+        if ( rejectable )
+        {
+            logger.warn( "Transfer executor rejected a job for: {}. Failing it. Reason: {}", queue.location,
+                         e.getMessage() );
+            ( (FutureUtils.RejectableTask) dispatch.next.task ).reject( e );
+        }
+        else
+        {
+            logger.warn( "Transfer executor rejected a job for: {}. Queued it again. Reason: {}", queue.location,
+                         e.getMessage() );
+        }
+    }
+
+    private void finished( final LocationQueue queue )
+    {
+        final List<Dispatch> dispatches;
+        synchronized ( queues )
+        {
+            queue.active--;
+            running--;
+            markReady( queue );
+            dispatches = nextDispatches();
+            if ( queue.isIdle() )
+            {
+                queue.idleSince = System.nanoTime();
+            }
+        }
+
+        launch( dispatches );
+    }
+
+    /**
+     * Forget locations that haven't had work for a while, so a stream of one-off locations doesn't pile up here.
+     * Only scans when the idle window has passed since the last scan. Call while holding the queues lock.
+     */
+    private void pruneIdle()
+    {
+        final long now = System.nanoTime();
+        final long window = TimeUnit.MILLISECONDS.toNanos( IDLE_QUEUE_MILLIS );
+        if ( now - lastPrune < window )
+        {
+            return;
+        }
+
+        lastPrune = now;
+        queues.values()
+              .removeIf( ( queue ) -> queue.idleSince != 0 && queue.isIdle() && now - queue.idleSince >= window );
+    }
+
+    private static <T> List<Deque<T>> newDeques()
+    {
+        final List<Deque<T>> deques = new ArrayList<Deque<T>>( PRIORITIES.length );
+        for ( int i = 0; i < PRIORITIES.length; i++ )
+        {
+            deques.add( new ArrayDeque<T>() );
+        }
+
+        return deques;
+    }
+
+    private final class Dispatch
+        implements Runnable
+    {
+        private final LocationQueue queue;
+
+        private final int priority;
+
+        private final QueuedTask next;
+
+        Dispatch( final LocationQueue queue, final int priority, final QueuedTask next )
+        {
+            this.queue = queue;
+            this.priority = priority;
+            this.next = next;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                next.task.run();
+            }
+            finally
+            {
+                finished( queue );
+            }
+        }
+    }
+
+    private static final class QueuedTask
+    {
+        private final Runnable task;
+
+        private final long enqueued = System.nanoTime();
+
+        QueuedTask( final Runnable task )
+        {
+            this.task = task;
+        }
+    }
+
+    private final class LocationQueue
+    {
+        private final Location location;
+
+        private final List<Deque<QueuedTask>> tasks = newDeques();
+
+        private final boolean[] ready = new boolean[PRIORITIES.length];
+
+        private int active;
+
+        private long dispatched;
+
+        private long totalWaitNanos;
+
+        private long maxWaitNanos;
+
+        private long idleSince;
+
+        LocationQueue( final Location location )
+        {
+            this.location = location;
+        }
+
+        boolean isIdle()
+        {
+            if ( active > 0 )
+            {
+                return false;
+            }
+
+            for ( final Deque<QueuedTask> waiting : tasks )
+            {
+                if ( !waiting.isEmpty() )
+                {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        LocationQueueStats stats()
+        {
+            final int[] depths = new int[tasks.size()];
+            for ( int i = 0; i < depths.length; i++ )
+            {
+                depths[i] = tasks.get( i ).size();
+            }
+
+            return new LocationQueueStats( location, depths, active, limitOf( this ), dispatched,
+                                           TimeUnit.NANOSECONDS.toMillis( totalWaitNanos ),
+                                           TimeUnit.NANOSECONDS.toMillis( maxWaitNanos ) );
+        }
+    }
+
+}
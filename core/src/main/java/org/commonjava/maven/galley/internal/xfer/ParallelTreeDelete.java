@@ -0,0 +1,199 @@
+/**
+ * Copyright (C) 2013 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.galley.internal.xfer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.commonjava.maven.galley.TransferException;
+import org.commonjava.maven.galley.event.EventMetadata;
+import org.commonjava.maven.galley.event.FileDeletionBatchEvent;
+import org.commonjava.maven.galley.model.SpecialPathInfo;
+import org.commonjava.maven.galley.model.Transfer;
+import org.commonjava.maven.galley.spi.event.FileEventManager;
+import org.commonjava.maven.galley.spi.io.SpecialPathManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.commonjava.maven.galley.model.Transfer.DELETE_CONTENT_LOG;
+
+/**
+ * Deletes a directory tree with a fork-join walk: each subdirectory becomes its own task, so independent subtrees are
+ * listed and removed concurrently with at most {@code parallelism} threads. The rules are the same as the sequential
+ * delete in the transfer manager (non-deletable special paths fail the delete, directories themselves are left in
+ * place), but per-file deletion events are replaced with a single {@link FileDeletionBatchEvent} for the tree.
+ * <p>
+ * The first failure stops the walk; tasks that haven't started yet skip their work, and files already removed are
+ * still reported in the batch event before the failure is rethrown.
+ */
+public final class ParallelTreeDelete
+{
+
+    private final Logger contentLogger = LoggerFactory.getLogger( DELETE_CONTENT_LOG );
+
+    private final ForkJoinPool pool;
+
+    private final SpecialPathManager specialPathManager;
+
+    private final FileEventManager fileEventManager;
+
+    public ParallelTreeDelete( final int parallelism, final SpecialPathManager specialPathManager,
+                               final FileEventManager fileEventManager )
+    {
+        this.specialPathManager = specialPathManager;
+        this.fileEventManager = fileEventManager;
+        this.pool = new ForkJoinPool( parallelism, ( p ) -> {
+            final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread( p );
+            thread.setName( "galley-delete-" + thread.getPoolIndex() );
+            return thread;
+        }, null, false );
+    }
+
+    public boolean delete( final Transfer root, final EventMetadata eventMetadata )
+        throws TransferException
+    {
+        contentLogger.info( "BEGIN: Tree delete {} ({})", root.getResource(), eventMetadata );
+
+        final Walk walk = new Walk( eventMetadata );
+        final boolean result = pool.invoke( walk.new Node( root ) );
+
+        if ( !walk.deleted.isEmpty() )
+        {
+            fileEventManager.fire( new FileDeletionBatchEvent( root, walk.deleted, eventMetadata ) );
+        }
+
+        final TransferException failure = walk.failure.get();
+        if ( failure != null )
+        {
+            contentLogger.info( "FAIL: Tree delete: {} after {} files", root.getResource(), walk.deleted.size() );
+            throw failure;
+        }
+
+        contentLogger.info( "{}: Tree delete: {} ({} files)", result ? "FINISH" : "FAIL", root.getResource(),
+                            walk.deleted.size() );
+        return result;
+    }
+
+    private final class Walk
+    {
+        private final EventMetadata eventMetadata;
+
+        private final Queue<Transfer> deleted = new ConcurrentLinkedQueue<Transfer>();
+
+        private final AtomicReference<TransferException> failure = new AtomicReference<TransferException>();
+
+        private Walk( final EventMetadata eventMetadata )
+        {
+            this.eventMetadata = eventMetadata;
+        }
+
+        private boolean fail( final TransferException error )
+        {
+            failure.compareAndSet( null, error );
+            return false;
+        }
+
+        private final class Node
+            extends RecursiveTask<Boolean>
+        {
+            private final Transfer item;
+
+            private Node( final Transfer item )
+            {
+                this.item = item;
+            }
+
+            @Override
+            protected Boolean compute()
+            {
+                if ( failure.get() != null || !item.exists() )
+                {
+                    return false;
+                }
+
+                final SpecialPathInfo specialPathInfo =
+                        specialPathManager.getSpecialPathInfo( item, eventMetadata.getPackageType() );
+                if ( specialPathInfo != null && !specialPathInfo.isDeletable() )
+                {
+                    return fail( new TransferException( "Deleting not allowed for: %s", item ) );
+                }
+
+                return item.isDirectory() ? deleteChildren() : deleteFile();
+            }
+
+            private boolean deleteChildren()
+            {
+                final String[] listing;
+                try
+                {
+                    listing = item.list();
+                }
+                catch ( final IOException e )
+                {
+                    return fail( new TransferException(
+                            "Delete failed: {}. Reason: cannot list directory due to: {}", e, item,
+                            e.getMessage() ) );
+                }
+
+                if ( listing == null )
+                {
+                    return true;
+                }
+
+                final List<Node> children = new ArrayList<Node>( listing.length );
+                for ( final String sub : listing )
+                {
+                    children.add( new Node( item.getChild( sub ) ) );
+                }
+
+                boolean result = true;
+                for ( final Node child : invokeAll( children ) )
+                {
+                    result = child.join() && result;
+                }
+
+                return result;
+            }
+
+            private boolean deleteFile()
+            {
+                try
+                {
+                    if ( !item.delete( false, eventMetadata ) )
+                    {
+                        return fail( new TransferException( "Failed to delete: {}.", item ) );
+                    }
+                }
+                catch ( final IOException e )
+                {
+                    return fail( new TransferException( "Failed to delete stored location: {}. Reason: {}", e, item,
+                                                        e.getMessage() ) );
+                }
+
+                deleted.add( item );
+                return true;
+            }
+        }
+    }
+
+}
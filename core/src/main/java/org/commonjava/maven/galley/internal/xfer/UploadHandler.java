@@ -17,28 +17,27 @@ package org.commonjava.maven.galley.internal.xfer;
 
 import java.io.InputStream;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 
-import org.commonjava.cdi.util.weft.ExecutorConfig;
-import org.commonjava.cdi.util.weft.WeftManaged;
 import org.commonjava.maven.galley.TransferException;
 import org.commonjava.maven.galley.TransferLocationException;
 import org.commonjava.maven.galley.TransferTimeoutException;
 import org.commonjava.maven.galley.config.TransportManagerConfig;
 import org.commonjava.maven.galley.model.ConcreteResource;
 import org.commonjava.maven.galley.model.Resource;
-import org.commonjava.maven.galley.model.Transfer;
 import org.commonjava.maven.galley.spi.nfc.NotFoundCache;
 import org.commonjava.maven.galley.spi.transport.PublishJob;
 import org.commonjava.maven.galley.spi.transport.Transport;
+import org.commonjava.maven.galley.util.FutureUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -56,22 +55,25 @@ public class UploadHandler
 
     private final Map<ConcreteResource, Long> transferSizes = new ConcurrentHashMap<ConcreteResource, Long>();
 
-    private final Map<Resource, Future<PublishJob>> pending = new ConcurrentHashMap<Resource, Future<PublishJob>>();
+    private final JobCoalescer<Resource, PublishJob> pending = new JobCoalescer<Resource, PublishJob>();
 
     @Inject
-    @WeftManaged
-    @ExecutorConfig( threads = 12, daemon = true, named = "galley-transfers", priority = 8 )
-    private ExecutorService executor;
+    private LocationScheduler scheduler;
 
     public UploadHandler()
     {
     }
 
     public UploadHandler( final NotFoundCache nfc, final TransportManagerConfig config, final ExecutorService executor )
+    {
+        this( nfc, config, new LocationScheduler( executor ) );
+    }
+
+    public UploadHandler( final NotFoundCache nfc, final TransportManagerConfig config, final LocationScheduler scheduler )
     {
         this.nfc = nfc;
         this.config = config;
-        this.executor = executor;
+        this.scheduler = scheduler;
     }
 
     public boolean upload( final ConcreteResource resource, final InputStream stream, final long length,
@@ -95,90 +97,143 @@ public class UploadHandler
         return joinOrStart( resource, timeoutSeconds, stream, length, contentType, transport );
     }
 
-    private boolean joinOrStart( final ConcreteResource resource, final int timeoutSeconds, final InputStream stream,
-                                 final long length, final String contentType, final Transport transport )
-            throws TransferException
+    /**
+     * Same as {@link #upload(ConcreteResource, InputStream, long, String, int, Transport)}, but the returned future is
+     * chained directly off the publish job instead of blocking the caller.
+     */
+    public CompletableFuture<Boolean> uploadAsync( final ConcreteResource resource, final InputStream stream,
+                                                   final long length, final String contentType,
+                                                   final int timeoutSeconds, final Transport transport )
     {
-        if ( transport == null )
+        if ( !resource.allowsPublishing() )
         {
-            return false;
+            return FutureUtils.failed( new TransferException( "Publishing not allowed in: {}", resource ) );
         }
 
-        Future<PublishJob> future;
-        synchronized ( pending )
+        if ( transport == null )
         {
-            future = pending.get( resource );
-            if ( future == null )
-            {
-                final PublishJob job = transport.createPublishJob( resource, stream, length, timeoutSeconds );
-
-                future = executor.submit( job );
-                pending.put( resource, future );
-            }
+            return FutureUtils.failed( new TransferLocationException( resource.getLocation(),
+                                                                      "No transports available to handle: {} with location type: {}",
+                                                                      resource, resource.getLocation()
+                                                                                        .getClass()
+                                                                                        .getSimpleName() ) );
         }
 
-        int waitSeconds = (int) ( timeoutSeconds * config.getTimeoutOverextensionFactor() );
-        int tries = 1;
+        logger.debug( "PUBLISH (async) {}", resource );
+
+        final CompletableFuture<PublishJob> future;
         try
         {
-            while( tries > 0 )
+            future = start( resource, timeoutSeconds, stream, length, contentType, transport );
+        }
+        catch ( final TransferException e )
+        {
+            return FutureUtils.failed( e );
+        }
+
+        return future.handle( ( job, error ) -> {
+            if ( error != null )
             {
-                tries--;
+                throw new CompletionException(
+                        new TransferException( "Failed to publish: {}. Reason: {}", FutureUtils.unwrap( error ),
+                                               resource, error.getMessage() ) );
+            }
 
-                try
-                {
-                    final PublishJob job = future.get( timeoutSeconds, TimeUnit.SECONDS );
+            if ( job.getError() != null )
+            {
+                throw new CompletionException( job.getError() );
+            }
+
+            nfc.clearMissing( resource );
+            return job.isSuccessful();
+        } );
+    }
 
-                    if ( job.getError() != null )
-                    {
-                        throw job.getError();
-                    }
+    private CompletableFuture<PublishJob> start( final ConcreteResource resource, final int timeoutSeconds,
+                                                 final InputStream stream, final long length,
+                                                 final String contentType, final Transport transport )
+            throws TransferException
+    {
+        return pending.joinOrStart( resource, () -> {
+            final PublishJob job = transport.createPublishJob( resource, stream, length, timeoutSeconds );
 
-                    nfc.clearMissing( resource );
-                    return job.isSuccessful();
+            return () -> {
+                try
+                {
+                    return job.call();
                 }
-                catch ( final InterruptedException e )
+                finally
                 {
-                    throw new TransferException( "Interrupted publish: {}. Reason: {}", e, resource, e.getMessage() );
+                    transferSizes.remove( resource );
                 }
-                catch ( final ExecutionException e )
+            };
+        }, scheduler.executorFor( resource.getLocation() ) );
+    }
+
+    private boolean joinOrStart( final ConcreteResource resource, final int timeoutSeconds, final InputStream stream,
+                                 final long length, final String contentType, final Transport transport )
+            throws TransferException
+    {
+        if ( transport == null )
+        {
+            return false;
+        }
+
+        final CompletableFuture<PublishJob> future =
+                start( resource, timeoutSeconds, stream, length, contentType, transport );
+
+        int waitSeconds = (int) ( timeoutSeconds * config.getTimeoutOverextensionFactor() );
+        int tries = 1;
+        while( tries > 0 )
+        {
+            tries--;
+
+            try
+            {
+                final PublishJob job = future.get( timeoutSeconds, TimeUnit.SECONDS );
+
+                if ( job.getError() != null )
                 {
-                    throw new TransferException( "Failed to publish: {}. Reason: {}", e, resource, e.getMessage() );
+                    throw job.getError();
                 }
-                catch ( final TimeoutException e )
+
+                nfc.clearMissing( resource );
+                return job.isSuccessful();
+            }
+            catch ( final InterruptedException e )
+            {
+                throw new TransferException( "Interrupted publish: {}. Reason: {}", e, resource, e.getMessage() );
+            }
+            catch ( final ExecutionException e )
+            {
+                throw new TransferException( "Failed to publish: {}. Reason: {}", e, resource, e.getMessage() );
+            }
+            catch ( final TimeoutException e )
+            {
+                Long size = transferSizes.get( resource );
+                if ( tries > 0 )
                 {
-                    Long size = transferSizes.get( resource );
-                    if ( tries > 0 )
-                    {
-                        continue;
-                    }
-                    else if ( size != null && size > config.getThresholdWaitRetrySize() )
-                    {
-                        logger.debug( "Publishing a large file: {}. Retrying Future.get() up to {} times.", size, tries );
-                        tries = (int) ( size / config.getWaitRetryScalingIncrement() );
-                        continue;
-                    }
-                    else
-                    {
-                        throw new TransferTimeoutException( resource, "Timed out waiting for execution of: {}", e, resource );
-                    }
+                    continue;
                 }
-                catch ( final TransferException e )
+                else if ( size != null && size > config.getThresholdWaitRetrySize() )
                 {
-                    throw e;
+                    logger.debug( "Publishing a large file: {}. Retrying Future.get() up to {} times.", size, tries );
+                    tries = (int) ( size / config.getWaitRetryScalingIncrement() );
+                    continue;
                 }
-                catch ( final Exception e )
+                else
                 {
-                    throw new TransferException( "Failed listing: {}. Reason: {}", e, resource, e.getMessage() );
+                    throw new TransferTimeoutException( resource, "Timed out waiting for execution of: {}", e, resource );
                 }
             }
-        }
-        finally
-        {
-            transferSizes.remove( resource );
-
-            //            logger.info( "Marking download complete: {}", url );
-            pending.remove( resource );
+            catch ( final TransferException e )
+            {
+                throw e;
+            }
+            catch ( final Exception e )
+            {
+                throw new TransferException( "Failed listing: {}. Reason: {}", e, resource, e.getMessage() );
+            }
         }
 
         return false;
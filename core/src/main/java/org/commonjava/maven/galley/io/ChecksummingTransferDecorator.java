@@ -16,7 +16,6 @@
 package org.commonjava.maven.galley.io;
 
 import org.commonjava.maven.galley.event.EventMetadata;
-import org.commonjava.maven.galley.io.checksum.AbstractChecksumGenerator;
 import org.commonjava.maven.galley.io.checksum.AbstractChecksumGeneratorFactory;
 import org.commonjava.maven.galley.io.checksum.ChecksummingDecoratorAdvisor;
 import org.commonjava.maven.galley.io.checksum.ChecksummingInputStream;
@@ -227,8 +226,26 @@ public final class ChecksummingTransferDecorator
         {
             for ( final AbstractChecksumGeneratorFactory<?> factory : checksumFactories )
             {
-                final AbstractChecksumGenerator generator = factory.createGenerator( transfer );
-                generator.delete();
+                String extension = factory.getChecksumExtension();
+                if ( extension == null )
+                {
+                    // the factory doesn't declare its extension; ask a generator that won't lock or write anything.
+                    extension = factory.createGenerator( transfer, false ).getChecksumExtension();
+                }
+
+                final Transfer checksumTransfer = transfer.getSiblingMeta( extension );
+                checksumTransfer.lockWrite();
+                try
+                {
+                    if ( checksumTransfer.exists() )
+                    {
+                        checksumTransfer.delete();
+                    }
+                }
+                finally
+                {
+                    checksumTransfer.unlock();
+                }
             }
         }
 
@@ -134,6 +134,11 @@ public abstract class AbstractChecksumGenerator
         return transfer.getSiblingMeta( checksumExtension );
     }
 
+    public String getChecksumExtension()
+    {
+        return checksumExtension;
+    }
+
     public ContentDigest getDigestType()
     {
         return digestType;
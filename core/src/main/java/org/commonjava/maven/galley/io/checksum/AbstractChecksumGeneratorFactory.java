@@ -22,8 +22,25 @@ import org.commonjava.maven.galley.model.Transfer;
 public abstract class AbstractChecksumGeneratorFactory<T extends AbstractChecksumGenerator>
 {
 
+    private final String checksumExtension;
+
     protected AbstractChecksumGeneratorFactory()
     {
+        this( null );
+    }
+
+    protected AbstractChecksumGeneratorFactory( final String checksumExtension )
+    {
+        this.checksumExtension = checksumExtension;
+    }
+
+    /**
+     * Suffix of the sidecar file the generators write (e.g. ".md5"), so callers can find or remove the sidecar without
+     * creating a generator (and its digest). Null if the factory doesn't declare it.
+     */
+    public String getChecksumExtension()
+    {
+        return checksumExtension;
     }
 
     @Deprecated
@@ -26,6 +26,7 @@ public final class Md5GeneratorFactory
 
     public Md5GeneratorFactory()
     {
+        super( ".md5" );
     }
 
     @Override
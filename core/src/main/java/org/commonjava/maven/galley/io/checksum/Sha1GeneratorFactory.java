@@ -26,6 +26,7 @@ public final class Sha1GeneratorFactory
 
     public Sha1GeneratorFactory()
     {
+        super( ".sha1" );
     }
 
     @Override
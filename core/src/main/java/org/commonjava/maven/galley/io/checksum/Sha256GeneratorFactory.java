@@ -26,6 +26,7 @@ public final class Sha256GeneratorFactory
 
     public Sha256GeneratorFactory()
     {
+        super( ".sha256" );
     }
 
     @Override
@@ -28,6 +28,7 @@ public final class Sha384GeneratorFactory
 
     public Sha384GeneratorFactory()
     {
+        super( ".sha384" );
     }
 
     @Override
@@ -28,6 +28,7 @@ public final class Sha512GeneratorFactory
 
     public Sha512GeneratorFactory()
     {
+        super( ".sha512" );
     }
 
     @Override
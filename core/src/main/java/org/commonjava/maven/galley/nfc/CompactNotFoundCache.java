@@ -0,0 +1,696 @@
+/**
+ * Copyright (C) 2013 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.galley.nfc;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.enterprise.inject.Alternative;
+import javax.inject.Named;
+
+import org.commonjava.maven.galley.model.ConcreteResource;
+import org.commonjava.maven.galley.model.Location;
+import org.commonjava.maven.galley.spi.nfc.NotFoundCache;
+import org.commonjava.maven.galley.util.LocationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link NotFoundCache} for very large numbers of missing paths. Each entry is a 64-bit fingerprint of location and
+ * path plus its expiry, in a fixed-size open-addressing table held in a direct buffer, so entries cost a few dozen
+ * bytes outside the heap instead of a String and set entry per path. A Bloom filter in front of the table answers
+ * most negative {@link #isMissing(ConcreteResource)} checks without probing it; it's sized for twice the maximum entry
+ * count at the configured false-positive rate and rebuilt before removed entries could push it past that.
+ * <p>
+ * Entries expire after the {@link Location#NFC_TIMEOUT_SECONDS} of their location (to the second). When the table is
+ * full, entries that haven't been found since the clock hand last passed them are evicted (CLOCK). Without
+ * {@link CompactNotFoundCacheConfig#isVerifyPaths()} the paths themselves aren't stored, so two paths with the same
+ * fingerprint are indistinguishable, and {@link #getMissing(Location)} / {@link #getAllMissing()} return nothing.
+ */
+@Named
+@Alternative
+public class CompactNotFoundCache
+    implements NotFoundCache
+{
+
+    private static final int SLOT_BYTES = 24;
+
+    private static final int FINGERPRINT = 0;
+
+    private static final int EXPIRES = 8;
+
+    private static final int LOCATION = 12;
+
+    private static final int PATH_OFFSET = 16;
+
+    private static final int PATH_LENGTH = 20;
+
+    private static final int REFERENCED = 0x80000000;
+
+    private static final long EMPTY = 0;
+
+    private static final long TOMBSTONE = -1;
+
+    private static final int NEVER = Integer.MAX_VALUE;
+
+    private static final int INITIAL_ARENA_BYTES = 1024 * 1024;
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<Location, Integer> locationIds = new HashMap<Location, Integer>();
+
+    private final List<Location> locations = new ArrayList<Location>();
+
+    private final long baseSeconds = System.currentTimeMillis() / 1000;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong filtered = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final AtomicLong expirations = new AtomicLong();
+
+    private final int maxEntries;
+
+    private final boolean verifyPaths;
+
+    private final int capacity;
+
+    private final int rebuildThreshold;
+
+    private final long bloomBits;
+
+    private final int bloomHashes;
+
+    private ByteBuffer table;
+
+    private ByteBuffer arena;
+
+    private int arenaUsed;
+
+    private long[] bloom;
+
+    private long bloomKeys;
+
+    private int live;
+
+    private int tombstones;
+
+    private int clockHand;
+
+    public CompactNotFoundCache()
+    {
+        this( new CompactNotFoundCacheConfig() );
+    }
+
+    public CompactNotFoundCache( final CompactNotFoundCacheConfig config )
+    {
+        this.maxEntries = config.getMaxEntries();
+        this.verifyPaths = config.isVerifyPaths();
+
+        // keep the table at most 3/4 full of live entries; tombstones may take half the remaining slots.
+        final long slots = Long.highestOneBit( Math.max( 16, maxEntries + maxEntries / 3L ) ) << 1;
+        if ( slots * SLOT_BYTES > Integer.MAX_VALUE )
+        {
+            throw new IllegalArgumentException( "Too many entries for one not-found cache table: " + maxEntries );
+        }
+
+        this.capacity = (int) slots;
+        this.rebuildThreshold = maxEntries + ( capacity - maxEntries ) / 2;
+
+        final double p = config.getFalsePositiveRate();
+        final double keys = 2.0 * maxEntries;
+        final long bits = (long) Math.ceil( -keys * Math.log( p ) / ( Math.log( 2 ) * Math.log( 2 ) ) );
+        this.bloomBits = Math.max( 64, ( bits + 63 ) & ~63L );
+        this.bloomHashes = Math.max( 1, (int) Math.round( bloomBits / keys * Math.log( 2 ) ) );
+
+        reset();
+        logger.debug( "Not-found cache: {} slots ({} bytes), Bloom filter of {} bits with {} hashes", capacity,
+                      (long) capacity * SLOT_BYTES, bloomBits, bloomHashes );
+    }
+
+    @Override
+    public void addMissing( final ConcreteResource resource )
+    {
+        final Location location = resource.getLocation();
+        final int timeoutSeconds = LocationUtils.getNfcTimeoutSeconds( location );
+        final byte[] path = pathBytes( resource );
+
+        lock.writeLock().lock();
+        try
+        {
+            final int now = now();
+            final int expires = timeoutSeconds > 0 ? (int) Math.min( NEVER - 1L, (long) now + timeoutSeconds ) : NEVER;
+
+            final int locationId = idFor( location );
+            final long fingerprint = fingerprint( locationId, resource.getPath() );
+
+            final int existing = find( fingerprint, locationId, path );
+            if ( existing > -1 )
+            {
+                table.putInt( existing + EXPIRES, expires );
+                return;
+            }
+
+            if ( live >= maxEntries )
+            {
+                evictOne( now );
+            }
+
+            if ( live + tombstones >= rebuildThreshold || bloomKeys >= 2L * maxEntries )
+            {
+                rebuild( now );
+            }
+
+            insert( fingerprint, expires, locationId, path );
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean isMissing( final ConcreteResource resource )
+    {
+        final byte[] path = pathBytes( resource );
+
+        lock.readLock().lock();
+        try
+        {
+            final Integer locationId = locationIds.get( resource.getLocation() );
+            if ( locationId == null )
+            {
+                misses.incrementAndGet();
+                return false;
+            }
+
+            final long fingerprint = fingerprint( locationId, resource.getPath() );
+            if ( !mightContain( fingerprint ) )
+            {
+                filtered.incrementAndGet();
+                misses.incrementAndGet();
+                return false;
+            }
+
+            final int slot = find( fingerprint, locationId, path );
+            if ( slot < 0 || table.getInt( slot + EXPIRES ) <= now() )
+            {
+                // expired entries are dropped by eviction or the next rebuild.
+                misses.incrementAndGet();
+                return false;
+            }
+
+            // racing readers can only ever set the same bit here; writers hold the write lock.
+            table.putInt( slot + PATH_LENGTH, table.getInt( slot + PATH_LENGTH ) | REFERENCED );
+            hits.incrementAndGet();
+            return true;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void clearMissing( final Location location )
+    {
+        lock.writeLock().lock();
+        try
+        {
+            final Integer locationId = locationIds.get( location );
+            if ( locationId == null )
+            {
+                return;
+            }
+
+            for ( int i = 0; i < capacity; i++ )
+            {
+                final int slot = i * SLOT_BYTES;
+                if ( isOccupied( slot ) && table.getInt( slot + LOCATION ) == locationId )
+                {
+                    remove( slot );
+                }
+            }
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void clearMissing( final ConcreteResource resource )
+    {
+        final byte[] path = pathBytes( resource );
+
+        lock.writeLock().lock();
+        try
+        {
+            final Integer locationId = locationIds.get( resource.getLocation() );
+            if ( locationId == null )
+            {
+                return;
+            }
+
+            final int slot = find( fingerprint( locationId, resource.getPath() ), locationId, path );
+            if ( slot > -1 )
+            {
+                remove( slot );
+            }
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void clearAllMissing()
+    {
+        lock.writeLock().lock();
+        try
+        {
+            reset();
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<Location, Set<String>> getAllMissing()
+    {
+        final Map<Location, Set<String>> result = new HashMap<Location, Set<String>>();
+        if ( !verifyPaths )
+        {
+            return result;
+        }
+
+        lock.readLock().lock();
+        try
+        {
+            final int now = now();
+            for ( int i = 0; i < capacity; i++ )
+            {
+                final int slot = i * SLOT_BYTES;
+                if ( isOccupied( slot ) && table.getInt( slot + EXPIRES ) > now )
+                {
+                    final Location location = locations.get( table.getInt( slot + LOCATION ) );
+                    Set<String> paths = result.get( location );
+                    if ( paths == null )
+                    {
+                        paths = new HashSet<String>();
+                        result.put( location, paths );
+                    }
+
+                    paths.add( pathAt( slot ) );
+                }
+            }
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+
+        return result;
+    }
+
+    @Override
+    public Set<String> getMissing( final Location location )
+    {
+        final Set<String> result = getAllMissing().get( location );
+        return result == null ? Collections.<String> emptySet() : result;
+    }
+
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    /**
+     * Misses answered by the Bloom filter without probing the table.
+     */
+    public long getFilteredCount()
+    {
+        return filtered.get();
+    }
+
+    public long getEvictionCount()
+    {
+        return evictions.get();
+    }
+
+    public long getExpirationCount()
+    {
+        return expirations.get();
+    }
+
+    /**
+     * Number of entries, including expired ones that haven't been dropped yet.
+     */
+    public int getSize()
+    {
+        lock.readLock().lock();
+        try
+        {
+            return live;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Off-heap bytes held by the table and (when verifying paths) the stored paths.
+     */
+    public long getOffHeapBytes()
+    {
+        lock.readLock().lock();
+        try
+        {
+            return (long) table.capacity() + ( arena == null ? 0 : arena.capacity() );
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void reset()
+    {
+        table = ByteBuffer.allocateDirect( capacity * SLOT_BYTES );
+        arena = verifyPaths ? ByteBuffer.allocateDirect( INITIAL_ARENA_BYTES ) : null;
+        arenaUsed = 0;
+        bloom = new long[(int) ( bloomBits >>> 6 )];
+        bloomKeys = 0;
+        live = 0;
+        tombstones = 0;
+        clockHand = 0;
+    }
+
+    private int now()
+    {
+        return (int) ( System.currentTimeMillis() / 1000 - baseSeconds );
+    }
+
+    private byte[] pathBytes( final ConcreteResource resource )
+    {
+        return verifyPaths ? resource.getPath().getBytes( StandardCharsets.UTF_8 ) : null;
+    }
+
+    private int idFor( final Location location )
+    {
+        Integer id = locationIds.get( location );
+        if ( id == null )
+        {
+            id = locations.size();
+            locations.add( location );
+            locationIds.put( location, id );
+        }
+
+        return id;
+    }
+
+    private static long fingerprint( final int locationId, final String path )
+    {
+        long h = 0xcbf29ce484222325L ^ ( locationId * 0x9e3779b97f4a7c15L );
+        for ( int i = 0; i < path.length(); i++ )
+        {
+            h ^= path.charAt( i );
+            h *= 0x100000001b3L;
+        }
+
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+
+        return h == EMPTY || h == TOMBSTONE ? 1 : h;
+    }
+
+    private boolean mightContain( final long fingerprint )
+    {
+        final long h1 = (int) fingerprint;
+        final long h2 = (int) ( fingerprint >>> 32 );
+        for ( int i = 0; i < bloomHashes; i++ )
+        {
+            final long bit = ( ( h1 + i * h2 ) & Long.MAX_VALUE ) % bloomBits;
+            if ( ( bloom[(int) ( bit >>> 6 )] & ( 1L << bit ) ) == 0 )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void addToBloom( final long fingerprint )
+    {
+        final long h1 = (int) fingerprint;
+        final long h2 = (int) ( fingerprint >>> 32 );
+        for ( int i = 0; i < bloomHashes; i++ )
+        {
+            final long bit = ( ( h1 + i * h2 ) & Long.MAX_VALUE ) % bloomBits;
+            bloom[(int) ( bit >>> 6 )] |= 1L << bit;
+        }
+
+        bloomKeys++;
+    }
+
+    private int home( final long fingerprint )
+    {
+        return (int) ( fingerprint ^ ( fingerprint >>> 29 ) ) & ( capacity - 1 );
+    }
+
+    private boolean isOccupied( final int slot )
+    {
+        final long fingerprint = table.getLong( slot + FINGERPRINT );
+        return fingerprint != EMPTY && fingerprint != TOMBSTONE;
+    }
+
+    /**
+     * Byte position of the entry's slot, or -1.
+     */
+    private int find( final long fingerprint, final int locationId, final byte[] path )
+    {
+        int i = home( fingerprint );
+        while ( true )
+        {
+            final int slot = i * SLOT_BYTES;
+            final long f = table.getLong( slot + FINGERPRINT );
+            if ( f == EMPTY )
+            {
+                return -1;
+            }
+
+            if ( f == fingerprint && table.getInt( slot + LOCATION ) == locationId
+                && ( path == null || pathEquals( slot, path ) ) )
+            {
+                return slot;
+            }
+
+            i = ( i + 1 ) & ( capacity - 1 );
+        }
+    }
+
+    private void insert( final long fingerprint, final int expires, final int locationId, final byte[] path )
+    {
+        int i = home( fingerprint );
+        while ( isOccupied( i * SLOT_BYTES ) )
+        {
+            i = ( i + 1 ) & ( capacity - 1 );
+        }
+
+        final int slot = i * SLOT_BYTES;
+        if ( table.getLong( slot + FINGERPRINT ) == TOMBSTONE )
+        {
+            tombstones--;
+        }
+
+        table.putLong( slot + FINGERPRINT, fingerprint );
+        table.putInt( slot + EXPIRES, expires );
+        table.putInt( slot + LOCATION, locationId );
+        table.putInt( slot + PATH_OFFSET, path == null ? 0 : store( path ) );
+        table.putInt( slot + PATH_LENGTH, path == null ? 0 : path.length );
+
+        addToBloom( fingerprint );
+        live++;
+    }
+
+    private void remove( final int slot )
+    {
+        table.putLong( slot + FINGERPRINT, TOMBSTONE );
+        live--;
+        tombstones++;
+    }
+
+    /**
+     * Advance the clock hand to the first entry that's expired or wasn't found since the hand last passed it, clearing
+     * the found mark of the entries it passes, and remove it.
+     */
+    private void evictOne( final int now )
+    {
+        for ( int step = 0; step < 2 * capacity; step++ )
+        {
+            final int slot = clockHand * SLOT_BYTES;
+            clockHand = ( clockHand + 1 ) & ( capacity - 1 );
+            if ( !isOccupied( slot ) )
+            {
+                continue;
+            }
+
+            final int length = table.getInt( slot + PATH_LENGTH );
+            if ( table.getInt( slot + EXPIRES ) <= now )
+            {
+                remove( slot );
+                expirations.incrementAndGet();
+                return;
+            }
+            else if ( ( length & REFERENCED ) != 0 )
+            {
+                table.putInt( slot + PATH_LENGTH, length & ~REFERENCED );
+            }
+            else
+            {
+                remove( slot );
+                evictions.incrementAndGet();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Re-insert the unexpired entries into fresh buffers, dropping tombstones, stale Bloom filter bits and unused
+     * path bytes.
+     */
+    private void rebuild( final int now )
+    {
+        final ByteBuffer oldTable = table;
+        final ByteBuffer oldArena = arena;
+        final int oldArenaUsed = arenaUsed;
+
+        table = ByteBuffer.allocateDirect( capacity * SLOT_BYTES );
+        arena = verifyPaths ? ByteBuffer.allocateDirect( Math.max( INITIAL_ARENA_BYTES, oldArenaUsed ) ) : null;
+        arenaUsed = 0;
+        bloom = new long[bloom.length];
+        bloomKeys = 0;
+        live = 0;
+        tombstones = 0;
+
+        for ( int i = 0; i < capacity; i++ )
+        {
+            final int slot = i * SLOT_BYTES;
+            final long fingerprint = oldTable.getLong( slot + FINGERPRINT );
+            if ( fingerprint == EMPTY || fingerprint == TOMBSTONE )
+            {
+                continue;
+            }
+
+            final int expires = oldTable.getInt( slot + EXPIRES );
+            if ( expires <= now )
+            {
+                expirations.incrementAndGet();
+                continue;
+            }
+
+            byte[] path = null;
+            if ( verifyPaths )
+            {
+                path = new byte[oldTable.getInt( slot + PATH_LENGTH ) & ~REFERENCED];
+                final ByteBuffer src = oldArena.duplicate();
+                src.position( oldTable.getInt( slot + PATH_OFFSET ) );
+                src.get( path );
+            }
+
+            insert( fingerprint, expires, oldTable.getInt( slot + LOCATION ), path );
+        }
+
+        logger.debug( "Rebuilt not-found cache with {} entries.", live );
+    }
+
+    private int store( final byte[] path )
+    {
+        if ( arena.capacity() - arenaUsed < path.length )
+        {
+            final ByteBuffer grown =
+                    ByteBuffer.allocateDirect( Math.max( arena.capacity() * 2, arenaUsed + path.length ) );
+            final ByteBuffer used = arena.duplicate();
+            used.position( 0 ).limit( arenaUsed );
+            grown.put( used );
+            arena = grown;
+        }
+
+        final ByteBuffer dest = arena.duplicate();
+        dest.position( arenaUsed );
+        dest.put( path );
+
+        final int offset = arenaUsed;
+        arenaUsed += path.length;
+        return offset;
+    }
+
+    private boolean pathEquals( final int slot, final byte[] path )
+    {
+        if ( ( table.getInt( slot + PATH_LENGTH ) & ~REFERENCED ) != path.length )
+        {
+            return false;
+        }
+
+        final int offset = table.getInt( slot + PATH_OFFSET );
+        for ( int i = 0; i < path.length; i++ )
+        {
+            if ( arena.get( offset + i ) != path[i] )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private String pathAt( final int slot )
+    {
+        final byte[] path = new byte[table.getInt( slot + PATH_LENGTH ) & ~REFERENCED];
+        final ByteBuffer src = arena.duplicate();
+        src.position( table.getInt( slot + PATH_OFFSET ) );
+        src.get( path );
+        return new String( path, StandardCharsets.UTF_8 );
+    }
+
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2013 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.galley.nfc;
+
+/**
+ * Sizing for {@link CompactNotFoundCache}. Unset values fall back to the defaults.
+ */
+public class CompactNotFoundCacheConfig
+{
+    public static final int DEFAULT_MAX_ENTRIES = 1000000;
+
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
+    private Integer maxEntries;
+
+    private Double falsePositiveRate;
+
+    private Boolean verifyPaths;
+
+    /**
+     * Number of missing paths held; beyond this, entries not checked recently are evicted.
+     */
+    public CompactNotFoundCacheConfig withMaxEntries( final int maxEntries )
+    {
+        this.maxEntries = maxEntries;
+        return this;
+    }
+
+    public int getMaxEntries()
+    {
+        return maxEntries == null ? DEFAULT_MAX_ENTRIES : maxEntries;
+    }
+
+    /**
+     * Upper bound on the rate at which the Bloom filter lets a path that isn't stored through to the table.
+     */
+    public CompactNotFoundCacheConfig withFalsePositiveRate( final double falsePositiveRate )
+    {
+        this.falsePositiveRate = falsePositiveRate;
+        return this;
+    }
+
+    public double getFalsePositiveRate()
+    {
+        return falsePositiveRate == null ? DEFAULT_FALSE_POSITIVE_RATE : falsePositiveRate;
+    }
+
+    /**
+     * Also store the paths themselves (off-heap), so a fingerprint collision can never report a path as missing, and
+     * {@link CompactNotFoundCache#getMissing(org.commonjava.maven.galley.model.Location)} can list them.
+     */
+    public CompactNotFoundCacheConfig withVerifyPaths( final boolean verifyPaths )
+    {
+        this.verifyPaths = verifyPaths;
+        return this;
+    }
+
+    public boolean isVerifyPaths()
+    {
+        return verifyPaths == null ? false : verifyPaths;
+    }
+
+}
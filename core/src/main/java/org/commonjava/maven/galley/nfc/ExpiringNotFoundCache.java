@@ -0,0 +1,412 @@
+/**
+ * Copyright (C) 2013 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.galley.nfc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.enterprise.inject.Alternative;
+import javax.inject.Named;
+
+import org.commonjava.maven.galley.model.ConcreteResource;
+import org.commonjava.maven.galley.model.Location;
+import org.commonjava.maven.galley.spi.nfc.NotFoundCache;
+import org.commonjava.maven.galley.util.LocationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Thread-safe {@link NotFoundCache} whose entries expire after the {@link Location#NFC_TIMEOUT_SECONDS} of their
+ * location, and which holds at most a fixed number of entries. When that's exceeded, expired entries and then the
+ * least recently checked ones are evicted in a batch, down to {@link #EVICTION_TARGET} of the maximum, so the cost of
+ * finding them is spread over many additions.
+ * <p>
+ * This is opt-in: {@link MemoryNotFoundCache} stays the default, so use
+ * {@link org.commonjava.maven.galley.GalleyCoreBuilder#withNfc(NotFoundCache)}, or enable this CDI alternative in
+ * beans.xml.
+ */
+@Named
+@Alternative
+public class ExpiringNotFoundCache
+    implements NotFoundCache
+{
+
+    public static final int DEFAULT_MAX_ENTRIES = 100000;
+
+    /**
+     * Expiry of entries from locations without an NFC timeout.
+     */
+    public static final long NEVER = Long.MAX_VALUE;
+
+    private static final double EVICTION_TARGET = 0.9;
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final ConcurrentMap<Location, ConcurrentMap<String, Entry>> missing =
+            new ConcurrentHashMap<Location, ConcurrentMap<String, Entry>>();
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final AtomicLong expirations = new AtomicLong();
+
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    private final int maxEntries;
+
+    public ExpiringNotFoundCache()
+    {
+        this( DEFAULT_MAX_ENTRIES );
+    }
+
+    public ExpiringNotFoundCache( final int maxEntries )
+    {
+        this.maxEntries = maxEntries;
+    }
+
+    @Override
+    public void addMissing( final ConcreteResource resource )
+    {
+        final int timeoutSeconds = LocationUtils.getNfcTimeoutSeconds( resource.getLocation() );
+        addMissing( resource, timeoutSeconds > 0 ?
+                System.currentTimeMillis() + TimeUnit.SECONDS.toMillis( timeoutSeconds ) :
+                NEVER );
+    }
+
+    /**
+     * Add the resource with an explicit expiry time (millis since the epoch, or {@link #NEVER}), e.g. when restoring
+     * saved entries.
+     */
+    protected void addMissing( final ConcreteResource resource, final long expires )
+    {
+        final Location location = resource.getLocation();
+        final long now = System.currentTimeMillis();
+
+        // put under the location's mapping so it can't land in a map that clearMissing( location ) just dropped.
+        final boolean[] added = new boolean[1];
+        missing.compute( location, ( l, paths ) -> {
+            final ConcurrentMap<String, Entry> result = paths == null ? new ConcurrentHashMap<String, Entry>() : paths;
+            added[0] = result.put( resource.getPath(), new Entry( expires, now ) ) == null;
+            return result;
+        } );
+
+        if ( added[0] && size.incrementAndGet() > maxEntries )
+        {
+            evict();
+        }
+    }
+
+    @Override
+    public boolean isMissing( final ConcreteResource resource )
+    {
+        final ConcurrentMap<String, Entry> paths = missing.get( resource.getLocation() );
+        final Entry entry = paths == null ? null : paths.get( resource.getPath() );
+        if ( entry == null )
+        {
+            misses.incrementAndGet();
+            return false;
+        }
+
+        final long now = System.currentTimeMillis();
+        if ( entry.expires <= now )
+        {
+            if ( paths.remove( resource.getPath(), entry ) )
+            {
+                size.decrementAndGet();
+                expirations.incrementAndGet();
+            }
+
+            misses.incrementAndGet();
+            return false;
+        }
+
+        entry.lastAccess = now;
+        hits.incrementAndGet();
+        return true;
+    }
+
+    @Override
+    public void clearMissing( final Location location )
+    {
+        remove( location );
+    }
+
+    @Override
+    public void clearMissing( final ConcreteResource resource )
+    {
+        final ConcurrentMap<String, Entry> paths = missing.get( resource.getLocation() );
+        if ( paths != null && paths.remove( resource.getPath() ) != null )
+        {
+            size.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void clearAllMissing()
+    {
+        for ( final Location location : new ArrayList<Location>( missing.keySet() ) )
+        {
+            remove( location );
+        }
+    }
+
+    @Override
+    public Map<Location, Set<String>> getAllMissing()
+    {
+        final long now = System.currentTimeMillis();
+        final Map<Location, Set<String>> result = new HashMap<Location, Set<String>>();
+        for ( final Map.Entry<Location, ConcurrentMap<String, Entry>> entry : missing.entrySet() )
+        {
+            final Set<String> paths = live( entry.getValue(), now );
+            if ( !paths.isEmpty() )
+            {
+                result.put( entry.getKey(), paths );
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public Set<String> getMissing( final Location location )
+    {
+        final ConcurrentMap<String, Entry> paths = missing.get( location );
+        return paths == null ? Collections.<String> emptySet() : live( paths, System.currentTimeMillis() );
+    }
+
+    /**
+     * Snapshot of the unexpired entries with their expiry times (millis since the epoch, or {@link #NEVER}).
+     */
+    protected Map<Location, Map<String, Long>> getExpiries()
+    {
+        final long now = System.currentTimeMillis();
+        final Map<Location, Map<String, Long>> result = new HashMap<Location, Map<String, Long>>();
+        for ( final Map.Entry<Location, ConcurrentMap<String, Entry>> paths : missing.entrySet() )
+        {
+            final Map<String, Long> expiries = new HashMap<String, Long>();
+            for ( final Map.Entry<String, Entry> entry : paths.getValue().entrySet() )
+            {
+                if ( entry.getValue().expires > now )
+                {
+                    expiries.put( entry.getKey(), entry.getValue().expires );
+                }
+            }
+
+            if ( !expiries.isEmpty() )
+            {
+                result.put( paths.getKey(), expiries );
+            }
+        }
+
+        return result;
+    }
+
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    /**
+     * Entries dropped to stay within the maximum size.
+     */
+    public long getEvictionCount()
+    {
+        return evictions.get();
+    }
+
+    /**
+     * Entries dropped because their timeout passed.
+     */
+    public long getExpirationCount()
+    {
+        return expirations.get();
+    }
+
+    /**
+     * Approximate number of entries, including expired ones that haven't been dropped yet.
+     */
+    public int getSize()
+    {
+        return size.get();
+    }
+
+    public int getMaxEntries()
+    {
+        return maxEntries;
+    }
+
+    private void remove( final Location location )
+    {
+        final ConcurrentMap<String, Entry> paths = missing.remove( location );
+        if ( paths != null )
+        {
+            for ( final String path : paths.keySet() )
+            {
+                if ( paths.remove( path ) != null )
+                {
+                    size.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    private Set<String> live( final Map<String, Entry> paths, final long now )
+    {
+        final Set<String> result = new HashSet<String>();
+        for ( final Map.Entry<String, Entry> entry : paths.entrySet() )
+        {
+            if ( entry.getValue().expires > now )
+            {
+                result.add( entry.getKey() );
+            }
+        }
+
+        return result;
+    }
+
+    private void evict()
+    {
+        if ( !evictionLock.tryLock() )
+        {
+            // another thread is already evicting.
+            return;
+        }
+
+        try
+        {
+            if ( size.get() <= maxEntries )
+            {
+                return;
+            }
+
+            final long now = System.currentTimeMillis();
+            final List<Candidate> candidates = new ArrayList<Candidate>( size.get() );
+            for ( final Map.Entry<Location, ConcurrentMap<String, Entry>> paths : missing.entrySet() )
+            {
+                for ( final Map.Entry<String, Entry> entry : paths.getValue().entrySet() )
+                {
+                    final Entry e = entry.getValue();
+                    if ( e.expires <= now )
+                    {
+                        if ( paths.getValue().remove( entry.getKey(), e ) )
+                        {
+                            size.decrementAndGet();
+                            expirations.incrementAndGet();
+                        }
+                    }
+                    else
+                    {
+                        candidates.add( new Candidate( paths.getValue(), entry.getKey(), e ) );
+                    }
+                }
+            }
+
+            final int target = (int) ( maxEntries * EVICTION_TARGET );
+            final int excess = size.get() - target;
+            if ( excess <= 0 )
+            {
+                return;
+            }
+
+            Collections.sort( candidates, Candidate.LEAST_RECENT_FIRST );
+
+            int evicted = 0;
+            for ( final Candidate candidate : candidates )
+            {
+                if ( evicted >= excess )
+                {
+                    break;
+                }
+
+                if ( candidate.paths.remove( candidate.path, candidate.entry ) )
+                {
+                    size.decrementAndGet();
+                    evicted++;
+                }
+            }
+
+            evictions.addAndGet( evicted );
+            logger.debug( "Evicted {} least recently checked entries from not-found cache.", evicted );
+
+            for ( final Location location : new ArrayList<Location>( missing.keySet() ) )
+            {
+                missing.computeIfPresent( location, ( l, paths ) -> paths.isEmpty() ? null : paths );
+            }
+        }
+        finally
+        {
+            evictionLock.unlock();
+        }
+    }
+
+    private static final class Entry
+    {
+        private final long expires;
+
+        private volatile long lastAccess;
+
+        private Entry( final long expires, final long lastAccess )
+        {
+            this.expires = expires;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    private static final class Candidate
+    {
+        private static final Comparator<Candidate> LEAST_RECENT_FIRST =
+                ( a, b ) -> Long.compare( a.lastAccess, b.lastAccess );
+
+        private final Map<String, Entry> paths;
+
+        private final String path;
+
+        private final Entry entry;
+
+        private final long lastAccess;
+
+        private Candidate( final Map<String, Entry> paths, final String path, final Entry entry )
+        {
+            this.paths = paths;
+            this.path = path;
+            this.entry = entry;
+            this.lastAccess = entry.lastAccess;
+        }
+    }
+
+}
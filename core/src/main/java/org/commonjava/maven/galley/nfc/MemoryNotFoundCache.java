@@ -87,13 +87,20 @@ public class MemoryNotFoundCache
     @Override
     public Map<Location, Set<String>> getAllMissing()
     {
-        return missing;
+        final Map<Location, Set<String>> result = new HashMap<Location, Set<String>>();
+        for ( final Map.Entry<Location, Set<String>> entry : missing.entrySet() )
+        {
+            result.put( entry.getKey(), new HashSet<String>( entry.getValue() ) );
+        }
+
+        return result;
     }
 
     @Override
     public Set<String> getMissing( final Location location )
     {
-        return missing.get( location );
+        final Set<String> missing = this.missing.get( location );
+        return missing == null ? new HashSet<String>() : new HashSet<String>( missing );
     }
 
 }
@@ -0,0 +1,541 @@
+/**
+ * Copyright (C) 2013 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.galley.nfc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.commonjava.maven.galley.model.ConcreteResource;
+import org.commonjava.maven.galley.model.Location;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link ExpiringNotFoundCache} that survives restarts. Its entries and their expiry times are periodically written to
+ * a binary snapshot file, and on startup that file is read on a background thread, so construction (and so
+ * {@link org.commonjava.maven.galley.GalleyCore} initialization) doesn't wait for it. Saved entries are keyed by
+ * location URI, since {@link Location} instances can't be restored; they're adopted by a location the first time the
+ * cache is asked about it, and until then appear in snapshots but not in {@link #getAllMissing()}.
+ * <p>
+ * {@link #clearMissing(Location)} and {@link #clearAllMissing()} are also appended to a journal next to the snapshot
+ * (<tt>&lt;snapshot&gt;.cleared</tt>), which another process may append to as well. Saved entries for a location
+ * cleared after the snapshot was written are dropped when it's loaded. Every access to the journal holds an exclusive
+ * file lock on <tt>&lt;snapshot&gt;.cleared.lock</tt>, which other writers must take too, so compacting it can't
+ * lose their lines.
+ */
+public class PersistentNotFoundCache
+    extends ExpiringNotFoundCache
+{
+
+    public static final long DEFAULT_SNAPSHOT_PERIOD_MILLIS = TimeUnit.MINUTES.toMillis( 1 );
+
+    private static final int MAGIC = 0x4e464331;
+
+    private static final String ALL_LOCATIONS = "";
+
+    private static final long SHUTDOWN_WAIT_SECONDS = 30;
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final File snapshotFile;
+
+    private final File journalFile;
+
+    private final File journalLockFile;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor( r -> {
+        final Thread t = new Thread( r, "galley-nfc-snapshot" );
+        t.setDaemon( true );
+        return t;
+    } );
+
+    private final Map<String, Long> cleared = new ConcurrentHashMap<String, Long>();
+
+    private final Map<String, Map<String, Long>> pending = new ConcurrentHashMap<String, Map<String, Long>>();
+
+    private final Object loadLock = new Object();
+
+    private final Object journalLock = new Object();
+
+    private final Object snapshotLock = new Object();
+
+    private Set<String> clearedWhileLoading = new HashSet<String>();
+
+    // when the loaded snapshot was written; guarded by loadLock.
+    private long snapshotSavedAt;
+
+    private volatile boolean loaded;
+
+    public PersistentNotFoundCache( final File snapshotFile )
+    {
+        this( snapshotFile, DEFAULT_SNAPSHOT_PERIOD_MILLIS, DEFAULT_MAX_ENTRIES );
+    }
+
+    public PersistentNotFoundCache( final File snapshotFile, final long snapshotPeriodMillis, final int maxEntries )
+    {
+        super( maxEntries );
+        this.snapshotFile = snapshotFile;
+        this.journalFile = new File( snapshotFile.getPath() + ".cleared" );
+        this.journalLockFile = new File( journalFile.getPath() + ".lock" );
+
+        executor.execute( this::load );
+        executor.scheduleWithFixedDelay( this::snapshotQuietly, snapshotPeriodMillis, snapshotPeriodMillis,
+                                         TimeUnit.MILLISECONDS );
+    }
+
+    @Override
+    public void addMissing( final ConcreteResource resource )
+    {
+        adopt( resource.getLocation() );
+        super.addMissing( resource );
+    }
+
+    @Override
+    public boolean isMissing( final ConcreteResource resource )
+    {
+        adopt( resource.getLocation() );
+        return super.isMissing( resource );
+    }
+
+    @Override
+    public void clearMissing( final Location location )
+    {
+        record( location.getUri() );
+        super.clearMissing( location );
+    }
+
+    @Override
+    public void clearMissing( final ConcreteResource resource )
+    {
+        adopt( resource.getLocation() );
+        if ( !loaded )
+        {
+            synchronized ( loadLock )
+            {
+                if ( clearedWhileLoading != null )
+                {
+                    clearedWhileLoading.add( key( resource.getLocation().getUri(), resource.getPath() ) );
+                }
+            }
+        }
+
+        super.clearMissing( resource );
+    }
+
+    @Override
+    public void clearAllMissing()
+    {
+        record( ALL_LOCATIONS );
+        super.clearAllMissing();
+    }
+
+    @Override
+    public Set<String> getMissing( final Location location )
+    {
+        adopt( location );
+        return super.getMissing( location );
+    }
+
+    /**
+     * Whether the saved snapshot has been read (or found missing or unreadable).
+     */
+    public boolean isLoaded()
+    {
+        return loaded;
+    }
+
+    /**
+     * Write the current entries to the snapshot file, replacing it atomically. Does nothing until the previous
+     * snapshot has been loaded, so it's never overwritten with less than it held.
+     */
+    public void snapshot()
+        throws IOException
+    {
+        // the periodic snapshot and an explicit (or shutdown) one share the tmp file and the journal compaction.
+        synchronized ( snapshotLock )
+        {
+            if ( !loaded )
+            {
+                return;
+            }
+
+            final long savedAt = System.currentTimeMillis();
+            final Map<String, Map<String, Long>> entries = new HashMap<String, Map<String, Long>>();
+            for ( final Map.Entry<String, Map<String, Long>> entry : pending.entrySet() )
+            {
+                entries.put( entry.getKey(), live( entry.getValue(), savedAt ) );
+            }
+
+            for ( final Map.Entry<Location, Map<String, Long>> entry : getExpiries().entrySet() )
+            {
+                final Map<String, Long> paths = entries.get( entry.getKey().getUri() );
+                if ( paths == null )
+                {
+                    entries.put( entry.getKey().getUri(), entry.getValue() );
+                }
+                else
+                {
+                    paths.putAll( entry.getValue() );
+                }
+            }
+
+            final File tmp = new File( snapshotFile.getPath() + ".tmp" );
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream( new FileOutputStream( tmp ) ) ))
+            {
+                out.writeInt( MAGIC );
+                out.writeLong( savedAt );
+                out.writeInt( entries.size() );
+                for ( final Map.Entry<String, Map<String, Long>> location : entries.entrySet() )
+                {
+                    out.writeUTF( location.getKey() );
+                    out.writeInt( location.getValue().size() );
+                    for ( final Map.Entry<String, Long> path : location.getValue().entrySet() )
+                    {
+                        out.writeUTF( path.getKey() );
+                        out.writeLong( path.getValue() );
+                    }
+                }
+            }
+
+            Files.move( tmp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE );
+
+            compactJournal( savedAt );
+            logger.debug( "Saved not-found cache snapshot of {} locations to: {}", entries.size(), snapshotFile );
+        }
+    }
+
+    /**
+     * Stop the periodic snapshots and write a last one, once a load or snapshot that's already running has finished.
+     */
+    @PreDestroy
+    public void shutdown()
+    {
+        executor.shutdown();
+        try
+        {
+            if ( !executor.awaitTermination( SHUTDOWN_WAIT_SECONDS, TimeUnit.SECONDS ) )
+            {
+                logger.warn( "Not-found cache snapshot thread did not stop within {} seconds.", SHUTDOWN_WAIT_SECONDS );
+            }
+        }
+        catch ( final InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        snapshotQuietly();
+    }
+
+    private void snapshotQuietly()
+    {
+        try
+        {
+            snapshot();
+        }
+        catch ( final IOException e )
+        {
+            logger.warn( "Failed to save not-found cache snapshot to: {}. Reason: {}", snapshotFile, e.getMessage() );
+        }
+    }
+
+    private void load()
+    {
+        try
+        {
+            cleared.putAll( readJournal() );
+            if ( snapshotFile.isFile() )
+            {
+                readSnapshot();
+            }
+        }
+        catch ( final IOException e )
+        {
+            logger.warn( "Failed to load not-found cache snapshot from: {}. Starting empty. Reason: {}",
+                         snapshotFile, e.getMessage() );
+            pending.clear();
+        }
+        finally
+        {
+            synchronized ( loadLock )
+            {
+                clearedWhileLoading = null;
+                loaded = true;
+            }
+        }
+    }
+
+    private void readSnapshot()
+        throws IOException
+    {
+        final long now = System.currentTimeMillis();
+        int restored = 0;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream( new FileInputStream( snapshotFile ) ) ))
+        {
+            if ( in.readInt() != MAGIC )
+            {
+                throw new IOException( "Not a not-found cache snapshot" );
+            }
+
+            final long savedAt = in.readLong();
+            synchronized ( loadLock )
+            {
+                snapshotSavedAt = savedAt;
+            }
+
+            final int locations = in.readInt();
+            for ( int i = 0; i < locations; i++ )
+            {
+                final String uri = in.readUTF();
+                final int count = in.readInt();
+                final Map<String, Long> paths = new HashMap<String, Long>();
+                for ( int j = 0; j < count; j++ )
+                {
+                    final String path = in.readUTF();
+                    final long expires = in.readLong();
+                    if ( expires > now )
+                    {
+                        paths.put( path, expires );
+                    }
+                }
+
+                synchronized ( loadLock )
+                {
+                    if ( clearedSince( uri, savedAt ) )
+                    {
+                        logger.debug( "Dropping saved not-found entries of: {}, cleared since they were saved.", uri );
+                        continue;
+                    }
+
+                    paths.keySet().removeIf( ( path ) -> clearedWhileLoading.contains( key( uri, path ) ) );
+                    if ( !paths.isEmpty() )
+                    {
+                        pending.put( uri, paths );
+                        restored += paths.size();
+                    }
+                }
+            }
+        }
+
+        logger.info( "Loaded {} not-found cache entries from: {}", restored, snapshotFile );
+    }
+
+    private void adopt( final Location location )
+    {
+        if ( pending.isEmpty() )
+        {
+            return;
+        }
+
+        // under the load lock, so a clear of the location can't slip in between taking the saved entries and adding
+        // them.
+        synchronized ( loadLock )
+        {
+            final Map<String, Long> paths = pending.remove( location.getUri() );
+            if ( paths == null || clearedSince( location.getUri(), snapshotSavedAt ) )
+            {
+                return;
+            }
+
+            final long now = System.currentTimeMillis();
+            for ( final Map.Entry<String, Long> entry : paths.entrySet() )
+            {
+                if ( entry.getValue() > now )
+                {
+                    super.addMissing( new ConcreteResource( location, entry.getKey() ), entry.getValue() );
+                }
+            }
+        }
+    }
+
+    private boolean clearedSince( final String uri, final long savedAt )
+    {
+        final Long location = cleared.get( uri );
+        final Long all = cleared.get( ALL_LOCATIONS );
+        return ( location != null && location >= savedAt ) || ( all != null && all >= savedAt );
+    }
+
+    /**
+     * Journal the clear before forgetting any saved entries, so a snapshot that's being loaded can't bring them back.
+     */
+    private void record( final String uri )
+    {
+        final long now = System.currentTimeMillis();
+        synchronized ( loadLock )
+        {
+            cleared.put( uri, now );
+            if ( ALL_LOCATIONS.equals( uri ) )
+            {
+                pending.clear();
+            }
+            else
+            {
+                pending.remove( uri );
+            }
+        }
+
+        synchronized ( journalLock )
+        {
+            try (FileChannel channel = openJournalLock(); FileLock lock = channel.lock();
+                 Writer writer = new OutputStreamWriter( new FileOutputStream( journalFile, true ),
+                                                         StandardCharsets.UTF_8 ))
+            {
+                writer.write( now + " " + uri + "\n" );
+            }
+            catch ( final IOException e )
+            {
+                logger.warn( "Failed to journal not-found cache clear of: '{}' in: {}. Reason: {}", uri, journalFile,
+                             e.getMessage() );
+            }
+        }
+    }
+
+    private Map<String, Long> readJournal()
+        throws IOException
+    {
+        synchronized ( journalLock )
+        {
+            try (FileChannel channel = openJournalLock(); FileLock lock = channel.lock())
+            {
+                return parseJournal();
+            }
+        }
+    }
+
+    /**
+     * Read the journal; the caller holds the journal lock.
+     */
+    private Map<String, Long> parseJournal()
+        throws IOException
+    {
+        final Map<String, Long> result = new HashMap<String, Long>();
+        if ( !journalFile.isFile() )
+        {
+            return result;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader( journalFile.toPath(), StandardCharsets.UTF_8 ))
+        {
+            String line;
+            while ( ( line = reader.readLine() ) != null )
+            {
+                final int idx = line.indexOf( ' ' );
+                if ( idx < 1 )
+                {
+                    continue;
+                }
+
+                final long time = Long.parseLong( line.substring( 0, idx ) );
+                final String uri = line.substring( idx + 1 );
+                final Long previous = result.get( uri );
+                if ( previous == null || previous < time )
+                {
+                    result.put( uri, time );
+                }
+            }
+        }
+        catch ( final NumberFormatException e )
+        {
+            throw new IOException( "Corrupt not-found cache journal: " + journalFile, e );
+        }
+
+        return result;
+    }
+
+    /**
+     * Drop the clears the snapshot written at <tt>savedAt</tt> already reflects. Reading and rewriting happen under one
+     * hold of the journal lock, so nothing appended in between is lost.
+     */
+    private void compactJournal( final long savedAt )
+        throws IOException
+    {
+        synchronized ( journalLock )
+        {
+            try (FileChannel channel = openJournalLock(); FileLock lock = channel.lock())
+            {
+                final Map<String, Long> remaining = parseJournal();
+                remaining.values().removeIf( ( time ) -> time < savedAt );
+
+                final List<String> lines = new ArrayList<String>();
+                for ( final Map.Entry<String, Long> entry : remaining.entrySet() )
+                {
+                    lines.add( entry.getValue() + " " + entry.getKey() );
+                }
+
+                Files.write( journalFile.toPath(), lines, StandardCharsets.UTF_8 );
+            }
+        }
+    }
+
+    /**
+     * The journal lock is taken on a separate file, since the journal itself is replaced when it's compacted. Only
+     * one hold per process at a time, hence the journal monitor around every use.
+     */
+    private FileChannel openJournalLock()
+        throws IOException
+    {
+        return FileChannel.open( journalLockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE );
+    }
+
+    private static Map<String, Long> live( final Map<String, Long> paths, final long now )
+    {
+        final Map<String, Long> result = new HashMap<String, Long>();
+        for ( final Map.Entry<String, Long> entry : paths.entrySet() )
+        {
+            if ( entry.getValue() > now )
+            {
+                result.put( entry.getKey(), entry.getValue() );
+            }
+        }
+
+        return result;
+    }
+
+    private static String key( final String uri, final String path )
+    {
+        return uri + '\n' + path;
+    }
+
+}
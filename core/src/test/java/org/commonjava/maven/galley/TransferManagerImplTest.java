@@ -15,10 +15,14 @@
  */
 package org.commonjava.maven.galley;
 
+import org.commonjava.cdi.util.weft.NamedThreadFactory;
 import org.commonjava.maven.galley.cache.FileCacheProvider;
 import org.commonjava.maven.galley.config.TransportManagerConfig;
+import org.commonjava.maven.galley.event.EventMetadata;
+import org.commonjava.maven.galley.event.FileDeletionBatchEvent;
 import org.commonjava.maven.galley.event.NoOpFileEventManager;
 import org.commonjava.maven.galley.internal.TransferManagerImpl;
+import org.commonjava.maven.galley.internal.VirtualThreads;
 import org.commonjava.maven.galley.internal.xfer.DownloadHandler;
 import org.commonjava.maven.galley.internal.xfer.ExistenceHandler;
 import org.commonjava.maven.galley.internal.xfer.ListingHandler;
@@ -29,15 +33,58 @@ import org.commonjava.maven.galley.io.SpecialPathManagerImpl;
 import org.commonjava.maven.galley.nfc.MemoryNotFoundCache;
 import org.commonjava.maven.galley.spi.cache.CacheProvider;
 import org.commonjava.maven.galley.spi.event.FileEventManager;
+import org.commonjava.maven.galley.spi.transport.DownloadJob;
 import org.commonjava.maven.galley.spi.transport.TransportManager;
 import org.commonjava.maven.galley.testing.core.transport.TestTransport;
 import org.commonjava.maven.galley.transport.TransportManagerImpl;
+import org.commonjava.maven.galley.model.ConcreteResource;
+import org.commonjava.maven.galley.model.ListingResult;
+import org.commonjava.maven.galley.model.Location;
+import org.commonjava.maven.galley.model.Resource;
+import org.commonjava.maven.galley.model.SimpleLocation;
+import org.commonjava.maven.galley.model.Transfer;
+import org.commonjava.maven.galley.model.TransferBatch;
+import org.commonjava.maven.galley.model.TransferOperation;
+import org.commonjava.maven.galley.model.VirtualResource;
+import org.commonjava.maven.galley.testing.core.transport.job.TestDownload;
+import org.commonjava.maven.galley.testing.core.transport.job.TestExistence;
+import org.commonjava.maven.galley.testing.core.transport.job.TestListing;
+import org.apache.commons.io.IOUtils;
 import org.junit.Before;
 import org.junit.Rule;
+import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.apache.commons.io.IOUtils.closeQuietly;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 /**
  * Unit tests for the {@link TransferManagerImpl} itself. As far as possible, uses 
@@ -90,6 +137,582 @@ public class TransferManagerImplTest
         mgr = new TransferManagerImpl( transportMgr, cacheProvider, nfc, fileEvents, dh, uh, lh, eh, new SpecialPathManagerImpl(), Executors.newFixedThreadPool( 2 ) );
     }
 
+    @Test
+    public void retrieve_serveStaleMetadataWhileRefreshingInBackground()
+        throws Exception
+    {
+        final SimpleLocation location = new SimpleLocation( "file:///test-repo" );
+        location.setAttribute( Location.METADATA_TIMEOUT_SECONDS, 60 );
+        location.setAttribute( Location.METADATA_MAX_STALE_SECONDS, 3600 );
+        final ConcreteResource resource = new ConcreteResource( location, "/org/foo/bar/maven-metadata.xml" );
+
+        transport.registerDownload( resource, new TestDownload( "first".getBytes() ) );
+        Transfer transfer = mgr.retrieve( resource );
+        assertThat( readContent( transfer ), equalTo( "first" ) );
+
+        transport.registerDownload( resource, new TestDownload( "second".getBytes() ) );
+        cacheProvider.asAdminView()
+                     .getDetachedFile( resource )
+                     .setLastModified( System.currentTimeMillis() - TimeUnit.MINUTES.toMillis( 5 ) );
+
+        // hold the download thread, so the refresh can't finish before we've seen the stale content
+        final CountDownLatch hold = new CountDownLatch( 1 );
+        executor.execute( () -> {
+            try
+            {
+                hold.await();
+            }
+            catch ( final InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+        } );
+
+        transfer = mgr.retrieve( resource );
+        assertThat( readContent( transfer ), equalTo( "first" ) );
+        hold.countDown();
+
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis( 10 );
+        while ( !"second".equals( readContent( transfer ) ) && System.currentTimeMillis() < deadline )
+        {
+            Thread.sleep( 50 );
+        }
+
+        assertThat( readContent( transfer ), equalTo( "second" ) );
+    }
+
+    @Test
+    public void retrieve_failedRefreshFallsBackToCachedCopy()
+        throws Exception
+    {
+        final SimpleLocation location = new SimpleLocation( "file:///test-repo" );
+        location.setAttribute( Location.METADATA_TIMEOUT_SECONDS, 60 );
+        location.setAttribute( Location.METADATA_MAX_STALE_SECONDS, 60 );
+        final ConcreteResource resource = new ConcreteResource( location, "/org/foo/bar/maven-metadata.xml" );
+
+        transport.registerDownload( resource, new TestDownload( "first".getBytes() ) );
+        Transfer transfer = mgr.retrieve( resource );
+        assertThat( readContent( transfer ), equalTo( "first" ) );
+
+        // too stale to serve without refreshing, and the refresh fails.
+        transport.registerDownload( resource, new TestDownload( new TransferException( "upstream is down" ) ) );
+        cacheProvider.asAdminView()
+                     .getDetachedFile( resource )
+                     .setLastModified( System.currentTimeMillis() - TimeUnit.MINUTES.toMillis( 5 ) );
+
+        transfer = mgr.retrieve( resource, true );
+        assertThat( transfer, notNullValue() );
+        assertThat( readContent( transfer ), equalTo( "first" ) );
+        assertThat( nfc.isMissing( resource ), equalTo( false ) );
+
+        try
+        {
+            mgr.retrieve( resource );
+            fail( "Refresh failure should be reported when failures aren't suppressed." );
+        }
+        catch ( final TransferException e )
+        {
+            assertThat( nfc.isMissing( resource ), equalTo( false ) );
+        }
+    }
+
+    @Test
+    public void retrieveAsync_cacheIfMissing()
+        throws Exception
+    {
+        final String testContent = "This is a test " + System.currentTimeMillis();
+
+        final ConcreteResource resource = new ConcreteResource( new SimpleLocation( "file:///test-repo" ), "/path/to/test.txt" );
+        transport.registerDownload( resource, new TestDownload( testContent.getBytes() ) );
+
+        final Transfer transfer = ( (AsyncTransferManager) mgr ).retrieveAsync( resource ).get( 10, TimeUnit.SECONDS );
+
+        assertThat( transfer, notNullValue() );
+        assertThat( readContent( transfer ), equalTo( testContent ) );
+    }
+
+    @Test( timeout = 20000 )
+    public void retrieveAsync_timeOutHungDownload()
+        throws Exception
+    {
+        final SimpleLocation loc = new SimpleLocation( "file:///test-repo" );
+        loc.setAttribute( Location.CONNECTION_TIMEOUT_SECONDS, 1 );
+        final ConcreteResource resource = new ConcreteResource( loc, "/path/to/hung.pom" );
+
+        final CountDownLatch release = new CountDownLatch( 1 );
+        transport.registerDownload( resource, new TestDownload( "late".getBytes() )
+        {
+            @Override
+            public DownloadJob call()
+                throws Exception
+            {
+                release.await();
+                return super.call();
+            }
+        } );
+
+        try
+        {
+            ( (AsyncTransferManager) mgr ).retrieveAsync( resource ).get( 10, TimeUnit.SECONDS );
+            fail( "Hung download should have timed out." );
+        }
+        catch ( final ExecutionException e )
+        {
+            assertThat( e.getCause() instanceof TransferTimeoutException, equalTo( true ) );
+        }
+        finally
+        {
+            release.countDown();
+        }
+    }
+
+    /**
+     * Asking for virtual threads must still work where the JVM has none (this build's Java 8): jobs stay on the
+     * supplied pools, and shutting galley down leaves those pools to their owner.
+     */
+    @Test
+    public void retrieve_virtualThreadsFallBackToSuppliedPools()
+        throws Exception
+    {
+        final ExecutorService handlers =
+                Executors.newFixedThreadPool( 2, new NamedThreadFactory( "test-handlers", true, 5 ) );
+        final ExecutorService batches =
+                Executors.newFixedThreadPool( 2, new NamedThreadFactory( "test-batches", true, 5 ) );
+        try
+        {
+            final GalleyCoreBuilder builder = new GalleyCoreBuilder().withCache( cacheProvider )
+                                                                     .withEnabledTransports( transport )
+                                                                     .withHandlerExecutor( handlers )
+                                                                     .withBatchExecutor( batches )
+                                                                     .withVirtualThreads( true );
+            final GalleyCore core = builder.build();
+
+            final ConcreteResource resource =
+                    new ConcreteResource( new SimpleLocation( "file:///test-repo" ), "/path/to/virtual.pom" );
+            final AtomicReference<String> downloadThread = new AtomicReference<String>();
+            transport.registerDownload( resource, new TestDownload( "content".getBytes() )
+            {
+                @Override
+                public DownloadJob call()
+                    throws Exception
+                {
+                    downloadThread.set( Thread.currentThread().getName() );
+                    return super.call();
+                }
+            } );
+
+            final Transfer transfer = core.getTransferManager().retrieve( resource );
+            assertThat( readContent( transfer ), equalTo( "content" ) );
+
+            final String expected = VirtualThreads.isSupported() ? "galley-transfers-" : "test-handlers";
+            assertThat( downloadThread.get(), downloadThread.get().startsWith( expected ), equalTo( true ) );
+
+            ( (TransferManagerImpl) core.getTransferManager() ).shutdown();
+            builder.getLocationScheduler().shutdown();
+
+            assertThat( handlers.isShutdown(), equalTo( false ) );
+            assertThat( batches.isShutdown(), equalTo( false ) );
+        }
+        finally
+        {
+            handlers.shutdownNow();
+            batches.shutdownNow();
+        }
+    }
+
+    @Test
+    public void retrieveFirstAsync_fallThroughToNextLocation()
+        throws Exception
+    {
+        final String testContent = "This is a test " + System.currentTimeMillis();
+        final String path = "/path/to/test.txt";
+
+        final Location first = new SimpleLocation( "first", "file:///first-repo" );
+        final Location second = new SimpleLocation( "second", "file:///second-repo" );
+
+        transport.registerDownload( new ConcreteResource( first, path ), new TestDownload( (byte[]) null ) );
+        transport.registerDownload( new ConcreteResource( second, path ), new TestDownload( testContent.getBytes() ) );
+
+        final Transfer transfer = ( (AsyncTransferManager) mgr ).retrieveFirstAsync(
+                new VirtualResource( Arrays.asList( first, second ), path ) ).get( 10, TimeUnit.SECONDS );
+
+        assertThat( transfer, notNullValue() );
+        assertThat( transfer.getLocation(), equalTo( second ) );
+        assertThat( readContent( transfer ), equalTo( testContent ) );
+    }
+
+    @Test
+    public void retrieveFirstAsync_returnNullWhenMissingEverywhere()
+        throws Exception
+    {
+        final String path = "/path/to/missing.txt";
+        final Location first = new SimpleLocation( "first", "file:///first-repo" );
+        transport.registerDownload( new ConcreteResource( first, path ), new TestDownload( (byte[]) null ) );
+
+        final Transfer transfer = ( (AsyncTransferManager) mgr ).retrieveFirstAsync(
+                new VirtualResource( Arrays.asList( first ), path ) ).get( 10, TimeUnit.SECONDS );
+
+        assertThat( transfer, nullValue() );
+    }
+
+    @Test
+    public void retrieveFirstParallel_preferHighestPriorityLocationWithContent()
+        throws Exception
+    {
+        final String path = "/path/to/test.txt";
+
+        final Location first = new SimpleLocation( "first", "file:///first-repo" );
+        final Location second = new SimpleLocation( "second", "file:///second-repo" );
+        final Location third = new SimpleLocation( "third", "file:///third-repo" );
+
+        transport.registerExistence( new ConcreteResource( first, path ), new TestExistence( false ) );
+        transport.registerExistence( new ConcreteResource( second, path ), new TestExistence( true ) );
+        transport.registerExistence( new ConcreteResource( third, path ), new TestExistence( true ) );
+        transport.registerDownload( new ConcreteResource( second, path ), new TestDownload( "second".getBytes() ) );
+        transport.registerDownload( new ConcreteResource( third, path ), new TestDownload( "third".getBytes() ) );
+
+        final TransportManagerConfig config = new TransportManagerConfig().withParallelRetrieveFanout( 3 )
+                                                                          .withHedgeDelayMillis( 50 );
+        final TransferManager parallel =
+                new TransferManagerImpl( transportMgr, cacheProvider, nfc, fileEvents,
+                                         new DownloadHandler( nfc, config, executor ),
+                                         new UploadHandler( nfc, config, executor ), new ListingHandler( nfc ),
+                                         new ExistenceHandler( nfc ), new SpecialPathManagerImpl(), config,
+                                         Executors.newFixedThreadPool( 3 ) );
+
+        final VirtualResource virt = new VirtualResource( Arrays.asList( first, second, third ), path );
+        assertThat( parallel.findFirstExisting( virt ).getLocation(), equalTo( second ) );
+
+        final Transfer transfer = parallel.retrieveFirst( virt );
+
+        assertThat( transfer, notNullValue() );
+        assertThat( transfer.getLocation(), equalTo( second ) );
+        assertThat( readContent( transfer ), equalTo( "second" ) );
+        assertThat( cacheProvider.exists( new ConcreteResource( third, path ) ), equalTo( false ) );
+    }
+
+    @Test( timeout = 10000 )
+    public void findFirstExistingParallel_callableFromBatchingPool()
+        throws Exception
+    {
+        final String path = "/path/to/test.txt";
+
+        final Location first = new SimpleLocation( "first", "file:///first-repo" );
+        final Location second = new SimpleLocation( "second", "file:///second-repo" );
+
+        transport.registerExistence( new ConcreteResource( first, path ), new TestExistence( false ) );
+        transport.registerExistence( new ConcreteResource( second, path ), new TestExistence( true ) );
+
+        // a batching pool with a single thread: probes must not queue behind the caller that waits on them.
+        final ExecutorService batching = Executors.newSingleThreadExecutor();
+        final TransportManagerConfig config = new TransportManagerConfig().withParallelRetrieveFanout( 2 );
+        final TransferManagerImpl parallel =
+                new TransferManagerImpl( transportMgr, cacheProvider, nfc, fileEvents,
+                                         new DownloadHandler( nfc, config, executor ),
+                                         new UploadHandler( nfc, config, executor ), new ListingHandler( nfc ),
+                                         new ExistenceHandler( nfc ), new SpecialPathManagerImpl(), config,
+                                         batching );
+        try
+        {
+            final VirtualResource virt = new VirtualResource( Arrays.asList( first, second ), path );
+            final ConcreteResource found = batching.submit( () -> parallel.findFirstExisting( virt ) ).get();
+
+            assertThat( found.getLocation(), equalTo( second ) );
+        }
+        finally
+        {
+            parallel.shutdown();
+            batching.shutdownNow();
+        }
+    }
+
+    @Test
+    public void batchRetrieve_reportEachOutcomeToListener()
+        throws Exception
+    {
+        final Location first = new SimpleLocation( "first", "file:///first-repo" );
+        final Location second = new SimpleLocation( "second", "file:///second-repo" );
+
+        final String found = "/path/to/found.txt";
+        final String missing = "/path/to/missing.txt";
+
+        transport.registerDownload( new ConcreteResource( first, found ), new TestDownload( (byte[]) null ) );
+        transport.registerDownload( new ConcreteResource( second, found ), new TestDownload( "found".getBytes() ) );
+        transport.registerDownload( new ConcreteResource( first, missing ), new TestDownload( (byte[]) null ) );
+        transport.registerDownload( new ConcreteResource( second, missing ), new TestDownload( (byte[]) null ) );
+
+        final Set<Resource> resources = new HashSet<Resource>();
+        resources.add( new VirtualResource( Arrays.asList( first, second ), found ) );
+        resources.add( new VirtualResource( Arrays.asList( first, second ), missing ) );
+
+        final List<ConcreteResource> retrieved = new ArrayList<ConcreteResource>();
+        final List<Resource> notFound = new ArrayList<Resource>();
+        final TransferBatch batch = mgr.batchRetrieve( new TransferBatch( resources ), new EventMetadata(),
+                                                       new TransferBatchListener()
+                                                       {
+                                                           @Override
+                                                           public void retrieved( final ConcreteResource resource,
+                                                                                  final Transfer transfer )
+                                                           {
+                                                               retrieved.add( resource );
+                                                           }
+
+                                                           @Override
+                                                           public void failed( final ConcreteResource resource,
+                                                                               final TransferException error )
+                                                           {
+                                                           }
+
+                                                           @Override
+                                                           public void notFound( final Resource resource )
+                                                           {
+                                                               notFound.add( resource );
+                                                           }
+                                                       } );
+
+        assertThat( retrieved, equalTo( Collections.singletonList( new ConcreteResource( second, found ) ) ) );
+        assertThat( notFound,
+                    equalTo( Collections.<Resource> singletonList( new VirtualResource( Arrays.asList( first, second ),
+                                                                                        missing ) ) ) );
+        assertThat( batch.getTransfers().keySet(), equalTo( Collections.singleton( new ConcreteResource( second,
+                                                                                                          found ) ) ) );
+    }
+
+    @Test
+    public void listStream_mergeLocationsInSortedOrderWithoutDuplicates()
+        throws Exception
+    {
+        final String path = "/path/to";
+
+        final Location first = new SimpleLocation( "first", "file:///first-repo" );
+        final Location second = new SimpleLocation( "second", "file:///second-repo" );
+
+        // cached listing from an older version, written unsorted
+        writeContent( new ConcreteResource( first, path + "/.listing.txt" ), "d.txt\nb.txt\n" );
+
+        writeContent( new ConcreteResource( second, path + "/c.txt" ), "local" );
+        final ConcreteResource secondDir = new ConcreteResource( second, path );
+        transport.registerListing( secondDir, new TestListing(
+                new ListingResult( secondDir, new String[] { "d.txt", "a.txt" } ) ) );
+
+        final List<String> names;
+        try (Stream<String> stream = mgr.listStream( new VirtualResource( Arrays.asList( first, second ), path ),
+                                                     new EventMetadata() ))
+        {
+            names = stream.collect( Collectors.toList() );
+        }
+
+        assertThat( names, equalTo( Arrays.asList( "a.txt", "b.txt", "c.txt", "d.txt" ) ) );
+    }
+
+    @Test( timeout = 10000 )
+    public void listStream_closingReleasesCachedListingsForWriters()
+        throws Exception
+    {
+        final String path = "/path/to";
+
+        final Location first = new SimpleLocation( "first", "file:///first-repo" );
+        final Location second = new SimpleLocation( "second", "file:///second-repo" );
+        final ConcreteResource firstListing = new ConcreteResource( first, path + "/.listing.txt" );
+        final ConcreteResource secondListing = new ConcreteResource( second, path + "/.listing.txt" );
+
+        writeContent( firstListing, "a.txt\nc.txt\n" );
+        writeContent( secondListing, "b.txt\n" );
+
+        final List<String> names;
+        try (Stream<String> stream = mgr.listStream( new VirtualResource( Arrays.asList( first, second ), path ),
+                                                     new EventMetadata() ))
+        {
+            names = stream.collect( Collectors.toList() );
+        }
+
+        assertThat( names, equalTo( Arrays.asList( "a.txt", "b.txt", "c.txt" ) ) );
+
+        // the writes wait on the listings' read locks, so they only finish if closing the stream released them.
+        writeContent( firstListing, "d.txt\n" );
+        writeContent( secondListing, "e.txt\n" );
+
+        assertThat( readContent( cacheProvider.getTransfer( firstListing ) ), equalTo( "d.txt\n" ) );
+    }
+
+    @Test
+    public void exists_answerFromFreshCachedListingWithoutRemoteCalls()
+        throws Exception
+    {
+        final Location loc = new SimpleLocation( "file:///test-repo" );
+        final ConcreteResource listed = new ConcreteResource( loc, "/path/to/listed.pom" );
+        final ConcreteResource unlisted = new ConcreteResource( loc, "/path/to/unlisted.pom" );
+
+        writeContent( new ConcreteResource( loc, "/path/to/.listing.txt" ), "a.pom\nlisted.pom\nsubdir/\nzz.pom\n" );
+
+        // remote answers that would contradict the listing, so only a remote call could produce them.
+        transport.registerExistence( listed, new TestExistence( false ) );
+        transport.registerExistence( unlisted, new TestExistence( true ) );
+        transport.registerDownload( unlisted, new TestDownload( "remote".getBytes() ) );
+
+        // off by default
+        assertThat( mgr.exists( listed ), equalTo( false ) );
+
+        mgr = newListingAwareManager();
+
+        assertThat( mgr.exists( listed ), equalTo( true ) );
+        assertThat( mgr.exists( new ConcreteResource( loc, "/path/to/subdir/" ) ), equalTo( true ) );
+        assertThat( mgr.exists( unlisted ), equalTo( false ) );
+        assertThat( nfc.isMissing( unlisted ), equalTo( true ) );
+
+        nfc.clearMissing( unlisted );
+        assertThat( mgr.retrieve( unlisted ), nullValue() );
+        assertThat( nfc.isMissing( unlisted ), equalTo( true ) );
+    }
+
+    @Test
+    public void exists_unsortedCachedListingIsReadToTheEnd()
+        throws Exception
+    {
+        final Location loc = new SimpleLocation( "file:///test-repo" );
+        final ConcreteResource listed = new ConcreteResource( loc, "/path/to/listed.pom" );
+        final ConcreteResource unlisted = new ConcreteResource( loc, "/path/to/unlisted.pom" );
+
+        // written unsorted by an older version: "zz.pom" sorts after both names, but isn't the end of the listing.
+        writeContent( new ConcreteResource( loc, "/path/to/.listing.txt" ), "b.pom\nzz.pom\nlisted.pom\n" );
+        transport.registerExistence( unlisted, new TestExistence( true ) );
+
+        mgr = newListingAwareManager();
+
+        assertThat( mgr.exists( listed ), equalTo( true ) );
+        assertThat( nfc.isMissing( listed ), equalTo( false ) );
+        assertThat( mgr.exists( unlisted ), equalTo( false ) );
+        assertThat( nfc.isMissing( unlisted ), equalTo( true ) );
+    }
+
+    @Test
+    public void exists_interruptedCheckIsNotCachedAsMissing()
+        throws Exception
+    {
+        final Location loc = new SimpleLocation( "file:///test-repo" );
+        final ConcreteResource cancelled = new ConcreteResource( loc, "/path/to/cancelled.pom" );
+        final ConcreteResource failed = new ConcreteResource( loc, "/path/to/failed.pom" );
+
+        transport.registerExistence( cancelled, new TestExistence(
+                new TransferException( "Cancelled: {}", new InterruptedIOException(), cancelled ) ) );
+        transport.registerExistence( failed, new TestExistence(
+                new TransferException( "Failed: {}", new IOException( "Connection reset" ), failed ) ) );
+
+        for ( final ConcreteResource resource : Arrays.asList( cancelled, failed ) )
+        {
+            try
+            {
+                mgr.exists( resource );
+                fail( "Existence check should have failed: " + resource );
+            }
+            catch ( final TransferException e )
+            {
+                // expected
+            }
+        }
+
+        assertThat( nfc.isMissing( cancelled ), equalTo( false ) );
+        assertThat( nfc.isMissing( failed ), equalTo( true ) );
+    }
+
+    @Test
+    public void delete_parallelTreeDeleteFiresOneBatchEvent()
+        throws Exception
+    {
+        final Location loc = new SimpleLocation( "file:///test-repo" );
+        final List<String> paths = Arrays.asList( "/tree/a.txt", "/tree/sub/b.txt", "/tree/sub/deeper/c.txt",
+                                                  "/tree/other/d.txt" );
+        for ( final String path : paths )
+        {
+            writeContent( new ConcreteResource( loc, path ), path );
+        }
+
+        final List<FileDeletionBatchEvent> batches = new ArrayList<>();
+        final TransportManagerConfig config = new TransportManagerConfig().withDeleteParallelism( 4 );
+        final TransferManager parallel =
+                new TransferManagerImpl( transportMgr, cacheProvider, nfc, new NoOpFileEventManager()
+                {
+                    @Override
+                    public void fire( final FileDeletionBatchEvent evt )
+                    {
+                        batches.add( evt );
+                    }
+                }, new DownloadHandler( nfc, config, executor ), new UploadHandler( nfc, config, executor ),
+                                         new ListingHandler( nfc ), new ExistenceHandler( nfc ),
+                                         new SpecialPathManagerImpl(), config, Executors.newFixedThreadPool( 2 ) );
+
+        assertThat( parallel.delete( new ConcreteResource( loc, "/tree" ) ), equalTo( true ) );
+
+        for ( final String path : paths )
+        {
+            assertThat( cacheProvider.exists( new ConcreteResource( loc, path ) ), equalTo( false ) );
+        }
+
+        assertThat( batches.size(), equalTo( 1 ) );
+
+        final Set<String> deleted = new HashSet<>();
+        for ( final Transfer transfer : batches.get( 0 ).getDeletedTransfers() )
+        {
+            deleted.add( transfer.getPath() );
+        }
+        assertThat( deleted, equalTo( new HashSet<>( paths ) ) );
+    }
+
+    @Test
+    public void store_fromChannelAndServeThroughFileChannel()
+        throws Exception
+    {
+        final byte[] content = ( "channel content " + System.currentTimeMillis() ).getBytes();
+        final ConcreteResource resource =
+                new ConcreteResource( new SimpleLocation( "file:///test-repo" ), "/path/to/channel.txt" );
+
+        final Transfer transfer =
+                mgr.store( resource, Channels.newChannel( new ByteArrayInputStream( content ) ), new EventMetadata() );
+
+        try (ReadableByteChannel channel = transfer.openReadableChannel( false, new EventMetadata() ))
+        {
+            assertThat( channel instanceof FileChannel, equalTo( true ) );
+        }
+
+        final ByteArrayOutputStream served = new ByteArrayOutputStream();
+        assertThat( transfer.transferTo( Channels.newChannel( served ) ), equalTo( (long) content.length ) );
+        assertThat( served.toByteArray(), equalTo( content ) );
+    }
+
+    private TransferManager newListingAwareManager()
+    {
+        final TransportManagerConfig config = new TransportManagerConfig().withListingAwareExistence( true );
+        return new TransferManagerImpl( transportMgr, cacheProvider, nfc, fileEvents,
+                                        new DownloadHandler( nfc, config, executor ),
+                                        new UploadHandler( nfc, config, executor ), new ListingHandler( nfc ),
+                                        new ExistenceHandler( nfc ), new SpecialPathManagerImpl(), config,
+                                        Executors.newFixedThreadPool( 2 ) );
+    }
+
+    private void writeContent( final ConcreteResource resource, final String content )
+        throws Exception
+    {
+        try (OutputStream out = cacheProvider.getTransfer( resource ).openOutputStream( TransferOperation.UPLOAD, false ))
+        {
+            out.write( content.getBytes() );
+        }
+    }
+
+    private String readContent( final Transfer transfer )
+        throws Exception
+    {
+        InputStream in = null;
+        try
+        {
+            in = transfer.openInputStream();
+            return IOUtils.toString( in );
+        }
+        finally
+        {
+            closeQuietly( in );
+        }
+    }
+
     @Override
     protected TransferManager getTransferManagerImpl()
         throws Exception
@@ -15,10 +15,12 @@
  */
 package org.commonjava.maven.galley.cache;
 
+import org.apache.commons.io.IOUtils;
 import org.commonjava.maven.galley.event.NoOpFileEventManager;
 import org.commonjava.maven.galley.io.HashedLocationPathGenerator;
 import org.commonjava.maven.galley.io.NoOpTransferDecorator;
 import org.commonjava.maven.galley.model.ConcreteResource;
+import org.commonjava.maven.galley.model.ListingEntry;
 import org.commonjava.maven.galley.model.Location;
 import org.commonjava.maven.galley.model.SimpleLocation;
 import org.commonjava.maven.galley.spi.cache.CacheProvider;
@@ -27,11 +29,22 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class FileCacheProviderTest
     extends CacheProviderTCK
@@ -69,4 +82,260 @@ public class FileCacheProviderTest
         assertThat( provider.exists( resource ), equalTo( true ) );
         assertTrue( file.exists() );
     }
+
+    @Test
+    public void abortedWriteKeepsPartialContentInsteadOfCommitting()
+                    throws Exception
+    {
+        final Location loc = new SimpleLocation( "http://foo.com" );
+        final ConcreteResource resource = new ConcreteResource( loc, "/path/to/my/file.jar" );
+        final ConcreteResource partial = new ConcreteResource( loc, "/path/to/my/file.jar" + CacheProvider.SUFFIX_PARTIAL );
+        final CacheProvider provider = getCacheProvider();
+
+        final OutputStream out = provider.openOutputStream( resource );
+        out.write( "first half".getBytes( "UTF-8" ) );
+        provider.abortWrite( resource, partial );
+        out.close();
+
+        assertThat( provider.exists( resource ), equalTo( false ) );
+        assertThat( IOUtils.toString( provider.openInputStream( partial ), "UTF-8" ), equalTo( "first half" ) );
+    }
+
+    @Test
+    public void expiredFileIsKeptStaleUntilMarkedFresh()
+                    throws Exception
+    {
+        final File cacheDir = temp.newFolder( "revalidate-cache" );
+        CacheProvider provider = newRevalidatingProvider( cacheDir );
+
+        final SimpleLocation loc = new SimpleLocation( "http://foo.com" );
+        loc.setAttribute( Location.CACHE_TIMEOUT_SECONDS, Location.MIN_CACHE_TIMEOUT_SECONDS );
+        final ConcreteResource resource = new ConcreteResource( loc, "/path/to/my/file.txt" );
+
+        final OutputStream out = provider.openOutputStream( resource );
+        out.write( "This is a test".getBytes( "UTF-8" ) );
+        out.close();
+
+        assertThat( provider.isStale( resource ), equalTo( false ) );
+
+        final File file = provider.asAdminView().getDetachedFile( resource );
+        file.setLastModified( System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(
+                2 * Location.MIN_CACHE_TIMEOUT_SECONDS ) );
+
+        // expiry deadlines are indexed on store, so the old timestamp only shows once the index is rebuilt
+        provider = newRevalidatingProvider( cacheDir );
+
+        assertThat( provider.exists( resource ), equalTo( true ) );
+        assertThat( provider.isStale( resource ), equalTo( true ) );
+
+        provider.markFresh( resource );
+
+        assertThat( provider.isStale( resource ), equalTo( false ) );
+        assertThat( IOUtils.toString( provider.openInputStream( resource ), "UTF-8" ), equalTo( "This is a test" ) );
+    }
+
+    @Test
+    public void expiredFileIsDeletedWithoutRevalidation()
+                    throws Exception
+    {
+        final File cacheDir = temp.newFolder( "expiring-cache" );
+        final SimpleLocation loc = new SimpleLocation( "http://foo.com" );
+        loc.setAttribute( Location.CACHE_TIMEOUT_SECONDS, Location.MIN_CACHE_TIMEOUT_SECONDS );
+        final ConcreteResource resource = new ConcreteResource( loc, "/path/to/my/file.txt" );
+
+        CacheProvider provider = new FileCacheProvider( cacheDir, new HashedLocationPathGenerator(),
+                                                        new NoOpFileEventManager(), new NoOpTransferDecorator() );
+        final OutputStream out = provider.openOutputStream( resource );
+        out.write( "This is a test".getBytes( "UTF-8" ) );
+        out.close();
+
+        assertThat( provider.exists( resource ), equalTo( true ) );
+
+        provider.asAdminView().getDetachedFile( resource ).setLastModified(
+                System.currentTimeMillis() - TimeUnit.SECONDS.toMillis( 2 * Location.MIN_CACHE_TIMEOUT_SECONDS ) );
+
+        provider = new FileCacheProvider( cacheDir, new HashedLocationPathGenerator(), new NoOpFileEventManager(),
+                                          new NoOpTransferDecorator() );
+
+        assertThat( provider.isFile( resource ), equalTo( false ) );
+        assertThat( provider.exists( resource ), equalTo( false ) );
+    }
+
+    @Test
+    public void listEntriesReadsTypesAndSkipsHiddenFiles()
+                    throws Exception
+    {
+        final Location loc = new SimpleLocation( "http://foo.com" );
+        final ConcreteResource dir = new ConcreteResource( loc, "/org/foo" );
+        final CacheProvider provider = getCacheProvider();
+
+        OutputStream out = provider.openOutputStream( dir.getChild( "bar/1.0/bar-1.0.pom" ) );
+        out.write( "<project/>".getBytes( "UTF-8" ) );
+        out.close();
+
+        out = provider.openOutputStream( dir.getChild( "maven-metadata.xml" ) );
+        out.write( "<metadata/>".getBytes( "UTF-8" ) );
+        out.close();
+
+        // left open: its .to-write file must not show up
+        final OutputStream pending = provider.openOutputStream( dir.getChild( "pending.jar" ) );
+
+        final List<ListingEntry> entries = provider.listEntries( dir );
+        pending.close();
+
+        final Map<String, ListingEntry> byName = new HashMap<String, ListingEntry>();
+        for ( final ListingEntry entry : entries )
+        {
+            byName.put( entry.getListingName(), entry );
+        }
+
+        assertThat( byName.keySet(), equalTo( (Set<String>) new HashSet<String>(
+                Arrays.asList( "bar/", "maven-metadata.xml" ) ) ) );
+        assertThat( byName.get( "maven-metadata.xml" ).getLength(), equalTo( 11L ) );
+    }
+
+    @Test
+    public void expiryIndexOnlyHoldsResourcesThatCanExpire()
+                    throws Exception
+    {
+        final SimpleLocation loc = new SimpleLocation( "http://foo.com" );
+        loc.setAttribute( Location.CACHE_TIMEOUT_SECONDS, Location.MIN_CACHE_TIMEOUT_SECONDS );
+        final ConcreteResource dir = new ConcreteResource( loc, "/path/to/my" );
+        final ConcreteResource resource = dir.getChild( "file.txt" );
+        final SimpleLocation permanentLoc = new SimpleLocation( "http://bar.com" );
+        permanentLoc.setAttribute( Location.CACHE_TIMEOUT_SECONDS, 0 );
+        final ConcreteResource permanent = new ConcreteResource( permanentLoc, "/file.txt" );
+
+        final FileCacheProvider provider = (FileCacheProvider) getCacheProvider();
+        for ( final ConcreteResource r : Arrays.asList( resource, permanent ) )
+        {
+            final OutputStream out = provider.openOutputStream( r );
+            out.write( "This is a test".getBytes( "UTF-8" ) );
+            out.close();
+        }
+
+        assertThat( provider.isDirectory( dir ), equalTo( true ) );
+        assertThat( provider.isFile( permanent ), equalTo( true ) );
+        assertThat( provider.getExpiryIndexSize(), equalTo( 1 ) );
+
+        provider.delete( resource );
+
+        assertThat( provider.exists( resource ), equalTo( false ) );
+        assertThat( provider.getExpiryIndexSize(), equalTo( 0 ) );
+    }
+
+    @Test
+    public void sweepTakesExpiredResourcesOutOfTheIndex()
+    {
+        final ConcreteResource expired = new ConcreteResource( new SimpleLocation( "http://foo.com" ), "/expired.txt" );
+        final ConcreteResource rescheduled =
+                        new ConcreteResource( new SimpleLocation( "http://foo.com" ), "/rescheduled.txt" );
+        final ExpiryIndex index = new ExpiryIndex( TimeUnit.MINUTES.toMillis( 1 ) );
+
+        index.schedule( expired, 1 );
+        index.schedule( rescheduled, 1 );
+        index.schedule( rescheduled, ExpiryIndex.NEVER );
+
+        final Set<ConcreteResource> swept = new HashSet<ConcreteResource>();
+        index.sweep( ( resource, deadline ) -> swept.add( resource ) );
+
+        assertThat( swept, equalTo( Collections.singleton( expired ) ) );
+        assertThat( index.size(), equalTo( 0 ) );
+    }
+
+    private CacheProvider newRevalidatingProvider( final File cacheDir )
+    {
+        return new FileCacheProvider( new FileCacheProviderConfig( cacheDir ).withRevalidateExpired( true ),
+                                      new HashedLocationPathGenerator(), new NoOpFileEventManager(),
+                                      new NoOpTransferDecorator() );
+    }
+
+    @Test( timeout = 10000 )
+    public void tailFollowReaderStreamsWhileWriting()
+                    throws Exception
+    {
+        final CacheProvider provider =
+                new FileCacheProvider( new FileCacheProviderConfig( temp.newFolder( "tail-cache" ) ).withTailFollowReads(
+                        true ), new HashedLocationPathGenerator(), new NoOpFileEventManager(),
+                                       new NoOpTransferDecorator() );
+
+        final ConcreteResource resource =
+                new ConcreteResource( new SimpleLocation( "http://foo.com" ), "/path/to/my/big-file.bin" );
+
+        final OutputStream out = provider.openOutputStream( resource );
+        out.write( "first half; ".getBytes( "UTF-8" ) );
+        out.flush();
+
+        assertThat( provider.exists( resource ), equalTo( true ) );
+
+        final InputStream in = provider.openInputStream( resource );
+        final byte[] head = new byte[12];
+        assertThat( in.read( head ), equalTo( 12 ) );
+        assertThat( new String( head, "UTF-8" ), equalTo( "first half; " ) );
+
+        final Thread writer = new Thread( () -> {
+            try
+            {
+                Thread.sleep( 200 );
+                out.write( "second half".getBytes( "UTF-8" ) );
+                out.close();
+            }
+            catch ( final Exception e )
+            {
+                throw new IllegalStateException( e );
+            }
+        } );
+        writer.start();
+
+        assertThat( IOUtils.toString( in, "UTF-8" ), equalTo( "second half" ) );
+        in.close();
+        writer.join();
+
+        assertThat( provider.asAdminView().getDetachedFile( resource ).exists(), equalTo( true ) );
+    }
+
+    @Test( timeout = 10000 )
+    public void tailFollowReaderFailsWhenRefreshIsAborted()
+                    throws Exception
+    {
+        final CacheProvider provider =
+                new FileCacheProvider( new FileCacheProviderConfig( temp.newFolder( "tail-cache" ) ).withTailFollowReads(
+                        true ), new HashedLocationPathGenerator(), new NoOpFileEventManager(),
+                                       new NoOpTransferDecorator() );
+
+        final ConcreteResource resource =
+                new ConcreteResource( new SimpleLocation( "http://foo.com" ), "/path/to/my/big-file.bin" );
+
+        try (OutputStream out = provider.openOutputStream( resource ))
+        {
+            out.write( "previous content".getBytes( "UTF-8" ) );
+        }
+
+        final OutputStream out = provider.openOutputStream( resource );
+        out.write( "partial ".getBytes( "UTF-8" ) );
+        out.flush();
+
+        final InputStream in = provider.openInputStream( resource );
+        final byte[] head = new byte[8];
+        assertThat( in.read( head ), equalTo( 8 ) );
+
+        provider.abortWrite( resource, null );
+        out.close();
+
+        try
+        {
+            IOUtils.toString( in, "UTF-8" );
+            fail( "Reader should not see EOF for an aborted write" );
+        }
+        catch ( final IOException e )
+        {
+            // expected; the old content is still in place, but this reader was following the aborted write
+        }
+        finally
+        {
+            in.close();
+        }
+
+        assertThat( IOUtils.toString( provider.openInputStream( resource ), "UTF-8" ), equalTo( "previous content" ) );
+    }
 }
@@ -0,0 +1,200 @@
+/**
+ * Copyright (C) 2013 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.galley.cache;
+
+import org.apache.commons.io.IOUtils;
+import org.commonjava.maven.galley.event.NoOpFileEventManager;
+import org.commonjava.maven.galley.io.HashedLocationPathGenerator;
+import org.commonjava.maven.galley.io.NoOpTransferDecorator;
+import org.commonjava.maven.galley.io.SpecialPathManagerImpl;
+import org.commonjava.maven.galley.model.ConcreteResource;
+import org.commonjava.maven.galley.model.Location;
+import org.commonjava.maven.galley.model.SimpleLocation;
+import org.commonjava.maven.galley.spi.cache.CacheProvider;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class HotContentCacheProviderTest
+    extends CacheProviderTCK
+{
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Override
+    protected CacheProvider getCacheProvider()
+        throws Exception
+    {
+        return newProvider( new HotContentCacheConfig() );
+    }
+
+    private HotContentCacheProvider newProvider( final HotContentCacheConfig config )
+        throws Exception
+    {
+        final FileCacheProvider files =
+                new FileCacheProvider( temp.newFolder(), new HashedLocationPathGenerator(), new NoOpFileEventManager(),
+                                       new NoOpTransferDecorator(), true );
+
+        return new HotContentCacheProvider( files, config, new SpecialPathManagerImpl(), new NoOpFileEventManager(),
+                                            new NoOpTransferDecorator() );
+    }
+
+    @Test
+    public void repeatedReadIsServedFromMemoryUntilOverwritten()
+        throws Exception
+    {
+        final HotContentCacheProvider provider = newProvider( new HotContentCacheConfig().withOffHeap( true ) );
+        final ConcreteResource resource = new ConcreteResource( new SimpleLocation( "http://foo.com" ), "/path/to/my.pom" );
+
+        write( provider, resource, "first" );
+        assertThat( read( provider, resource ), equalTo( "first" ) );
+        assertThat( read( provider, resource ), equalTo( "first" ) );
+
+        assertThat( provider.getMissCount(), equalTo( 1L ) );
+        assertThat( provider.getHitCount(), equalTo( 1L ) );
+        assertThat( provider.getSizeBytes(), equalTo( 5L ) );
+
+        write( provider, resource, "second" );
+        assertThat( provider.getEntryCount(), equalTo( 0 ) );
+        assertThat( read( provider, resource ), equalTo( "second" ) );
+        assertThat( provider.getMissCount(), equalTo( 2L ) );
+
+        provider.delete( resource );
+        assertThat( provider.getEntryCount(), equalTo( 0 ) );
+        assertThat( provider.openInputStream( resource ), equalTo( null ) );
+    }
+
+    @Test
+    public void largeFilesBypassAndLeastRecentlyReadAreEvicted()
+        throws Exception
+    {
+        final HotContentCacheProvider provider =
+                newProvider( new HotContentCacheConfig().withMaxEntryBytes( 8 ).withCapacityBytes( 12 ) );
+        final Location loc = new SimpleLocation( "http://foo.com" );
+        final ConcreteResource large = new ConcreteResource( loc, "/large.jar" );
+        final ConcreteResource first = new ConcreteResource( loc, "/first.sha1" );
+        final ConcreteResource second = new ConcreteResource( loc, "/second.sha1" );
+
+        write( provider, large, "too large to keep" );
+        write( provider, first, "aaaaaa" );
+        write( provider, second, "bbbbbb" );
+
+        assertThat( read( provider, large ), equalTo( "too large to keep" ) );
+        assertThat( provider.getEntryCount(), equalTo( 0 ) );
+
+        assertThat( read( provider, first ), equalTo( "aaaaaa" ) );
+        assertThat( read( provider, first ), equalTo( "aaaaaa" ) );
+        assertThat( read( provider, second ), equalTo( "bbbbbb" ) );
+        assertThat( provider.getEntryCount(), equalTo( 2 ) );
+
+        // touches "second", so "first" is the one to go
+        assertThat( read( provider, second ), equalTo( "bbbbbb" ) );
+        write( provider, large, "small" );
+        assertThat( read( provider, large ), equalTo( "small" ) );
+
+        assertThat( provider.getEvictionCount(), equalTo( 1L ) );
+        assertThat( provider.getSizeBytes(), equalTo( 11L ) );
+        assertThat( read( provider, second ), equalTo( "bbbbbb" ) );
+        assertThat( provider.getHitCount(), equalTo( 3L ) );
+    }
+
+    @Test
+    public void invalidationOnlyDiscardsReadsOfTheSameResource()
+        throws Exception
+    {
+        final HotContentCacheProvider provider = newProvider( new HotContentCacheConfig() );
+        final Location loc = new SimpleLocation( "http://foo.com" );
+        final ConcreteResource first = new ConcreteResource( loc, "/first.pom" );
+        final ConcreteResource second = new ConcreteResource( loc, "/second.pom" );
+
+        write( provider, first, "first" );
+        write( provider, second, "second" );
+
+        try (InputStream in = provider.openInputStream( first ))
+        {
+            write( provider, second, "changed" );
+            assertThat( IOUtils.toString( in, "UTF-8" ), equalTo( "first" ) );
+        }
+        assertThat( provider.getEntryCount(), equalTo( 1 ) );
+
+        try (InputStream in = provider.openInputStream( second ))
+        {
+            provider.markFresh( second );
+            assertThat( IOUtils.toString( in, "UTF-8" ), equalTo( "changed" ) );
+        }
+        assertThat( provider.getEntryCount(), equalTo( 1 ) );
+    }
+
+    @Test
+    public void invalidationDuringOpenDiscardsTheRead()
+        throws Exception
+    {
+        final AtomicReference<HotContentCacheProvider> hot = new AtomicReference<HotContentCacheProvider>();
+        final FileCacheProvider files =
+                new FileCacheProvider( temp.newFolder(), new HashedLocationPathGenerator(), new NoOpFileEventManager(),
+                                       new NoOpTransferDecorator(), true )
+                {
+                    @Override
+                    public InputStream openInputStream( final ConcreteResource resource )
+                        throws IOException
+                    {
+                        final InputStream stream = super.openInputStream( resource );
+                        // the content changes right after the old file was opened
+                        hot.get().markFresh( resource );
+                        return stream;
+                    }
+                };
+
+        final HotContentCacheProvider provider =
+                new HotContentCacheProvider( files, new HotContentCacheConfig(), new SpecialPathManagerImpl(),
+                                             new NoOpFileEventManager(), new NoOpTransferDecorator() );
+        hot.set( provider );
+
+        final ConcreteResource resource = new ConcreteResource( new SimpleLocation( "http://foo.com" ), "/path/to/my.pom" );
+        write( provider, resource, "old" );
+
+        assertThat( read( provider, resource ), equalTo( "old" ) );
+        assertThat( provider.getEntryCount(), equalTo( 0 ) );
+    }
+
+    private void write( final CacheProvider provider, final ConcreteResource resource, final String content )
+        throws Exception
+    {
+        try (OutputStream out = provider.openOutputStream( resource ))
+        {
+            out.write( content.getBytes( "UTF-8" ) );
+        }
+    }
+
+    private String read( final CacheProvider provider, final ConcreteResource resource )
+        throws Exception
+    {
+        try (InputStream in = provider.openInputStream( resource ))
+        {
+            return IOUtils.toString( in, "UTF-8" );
+        }
+    }
+
+}
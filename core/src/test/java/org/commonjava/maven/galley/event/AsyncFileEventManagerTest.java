@@ -0,0 +1,185 @@
+/**
+ * Copyright (C) 2013 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.galley.event;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.commonjava.maven.galley.event.AsyncFileEventManagerConfig.OverflowPolicy;
+import org.commonjava.maven.galley.model.ConcreteResource;
+import org.commonjava.maven.galley.model.SimpleLocation;
+import org.commonjava.maven.galley.model.Transfer;
+import org.junit.Test;
+
+public class AsyncFileEventManagerTest
+{
+
+    @Test
+    public void slowListenerDoesNotBlockFiringAndRepeatedAccessesCoalesce()
+        throws Exception
+    {
+        final List<String> delivered = Collections.synchronizedList( new ArrayList<String>() );
+        final CountDownLatch release = new CountDownLatch( 1 );
+        final AsyncFileEventManager events =
+                new AsyncFileEventManager( recording( delivered, release ),
+                                           new AsyncFileEventManagerConfig().withAccessCoalesceMillis( 60000 ) );
+
+        final Transfer first = transfer( "/first.pom" );
+        final Transfer second = transfer( "/second.pom" );
+
+        events.fire( new FileAccessEvent( first, new EventMetadata() ) );
+        events.fire( new FileAccessEvent( first, new EventMetadata() ) );
+        events.fire( new FileAccessEvent( second, new EventMetadata() ) );
+        events.fire( new FileDeletionEvent( first, new EventMetadata() ) );
+
+        // the listener is still blocked on the first event, but firing returned.
+        assertThat( events.getCoalescedCount(), equalTo( 1L ) );
+
+        release.countDown();
+        events.shutdown();
+
+        assertThat( delivered, equalTo( Arrays.asList( "access /first.pom", "access /second.pom",
+                                                       "delete /first.pom" ) ) );
+        assertThat( events.getDispatchedCount(), equalTo( 3L ) );
+        assertThat( events.getPendingCount(), equalTo( 0 ) );
+    }
+
+    @Test
+    public void fullBufferDropsEventsWithDropPolicy()
+        throws Exception
+    {
+        final List<String> delivered = Collections.synchronizedList( new ArrayList<String>() );
+        final CountDownLatch release = new CountDownLatch( 1 );
+        final CountDownLatch entered = new CountDownLatch( 1 );
+        final AsyncFileEventManager events = new AsyncFileEventManager( new NoOpFileEventManager()
+        {
+            @Override
+            public void fire( final FileAccessEvent evt )
+            {
+                entered.countDown();
+                await( release );
+                delivered.add( evt.getTransfer().getPath() );
+            }
+        }, new AsyncFileEventManagerConfig().withCapacity( 2 ).withOverflowPolicy( OverflowPolicy.DROP ) );
+
+        events.fire( new FileAccessEvent( transfer( "/0" ), new EventMetadata() ) );
+        entered.await();
+
+        for ( int i = 1; i < 5; i++ )
+        {
+            events.fire( new FileAccessEvent( transfer( "/" + i ), new EventMetadata() ) );
+        }
+
+        assertThat( events.getDroppedCount(), equalTo( 2L ) );
+
+        release.countDown();
+        events.shutdown();
+
+        assertThat( delivered, equalTo( Arrays.asList( "/0", "/1", "/2" ) ) );
+        assertThat( events.getMaxLagMillis() >= events.getLastLagMillis(), equalTo( true ) );
+    }
+
+    @Test( timeout = 10000 )
+    public void callerRunsDeliversBufferedEventsFirst()
+        throws Exception
+    {
+        final List<String> delivered = Collections.synchronizedList( new ArrayList<String>() );
+        final CountDownLatch release = new CountDownLatch( 1 );
+        final CountDownLatch entered = new CountDownLatch( 1 );
+        final AsyncFileEventManager events = new AsyncFileEventManager( new NoOpFileEventManager()
+        {
+            @Override
+            public void fire( final FileAccessEvent evt )
+            {
+                entered.countDown();
+                await( release );
+                delivered.add( "access " + evt.getTransfer().getPath() );
+            }
+
+            @Override
+            public void fire( final FileDeletionEvent evt )
+            {
+                delivered.add( "delete " + evt.getTransfer().getPath() );
+            }
+        }, new AsyncFileEventManagerConfig().withCapacity( 2 ).withOverflowPolicy( OverflowPolicy.CALLER_RUNS ) );
+
+        final Transfer transfer = transfer( "/first.pom" );
+        events.fire( new FileAccessEvent( transfer, new EventMetadata() ) );
+        entered.await();
+
+        events.fire( new FileAccessEvent( transfer, new EventMetadata() ) );
+        events.fire( new FileAccessEvent( transfer, new EventMetadata() ) );
+
+        final Thread firing = new Thread( () -> events.fire( new FileDeletionEvent( transfer, new EventMetadata() ) ) );
+        firing.start();
+        while ( firing.getState() != Thread.State.WAITING )
+        {
+            // the buffer is full, so it waits for the batch being delivered.
+            Thread.sleep( 10 );
+        }
+
+        release.countDown();
+        firing.join();
+
+        assertThat( delivered, equalTo( Arrays.asList( "access /first.pom", "access /first.pom", "access /first.pom",
+                                                       "delete /first.pom" ) ) );
+        assertThat( events.getCallerRunsCount(), equalTo( 1L ) );
+        events.shutdown();
+    }
+
+    private static NoOpFileEventManager recording( final List<String> delivered, final CountDownLatch release )
+    {
+        return new NoOpFileEventManager()
+        {
+            @Override
+            public void fire( final FileAccessEvent evt )
+            {
+                await( release );
+                delivered.add( "access " + evt.getTransfer().getPath() );
+            }
+
+            @Override
+            public void fire( final FileDeletionEvent evt )
+            {
+                delivered.add( "delete " + evt.getTransfer().getPath() );
+            }
+        };
+    }
+
+    private static Transfer transfer( final String path )
+    {
+        return new Transfer( new ConcreteResource( new SimpleLocation( "http://foo.com" ), path ), null, null, null );
+    }
+
+    private static void await( final CountDownLatch latch )
+    {
+        try
+        {
+            latch.await();
+        }
+        catch ( final InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
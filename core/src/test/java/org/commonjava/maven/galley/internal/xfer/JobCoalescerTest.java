@@ -0,0 +1,205 @@
+/**
+ * Copyright (C) 2013 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.galley.internal.xfer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class JobCoalescerTest
+{
+
+    private static final int CALLERS = 1000;
+
+    private static final int RESOURCES = 10;
+
+    private ExecutorService jobExecutor;
+
+    private ExecutorService callerExecutor;
+
+    @Before
+    public void setup()
+    {
+        jobExecutor = Executors.newFixedThreadPool( RESOURCES );
+        callerExecutor = Executors.newFixedThreadPool( CALLERS );
+    }
+
+    @After
+    public void teardown()
+    {
+        jobExecutor.shutdownNow();
+        callerExecutor.shutdownNow();
+    }
+
+    /**
+     * Thundering herd: a thousand callers ask for the same handful of resources at once, while every job is held open.
+     * Exactly one job per resource may be started, and every caller must see its resource's result.
+     */
+    @Test( timeout = 30000 )
+    public void thunderingHerdStartsOneJobPerKey()
+        throws Exception
+    {
+        final JobCoalescer<String, String> coalescer = new JobCoalescer<String, String>();
+        final AtomicInteger created = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final CountDownLatch joined = new CountDownLatch( CALLERS );
+        final CountDownLatch release = new CountDownLatch( 1 );
+
+        final List<CompletableFuture<String>> results = new ArrayList<CompletableFuture<String>>();
+        for ( int i = 0; i < CALLERS; i++ )
+        {
+            final String key = "resource-" + ( i % RESOURCES );
+            final CompletableFuture<String> result = new CompletableFuture<String>();
+            results.add( result );
+
+            callerExecutor.execute( () -> {
+                try
+                {
+                    start.await();
+                    final CompletableFuture<String> future = coalescer.joinOrStart( key, () -> {
+                        created.incrementAndGet();
+                        return () -> {
+                            release.await();
+                            return key;
+                        };
+                    }, jobExecutor );
+
+                    joined.countDown();
+                    result.complete( future.get() );
+                }
+                catch ( final Exception e )
+                {
+                    result.completeExceptionally( e );
+                }
+            } );
+        }
+
+        start.countDown();
+        assertThat( joined.await( 20, TimeUnit.SECONDS ), equalTo( true ) );
+        release.countDown();
+
+        for ( int i = 0; i < CALLERS; i++ )
+        {
+            assertThat( results.get( i ).get( 10, TimeUnit.SECONDS ), equalTo( "resource-" + ( i % RESOURCES ) ) );
+        }
+
+        assertThat( created.get(), equalTo( RESOURCES ) );
+        assertThat( coalescer.getPendingCount(), equalTo( 0 ) );
+    }
+
+    @Test
+    public void completedJobIsNotJoinedByLaterCallers()
+        throws Exception
+    {
+        final JobCoalescer<String, Integer> coalescer = new JobCoalescer<String, Integer>();
+        final AtomicInteger created = new AtomicInteger();
+
+        for ( int i = 0; i < 3; i++ )
+        {
+            final CompletableFuture<Integer> future = coalescer.joinOrStart( "key", () -> {
+                final int n = created.incrementAndGet();
+                return () -> n;
+            }, JobCoalescer.CALLER_RUNS );
+
+            assertThat( future.get(), equalTo( i + 1 ) );
+        }
+
+        assertThat( coalescer.getPendingCount(), equalTo( 0 ) );
+    }
+
+    /**
+     * Job creation builds the transport job and can be slow, so it must not hold up callers for other keys: each
+     * key's factory only returns once every key's factory is in creation at the same time, which a global lock around
+     * creation would never allow. Callers joining a key meanwhile must get the pending future and share its single
+     * execution, without running their own factories.
+     */
+    @Test( timeout = 30000 )
+    public void distinctKeysCreateConcurrentlyAndJoinersShareOneExecution()
+        throws Exception
+    {
+        final int keys = 4;
+        final JobCoalescer<String, String> coalescer = new JobCoalescer<String, String>();
+        final CountDownLatch creating = new CountDownLatch( keys );
+        final CountDownLatch release = new CountDownLatch( 1 );
+        final Map<String, AtomicInteger> executions = new ConcurrentHashMap<String, AtomicInteger>();
+        final AtomicInteger joinerFactories = new AtomicInteger();
+
+        final List<Future<CompletableFuture<String>>> starters = new ArrayList<Future<CompletableFuture<String>>>();
+        for ( int i = 0; i < keys; i++ )
+        {
+            final String key = "resource-" + i;
+            executions.put( key, new AtomicInteger() );
+            starters.add( callerExecutor.submit( () -> coalescer.joinOrStart( key, () -> {
+                creating.countDown();
+                awaitQuietly( release );
+                return () -> key + "#" + executions.get( key ).incrementAndGet();
+            }, JobCoalescer.CALLER_RUNS ) ) );
+        }
+
+        assertThat( creating.await( 10, TimeUnit.SECONDS ), equalTo( true ) );
+
+        final List<CompletableFuture<String>> joiners = new ArrayList<CompletableFuture<String>>();
+        for ( int i = 0; i < keys; i++ )
+        {
+            joiners.add( coalescer.joinOrStart( "resource-" + i, () -> {
+                joinerFactories.incrementAndGet();
+                return () -> "joiner";
+            }, JobCoalescer.CALLER_RUNS ) );
+        }
+
+        release.countDown();
+
+        for ( int i = 0; i < keys; i++ )
+        {
+            final String key = "resource-" + i;
+            final CompletableFuture<String> started = starters.get( i ).get( 10, TimeUnit.SECONDS );
+            assertThat( joiners.get( i ) == started, equalTo( true ) );
+            assertThat( started.get( 10, TimeUnit.SECONDS ), equalTo( key + "#1" ) );
+            assertThat( executions.get( key ).get(), equalTo( 1 ) );
+        }
+
+        assertThat( joinerFactories.get(), equalTo( 0 ) );
+        assertThat( coalescer.getPendingCount(), equalTo( 0 ) );
+    }
+
+    private static void awaitQuietly( final CountDownLatch latch )
+    {
+        try
+        {
+            latch.await();
+        }
+        catch ( final InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
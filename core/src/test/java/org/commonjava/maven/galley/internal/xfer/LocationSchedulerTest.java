@@ -0,0 +1,355 @@
+/**
+ * Copyright (C) 2013 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.galley.internal.xfer;
+
+import org.commonjava.maven.galley.config.TransportManagerConfig;
+import org.commonjava.maven.galley.model.Location;
+import org.commonjava.maven.galley.model.SimpleLocation;
+import org.commonjava.maven.galley.model.TransferPriority;
+import org.commonjava.maven.galley.util.FutureUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class LocationSchedulerTest
+{
+
+    private ExecutorService executor;
+
+    private LocationScheduler scheduler;
+
+    @Before
+    public void setup()
+    {
+        executor = Executors.newFixedThreadPool( 4 );
+        scheduler = new LocationScheduler( executor );
+    }
+
+    @After
+    public void teardown()
+    {
+        executor.shutdownNow();
+    }
+
+    /**
+     * A hung location must only hold its own connection limit, leaving the rest of the pool to other locations.
+     */
+    @Test( timeout = 5000 )
+    public void hungLocationDoesNotStarveOthers()
+        throws Exception
+    {
+        final Location slow = new SimpleLocation( "slow", "http://slow.example.com/repo" );
+        slow.setAttribute( Location.MAX_CONNECTIONS, 1 );
+        final Location healthy = new SimpleLocation( "healthy", "http://healthy.example.com/repo" );
+
+        final CountDownLatch release = new CountDownLatch( 1 );
+        for ( int i = 0; i < 5; i++ )
+        {
+            scheduler.execute( slow, () -> {
+                try
+                {
+                    release.await();
+                }
+                catch ( final InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            } );
+        }
+
+        final CountDownLatch healthyDone = new CountDownLatch( 10 );
+        for ( int i = 0; i < 10; i++ )
+        {
+            scheduler.execute( healthy, healthyDone::countDown );
+        }
+
+        assertThat( healthyDone.await( 2, TimeUnit.SECONDS ), equalTo( true ) );
+
+        final LocationQueueStats stats = scheduler.getStats( slow );
+        assertThat( stats.getActive(), equalTo( 1 ) );
+        assertThat( stats.getQueueDepth(), equalTo( 4 ) );
+        assertThat( scheduler.getStats( healthy ).getDispatched(), equalTo( 10L ) );
+
+        release.countDown();
+    }
+
+    /**
+     * With the only worker busy, metadata queued after bulk work must still be served first.
+     */
+    @Test( timeout = 5000 )
+    public void higherPriorityClassIsServedFirst()
+        throws Exception
+    {
+        final ExecutorService single = Executors.newFixedThreadPool( 1 );
+        try
+        {
+            final LocationScheduler scheduler = new LocationScheduler( single, new TransportManagerConfig() );
+            final Location location = new SimpleLocation( "test", "http://test.example.com/repo" );
+
+            final CountDownLatch release = new CountDownLatch( 1 );
+            scheduler.execute( location, TransferPriority.BULK, () -> {
+                try
+                {
+                    release.await();
+                }
+                catch ( final InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            } );
+
+            final List<TransferPriority> order = Collections.synchronizedList( new ArrayList<TransferPriority>() );
+            final CountDownLatch done = new CountDownLatch( 3 );
+            for ( final TransferPriority priority : Arrays.asList( TransferPriority.BULK, TransferPriority.DESCRIPTOR,
+                                                                   TransferPriority.METADATA ) )
+            {
+                scheduler.execute( location, priority, () -> {
+                    order.add( priority );
+                    done.countDown();
+                } );
+            }
+
+            assertThat( scheduler.getStats( location ).getQueueDepth( TransferPriority.BULK ), equalTo( 1 ) );
+
+            release.countDown();
+            done.await();
+
+            assertThat( order, equalTo( Arrays.asList( TransferPriority.METADATA, TransferPriority.DESCRIPTOR,
+                                                       TransferPriority.BULK ) ) );
+        }
+        finally
+        {
+            single.shutdownNow();
+        }
+    }
+
+    /**
+     * Weft hands the scheduler a wrapped pool, not a ThreadPoolExecutor; priorities must still apply, using the
+     * configured limit.
+     */
+    @Test( timeout = 5000 )
+    public void priorityAppliesOnWrappedExecutor()
+        throws Exception
+    {
+        final ExecutorService wrapped = new WrappedExecutorService( Executors.newFixedThreadPool( 4 ) );
+        try
+        {
+            final LocationScheduler scheduler =
+                    new LocationScheduler( wrapped, new TransportManagerConfig().withMaxConcurrentTransfers( 1 ) );
+
+            assertThat( servedOrder( scheduler, TransferPriority.BULK, TransferPriority.DESCRIPTOR,
+                                     TransferPriority.METADATA ),
+                        equalTo( Arrays.asList( TransferPriority.METADATA, TransferPriority.DESCRIPTOR,
+                                                TransferPriority.BULK ) ) );
+        }
+        finally
+        {
+            wrapped.shutdownNow();
+        }
+    }
+
+    /**
+     * Once queued work has waited past the aging limit, it goes ahead of newer, higher-class work.
+     */
+    @Test( timeout = 5000 )
+    public void agedLowerClassIsServedFirst()
+        throws Exception
+    {
+        final ExecutorService wrapped = new WrappedExecutorService( Executors.newFixedThreadPool( 1 ) );
+        try
+        {
+            final LocationScheduler scheduler = new LocationScheduler( wrapped, new TransportManagerConfig()
+                    .withMaxConcurrentTransfers( 1 )
+                    .withPriorityAgingMillis( 1 ) );
+
+            assertThat( servedOrder( scheduler, TransferPriority.BULK, TransferPriority.METADATA ),
+                        equalTo( Arrays.asList( TransferPriority.BULK, TransferPriority.METADATA ) ) );
+        }
+        finally
+        {
+            wrapped.shutdownNow();
+        }
+    }
+
+    /**
+     * A job the pool rejects must not run on whichever thread happened to dispatch it: a future-backed job fails, and
+     * a plain one waits for its next turn.
+     */
+    @Test( timeout = 5000 )
+    public void rejectedJobIsNotRunOnTheDispatchingThread()
+        throws Exception
+    {
+        final ExecutorService bounded =
+                new ThreadPoolExecutor( 1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>( 1 ) );
+        try
+        {
+            final LocationScheduler scheduler =
+                    new LocationScheduler( bounded, new TransportManagerConfig().withMaxConcurrentTransfers( 3 ) );
+            final Location blocked = new SimpleLocation( "blocked", "http://blocked.example.com/repo" );
+            final Location other = new SimpleLocation( "other", "http://other.example.com/repo" );
+
+            final CountDownLatch release = new CountDownLatch( 1 );
+            scheduler.execute( blocked, () -> {
+                try
+                {
+                    release.await();
+                }
+                catch ( final InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            } );
+
+            final CountDownLatch done = new CountDownLatch( 2 );
+            final List<Thread> ranOn = Collections.synchronizedList( new ArrayList<Thread>() );
+            final Runnable job = () -> {
+                ranOn.add( Thread.currentThread() );
+                done.countDown();
+            };
+
+            // fills the pool's queue; the next two are rejected.
+            scheduler.execute( other, job );
+            final CompletableFuture<Thread> failed = FutureUtils.submit( Thread::currentThread,
+                                                                         scheduler.executorFor( other ) );
+            scheduler.execute( other, job );
+
+            assertThat( failed.isCompletedExceptionally(), equalTo( true ) );
+            try
+            {
+                failed.get();
+            }
+            catch ( final ExecutionException e )
+            {
+                assertThat( e.getCause() instanceof RejectedExecutionException, equalTo( true ) );
+            }
+            assertThat( ranOn.isEmpty(), equalTo( true ) );
+            assertThat( scheduler.getStats( other ).getQueueDepth(), equalTo( 1 ) );
+
+            release.countDown();
+            assertThat( done.await( 2, TimeUnit.SECONDS ), equalTo( true ) );
+            assertThat( ranOn.contains( Thread.currentThread() ), equalTo( false ) );
+        }
+        finally
+        {
+            bounded.shutdownNow();
+        }
+    }
+
+    /**
+     * Block the scheduler's only slot, queue one job per given class (in that order, a few millis apart), then
+     * release it and return the order the jobs ran in.
+     */
+    private List<TransferPriority> servedOrder( final LocationScheduler scheduler, final TransferPriority... queued )
+        throws InterruptedException
+    {
+        final Location location = new SimpleLocation( "test", "http://test.example.com/repo" );
+
+        final CountDownLatch release = new CountDownLatch( 1 );
+        scheduler.execute( location, TransferPriority.BULK, () -> {
+            try
+            {
+                release.await();
+            }
+            catch ( final InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+        } );
+
+        final List<TransferPriority> order = Collections.synchronizedList( new ArrayList<TransferPriority>() );
+        final CountDownLatch done = new CountDownLatch( queued.length );
+        for ( final TransferPriority priority : queued )
+        {
+            scheduler.execute( location, priority, () -> {
+                order.add( priority );
+                done.countDown();
+            } );
+            Thread.sleep( 10 );
+        }
+
+        release.countDown();
+        done.await();
+
+        return order;
+    }
+
+    private static final class WrappedExecutorService
+        extends AbstractExecutorService
+    {
+        private final ExecutorService delegate;
+
+        WrappedExecutorService( final ExecutorService delegate )
+        {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void execute( final Runnable command )
+        {
+            delegate.execute( command );
+        }
+
+        @Override
+        public void shutdown()
+        {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow()
+        {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown()
+        {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated()
+        {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination( final long timeout, final TimeUnit unit )
+            throws InterruptedException
+        {
+            return delegate.awaitTermination( timeout, unit );
+        }
+    }
+
+}
@@ -42,6 +42,8 @@ import java.security.MessageDigest;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static java.lang.Boolean.TRUE;
 import static org.apache.commons.codec.digest.DigestUtils.md5Hex;
@@ -205,6 +207,67 @@ public class ChecksummingTransferDecoratorTest
 
     }
 
+    @Test
+    public void deleteRemovesChecksumFilesAndReleasesTheirLocks()
+            throws Exception
+    {
+        fixture.setDecorator( new ChecksummingTransferDecorator( Collections.<TransferOperation>emptySet(),
+                                                                 new SpecialPathManagerImpl(), false, false,
+                                                                 metadataConsumer, new Md5GeneratorFactory(),
+                                                                 new UndeclaredSha1GeneratorFactory() ) );
+        fixture.initMissingComponents();
+
+        final Transfer txfr = fixture.getCache()
+                                     .getTransfer( new ConcreteResource( new SimpleLocation( "test:uri" ),
+                                                                         "my-path.txt" ) );
+        for ( final String suffix : Arrays.asList( "", ".md5", ".sha1" ) )
+        {
+            final File f = new File( new File( temp.getRoot(), "cache/test:uri" ), "my-path.txt" + suffix );
+            FileUtils.writeByteArrayToFile( f, "data".getBytes() );
+        }
+
+        txfr.delete();
+
+        final ExecutorService otherThread = Executors.newSingleThreadExecutor();
+        try
+        {
+            for ( final String suffix : Arrays.asList( ".md5", ".sha1" ) )
+            {
+                final Transfer checksum = txfr.getSiblingMeta( suffix );
+                assertThat( checksum.exists(), equalTo( false ) );
+                assertThat( otherThread.submit( checksum::isWriteLocked ).get(), equalTo( false ) );
+            }
+        }
+        finally
+        {
+            otherThread.shutdownNow();
+        }
+    }
+
+    /**
+     * A factory written against the older API, which doesn't declare its checksum extension.
+     */
+    private static final class UndeclaredSha1GeneratorFactory
+            extends AbstractChecksumGeneratorFactory<UndeclaredSha1GeneratorFactory.Sha1Generator>
+    {
+        @Override
+        protected Sha1Generator newGenerator( final Transfer transfer, final boolean writeChecksumFile )
+                throws IOException
+        {
+            return new Sha1Generator( transfer, writeChecksumFile );
+        }
+
+        private static final class Sha1Generator
+                extends AbstractChecksumGenerator
+        {
+            Sha1Generator( final Transfer transfer, final boolean writeChecksumFile )
+                    throws IOException
+            {
+                super( transfer, ".sha1", ContentDigest.SHA_1, writeChecksumFile );
+            }
+        }
+    }
+
     private void assertRead( final Transfer txfr, final byte[] data, final EventMetadata em,
                              final boolean checksumFileExists, final boolean metadataConsumerContains )
             throws IOException
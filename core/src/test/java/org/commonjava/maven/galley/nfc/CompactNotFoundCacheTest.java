@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2013 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.galley.nfc;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.Collections;
+
+import org.commonjava.maven.galley.model.ConcreteResource;
+import org.commonjava.maven.galley.model.Location;
+import org.commonjava.maven.galley.model.SimpleLocation;
+import org.junit.Test;
+
+public class CompactNotFoundCacheTest
+{
+
+    @Test
+    public void storedPathsAreMissingAndOthersMostlyFiltered()
+    {
+        final Location location = new SimpleLocation( "http://foo.com" );
+        final Location other = new SimpleLocation( "http://bar.com" );
+        final CompactNotFoundCache nfc =
+                new CompactNotFoundCache( new CompactNotFoundCacheConfig().withMaxEntries( 1000 ).withVerifyPaths( true ) );
+
+        for ( int i = 0; i < 1000; i++ )
+        {
+            nfc.addMissing( new ConcreteResource( location, "/missing/" + i ) );
+        }
+
+        for ( int i = 0; i < 1000; i++ )
+        {
+            assertThat( nfc.isMissing( new ConcreteResource( location, "/missing/" + i ) ), equalTo( true ) );
+            assertThat( nfc.isMissing( new ConcreteResource( location, "/present/" + i ) ), equalTo( false ) );
+        }
+
+        assertThat( nfc.isMissing( new ConcreteResource( other, "/missing/1" ) ), equalTo( false ) );
+        assertThat( nfc.getHitCount(), equalTo( 1000L ) );
+        assertThat( nfc.getFilteredCount() > 950, equalTo( true ) );
+
+        nfc.clearMissing( new ConcreteResource( location, "/missing/1" ) );
+        assertThat( nfc.isMissing( new ConcreteResource( location, "/missing/1" ) ), equalTo( false ) );
+        assertThat( nfc.getMissing( location ).size(), equalTo( 999 ) );
+
+        nfc.clearMissing( location );
+        assertThat( nfc.getSize(), equalTo( 0 ) );
+        assertThat( nfc.getAllMissing(), equalTo( Collections.emptyMap() ) );
+    }
+
+    @Test
+    public void fullTableEvictsEntriesNotFoundRecently()
+    {
+        final Location location = new SimpleLocation( "http://foo.com" );
+        final CompactNotFoundCache nfc =
+                new CompactNotFoundCache( new CompactNotFoundCacheConfig().withMaxEntries( 100 ) );
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            nfc.addMissing( new ConcreteResource( location, "/missing/" + i ) );
+        }
+
+        for ( int i = 0; i < 50; i++ )
+        {
+            nfc.isMissing( new ConcreteResource( location, "/missing/" + i ) );
+        }
+
+        for ( int i = 100; i < 1100; i++ )
+        {
+            nfc.addMissing( new ConcreteResource( location, "/missing/" + i ) );
+        }
+
+        assertThat( nfc.getSize(), equalTo( 100 ) );
+        assertThat( nfc.getEvictionCount(), equalTo( 1000L ) );
+        assertThat( nfc.isMissing( new ConcreteResource( location, "/missing/1099" ) ), equalTo( true ) );
+        assertThat( nfc.getMissing( location ), equalTo( Collections.<String> emptySet() ) );
+    }
+
+}
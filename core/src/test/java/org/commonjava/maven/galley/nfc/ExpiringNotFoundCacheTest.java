@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2013 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.galley.nfc;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.Collections;
+import java.util.Set;
+
+import org.commonjava.maven.galley.model.ConcreteResource;
+import org.commonjava.maven.galley.model.Location;
+import org.commonjava.maven.galley.model.SimpleLocation;
+import org.junit.Test;
+
+public class ExpiringNotFoundCacheTest
+{
+
+    @Test
+    public void entriesExpireAfterLocationTimeout()
+        throws Exception
+    {
+        final SimpleLocation location = new SimpleLocation( "http://foo.com" );
+        location.setAttribute( Location.NFC_TIMEOUT_SECONDS, 1 );
+
+        final ExpiringNotFoundCache nfc = new ExpiringNotFoundCache();
+        final ConcreteResource resource = new ConcreteResource( location, "/path/to/missing.pom" );
+
+        nfc.addMissing( resource );
+        assertThat( nfc.isMissing( resource ), equalTo( true ) );
+
+        final Set<String> snapshot = nfc.getMissing( location );
+        assertThat( snapshot, equalTo( Collections.singleton( "/path/to/missing.pom" ) ) );
+
+        Thread.sleep( 1100 );
+
+        assertThat( nfc.isMissing( resource ), equalTo( false ) );
+        assertThat( nfc.getSize(), equalTo( 0 ) );
+        assertThat( nfc.getHitCount(), equalTo( 1L ) );
+        assertThat( nfc.getMissCount(), equalTo( 1L ) );
+        assertThat( nfc.getExpirationCount(), equalTo( 1L ) );
+        assertThat( snapshot.size(), equalTo( 1 ) );
+    }
+
+    @Test
+    public void leastRecentlyCheckedEntriesAreEvicted()
+        throws Exception
+    {
+        final Location location = new SimpleLocation( "http://foo.com" );
+        final ExpiringNotFoundCache nfc = new ExpiringNotFoundCache( 10 );
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            nfc.addMissing( new ConcreteResource( location, "/path/" + i ) );
+            Thread.sleep( 2 );
+        }
+
+        final ConcreteResource first = new ConcreteResource( location, "/path/0" );
+        assertThat( nfc.isMissing( first ), equalTo( true ) );
+
+        nfc.addMissing( new ConcreteResource( location, "/path/10" ) );
+
+        assertThat( nfc.getSize(), equalTo( 9 ) );
+        assertThat( nfc.getEvictionCount(), equalTo( 2L ) );
+        assertThat( nfc.isMissing( first ), equalTo( true ) );
+        assertThat( nfc.isMissing( new ConcreteResource( location, "/path/1" ) ), equalTo( false ) );
+        assertThat( nfc.isMissing( new ConcreteResource( location, "/path/2" ) ), equalTo( false ) );
+        assertThat( nfc.isMissing( new ConcreteResource( location, "/path/3" ) ), equalTo( true ) );
+    }
+
+}
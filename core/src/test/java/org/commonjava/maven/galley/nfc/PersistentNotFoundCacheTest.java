@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2013 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.galley.nfc;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+
+import org.commonjava.maven.galley.model.ConcreteResource;
+import org.commonjava.maven.galley.model.Location;
+import org.commonjava.maven.galley.model.SimpleLocation;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PersistentNotFoundCacheTest
+{
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void restartRestoresEntriesExceptForLocationsClearedSinceSnapshot()
+        throws Exception
+    {
+        final File snapshot = new File( temp.getRoot(), "nfc.bin" );
+        final Location kept = new SimpleLocation( "http://foo.com" );
+        final Location cleared = new SimpleLocation( "http://bar.com" );
+
+        final PersistentNotFoundCache before = newCache( snapshot );
+        before.addMissing( new ConcreteResource( kept, "/path/to/missing.pom" ) );
+        before.addMissing( new ConcreteResource( cleared, "/path/to/missing.pom" ) );
+        before.snapshot();
+
+        // cleared after the last snapshot, then the process dies without saving another.
+        before.clearMissing( cleared );
+
+        final PersistentNotFoundCache after = newCache( snapshot );
+        assertThat( after.isMissing( new ConcreteResource( new SimpleLocation( "http://foo.com" ),
+                                                           "/path/to/missing.pom" ) ), equalTo( true ) );
+        assertThat( after.isMissing( new ConcreteResource( new SimpleLocation( "http://bar.com" ),
+                                                           "/path/to/missing.pom" ) ), equalTo( false ) );
+        assertThat( after.getSize(), equalTo( 1 ) );
+
+        after.shutdown();
+    }
+
+    private PersistentNotFoundCache newCache( final File snapshot )
+        throws InterruptedException
+    {
+        final PersistentNotFoundCache nfc =
+                new PersistentNotFoundCache( snapshot, 60000, ExpiringNotFoundCache.DEFAULT_MAX_ENTRIES );
+        while ( !nfc.isLoaded() )
+        {
+            Thread.sleep( 10 );
+        }
+
+        return nfc;
+    }
+
+}
@@ -22,6 +22,11 @@ import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
@@ -67,6 +72,19 @@ public class HttpClientTransport
     @Inject
     private ObjectMapper mapper;
 
+    /**
+     * Upper bound on segment requests in flight across all downloads of this transport. Segments beyond it queue up;
+     * they never wait on each other, so queueing only delays them.
+     */
+    public static final int MAX_SEGMENT_THREADS = 16;
+
+    /**
+     * Runs the extra range requests of segmented downloads (see {@link Location#SEGMENTED_DOWNLOAD_THRESHOLD}). Each
+     * download asks for at most its location's max connections worth of segments, and all downloads share this pool
+     * of {@link #MAX_SEGMENT_THREADS} threads.
+     */
+    private final ExecutorService segmentExecutor = newSegmentExecutor();
+
     protected HttpClientTransport()
     {
     }
@@ -83,9 +101,24 @@ public class HttpClientTransport
         this.globalConfig = globalConfig;
     }
 
+    private static ExecutorService newSegmentExecutor()
+    {
+        final AtomicInteger count = new AtomicInteger();
+        final ThreadPoolExecutor executor =
+                new ThreadPoolExecutor( MAX_SEGMENT_THREADS, MAX_SEGMENT_THREADS, 60, TimeUnit.SECONDS,
+                                        new LinkedBlockingQueue<Runnable>(), ( r ) -> {
+                    final Thread t = new Thread( r, "galley-http-segment-" + count.incrementAndGet() );
+                    t.setDaemon( true );
+                    return t;
+                } );
+        executor.allowCoreThreadTimeOut( true );
+        return executor;
+    }
+
     @PreDestroy
     public void shutdown()
     {
+        segmentExecutor.shutdownNow();
         try
         {
             http.close();
@@ -103,7 +136,7 @@ public class HttpClientTransport
         throws TransferException
     {
         return new HttpDownload( getUrl( resource ), getHttpLocation( resource.getLocation() ), target, transferSizes, eventMetadata,
-                                 http, mapper );
+                                 http, mapper, true, segmentExecutor );
     }
 
     @Override
@@ -193,6 +193,13 @@ public abstract class AbstractHttpJob
             return;
         }
 
+        if ( response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED )
+        {
+            // keep the metadata of the exchange that actually delivered the cached content (and its validators)
+            logger.debug( "Content not modified. Keeping existing HTTP exchange metadata for: {}", target );
+            return;
+        }
+
         logger.debug( "Writing HTTP exchange metadata. Request: {}. Response: {}", request, response );
         Transfer metaTxfr = target.getSiblingMeta( HttpExchangeMetadata.FILE_EXTENSION );
         if ( metaTxfr == null )
@@ -17,26 +17,44 @@ package org.commonjava.maven.galley.transport.htcli.internal;
 
 import static org.apache.commons.io.IOUtils.closeQuietly;
 import static org.apache.commons.io.IOUtils.copy;
+import static org.apache.commons.io.IOUtils.skipFully;
 import static org.commonjava.maven.galley.spi.cache.CacheProvider.STORAGE_PATH;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.util.EntityUtils;
 import org.commonjava.maven.galley.TransferException;
 import org.commonjava.maven.galley.event.EventMetadata;
 import org.commonjava.maven.galley.model.Transfer;
 import org.commonjava.maven.galley.model.TransferOperation;
+import org.commonjava.maven.galley.spi.cache.CacheProvider;
 import org.commonjava.maven.galley.spi.transport.DownloadJob;
 import org.commonjava.maven.galley.transport.htcli.Http;
+import org.commonjava.maven.galley.transport.htcli.model.HttpExchangeMetadata;
 import org.commonjava.maven.galley.transport.htcli.model.HttpLocation;
 
+import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.commonjava.maven.galley.transport.htcli.util.HttpUtil;
+import org.commonjava.maven.galley.util.LocationUtils;
 import org.commonjava.maven.galley.util.ResourceUtils;
 
 public final class HttpDownload
@@ -44,6 +62,8 @@ public final class HttpDownload
     implements DownloadJob
 {
 
+    private static final int STREAM_BUFFER_SIZE = 16384;
+
     private final Transfer target;
 
     private Map<Transfer, Long> transferSizes;
@@ -54,6 +74,26 @@ public final class HttpDownload
 
     private boolean deleteFilesOnPath;
 
+    /**
+     * Length of the kept partial download we asked the server to continue from, or -1 for a full GET.
+     */
+    private long resumeOffset = -1;
+
+    /**
+     * Runs the extra range requests of a segmented download; null disables segmented downloads.
+     */
+    private final ExecutorService segmentExecutor;
+
+    /**
+     * In a segmented download, the end of the first segment, which is read from the initial response.
+     */
+    private long firstSegmentEnd = -1;
+
+    /**
+     * The range requests of a segmented download, in the same order as their futures.
+     */
+    private final List<HttpSegmentDownload> segmentJobs = new ArrayList<HttpSegmentDownload>();
+
     public HttpDownload( final String url, final HttpLocation location, final Transfer target,
                          final Map<Transfer, Long> transferSizes, final EventMetadata eventMetadata, final Http http,
                          final ObjectMapper mapper )
@@ -65,12 +105,21 @@ public final class HttpDownload
                          final Map<Transfer, Long> transferSizes, final EventMetadata eventMetadata, final Http http,
                          final ObjectMapper mapper, final boolean deleteFilesOnPath )
     {
-        super( url, location, http );
+        this( url, location, target, transferSizes, eventMetadata, http, mapper, deleteFilesOnPath, null );
+    }
+
+    public HttpDownload( final String url, final HttpLocation location, final Transfer target,
+                         final Map<Transfer, Long> transferSizes, final EventMetadata eventMetadata, final Http http,
+                         final ObjectMapper mapper, final boolean deleteFilesOnPath,
+                         final ExecutorService segmentExecutor )
+    {
+        super( url, location, http, HttpStatus.SC_OK, HttpStatus.SC_PARTIAL_CONTENT, HttpStatus.SC_NOT_MODIFIED );
         this.target = target;
         this.transferSizes = transferSizes;
         this.eventMetadata = eventMetadata;
         this.mapper = mapper;
         this.deleteFilesOnPath = deleteFilesOnPath;
+        this.segmentExecutor = segmentExecutor;
     }
 
     @Override
@@ -79,10 +128,23 @@ public final class HttpDownload
         request = new HttpGet( url );
         try
         {
+            if ( !prepareRevalidation() )
+            {
+                prepareResume();
+            }
+
             if ( executeHttp() )
             {
-                transferSizes.put( target, HttpUtil.getContentLength( response ) );
-                writeTarget();
+                if ( response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED )
+                {
+                    logger.info( "Cached content of: {} is still valid.", url );
+                    target.markFresh();
+                }
+                else
+                {
+                    transferSizes.put( target, getTransferSize() );
+                    writeTarget();
+                }
             }
         }
         catch ( final TransferException e )
@@ -107,7 +169,13 @@ public final class HttpDownload
     @Override
     public long getTransferSize()
     {
-        return response == null ? -1 : HttpUtil.getContentLength( response );
+        if ( response == null )
+        {
+            return -1;
+        }
+
+        final long length = HttpUtil.getContentLength( response );
+        return isResumed() && length > -1 ? resumeOffset + length : length;
     }
 
     @Override
@@ -126,24 +194,132 @@ public final class HttpDownload
         return target;
     }
 
+    /**
+     * If the target is already cached, this download is a refresh (stale content, or expired metadata): turn it into a
+     * conditional GET using the validators stored with it, so an unchanged resource costs a 304 instead of a full
+     * download.
+     *
+     * @return true if the request was made conditional
+     */
+    private boolean prepareRevalidation()
+    {
+        if ( !target.exists() )
+        {
+            return false;
+        }
+
+        final HttpExchangeMetadata cached = readMetadata( target.getSiblingMeta( HttpExchangeMetadata.FILE_EXTENSION ) );
+        if ( cached == null )
+        {
+            return false;
+        }
+
+        final String etag = cached.getETag();
+        final String lastModified = cached.getLastModified();
+        if ( etag != null )
+        {
+            request.addHeader( HttpHeaders.IF_NONE_MATCH, etag );
+        }
+
+        if ( lastModified != null )
+        {
+            request.addHeader( HttpHeaders.IF_MODIFIED_SINCE, lastModified );
+        }
+
+        logger.debug( "Revalidating stale: {} (ETag: {}, Last-Modified: {})", url, etag, lastModified );
+        return etag != null || lastModified != null;
+    }
+
+    /**
+     * If an earlier attempt left a partial download with a validator, ask the server for the remainder only. The
+     * If-Range header makes the server send the whole entity (200) instead if the content changed in the meantime.
+     */
+    private void prepareResume()
+    {
+        final Transfer partial = getPartial();
+        if ( partial == null || !partial.exists() )
+        {
+            return;
+        }
+
+        final HttpExchangeMetadata validators = readPartialMetadata();
+        final String validator = validators == null ? null : getIfRangeValidator( validators );
+        final long offset = partial.length();
+        if ( validator == null || offset < 1 )
+        {
+            logger.debug( "Cannot resume: {} from: {} (validator: {}, length: {}). Discarding it.", url, partial,
+                          validator, offset );
+            discardPartial();
+            return;
+        }
+
+        logger.info( "Resuming download of: {} from byte: {}", url, offset );
+        request.addHeader( HttpHeaders.RANGE, "bytes=" + offset + "-" );
+        request.addHeader( HttpHeaders.IF_RANGE, validator );
+        resumeOffset = offset;
+    }
+
+    /**
+     * Only strong ETags may be used with If-Range; otherwise fall back to Last-Modified.
+     */
+    private String getIfRangeValidator( final HttpExchangeMetadata validators )
+    {
+        final String etag = validators.getETag();
+        if ( etag != null && !etag.startsWith( "W/" ) )
+        {
+            return etag;
+        }
+
+        return validators.getLastModified();
+    }
+
+    private boolean isResumed()
+    {
+        return resumeOffset > -1 && response != null
+                        && response.getStatusLine().getStatusCode() == HttpStatus.SC_PARTIAL_CONTENT;
+    }
+
     private void writeTarget()
         throws TransferException
     {
         OutputStream out = null;
         if ( response != null )
         {
+            final boolean resumed = isResumed();
+            if ( resumed && !isExpectedContentRange() )
+            {
+                discardPartial();
+                throw new TransferException( "Cannot resume download of: {}. Server returned unexpected range: {}",
+                                             url, response.getFirstHeader( HttpHeaders.CONTENT_RANGE ) );
+            }
 
             InputStream in = null;
+            boolean complete = false;
+            final List<Future<HttpSegmentDownload>> segments =
+                    resumed ? Collections.<Future<HttpSegmentDownload>>emptyList() : startSegments();
             try
             {
                 final HttpEntity entity = response.getEntity();
 
                 in = entity.getContent();
                 out = target.openOutputStream( TransferOperation.DOWNLOAD, true, eventMetadata, deleteFilesOnPath );
-                copy( in, out );
-                logger.info( "Ensuring all HTTP data is consumed..." );
-                EntityUtils.consume( entity );
-                logger.info( "All HTTP data was consumed." );
+                if ( resumed )
+                {
+                    copyPartial( out );
+                }
+
+                if ( segments.isEmpty() )
+                {
+                    copy( in, out );
+                    logger.info( "Ensuring all HTTP data is consumed..." );
+                    EntityUtils.consume( entity );
+                    logger.info( "All HTTP data was consumed." );
+                }
+                else
+                {
+                    writeSegments( in, out, segments );
+                }
+                complete = true;
             }
             catch ( final IOException e )
             {
@@ -154,8 +330,392 @@ public final class HttpDownload
             {
                 closeQuietly( in );
 
+                if ( out != null && !complete )
+                {
+                    keepOrDiscardPartial( resumed );
+                }
+
                 logger.info( "Closing output stream: {}", out );
                 closeQuietly( out );
+
+                if ( complete && resumeOffset > -1 )
+                {
+                    discardPartial();
+                }
+
+                cleanupSegments( segments );
+            }
+        }
+    }
+
+    /**
+     * If the location enables segmented downloads and this response is a full, range-capable entity above the
+     * threshold, start fetching all but the first segment in parallel. The first segment is streamed from the initial
+     * response, so no extra HEAD is needed to learn the length.
+     */
+    private List<Future<HttpSegmentDownload>> startSegments()
+    {
+        final List<Future<HttpSegmentDownload>> segments = new ArrayList<Future<HttpSegmentDownload>>();
+        if ( segmentExecutor == null || response.getStatusLine().getStatusCode() != HttpStatus.SC_OK )
+        {
+            return segments;
+        }
+
+        final long threshold = LocationUtils.getSegmentedDownloadThreshold( location );
+        final int count = LocationUtils.getDownloadSegments( location );
+        final long length = HttpUtil.getContentLength( response );
+        if ( threshold < 1 || length <= threshold || count < 2 )
+        {
+            return segments;
+        }
+
+        final HttpExchangeMetadata exchange = new HttpExchangeMetadata( request, response );
+        final String validator = getIfRangeValidator( exchange );
+        if ( validator == null || !exchange.isRangeSupported() )
+        {
+            logger.debug( "Cannot segment download of: {}. Validator: {}, range support: {}", url, validator,
+                          exchange.isRangeSupported() );
+            return segments;
+        }
+
+        final long segmentLength = ( length + count - 1 ) / count;
+        for ( long start = segmentLength; start < length; start += segmentLength )
+        {
+            final File spool = getSegmentSpool( start );
+            if ( spool == null )
+            {
+                logger.warn( "Cannot segment download of: {}. No spool file next to: {}", url, target );
+                cleanupSegments( segments );
+                segments.clear();
+                return segments;
+            }
+
+            final HttpSegmentDownload job =
+                    new HttpSegmentDownload( url, location, http, start, Math.min( start + segmentLength, length ),
+                                             validator, spool );
+            segmentJobs.add( job );
+            segments.add( segmentExecutor.submit( job ) );
+        }
+
+        firstSegmentEnd = segmentLength;
+        logger.info( "Downloading: {} ({} bytes) in {} segments", url, length, count );
+        return segments;
+    }
+
+    /**
+     * Segments are spooled next to the target, so they live on the cache's filesystem rather than in java.io.tmpdir.
+     * The suffix keeps them out of listings. Returns null if the cache can't give us a local file.
+     */
+    private File getSegmentSpool( final long start )
+    {
+        final Transfer sibling = target.getSiblingMeta( ".segment-" + start + CacheProvider.SUFFIX_PARTIAL );
+        File spool = null;
+        try
+        {
+            spool = sibling == null ? null : sibling.getDetachedFile();
+        }
+        catch ( final UnsupportedOperationException e )
+        {
+            logger.debug( "Cache of: {} has no local files to spool segments in: {}", target, e.getMessage() );
+        }
+
+        if ( spool == null )
+        {
+            return null;
+        }
+
+        final File dir = spool.getParentFile();
+        return dir.isDirectory() || dir.mkdirs() ? spool : null;
+    }
+
+    /**
+     * Write the first segment straight from the initial response, then keep streaming the initial response into the
+     * following segments while their range requests run. The initial response is never left idle waiting for a
+     * segment: at each point it either covers a segment's range itself (and that segment is cancelled), or a segment
+     * finishes first. From then on the rest of the content comes from the segments in order, and the initial request
+     * is released. Everything flows through the target's (decorated) output stream in order, so checksums and
+     * transfer metadata cover the final content.
+     * <p>
+     * Segments that fail (the server ignored the range, or the request errored) are simply covered by the initial
+     * response. Once it has been released, a failing or stalled segment fails the download, which leaves the content
+     * written so far for a later resume.
+     */
+    private void writeSegments( final InputStream in, final OutputStream out,
+                                final List<Future<HttpSegmentDownload>> segments )
+        throws IOException, TransferException
+    {
+        final long length = HttpUtil.getContentLength( response );
+        long position = streamInitial( in, out, 0, firstSegmentEnd, null );
+
+        for ( int i = 0; i < segments.size(); i++ )
+        {
+            final long end = Math.min( position + firstSegmentEnd, length );
+            position = streamInitial( in, out, position, end, segments.get( i ) );
+            if ( position < end )
+            {
+                // we have what we need from the initial response; don't let cleanup drain the rest of it.
+                request.abort();
+                copySpool( awaitSegment( segments.get( i ), segmentJobs.get( i ) ), position, out );
+                for ( int j = i + 1; j < segments.size(); j++ )
+                {
+                    final HttpSegmentDownload segment = awaitSegment( segments.get( j ), segmentJobs.get( j ) );
+                    copySpool( segment, segment.getStart(), out );
+                }
+                return;
+            }
+
+            // the initial response covered this range itself; free the segment's connection.
+            segments.get( i ).cancel( true );
+            segmentJobs.get( i ).cancel();
+        }
+
+        EntityUtils.consume( response.getEntity() );
+    }
+
+    /**
+     * Copy the initial response from position toward end, stopping early if the given segment (which covers that
+     * range) is ready to take over.
+     *
+     * @return the position reached; less than end only if the segment is ready
+     */
+    private long streamInitial( final InputStream in, final OutputStream out, long position, final long end,
+                                final Future<HttpSegmentDownload> segment )
+        throws IOException
+    {
+        final byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+        while ( position < end && !isReady( segment ) )
+        {
+            final int read = in.read( buffer, 0, (int) Math.min( buffer.length, end - position ) );
+            if ( read < 0 )
+            {
+                throw new IOException( "Initial response of: " + url + " was truncated at " + position + " bytes." );
+            }
+
+            out.write( buffer, 0, read );
+            position += read;
+        }
+
+        return position;
+    }
+
+    private boolean isReady( final Future<HttpSegmentDownload> segment )
+    {
+        if ( segment == null || !segment.isDone() || segment.isCancelled() )
+        {
+            return false;
+        }
+
+        try
+        {
+            return segment.get().getError() == null;
+        }
+        catch ( final InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        catch ( final ExecutionException e )
+        {
+            return false;
+        }
+    }
+
+    private void copySpool( final HttpSegmentDownload segment, final long from, final OutputStream out )
+        throws IOException
+    {
+        InputStream spoolIn = null;
+        try
+        {
+            spoolIn = new FileInputStream( segment.getSpool() );
+            skipFully( spoolIn, from - segment.getStart() );
+            copy( spoolIn, out );
+        }
+        finally
+        {
+            closeQuietly( spoolIn );
+        }
+    }
+
+    /**
+     * Wait for a segment once the initial response has been released. The wait is bounded by the location's timeout,
+     * so a segment stuck behind other downloads in the segment pool can't hold this download forever.
+     */
+    private HttpSegmentDownload awaitSegment( final Future<HttpSegmentDownload> future, final HttpSegmentDownload job )
+        throws IOException, TransferException
+    {
+        final int timeoutSeconds = LocationUtils.getTimeoutSeconds( location );
+        Throwable failure;
+        try
+        {
+            final HttpSegmentDownload segment = future.get( timeoutSeconds, TimeUnit.SECONDS );
+            if ( segment.getError() == null )
+            {
+                return segment;
+            }
+
+            failure = segment.getError();
+        }
+        catch ( final InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new TransferException( "Interrupted while waiting for segments of: {}", e, url );
+        }
+        catch ( final ExecutionException e )
+        {
+            failure = e.getCause();
+        }
+        catch ( final TimeoutException e )
+        {
+            future.cancel( true );
+            job.cancel();
+            throw new IOException( "Segment of: " + url + " did not arrive within " + timeoutSeconds + " seconds." );
+        }
+
+        throw new IOException( "Segment of: " + url + " failed: " + failure.getMessage(), failure );
+    }
+
+    private void cleanupSegments( final List<Future<HttpSegmentDownload>> segments )
+    {
+        for ( final Future<HttpSegmentDownload> future : segments )
+        {
+            future.cancel( true );
+        }
+
+        for ( final HttpSegmentDownload job : segmentJobs )
+        {
+            job.cancel();
+            job.getSpool().delete();
+        }
+        segmentJobs.clear();
+    }
+
+    /**
+     * The 206 response has to continue exactly where our partial content ends.
+     */
+    private boolean isExpectedContentRange()
+    {
+        final Header header = response.getFirstHeader( HttpHeaders.CONTENT_RANGE );
+        return header != null && header.getValue() != null && header.getValue()
+                                                                     .trim()
+                                                                     .startsWith( "bytes " + resumeOffset + "-" );
+    }
+
+    private void copyPartial( final OutputStream out )
+        throws IOException
+    {
+        InputStream partialIn = null;
+        try
+        {
+            partialIn = getPartial().openInputStream( false );
+            copy( partialIn, out );
+        }
+        finally
+        {
+            closeQuietly( partialIn );
+        }
+    }
+
+    /**
+     * Called before closing the output of a failed write, so the incomplete content never replaces the target. It's
+     * kept for a later resume if this exchange gave us a validator to resume against and the server supports ranges.
+     */
+    private void keepOrDiscardPartial( final boolean resumed )
+    {
+        final HttpExchangeMetadata exchange = new HttpExchangeMetadata( request, response );
+        final Transfer partial = getPartial();
+        final HttpExchangeMetadata validators = resumed ? readPartialMetadata() : exchange;
+        if ( partial == null || validators == null || getIfRangeValidator( validators ) == null
+                        || !( resumed || exchange.isRangeSupported() ) )
+        {
+            logger.debug( "Discarding partial download of: {}", url );
+            target.abortWrite( null );
+            discardPartial();
+            return;
+        }
+
+        logger.info( "Keeping partial download of: {} for resume", url );
+        target.abortWrite( partial );
+        if ( !resumed )
+        {
+            writePartialMetadata( exchange );
+        }
+    }
+
+    private Transfer getPartial()
+    {
+        return target.getSiblingMeta( CacheProvider.SUFFIX_PARTIAL );
+    }
+
+    private Transfer getPartialMetadata()
+    {
+        return target.getSiblingMeta( CacheProvider.SUFFIX_PARTIAL + HttpExchangeMetadata.FILE_EXTENSION );
+    }
+
+    private HttpExchangeMetadata readPartialMetadata()
+    {
+        return readMetadata( getPartialMetadata() );
+    }
+
+    private HttpExchangeMetadata readMetadata( final Transfer metaTxfr )
+    {
+        if ( metaTxfr == null || !metaTxfr.exists() )
+        {
+            return null;
+        }
+
+        InputStream in = null;
+        try
+        {
+            in = metaTxfr.openInputStream( false );
+            // derived properties like lastModified are serialized too, but have no setters
+            return mapper.reader( HttpExchangeMetadata.class )
+                         .without( DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES )
+                         .readValue( in );
+        }
+        catch ( final IOException e )
+        {
+            logger.warn( "Failed to read HTTP exchange metadata: {}. Reason: {}", metaTxfr, e.getMessage() );
+            return null;
+        }
+        finally
+        {
+            closeQuietly( in );
+        }
+    }
+
+    private void writePartialMetadata( final HttpExchangeMetadata exchange )
+    {
+        final Transfer metaTxfr = getPartialMetadata();
+        OutputStream out = null;
+        try
+        {
+            out = metaTxfr.openOutputStream( TransferOperation.GENERATE, false );
+            out.write( mapper.writeValueAsBytes( exchange ) );
+        }
+        catch ( final IOException e )
+        {
+            logger.warn( "Failed to write partial download metadata: {}. Reason: {}", metaTxfr, e.getMessage() );
+        }
+        finally
+        {
+            closeQuietly( out );
+        }
+    }
+
+    private void discardPartial()
+    {
+        for ( final Transfer txfr : new Transfer[] { getPartial(), getPartialMetadata() } )
+        {
+            try
+            {
+                if ( txfr != null && txfr.exists() )
+                {
+                    txfr.delete( false );
+                }
+            }
+            catch ( final IOException e )
+            {
+                logger.warn( "Failed to delete partial download file: {}. Reason: {}", txfr, e.getMessage() );
             }
         }
     }
@@ -0,0 +1,183 @@
+/**
+ * Copyright (C) 2013 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.galley.transport.htcli.internal;
+
+import static org.apache.commons.io.IOUtils.closeQuietly;
+import static org.apache.commons.io.IOUtils.copy;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.commonjava.maven.galley.TransferException;
+import org.commonjava.maven.galley.transport.htcli.Http;
+import org.commonjava.maven.galley.transport.htcli.model.HttpLocation;
+
+/**
+ * Fetches one byte range of a segmented {@link HttpDownload} into a local spool file. The If-Range validator makes
+ * sure all segments come from the same version of the content: if it changed, the server answers 200 and the segment
+ * fails, and the download finishes from its initial response.
+ */
+public final class HttpSegmentDownload
+    extends AbstractHttpJob
+    implements Callable<HttpSegmentDownload>
+{
+
+    private final long start;
+
+    private final long end;
+
+    private final String validator;
+
+    private final File spool;
+
+    private volatile boolean cancelled;
+
+    private volatile HttpGet get;
+
+    public HttpSegmentDownload( final String url, final HttpLocation location, final Http http, final long start,
+                                final long end, final String validator, final File spool )
+    {
+        super( url, location, http, HttpStatus.SC_PARTIAL_CONTENT );
+        this.start = start;
+        this.end = end;
+        this.validator = validator;
+        this.spool = spool;
+    }
+
+    @Override
+    public HttpSegmentDownload call()
+    {
+        get = new HttpGet( url );
+        get.addHeader( HttpHeaders.RANGE, "bytes=" + start + "-" + ( end - 1 ) );
+        get.addHeader( HttpHeaders.IF_RANGE, validator );
+        request = get;
+
+        try
+        {
+            if ( cancelled )
+            {
+                error = new TransferException( "Segment {}-{} of: {} was cancelled.", start, end, url );
+            }
+            else if ( !executeHttp() )
+            {
+                error = new TransferException( "Segment {}-{} of: {} was not available. Status: {}", start, end, url,
+                                               response.getStatusLine() );
+            }
+            else if ( !isExpectedContentRange() )
+            {
+                error = new TransferException( "Segment {}-{} of: {} came back with unexpected range: {}", start, end,
+                                               url, response.getFirstHeader( HttpHeaders.CONTENT_RANGE ) );
+            }
+            else
+            {
+                writeSpool();
+            }
+        }
+        catch ( final TransferException e )
+        {
+            error = e;
+        }
+        finally
+        {
+            cleanup();
+        }
+
+        if ( error != null || cancelled )
+        {
+            spool.delete();
+        }
+
+        logger.debug( "Segment {}-{} of: {} done. Error: {}", start, end, url, error );
+        return this;
+    }
+
+    private boolean isExpectedContentRange()
+    {
+        final Header header = response.getFirstHeader( HttpHeaders.CONTENT_RANGE );
+        return header != null && header.getValue() != null && header.getValue()
+                                                                     .trim()
+                                                                     .startsWith( "bytes " + start + "-" + ( end - 1 )
+                                                                                                  + "/" );
+    }
+
+    private void writeSpool()
+        throws TransferException
+    {
+        InputStream in = null;
+        OutputStream out = null;
+        try
+        {
+            in = response.getEntity().getContent();
+            out = new FileOutputStream( spool );
+            copy( in, out );
+            EntityUtils.consume( response.getEntity() );
+        }
+        catch ( final IOException e )
+        {
+            throw new TransferException( "Failed to spool segment {}-{} of: {}. Reason: {}", e, start, end, url,
+                                         e.getMessage() );
+        }
+        finally
+        {
+            closeQuietly( in );
+            closeQuietly( out );
+        }
+
+        if ( spool.length() != end - start )
+        {
+            throw new TransferException( "Segment {}-{} of: {} was truncated: got {} bytes.", start, end, url,
+                                         spool.length() );
+        }
+    }
+
+    /**
+     * Abort this segment's request, if any, and drop whatever it spooled. Safe to call from any thread.
+     */
+    public void cancel()
+    {
+        cancelled = true;
+        final HttpGet current = get;
+        if ( current != null )
+        {
+            current.abort();
+        }
+    }
+
+    public long getStart()
+    {
+        return start;
+    }
+
+    public long getEnd()
+    {
+        return end;
+    }
+
+    public File getSpool()
+    {
+        return spool;
+    }
+
+}
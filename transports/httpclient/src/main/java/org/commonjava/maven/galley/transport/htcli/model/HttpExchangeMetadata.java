@@ -35,6 +35,10 @@ public class HttpExchangeMetadata
 
     protected static final Object CONTENT_LENGTH = "CONTENT-LENGTH";
 
+    protected static final String ETAG = "ETAG";
+
+    protected static final String ACCEPT_RANGES = "ACCEPT-RANGES";
+
     protected Map<String, List<String>> requestHeaders = new HashMap<String, List<String>>();
 
     protected Map<String, List<String>> responseHeaders = new HashMap<String, List<String>>();
@@ -135,4 +139,37 @@ public class HttpExchangeMetadata
         return Long.parseLong( values.get( 0 ) );
     }
 
+    public String getETag()
+    {
+        final List<String> values = responseHeaders.get( ETAG );
+        if ( values == null || values.isEmpty() )
+        {
+            return null;
+        }
+
+        return values.get( 0 );
+    }
+
+    /**
+     * Whether the server advertised byte-range support (Accept-Ranges: bytes) in this exchange.
+     */
+    public boolean isRangeSupported()
+    {
+        final List<String> values = responseHeaders.get( ACCEPT_RANGES );
+        if ( values == null )
+        {
+            return false;
+        }
+
+        for ( final String value : values )
+        {
+            if ( value != null && value.toLowerCase().contains( "bytes" ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
 }
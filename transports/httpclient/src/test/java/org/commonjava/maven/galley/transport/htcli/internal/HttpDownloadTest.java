@@ -23,17 +23,35 @@ import static org.junit.Assert.assertThat;
 import org.commonjava.maven.galley.TransferException;
 import org.commonjava.maven.galley.event.EventMetadata;
 import org.commonjava.maven.galley.model.ConcreteResource;
+import org.commonjava.maven.galley.model.Location;
 import org.commonjava.maven.galley.model.Transfer;
+import org.commonjava.maven.galley.model.TransferOperation;
+import org.commonjava.maven.galley.spi.cache.CacheProvider;
 import org.commonjava.maven.galley.spi.transport.DownloadJob;
+import org.commonjava.maven.galley.transport.htcli.model.HttpExchangeMetadata;
 import org.commonjava.maven.galley.transport.htcli.model.SimpleHttpLocation;
 import org.commonjava.maven.galley.transport.htcli.testutil.HttpTestFixture;
+import org.commonjava.maven.galley.transport.htcli.testutil.ScriptedHttpServer;
 import org.junit.Rule;
 import org.junit.Test;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-
+import com.sun.net.httpserver.Headers;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class HttpDownloadTest
 {
@@ -154,4 +172,348 @@ public class HttpDownloadTest
         assertThat( fixture.getAccessesFor( path ), equalTo( 1 ) );
     }
 
+    @Test
+    public void resumeAppendsRangeToPartialDownload()
+        throws Exception
+    {
+        final String fname = "resumed.jar";
+        final byte[] content = "0123456789abcdefghijklmnopqrstuvwxyz".getBytes();
+        final ScriptedHttpServer server = fixture.getScriptedServer();
+        server.expect( "/" + fname, ScriptedHttpServer.rangedContent( content, "\"v1\"" ) );
+
+        final Transfer transfer = scriptedTransfer( fname );
+        writePartial( transfer, Arrays.copyOf( content, 10 ), "\"v1\"" );
+
+        final HttpDownload dl = newDownload( fname, transfer );
+        dl.call();
+
+        assertThat( dl.getError(), nullValue() );
+        assertThat( readContent( transfer ), equalTo( new String( content ) ) );
+        assertThat( transfer.getSiblingMeta( CacheProvider.SUFFIX_PARTIAL ).exists(), equalTo( false ) );
+
+        final Headers request = server.getRequests( fname ).get( 0 );
+        assertThat( request.getFirst( "Range" ), equalTo( "bytes=10-" ) );
+        assertThat( request.getFirst( "If-Range" ), equalTo( "\"v1\"" ) );
+    }
+
+    @Test
+    public void fullResponseToRangeRequestRestartsFromZero()
+        throws Exception
+    {
+        final String fname = "range-ignored.jar";
+        final byte[] content = "0123456789abcdefghijklmnopqrstuvwxyz".getBytes();
+        fixture.getScriptedServer().expect( "/" + fname, ScriptedHttpServer.ignoringRanges( content, "\"v1\"" ) );
+
+        final Transfer transfer = scriptedTransfer( fname );
+        writePartial( transfer, Arrays.copyOf( content, 10 ), "\"v1\"" );
+
+        final HttpDownload dl = newDownload( fname, transfer );
+        dl.call();
+
+        assertThat( dl.getError(), nullValue() );
+        assertThat( readContent( transfer ), equalTo( new String( content ) ) );
+        assertThat( transfer.getSiblingMeta( CacheProvider.SUFFIX_PARTIAL ).exists(), equalTo( false ) );
+    }
+
+    @Test
+    public void ifRangeMismatchDiscardsPartialDownload()
+        throws Exception
+    {
+        final String fname = "changed.jar";
+        final byte[] content = "this content changed since the partial download".getBytes();
+        fixture.getScriptedServer().expect( "/" + fname, ScriptedHttpServer.rangedContent( content, "\"v2\"" ) );
+
+        final Transfer transfer = scriptedTransfer( fname );
+        writePartial( transfer, "stale conte".getBytes(), "\"v1\"" );
+
+        final HttpDownload dl = newDownload( fname, transfer );
+        dl.call();
+
+        assertThat( dl.getError(), nullValue() );
+        assertThat( readContent( transfer ), equalTo( new String( content ) ) );
+        assertThat( transfer.getSiblingMeta( CacheProvider.SUFFIX_PARTIAL ).exists(), equalTo( false ) );
+        assertThat( transfer.getSiblingMeta( CacheProvider.SUFFIX_PARTIAL + HttpExchangeMetadata.FILE_EXTENSION )
+                            .exists(), equalTo( false ) );
+    }
+
+    @Test
+    public void segmentedDownloadAssemblesRanges()
+        throws Exception
+    {
+        final String fname = "segmented.jar";
+        final byte[] content = newContent( 64 * 1024 );
+        final ScriptedHttpServer.Responder ranged = ScriptedHttpServer.rangedContent( content, "\"v1\"" );
+        final CountDownLatch rangesServed = new CountDownLatch( 3 );
+        fixture.getScriptedServer().expect( "/" + fname, ( exchange ) -> {
+            if ( exchange.getRequestHeaders().getFirst( "Range" ) != null )
+            {
+                ranged.respond( exchange );
+                rangesServed.countDown();
+                return;
+            }
+
+            // send the first segment, then trickle the rest so the range requests get to take over.
+            ScriptedHttpServer.addValidators( exchange, "\"v1\"" );
+            exchange.sendResponseHeaders( 200, content.length );
+            final OutputStream out = exchange.getResponseBody();
+            out.write( content, 0, content.length / 4 );
+            out.flush();
+            try
+            {
+                rangesServed.await( 10, TimeUnit.SECONDS );
+                for ( int off = content.length / 4; off < content.length; off += 1024 )
+                {
+                    out.write( content, off, Math.min( 1024, content.length - off ) );
+                    out.flush();
+                    Thread.sleep( 10 );
+                }
+            }
+            catch ( final InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+            out.close();
+        } );
+
+        final Transfer transfer = segmentedDownload( fname );
+
+        assertThat( Arrays.equals( readBytes( transfer ), content ), equalTo( true ) );
+        assertThat( rangeRequests( fname ), equalTo( 3 ) );
+    }
+
+    @Test
+    public void segmentedDownloadFinishesFromInitialResponseWhenRangesAreIgnored()
+        throws Exception
+    {
+        final String fname = "segments-ignored.jar";
+        final byte[] content = newContent( 64 * 1024 );
+        fixture.getScriptedServer().expect( "/" + fname, ScriptedHttpServer.ignoringRanges( content, "\"v1\"" ) );
+
+        final Transfer transfer = segmentedDownload( fname );
+
+        assertThat( Arrays.equals( readBytes( transfer ), content ), equalTo( true ) );
+    }
+
+    @Test
+    public void failedSegmentFallsBackToInitialResponse()
+        throws Exception
+    {
+        final String fname = "segment-failed.jar";
+        final byte[] content = newContent( 64 * 1024 );
+        fixture.getScriptedServer().expect( "/" + fname, ( exchange ) -> {
+            ScriptedHttpServer.addValidators( exchange, "\"v1\"" );
+            if ( exchange.getRequestHeaders().getFirst( "Range" ) == null )
+            {
+                ScriptedHttpServer.send( exchange, 200, content );
+            }
+            else
+            {
+                ScriptedHttpServer.send( exchange, 500, "segment failed".getBytes() );
+            }
+        } );
+
+        final Transfer transfer = segmentedDownload( fname );
+
+        assertThat( Arrays.equals( readBytes( transfer ), content ), equalTo( true ) );
+        assertThat( rangeRequests( fname ) > 0, equalTo( true ) );
+    }
+
+    @Test( timeout = 20000 )
+    public void stalledSegmentsDoNotHoldUpInitialResponse()
+        throws Exception
+    {
+        final String fname = "segments-stalled.jar";
+        final byte[] content = newContent( 64 * 1024 );
+        final CountDownLatch release = new CountDownLatch( 1 );
+        fixture.getScriptedServer().expect( "/" + fname, ( exchange ) -> {
+            ScriptedHttpServer.addValidators( exchange, "\"v1\"" );
+            if ( exchange.getRequestHeaders().getFirst( "Range" ) != null )
+            {
+                try
+                {
+                    release.await();
+                }
+                catch ( final InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            ScriptedHttpServer.send( exchange, 200, content );
+        } );
+
+        try
+        {
+            final Transfer transfer = segmentedDownload( fname );
+
+            assertThat( Arrays.equals( readBytes( transfer ), content ), equalTo( true ) );
+
+            final File dir = fixture.getCache().getDetachedFile( transfer.getResource() ).getParentFile();
+            assertThat( dir.list( ( d, name ) -> name.contains( ".segment-" ) ).length, equalTo( 0 ) );
+        }
+        finally
+        {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void notModifiedRevalidationKeepsCachedContent()
+        throws Exception
+    {
+        final String fname = "revalidated.pom";
+        final String etag = "\"v1\"";
+        final String lastModified = "Mon, 05 Oct 2026 10:00:00 GMT";
+        final ScriptedHttpServer server = fixture.getScriptedServer();
+        server.expect( "/" + fname, ( exchange ) -> {
+            if ( etag.equals( exchange.getRequestHeaders().getFirst( "If-None-Match" ) ) )
+            {
+                ScriptedHttpServer.send( exchange, 304, new byte[0] );
+                return;
+            }
+
+            exchange.getResponseHeaders().add( "ETag", etag );
+            exchange.getResponseHeaders().add( "Last-Modified", lastModified );
+            ScriptedHttpServer.send( exchange, 200, "original content".getBytes() );
+        } );
+
+        final Transfer transfer = scriptedTransfer( fname );
+        final HttpDownload first = newDownload( fname, transfer );
+        first.call();
+        assertThat( first.getError(), nullValue() );
+
+        final Transfer metadata = transfer.getSiblingMeta( HttpExchangeMetadata.FILE_EXTENSION );
+        final String storedMetadata = readContent( metadata );
+
+        // the cached copy has expired.
+        final File cached = fixture.getCache().getDetachedFile( transfer.getResource() );
+        cached.setLastModified( System.currentTimeMillis() - TimeUnit.HOURS.toMillis( 1 ) );
+
+        final HttpDownload revalidation = newDownload( fname, transfer );
+        revalidation.call();
+        assertThat( revalidation.getError(), nullValue() );
+
+        final List<Headers> requests = server.getRequests( fname );
+        assertThat( requests.size(), equalTo( 2 ) );
+        assertThat( requests.get( 1 ).getFirst( "If-None-Match" ), equalTo( etag ) );
+        assertThat( requests.get( 1 ).getFirst( "If-Modified-Since" ), equalTo( lastModified ) );
+
+        assertThat( readContent( transfer ), equalTo( "original content" ) );
+        assertThat( readContent( metadata ), equalTo( storedMetadata ) );
+        assertThat( System.currentTimeMillis() - cached.lastModified() < TimeUnit.MINUTES.toMillis( 1 ),
+                    equalTo( true ) );
+    }
+
+    /**
+     * Download the file in 4 segments, checking it succeeded.
+     */
+    private Transfer segmentedDownload( final String fname )
+        throws Exception
+    {
+        final SimpleHttpLocation location = scriptedLocation();
+        location.setAttribute( Location.SEGMENTED_DOWNLOAD_THRESHOLD, 1024L );
+        location.setAttribute( Location.DOWNLOAD_SEGMENTS, 4 );
+        final Transfer transfer = fixture.getTransfer( new ConcreteResource( location, fname ) );
+
+        final ExecutorService segmentExecutor = Executors.newFixedThreadPool( 3 );
+        try
+        {
+            final HttpDownload dl =
+                    new HttpDownload( fixture.getScriptedServer().formatUrl( fname ), location, transfer,
+                                      new HashMap<Transfer, Long>(), new EventMetadata(), fixture.getHttp(),
+                                      new ObjectMapper(), true, segmentExecutor );
+            dl.call();
+
+            assertThat( dl.getError(), nullValue() );
+        }
+        finally
+        {
+            segmentExecutor.shutdownNow();
+        }
+
+        return transfer;
+    }
+
+    private int rangeRequests( final String fname )
+    {
+        int ranges = 0;
+        for ( final Headers request : fixture.getScriptedServer().getRequests( fname ) )
+        {
+            if ( request.getFirst( "Range" ) != null )
+            {
+                ranges++;
+            }
+        }
+
+        return ranges;
+    }
+
+    private byte[] newContent( final int length )
+    {
+        final byte[] content = new byte[length];
+        new Random( length ).nextBytes( content );
+        return content;
+    }
+
+    private SimpleHttpLocation scriptedLocation()
+        throws Exception
+    {
+        return new SimpleHttpLocation( "test", fixture.getScriptedServer().getBaseUri(), true, true, true, true,
+                                       null );
+    }
+
+    private Transfer scriptedTransfer( final String fname )
+        throws Exception
+    {
+        return fixture.getTransfer( new ConcreteResource( scriptedLocation(), fname ) );
+    }
+
+    private HttpDownload newDownload( final String fname, final Transfer transfer )
+    {
+        return new HttpDownload( fixture.getScriptedServer().formatUrl( fname ),
+                                 (SimpleHttpLocation) transfer.getLocation(), transfer,
+                                 new HashMap<Transfer, Long>(), new EventMetadata(), fixture.getHttp(),
+                                 new ObjectMapper() );
+    }
+
+    /**
+     * Leave the state an interrupted download would: the bytes received so far, and the validators of that exchange.
+     */
+    private void writePartial( final Transfer transfer, final byte[] partial, final String etag )
+        throws Exception
+    {
+        OutputStream out = transfer.getSiblingMeta( CacheProvider.SUFFIX_PARTIAL )
+                                   .openOutputStream( TransferOperation.DOWNLOAD, false );
+        out.write( partial );
+        out.close();
+
+        final HttpExchangeMetadata metadata = new HttpExchangeMetadata();
+        metadata.getResponseHeaders().put( "ETAG", Collections.singletonList( etag ) );
+        metadata.getResponseHeaders().put( "ACCEPT-RANGES", Collections.singletonList( "bytes" ) );
+        out = transfer.getSiblingMeta( CacheProvider.SUFFIX_PARTIAL + HttpExchangeMetadata.FILE_EXTENSION )
+                      .openOutputStream( TransferOperation.GENERATE, false );
+        out.write( new ObjectMapper().writeValueAsBytes( metadata ) );
+        out.close();
+    }
+
+    private String readContent( final Transfer transfer )
+        throws Exception
+    {
+        return new String( readBytes( transfer ) );
+    }
+
+    private byte[] readBytes( final Transfer transfer )
+        throws Exception
+    {
+        final InputStream in = transfer.openInputStream( false );
+        try
+        {
+            return IOUtils.toByteArray( in );
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
 }
@@ -43,6 +43,8 @@ public class HttpTestFixture
 
     public final ExpectationServer server;
 
+    public final ScriptedHttpServer scriptedServer = new ScriptedHttpServer();
+
     private final FileEventManager events;
 
     private final TransferDecorator decorator;
@@ -91,6 +93,7 @@ public class HttpTestFixture
     @Override
     protected void after()
     {
+        scriptedServer.stop();
         server.after();
         folder.delete();
         super.after();
@@ -102,6 +105,7 @@ public class HttpTestFixture
     {
         super.before();
         server.before();
+        scriptedServer.start();
     }
 
     public TemporaryFolder getFolder()
@@ -114,6 +118,11 @@ public class HttpTestFixture
         return server;
     }
 
+    public ScriptedHttpServer getScriptedServer()
+    {
+        return scriptedServer;
+    }
+
     public FileEventManager getEvents()
     {
         return events;
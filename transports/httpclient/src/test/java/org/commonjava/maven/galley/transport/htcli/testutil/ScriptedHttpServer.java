@@ -0,0 +1,192 @@
+/**
+ * Copyright (C) 2013 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.galley.transport.htcli.testutil;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Small HTTP server for exchanges the {@link org.commonjava.test.http.expect.ExpectationServer} can't script: it lets
+ * a test look at request headers (Range, If-Range, If-None-Match...) and answer with its own status and headers. The
+ * headers of every request are recorded per path.
+ */
+public class ScriptedHttpServer
+{
+
+    public interface Responder
+    {
+        void respond( HttpExchange exchange )
+            throws IOException;
+    }
+
+    private final Map<String, Responder> responders = new ConcurrentHashMap<String, Responder>();
+
+    private final Map<String, List<Headers>> requests = new ConcurrentHashMap<String, List<Headers>>();
+
+    private HttpServer server;
+
+    private ExecutorService executor;
+
+    public void start()
+        throws IOException
+    {
+        server = HttpServer.create( new InetSocketAddress( "127.0.0.1", 0 ), 0 );
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor( executor );
+        server.createContext( "/", ( exchange ) -> {
+            final String path = exchange.getRequestURI().getPath();
+            final List<Headers> seen = requests.computeIfAbsent( path, ( p ) -> new ArrayList<Headers>() );
+            synchronized ( seen )
+            {
+                seen.add( exchange.getRequestHeaders() );
+            }
+
+            try
+            {
+                final Responder responder = responders.get( path );
+                if ( responder == null )
+                {
+                    send( exchange, 404, new byte[0] );
+                }
+                else
+                {
+                    responder.respond( exchange );
+                }
+            }
+            catch ( final IOException e )
+            {
+                // the client went away, which some tests do on purpose.
+            }
+            finally
+            {
+                exchange.close();
+            }
+        } );
+        server.start();
+    }
+
+    public void stop()
+    {
+        if ( server != null )
+        {
+            server.stop( 0 );
+            executor.shutdownNow();
+        }
+    }
+
+    public void expect( final String path, final Responder responder )
+    {
+        responders.put( path, responder );
+    }
+
+    public String getBaseUri()
+    {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    public String formatUrl( final String path )
+    {
+        return getBaseUri() + ( path.startsWith( "/" ) ? path.substring( 1 ) : path );
+    }
+
+    /**
+     * Request headers of every request made for the given path, in arrival order.
+     */
+    public List<Headers> getRequests( final String path )
+    {
+        final List<Headers> seen = requests.get( path.startsWith( "/" ) ? path : "/" + path );
+        if ( seen == null )
+        {
+            return new ArrayList<Headers>();
+        }
+
+        synchronized ( seen )
+        {
+            return new ArrayList<Headers>( seen );
+        }
+    }
+
+    /**
+     * Serve the content like a range-capable server: ranges are honored unless an If-Range validator doesn't match the
+     * given ETag, in which case the whole (current) content is sent.
+     */
+    public static Responder rangedContent( final byte[] content, final String etag )
+    {
+        return ( exchange ) -> {
+            addValidators( exchange, etag );
+
+            final String range = exchange.getRequestHeaders().getFirst( "Range" );
+            final String ifRange = exchange.getRequestHeaders().getFirst( "If-Range" );
+            if ( range == null || ( ifRange != null && !ifRange.equals( etag ) ) )
+            {
+                send( exchange, 200, content );
+                return;
+            }
+
+            final String[] bounds = range.substring( "bytes=".length() ).split( "-", -1 );
+            final int start = Integer.parseInt( bounds[0] );
+            final int end = bounds[1].isEmpty() ? content.length - 1 : Integer.parseInt( bounds[1] );
+            exchange.getResponseHeaders()
+                    .add( "Content-Range", "bytes " + start + "-" + end + "/" + content.length );
+            send( exchange, 206, Arrays.copyOfRange( content, start, end + 1 ) );
+        };
+    }
+
+    /**
+     * Advertise range support, but answer every request with the whole content.
+     */
+    public static Responder ignoringRanges( final byte[] content, final String etag )
+    {
+        return ( exchange ) -> {
+            addValidators( exchange, etag );
+            send( exchange, 200, content );
+        };
+    }
+
+    public static void addValidators( final HttpExchange exchange, final String etag )
+    {
+        exchange.getResponseHeaders().add( "ETag", etag );
+        exchange.getResponseHeaders().add( "Accept-Ranges", "bytes" );
+    }
+
+    public static void send( final HttpExchange exchange, final int status, final byte[] body )
+        throws IOException
+    {
+        if ( body.length == 0 )
+        {
+            exchange.sendResponseHeaders( status, -1 );
+            return;
+        }
+
+        exchange.sendResponseHeaders( status, body.length );
+        final OutputStream out = exchange.getResponseBody();
+        out.write( body );
+        out.close();
+    }
+
+}
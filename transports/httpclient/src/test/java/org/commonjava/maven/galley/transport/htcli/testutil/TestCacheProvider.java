@@ -33,7 +33,7 @@ import org.commonjava.maven.galley.spi.event.FileEventManager;
 import org.commonjava.maven.galley.spi.io.TransferDecorator;
 
 public class TestCacheProvider
-    implements CacheProvider
+    implements CacheProvider, CacheProvider.AdminView
 {
 
     private final File dir;
@@ -176,6 +176,7 @@ public class TestCacheProvider
         return getDetachedFile( resource ).list();
     }
 
+    @Override
     public File getDetachedFile( final ConcreteResource resource )
     {
         return new File( new File( dir, resource.getLocationName() ), resource.getPath() );
@@ -228,58 +229,70 @@ public class TestCacheProvider
         return getDetachedFile( resource ).lastModified();
     }
 
+    @Override
+    public void markFresh( final ConcreteResource resource )
+    {
+        getDetachedFile( resource ).setLastModified( System.currentTimeMillis() );
+    }
+
     @Override
     public boolean isReadLocked( final ConcreteResource resource )
     {
-        return lockingSupport.isLocked( resource );
+        return lockingSupport.isReadLocked( resource );
     }
 
     @Override
     public boolean isWriteLocked( final ConcreteResource resource )
     {
-        return lockingSupport.isLocked( resource );
+        return lockingSupport.isWriteLocked( resource );
     }
 
     @Override
     public void unlockRead( final ConcreteResource resource )
     {
-        lockingSupport.unlock( resource );
+        lockingSupport.unlockRead( resource );
     }
 
     @Override
     public void unlockWrite( final ConcreteResource resource )
     {
-        lockingSupport.unlock( resource );
+        lockingSupport.unlockWrite( resource );
     }
 
     @Override
     public void lockRead( final ConcreteResource resource )
     {
-        lockingSupport.lock( resource );
+        lockingSupport.lockRead( resource );
     }
 
     @Override
     public void lockWrite( final ConcreteResource resource )
     {
-        lockingSupport.lock( resource );
+        lockingSupport.lockWrite( resource );
     }
 
     @Override
     public void waitForWriteUnlock( final ConcreteResource resource )
     {
-        lockingSupport.waitForUnlock( resource );
+        lockingSupport.waitForWriteUnlock( resource );
     }
 
     @Override
     public void waitForReadUnlock( final ConcreteResource resource )
     {
-        lockingSupport.waitForUnlock( resource );
+        lockingSupport.waitForReadUnlock( resource );
     }
 
     @Override
     public AdminView asAdminView()
     {
-        throw new UnsupportedOperationException( "No support for AdminView" );
+        return this;
+    }
+
+    @Override
+    public boolean isFileBased()
+    {
+        return true;
     }
 
     @Override